@@ -66,6 +66,14 @@ public abstract class AbstractTransportListener implements TransportListener {
     protected WorkerPool workerPool = null;
     /** use the thread pool available in the axis2 configuration context */
     protected boolean useAxis2ThreadPool = false;
+    /** default number of core threads of the worker pool, unless set in the axis2.xml */
+    protected int workerPoolCoreSize = 0;
+    /** default maximum number of threads of the worker pool, unless set in the axis2.xml */
+    protected int workerPoolMaxSize = Integer.MAX_VALUE;
+    /** default keep alive time in seconds of idle worker threads, unless set in the axis2.xml */
+    protected int workerPoolKeepAlive = 5;
+    /** default worker pool queue length (0 for direct hand-off, -1 for unbounded) */
+    protected int workerPoolQueueLength = 0;
     /** JMX support */
     private TransportMBeanSupport mbeanSupport;
     /** Metrics collector for this transport */
@@ -98,7 +106,15 @@ public abstract class AbstractTransportListener implements TransportListener {
             throw new AxisFault("Unsupported thread pool for task execution - Axis2 thread pool");
         } else {
             this.workerPool = WorkerPoolFactory.getWorkerPool(
-	            0, Integer.MAX_VALUE, 5, 0, getTransportName() + "Server Worker thread group", getTransportName() + "-Worker");
+                ParamUtils.getOptionalParamInt(
+                    transportIn, BaseConstants.PARAM_WORKER_POOL_CORE_SIZE, workerPoolCoreSize),
+                ParamUtils.getOptionalParamInt(
+                    transportIn, BaseConstants.PARAM_WORKER_POOL_MAX_SIZE, workerPoolMaxSize),
+                ParamUtils.getOptionalParamInt(
+                    transportIn, BaseConstants.PARAM_WORKER_POOL_KEEP_ALIVE, workerPoolKeepAlive),
+                ParamUtils.getOptionalParamInt(
+                    transportIn, BaseConstants.PARAM_WORKER_POOL_QUEUE_LENGTH, workerPoolQueueLength),
+                getTransportName() + "Server Worker thread group", getTransportName() + "-Worker");
         }
 
         // register to receive updates on services for lifetime management
@@ -146,7 +162,7 @@ public abstract class AbstractTransportListener implements TransportListener {
     }
 
     public void stop() throws AxisFault {
-        if (state == BaseConstants.STARTED) {
+        if (state == BaseConstants.STARTED || state == BaseConstants.PAUSED) {
             state = BaseConstants.STOPPED;
             // cancel receipt of service lifecycle events
             log.info(getTransportName().toUpperCase() + " Listener Shutdown");
@@ -222,8 +238,18 @@ public abstract class AbstractTransportListener implements TransportListener {
             disableTransportForService(service);
             return;
         }
-        registerMBean(new TransportListenerEndpointView(this, serviceName),
-                      getEndpointMBeanName(serviceName));
+        registerMBean(createEndpointView(serviceName), getEndpointMBeanName(serviceName));
+    }
+
+    /**
+     * Create the MBean registered for a service this listener listens for. Transports
+     * exposing additional per service information may return a subclass of
+     * {@link TransportListenerEndpointView}.
+     * @param serviceName the name of the service
+     * @return the endpoint MBean instance
+     */
+    protected TransportListenerEndpointView createEndpointView(String serviceName) {
+        return new TransportListenerEndpointView(this, serviceName);
     }
 
     void internalStopListeningForService(AxisService service) {
@@ -484,6 +510,62 @@ public abstract class AbstractTransportListener implements TransportListener {
         return null;
     }
 
+    public long getCompressedMessagesReceived() {
+        if (metrics != null) {
+            return metrics.getCompressedMessagesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesReceived() {
+        if (metrics != null) {
+            return metrics.getCompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesReceived() {
+        if (metrics != null) {
+            return metrics.getUncompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedMessagesSent() {
+        if (metrics != null) {
+            return metrics.getCompressedMessagesSent();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesSent() {
+        if (metrics != null) {
+            return metrics.getCompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesSent() {
+        if (metrics != null) {
+            return metrics.getUncompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioReceived() {
+        if (metrics != null) {
+            return metrics.getCompressionRatioReceived();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioSent() {
+        if (metrics != null) {
+            return metrics.getCompressionRatioSent();
+        }
+        return -1;
+    }
+
     public void resetStatistics() {
         if (metrics != null) {
             metrics.reset();
@@ -507,13 +589,22 @@ public abstract class AbstractTransportListener implements TransportListener {
     private String getEndpointMBeanName(String serviceName) {
         return mbeanSupport.getMBeanName() + ",Group=Services,Service=" + serviceName;
     }
+
+    /**
+     * Get the object name of the {@link TransportView} MBean of this listener. Transports
+     * registering additional MBeans should use this name as a prefix.
+     * @return the object name of the transport MBean
+     */
+    protected String getMBeanName() {
+        return mbeanSupport.getMBeanName().toString();
+    }
     
     /**
      * Utility method to allow transports to register MBeans
      * @param mbeanInstance bean instance
      * @param objectName name
      */
-    private void registerMBean(Object mbeanInstance, String objectName) {
+    protected void registerMBean(Object mbeanInstance, String objectName) {
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             ObjectName name = new ObjectName(objectName);
@@ -530,7 +621,11 @@ public abstract class AbstractTransportListener implements TransportListener {
         }
     }
     
-    private void unregisterMBean(String objectName) {
+    /**
+     * Utility method to allow transports to unregister MBeans
+     * @param objectName name
+     */
+    protected void unregisterMBean(String objectName) {
         try {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             ObjectName objName = new ObjectName(objectName);
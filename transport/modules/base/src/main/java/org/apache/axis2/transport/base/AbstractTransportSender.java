@@ -18,6 +18,7 @@
 */
 package org.apache.axis2.transport.base;
 
+import java.lang.management.ManagementFactory;
 import java.util.Map;
 import java.util.Set;
 
@@ -380,6 +381,62 @@ public abstract class AbstractTransportSender extends AbstractHandler implements
         return null;
     }
 
+    public long getCompressedMessagesReceived() {
+        if (metrics != null) {
+            return metrics.getCompressedMessagesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesReceived() {
+        if (metrics != null) {
+            return metrics.getCompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesReceived() {
+        if (metrics != null) {
+            return metrics.getUncompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedMessagesSent() {
+        if (metrics != null) {
+            return metrics.getCompressedMessagesSent();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesSent() {
+        if (metrics != null) {
+            return metrics.getCompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesSent() {
+        if (metrics != null) {
+            return metrics.getUncompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioReceived() {
+        if (metrics != null) {
+            return metrics.getCompressionRatioReceived();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioSent() {
+        if (metrics != null) {
+            return metrics.getCompressionRatioSent();
+        }
+        return -1;
+    }
+
     public void resetStatistics() {
         if (metrics != null) {
             metrics.reset();
@@ -400,8 +457,23 @@ public abstract class AbstractTransportSender extends AbstractHandler implements
         return -1;
     } 
 
-    private void registerMBean(MBeanServer mbs, Object mbeanInstance, String objectName) {
+    /**
+     * Get the object name of the {@link TransportView} MBean of this sender. Transports
+     * registering additional MBeans should use this name as a prefix.
+     * @return the object name of the transport MBean
+     */
+    protected String getMBeanName() {
+        return mbeanSupport.getMBeanName().toString();
+    }
+
+    /**
+     * Utility method to allow transports to register MBeans
+     * @param mbeanInstance bean instance
+     * @param objectName name
+     */
+    protected void registerMBean(Object mbeanInstance, String objectName) {
         try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             ObjectName name = new ObjectName(objectName);
             Set set = mbs.queryNames(name, null);
             if (set != null && set.isEmpty()) {
@@ -416,4 +488,20 @@ public abstract class AbstractTransportSender extends AbstractHandler implements
         }
     }
 
+    /**
+     * Utility method to allow transports to unregister MBeans
+     * @param objectName name
+     */
+    protected void unregisterMBean(String objectName) {
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName(objectName);
+            if (mbs.isRegistered(objName)) {
+                mbs.unregisterMBean(objName);
+            }
+        } catch (Exception e) {
+            log.warn("Error un-registering a MBean with objectname ' " + objectName +
+                " ' for JMX management", e);
+        }
+    }
 }
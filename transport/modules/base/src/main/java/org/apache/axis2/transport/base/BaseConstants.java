@@ -53,6 +53,18 @@ public class BaseConstants {
      * The property specifying an optional message level metrics collector
      */
     public static final String METRICS_COLLECTOR = "METRICS_COLLECTOR";    
+    /**
+     * Identifier of the GZIP compression format
+     */
+    public static final String COMPRESSION_GZIP = "gzip";
+    /**
+     * Identifier of the DEFLATE compression format (zlib wrapped)
+     */
+    public static final String COMPRESSION_DEFLATE = "deflate";
+    /**
+     * Identifier indicating that messages are not compressed
+     */
+    public static final String COMPRESSION_NONE = "none";
 
     //------------------------------------ defaults ------------------------------------
     /**
@@ -99,6 +111,16 @@ public class BaseConstants {
      */
     public static final int DEFAULT_POLL_INTERVAL = 5 * 60 * 1000; // 5 mins by default
 
+    //-------------------------- axis2.xml transport parameters -------------------------
+    /** The parameter specifying the number of core threads of the listener worker pool */
+    public static final String PARAM_WORKER_POOL_CORE_SIZE = "transport.WorkerPoolCoreSize";
+    /** The parameter specifying the maximum number of threads of the listener worker pool */
+    public static final String PARAM_WORKER_POOL_MAX_SIZE = "transport.WorkerPoolMaxSize";
+    /** The parameter specifying the idle thread keep alive time (in seconds) of the worker pool */
+    public static final String PARAM_WORKER_POOL_KEEP_ALIVE = "transport.WorkerPoolKeepAlive";
+    /** The parameter specifying the task queue length of the worker pool (-1 for unbounded) */
+    public static final String PARAM_WORKER_POOL_QUEUE_LENGTH = "transport.WorkerPoolQueueLength";
+
     public static final String CALLBACK_TABLE = "callbackTable";
     public static final String HEADER_IN_REPLY_TO = "In-Reply-To";
 
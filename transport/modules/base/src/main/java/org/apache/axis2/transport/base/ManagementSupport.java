@@ -43,6 +43,14 @@ public interface ManagementSupport {
     public long getMaxSizeSent();
     public double getAvgSizeSent();
     public Map getResponseCodeTable();
+    public long getCompressedMessagesReceived();
+    public long getCompressedBytesReceived();
+    public long getUncompressedBytesReceived();
+    public long getCompressedMessagesSent();
+    public long getCompressedBytesSent();
+    public long getUncompressedBytesSent();
+    public double getCompressionRatioReceived();
+    public double getCompressionRatioSent();
 
     public void resetStatistics();
     public long getLastResetTime();
@@ -53,6 +53,15 @@ public class MetricsCollector {
     private long maxSizeSent;
     private double avgSizeSent;
 
+    private long compressedMessagesReceived;
+    private long compressedBytesReceived;
+    private long uncompressedBytesReceived;
+    private long compressedMessagesSent;
+    private long compressedBytesSent;
+    private long uncompressedBytesSent;
+
+    private long deadLetters;
+
     private final Map<Integer, Long> responseCodeTable =
         Collections.synchronizedMap(new HashMap<Integer, Long>());
 
@@ -75,6 +84,15 @@ public class MetricsCollector {
         maxSizeSent       = 0;
         avgSizeSent       = 0;
 
+        compressedMessagesReceived = 0;
+        compressedBytesReceived    = 0;
+        uncompressedBytesReceived  = 0;
+        compressedMessagesSent     = 0;
+        compressedBytesSent        = 0;
+        uncompressedBytesSent      = 0;
+
+        deadLetters       = 0;
+
         responseCodeTable.clear();
         lastResetTime = System.currentTimeMillis();
     }
@@ -151,6 +169,62 @@ public class MetricsCollector {
         return responseCodeTable;
     }
 
+    public long getCompressedMessagesReceived() {
+        return compressedMessagesReceived;
+    }
+
+    public long getCompressedBytesReceived() {
+        return compressedBytesReceived;
+    }
+
+    public long getUncompressedBytesReceived() {
+        return uncompressedBytesReceived;
+    }
+
+    public long getCompressedMessagesSent() {
+        return compressedMessagesSent;
+    }
+
+    public long getCompressedBytesSent() {
+        return compressedBytesSent;
+    }
+
+    public long getUncompressedBytesSent() {
+        return uncompressedBytesSent;
+    }
+
+    /**
+     * Get the number of messages moved to a dead letter queue after failing to be processed
+     * or sent.
+     * 
+     * @return the number of dead letters
+     */
+    public long getDeadLetters() {
+        return deadLetters;
+    }
+
+    /**
+     * Get the compression ratio (uncompressed size / compressed size) of the compressed
+     * messages received.
+     * 
+     * @return the compression ratio, or 0 if no compressed message has been received
+     */
+    public synchronized double getCompressionRatioReceived() {
+        return compressedBytesReceived == 0 ? 0 :
+            (double) uncompressedBytesReceived / compressedBytesReceived;
+    }
+
+    /**
+     * Get the compression ratio (uncompressed size / compressed size) of the compressed
+     * messages sent.
+     * 
+     * @return the compression ratio, or 0 if no compressed message has been sent
+     */
+    public synchronized double getCompressionRatioSent() {
+        return compressedBytesSent == 0 ? 0 :
+            (double) uncompressedBytesSent / compressedBytesSent;
+    }
+
     public synchronized void incrementMessagesReceived() {
         messagesReceived++;
     }
@@ -182,6 +256,10 @@ public class MetricsCollector {
     public synchronized void incrementBytesSent(long size) {
         bytesSent += size;
     }
+
+    public synchronized void incrementDeadLetters() {
+        deadLetters++;
+    }
     
     public synchronized void notifyReceivedMessageSize(long size) {
         if (minSizeReceived == 0 || size < minSizeReceived) {
@@ -203,6 +281,32 @@ public class MetricsCollector {
         avgSizeSent = (avgSizeSent == 0 ? size : (avgSizeSent + size) / 2);
     }
 
+    /**
+     * Notify the reception of a compressed message.
+     * 
+     * @param compressedSize the number of bytes received on the wire
+     * @param uncompressedSize the size of the message after decompression
+     */
+    public synchronized void notifyCompressedMessageReceived(long compressedSize,
+                                                             long uncompressedSize) {
+        compressedMessagesReceived++;
+        compressedBytesReceived += compressedSize;
+        uncompressedBytesReceived += uncompressedSize;
+    }
+
+    /**
+     * Notify the transmission of a compressed message.
+     * 
+     * @param compressedSize the number of bytes sent on the wire
+     * @param uncompressedSize the size of the message before compression
+     */
+    public synchronized void notifyCompressedMessageSent(long compressedSize,
+                                                         long uncompressedSize) {
+        compressedMessagesSent++;
+        compressedBytesSent += compressedSize;
+        uncompressedBytesSent += uncompressedSize;
+    }
+
     public void reportResponseCode(int respCode) {
         synchronized(responseCodeTable) {
             Object o = responseCodeTable.get(respCode);
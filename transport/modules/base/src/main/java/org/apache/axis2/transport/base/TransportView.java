@@ -179,6 +179,78 @@ public class TransportView implements TransportViewMBean {
         return null;
     }    
 
+    public long getCompressedMessagesReceived() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressedMessagesReceived();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressedMessagesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesReceived() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressedBytesReceived();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesReceived() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getUncompressedBytesReceived();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getUncompressedBytesReceived();
+        }
+        return -1;
+    }
+
+    public long getCompressedMessagesSent() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressedMessagesSent();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressedMessagesSent();
+        }
+        return -1;
+    }
+
+    public long getCompressedBytesSent() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressedBytesSent();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public long getUncompressedBytesSent() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getUncompressedBytesSent();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getUncompressedBytesSent();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioReceived() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressionRatioReceived();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressionRatioReceived();
+        }
+        return -1;
+    }
+
+    public double getCompressionRatioSent() {
+        if (listener != null && listener instanceof ManagementSupport) {
+            return ((ManagementSupport) listener).getCompressionRatioSent();
+        } else if (sender != null && sender instanceof ManagementSupport) {
+            return ((ManagementSupport) sender).getCompressionRatioSent();
+        }
+        return -1;
+    }
+
     public int getActiveThreadCount() {
         if (listener != null && listener instanceof ManagementSupport) {
             return ((ManagementSupport) listener).getActiveThreadCount();
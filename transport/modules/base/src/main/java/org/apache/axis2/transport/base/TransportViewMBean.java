@@ -40,6 +40,14 @@ public interface TransportViewMBean {
     public int  getActiveThreadCount();
     public int getQueueSize();
     public Map getResponseCodeTable();
+    public long getCompressedMessagesReceived();
+    public long getCompressedBytesReceived();
+    public long getUncompressedBytesReceived();
+    public long getCompressedMessagesSent();
+    public long getCompressedBytesSent();
+    public long getUncompressedBytesSent();
+    public double getCompressionRatioReceived();
+    public double getCompressionRatioSent();
 
     // JMX Operations
     public void start() throws Exception;
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.axis2.transport.base.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.axis2.transport.base.BaseConstants;
+
+/**
+ * {@link OutputStream} implementation that compresses the data written to it using
+ * GZIP or DEFLATE (zlib format), provided that the amount of data reaches a given
+ * threshold. Data is buffered until the threshold is reached; if the stream is finished
+ * before that, the buffered data is written to the underlying stream uncompressed.
+ * Since the GZIP and zlib headers can't be confused with the first bytes of an XML
+ * document, the receiver may use {@link DecompressingInputStream} to detect whether
+ * the data was compressed.
+ * <p>
+ * {@link #flush()} has no effect until the threshold is reached, and {@link #finish()}
+ * must be called to complete the compressed stream without closing the underlying stream.
+ * <p>
+ * Instances of {@link CompressingOutputStream} are not thread safe.
+ */
+public class CompressingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final String encoding;
+    private final int level;
+    private final int threshold;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private DeflaterOutputStream compressor;
+    private Deflater deflater;
+    private long byteCount;
+    private boolean finished;
+
+    /**
+     * Constructor.
+     * 
+     * @param out the underlying stream
+     * @param encoding {@link BaseConstants#COMPRESSION_GZIP} or
+     *        {@link BaseConstants#COMPRESSION_DEFLATE}
+     * @param level the compression level (0-9), or {@link Deflater#DEFAULT_COMPRESSION}
+     * @param threshold the number of bytes below which the data is not compressed
+     */
+    public CompressingOutputStream(OutputStream out, String encoding, int level, int threshold) {
+        if (!BaseConstants.COMPRESSION_GZIP.equals(encoding)
+                && !BaseConstants.COMPRESSION_DEFLATE.equals(encoding)) {
+            throw new IllegalArgumentException("Unsupported compression " + encoding);
+        }
+        this.out = out;
+        this.encoding = encoding;
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Get the number of (uncompressed) bytes written to this stream.
+     * 
+     * @return the number of bytes written
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Check whether the data is being compressed, i.e. whether the threshold has been reached.
+     * 
+     * @return true if the data written to the underlying stream is compressed
+     */
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        byteCount++;
+        if (compressor != null) {
+            compressor.write(b);
+        } else {
+            buffer.write(b);
+            if (buffer.size() >= threshold) {
+                startCompression();
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream already finished");
+        }
+        byteCount += len;
+        if (compressor != null) {
+            compressor.write(b, off, len);
+        } else {
+            buffer.write(b, off, len);
+            if (buffer.size() >= threshold) {
+                startCompression();
+            }
+        }
+    }
+
+    private void startCompression() throws IOException {
+        if (BaseConstants.COMPRESSION_GZIP.equals(encoding)) {
+            LeveledGZIPOutputStream gzip = new LeveledGZIPOutputStream(out, level);
+            deflater = gzip.getDeflater();
+            compressor = gzip;
+        } else {
+            deflater = new Deflater(level);
+            compressor = new DeflaterOutputStream(out, deflater);
+        }
+        buffer.writeTo(compressor);
+        buffer.reset();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // The buffered data can't be written before we know if it needs to be compressed
+        if (compressor != null) {
+            compressor.flush();
+        }
+    }
+
+    /**
+     * Write any remaining data to the underlying stream, without closing it.
+     * 
+     * @throws IOException if an I/O error occurs
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (compressor != null) {
+            try {
+                compressor.finish();
+            } finally {
+                deflater.end();
+            }
+        } else if (buffer.size() > 0) {
+            buffer.writeTo(out);
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * {@link GZIPOutputStream} with a configurable compression level.
+     */
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+        public LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+
+        public Deflater getDeflater() {
+            return def;
+        }
+    }
+}
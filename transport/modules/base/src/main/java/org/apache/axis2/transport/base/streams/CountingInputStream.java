@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.axis2.transport.base.streams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * {@link FilterInputStream} implementation that counts the number of bytes read
+ * from the underlying stream. This is used by transports to update the byte counters
+ * of their {@link org.apache.axis2.transport.base.MetricsCollector} without buffering
+ * the message.
+ * <p>
+ * Instances of {@link CountingInputStream} are not thread safe.
+ */
+public class CountingInputStream extends FilterInputStream {
+    private long byteCount;
+
+    public CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            byteCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int c = in.read(b, off, len);
+        if (c > 0) {
+            byteCount += c;
+        }
+        return c;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long c = in.skip(n);
+        byteCount += c;
+        return c;
+    }
+
+    /**
+     * Mark/reset would make the count inaccurate, so it is not supported.
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.axis2.transport.base.streams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.axis2.transport.base.BaseConstants;
+
+/**
+ * {@link InputStream} implementation that detects whether the data read from the underlying
+ * stream is GZIP or DEFLATE (zlib format) compressed, and decompresses it if necessary.
+ * Detection relies on the headers of these formats, which don't match the first bytes of
+ * an XML document or a MIME multipart message. Data that is not compressed is passed
+ * through unchanged.
+ * <p>
+ * Detection happens lazily on the first read, or when {@link #getEncoding()} is called.
+ * It will therefore not block the caller before it actually starts to consume the data.
+ * <p>
+ * Instances of {@link DecompressingInputStream} are not thread safe.
+ */
+public class DecompressingInputStream extends FilterInputStream {
+    private boolean detected;
+    private String encoding;
+
+    public DecompressingInputStream(InputStream in) {
+        super(new PushbackInputStream(in, 2));
+    }
+
+    /**
+     * Get the compression detected on the underlying stream. This method blocks until the
+     * first bytes of the stream are available.
+     * 
+     * @return {@link BaseConstants#COMPRESSION_GZIP}, {@link BaseConstants#COMPRESSION_DEFLATE}
+     *         or <code>null</code> if the data is not compressed
+     * @throws IOException if an I/O error occurs
+     */
+    public String getEncoding() throws IOException {
+        if (!detected) {
+            detected = true;
+            PushbackInputStream pushback = (PushbackInputStream)in;
+            byte[] magic = new byte[2];
+            int len = 0;
+            while (len < 2) {
+                int c = pushback.read(magic, len, 2 - len);
+                if (c == -1) {
+                    break;
+                }
+                len += c;
+            }
+            pushback.unread(magic, 0, len);
+            if (len == 2) {
+                int b0 = magic[0] & 0xFF;
+                int b1 = magic[1] & 0xFF;
+                if (b0 == 0x1F && b1 == 0x8B) {
+                    encoding = BaseConstants.COMPRESSION_GZIP;
+                    in = new GZIPInputStream(pushback);
+                } else if ((b0 & 0x0F) == 8 && (b0 >> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0) {
+                    encoding = BaseConstants.COMPRESSION_DEFLATE;
+                    in = new InflaterInputStream(pushback);
+                }
+            }
+        }
+        return encoding;
+    }
+
+    @Override
+    public int read() throws IOException {
+        getEncoding();
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        getEncoding();
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        getEncoding();
+        return in.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return detected ? in.available() : 0;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro benchmarks of reading the body of a BytesMessage, as done for every message received
+ * by the JMS transport: through a {@link BytesMessageInputStream} at a non-zero offset, as the
+ * message builders do, and determining the body length through {@link JMSUtils#getBodyLength}.
+ *
+ * Run with <tt>mvn -Pbenchmark test-compile exec:java -pl modules/benchmark</tt>, passing JMH
+ * options with <tt>-Dexec.args=...</tt>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BytesMessageBenchmark {
+
+    @Param({"512", "16384", "262144"})
+    private int size;
+
+    private ActiveMQBytesMessage message;
+    private final byte[] buffer = new byte[4096];
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) i;
+        }
+        message = new ActiveMQBytesMessage();
+        message.writeBytes(body);
+        message.reset();
+    }
+
+    @Benchmark
+    public long readStream() throws Exception {
+        message.reset();
+        InputStream in = new BytesMessageInputStream(message);
+        long total = 0;
+        for (int read = in.read(buffer, 1, buffer.length - 1); read != -1;
+             read = in.read(buffer, 1, buffer.length - 1)) {
+            total += read;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void bodyLength(Blackhole blackhole) throws Exception {
+        blackhole.consume(JMSUtils.getBodyLength(message));
+    }
+
+    @Benchmark
+    public long messageSize() throws Exception {
+        return JMSUtils.getMessageSize(message);
+    }
+}
@@ -27,18 +27,40 @@ import javax.jms.MessageEOFException;
  * the underlying {@link BytesMessage} object, it is not possible to
  * use several instances of this class operating on a single
  * {@link BytesMessage} at the same time.
+ * <p>
+ * As {@link BytesMessage#readBytes(byte[], int)} always reads to the start of
+ * the array, reads at an offset go through a scratch buffer, which is allocated
+ * once per stream and reused.
+ * <p>
+ * The number of bytes read is counted, which gives the body length of a message
+ * whose JMS 1.0 provider does not implement {@link BytesMessage#getBodyLength()}
+ * once the message has been read.
  */
 public class BytesMessageInputStream extends InputStream {
+    /** The size of the scratch buffer used for reads at an offset and skips */
+    private static final int SCRATCH_SIZE = 4096;
+
     private final BytesMessage message;
+    private byte[] scratch;
+    private long count;
 
     public BytesMessageInputStream(BytesMessage message) {
         this.message = message;
     }
 
+    private byte[] getScratch() {
+        if (scratch == null) {
+            scratch = new byte[SCRATCH_SIZE];
+        }
+        return scratch;
+    }
+
     @Override
     public int read() throws JMSExceptionWrapper {
         try {
-            return message.readByte() & 0xFF;
+            int b = message.readByte() & 0xFF;
+            count++;
+            return b;
         } catch (MessageEOFException ex) {
             return -1;
         } catch (JMSException ex) {
@@ -48,28 +70,67 @@ public class BytesMessageInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws JMSExceptionWrapper {
-        if (off == 0) {
-            try {
-                return message.readBytes(b, len);
-            } catch (JMSException ex) {
-                throw new JMSExceptionWrapper(ex);
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            int c;
+            if (off == 0) {
+                c = message.readBytes(b, len);
+            } else {
+                // a short read is allowed, so a single scratch buffer is enough
+                byte[] buffer = getScratch();
+                c = message.readBytes(buffer, Math.min(len, buffer.length));
+                if (c > 0) {
+                    System.arraycopy(buffer, 0, b, off, c);
+                }
             }
-        } else {
-            byte[] b2 = new byte[len];
-            int c = read(b2);
             if (c > 0) {
-                System.arraycopy(b2, 0, b, off, c); 
+                count += c;
             }
             return c;
+        } catch (JMSException ex) {
+            throw new JMSExceptionWrapper(ex);
         }
     }
 
     @Override
     public int read(byte[] b) throws JMSExceptionWrapper {
         try {
-            return message.readBytes(b);
+            int c = message.readBytes(b);
+            if (c > 0) {
+                count += c;
+            }
+            return c;
         } catch (JMSException ex) {
             throw new JMSExceptionWrapper(ex);
         }
     }
+
+    @Override
+    public long skip(long n) throws JMSExceptionWrapper {
+        long skipped = 0;
+        try {
+            byte[] buffer = getScratch();
+            while (skipped < n) {
+                int c = message.readBytes(buffer, (int) Math.min(n - skipped, buffer.length));
+                if (c <= 0) {
+                    break;
+                }
+                skipped += c;
+            }
+            count += skipped;
+        } catch (JMSException ex) {
+            throw new JMSExceptionWrapper(ex);
+        }
+        return skipped;
+    }
+
+    /**
+     * Get the number of bytes read or skipped so far
+     * @return the number of bytes read
+     */
+    public long getByteCount() {
+        return count;
+    }
 }
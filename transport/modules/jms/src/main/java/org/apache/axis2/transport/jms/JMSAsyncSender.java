@@ -0,0 +1,592 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.apache.axis2.transport.base.threads.NativeThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the one way messages of a JMS CF asynchronously, so that the caller does not wait for
+ * the broker to acknowledge each send. The number of sends awaiting completion is bounded by
+ * the maximum in flight, after which callers block until earlier sends complete. Completion or
+ * failure is reported to the {@link JMSSendCallback} of the MessageContext, if any.
+ *
+ * If the JMS provider implements the JMS 2.0 CompletionListener send, the messages are sent
+ * through it - as the transport is built against the JMS 1.1 API, this is done reflectively.
+ * Otherwise (or if a commit batch size greater than 1 is requested) the messages are queued and
+ * sent by a background thread, which commits up to the batch size of them at a time in a local
+ * transaction, and completes them once committed.
+ * <p>
+ * The messages are created by the Session of the caller, which is returned to its pool or closed
+ * before the message is sent through the Session of this sender. This relies on JMS 1.1 section
+ * 4.4.1, by which a message remains usable once the Session that created it is closed, and
+ * section 3.12, by which a provider must accept a message created by another Session. ActiveMQ,
+ * Qpid and other providers implementing JMS 1.1 allow this; a provider which binds a message to
+ * the Session that created it must not be used with an asynchronous sender.
+ */
+public class JMSAsyncSender implements JMSAsyncSenderMBean {
+
+    private static final Log log = LogFactory.getLog(JMSAsyncSender.class);
+
+    /** The number of milliseconds between checks whether the sender has been closed */
+    private static final int STATE_CHECK_INTERVAL = 1000;
+    /** The maximum number of milliseconds to wait for sends in flight on close */
+    private static final int CLOSE_TIMEOUT = 30000;
+
+    public static final String MODE_COMPLETION_LISTENER = "completionListener";
+    public static final String MODE_BATCH = "batch";
+
+    /** The javax.jms.CompletionListener interface, if available at runtime */
+    private static final Class<?> completionListenerClass = loadCompletionListenerClass();
+
+    /** The JMS CF used to create the Session and producer */
+    private final JMSConnectionFactory jmsConnectionFactory;
+    /** The maximum number of sends awaiting completion */
+    private final int maxInFlight;
+    /** The maximum number of sends committed together */
+    private final int commitBatchSize;
+    /** The permits of the sends in flight */
+    private final Semaphore permits;
+
+    /** The Session used in the completion listener mode, created on first use */
+    private ProducerSession producerSession = null;
+    /** The CompletionListener send method of the producer, in the completion listener mode */
+    private Method completionSendMethod = null;
+    /** The mode in use, determined on first use */
+    private volatile String mode = null;
+    private volatile boolean closed = false;
+
+    /** The sends queued for the background sender thread, in the batch mode */
+    private BlockingQueue<PendingSend> queue = null;
+    private Thread batchSender = null;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+
+    /**
+     * Create an asynchronous sender
+     * @param jmsConnectionFactory the JMS CF to send through
+     * @param maxInFlight the maximum number of sends awaiting completion
+     * @param commitBatchSize the maximum number of sends committed together
+     */
+    public JMSAsyncSender(JMSConnectionFactory jmsConnectionFactory, int maxInFlight,
+        int commitBatchSize) {
+        this.jmsConnectionFactory = jmsConnectionFactory;
+        this.maxInFlight = maxInFlight;
+        this.commitBatchSize = commitBatchSize;
+        this.permits = new Semaphore(maxInFlight);
+    }
+
+    private static Class<?> loadCompletionListenerClass() {
+        try {
+            return Class.forName("javax.jms.CompletionListener");
+        } catch (ClassNotFoundException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send a message asynchronously, blocking only while the maximum number of sends are in flight
+     * @param message the JMS message
+     * @param destination the Destination to send to
+     * @param msgCtx the Axis2 MessageContext sent
+     * @param metrics the metrics to update once the send completes or fails
+     */
+    public void send(Message message, Destination destination, MessageContext msgCtx,
+        MetricsCollector metrics) {
+        send(message, destination, msgCtx, metrics, null);
+    }
+
+    /**
+     * Send a message asynchronously, blocking only while the maximum number of sends are in flight
+     * @param message the JMS message
+     * @param destination the Destination to send to
+     * @param msgCtx the Axis2 MessageContext sent
+     * @param metrics the metrics to update once the send completes or fails
+     * @param completion notified once the send completes or fails, before the JMSSendCallback of
+     * the MessageContext, or null. It is not notified if this method throws an exception
+     */
+    public void send(Message message, Destination destination, MessageContext msgCtx,
+        MetricsCollector metrics, JMSSendCallback completion) {
+
+        if (closed) {
+            throw new AxisJMSException("The asynchronous sender of JMS CF : " +
+                jmsConnectionFactory.getName() + " has been closed");
+        }
+        // before taking a permit, as reading the properties of the MessageContext may fail
+        PendingSend pending;
+        try {
+            pending = new PendingSend(message, destination, msgCtx, metrics, completion);
+        } catch (NumberFormatException e) {
+            throw new AxisJMSException("Invalid JMS priority or time to live for Message " +
+                "Context ID : " + msgCtx.getMessageID(), e);
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AxisJMSException("Interrupted waiting to send a JMS message asynchronously", e);
+        }
+
+        try {
+            ensureStarted();
+            if (MODE_BATCH.equals(mode)) {
+                queue.put(pending);
+                // the background thread may have drained the queue and stopped after a close
+                if (closed && queue.remove(pending)) {
+                    throw new AxisJMSException("The asynchronous sender of JMS CF : " +
+                        jmsConnectionFactory.getName() + " has been closed");
+                }
+            } else {
+                sendWithCompletionListener(pending);
+            }
+        } catch (InterruptedException e) {
+            permits.release();
+            Thread.currentThread().interrupt();
+            throw new AxisJMSException("Interrupted waiting to send a JMS message asynchronously", e);
+        } catch (JMSException e) {
+            permits.release();
+            throw new AxisJMSException("Error sending a JMS message asynchronously to : " +
+                destination, e);
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Determine the mode on first use, and create the Session, producer and background thread
+     * @throws JMSException on error creating the Session or producer
+     */
+    private synchronized void ensureStarted() throws JMSException {
+
+        if (mode != null) {
+            return;
+        }
+        if (closed) {
+            throw new AxisJMSException("The asynchronous sender of JMS CF : " +
+                jmsConnectionFactory.getName() + " has been closed");
+        }
+        if (commitBatchSize <= 1 && completionListenerClass != null) {
+            producerSession = new ProducerSession(false);
+            try {
+                Method m = producerSession.producer.getClass().getMethod("send", Destination.class,
+                    Message.class, int.class, int.class, long.class, completionListenerClass);
+                // the provider may implement the JMS 1.1 API only
+                if (!Modifier.isAbstract(m.getModifiers())) {
+                    completionSendMethod = m;
+                }
+            } catch (NoSuchMethodException ignore) {}
+
+            if (completionSendMethod != null) {
+                mode = MODE_COMPLETION_LISTENER;
+            } else {
+                closeProducerSession();
+            }
+        }
+
+        if (mode == null) {
+            queue = new ArrayBlockingQueue<PendingSend>(maxInFlight);
+            batchSender = new NativeThreadFactory(new ThreadGroup("JMS Async sender thread group"),
+                "JMS-AsyncSender-" + jmsConnectionFactory.getName()).newThread(new BatchSender());
+            mode = MODE_BATCH;
+            batchSender.start();
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Sending messages asynchronously for JMS CF : " +
+                jmsConnectionFactory.getName() + " in " + mode + " mode");
+        }
+    }
+
+    private synchronized void closeProducerSession() {
+        if (producerSession != null) {
+            producerSession.close();
+            producerSession = null;
+        }
+    }
+
+    private void sendWithCompletionListener(PendingSend pending) throws JMSException {
+
+        Object listener = Proxy.newProxyInstance(completionListenerClass.getClassLoader(),
+            new Class[] { completionListenerClass }, pending);
+        // the Session is not thread safe, but completions are delivered without holding it
+        synchronized (this) {
+            // the Session is closed for good once this sender is closed
+            if (closed) {
+                throw new AxisJMSException("The asynchronous sender of JMS CF : " +
+                    jmsConnectionFactory.getName() + " has been closed");
+            }
+            if (producerSession == null) {
+                producerSession = new ProducerSession(false);
+            }
+            try {
+                completionSendMethod.invoke(producerSession.producer, pending.destination,
+                    pending.message, pending.deliveryMode, pending.priority, pending.timeToLive,
+                    listener);
+            } catch (IllegalAccessException e) {
+                throw new AxisJMSException("Cannot access the JMS CompletionListener send", e);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof JMSException) {
+                    closeProducerSession();
+                    throw (JMSException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else {
+                    throw new AxisJMSException("Error sending a JMS message asynchronously", e);
+                }
+            }
+        }
+    }
+
+    private void complete(PendingSend pending) {
+
+        permits.release();
+        completed.incrementAndGet();
+        try {
+            String msgId = pending.message.getJMSMessageID();
+            if (msgId != null) {
+                pending.msgCtx.setProperty(JMSConstants.JMS_MESSAGE_ID, msgId);
+            }
+        } catch (JMSException ignore) {}
+        pending.metrics.incrementMessagesSent(pending.msgCtx);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Completed asynchronous send of Message Context ID : " +
+                pending.msgCtx.getMessageID() + " to destination : " + pending.destination);
+        }
+        if (pending.completion != null) {
+            try {
+                pending.completion.onSendComplete(pending.msgCtx);
+            } catch (RuntimeException e) {
+                log.warn("Error completing the asynchronous send of Message Context ID : " +
+                    pending.msgCtx.getMessageID(), e);
+            }
+        }
+        if (pending.callback != null) {
+            try {
+                pending.callback.onSendComplete(pending.msgCtx);
+            } catch (RuntimeException e) {
+                log.warn("JMS send callback failed for Message Context ID : " +
+                    pending.msgCtx.getMessageID(), e);
+            }
+        }
+    }
+
+    private void fail(PendingSend pending, Exception cause) {
+
+        permits.release();
+        failed.incrementAndGet();
+        pending.metrics.incrementFaultsSending();
+
+        if (pending.completion != null) {
+            try {
+                pending.completion.onSendFailure(pending.msgCtx, cause);
+            } catch (RuntimeException e) {
+                log.warn("Error failing the asynchronous send of Message Context ID : " +
+                    pending.msgCtx.getMessageID(), e);
+            }
+        }
+        if (pending.callback != null) {
+            try {
+                pending.callback.onSendFailure(pending.msgCtx, cause);
+            } catch (RuntimeException e) {
+                log.warn("JMS send callback failed for Message Context ID : " +
+                    pending.msgCtx.getMessageID(), e);
+            }
+        } else {
+            log.error("Error sending message with MessageContext ID : " +
+                pending.msgCtx.getMessageID() + " asynchronously to destination : " +
+                pending.destination, cause);
+        }
+    }
+
+    /**
+     * Stop accepting sends, wait for the sends in flight to complete and close the Session. In
+     * the batch mode, the background thread closes its own Session once the queue is drained
+     */
+    public void close() {
+
+        Thread batchSender;
+        synchronized (this) {
+            closed = true;
+            batchSender = this.batchSender;
+        }
+        if (batchSender != null) {
+            try {
+                batchSender.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            try {
+                if (permits.tryAcquire(maxInFlight, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    permits.release(maxInFlight);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (getInFlight() > 0) {
+            log.warn(getInFlight() + " asynchronous sends of JMS CF : " +
+                jmsConnectionFactory.getName() + " did not complete before closing");
+        }
+        if (batchSender != null && batchSender.isAlive()) {
+            log.warn("The asynchronous sender thread of JMS CF : " +
+                jmsConnectionFactory.getName() + " is still running after " + CLOSE_TIMEOUT + "ms");
+        }
+        closeProducerSession();
+    }
+
+    /**
+     * Drains the queued sends into batches, until closed and the queue is empty
+     */
+    private class BatchSender implements Runnable {
+
+        /** The Session used to send, only ever accessed by the background thread */
+        private ProducerSession session = null;
+
+        public void run() {
+            List<PendingSend> batch = new ArrayList<PendingSend>(commitBatchSize);
+            while (!closed || !queue.isEmpty()) {
+                try {
+                    PendingSend pending = queue.poll(STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (pending == null) {
+                        continue;
+                    }
+                    // commit what is available now, rather than waiting for a full batch
+                    batch.add(pending);
+                    queue.drainTo(batch, Math.max(commitBatchSize, 1) - 1);
+                    sendBatch(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+            closeSession();
+        }
+
+        /**
+         * Send a batch of queued messages, committing them together if the Session is transacted
+         * @param batch the sends to perform
+         */
+        private void sendBatch(List<PendingSend> batch) {
+
+            boolean transacted = commitBatchSize > 1;
+            int sent = 0;
+            try {
+                if (session == null) {
+                    session = new ProducerSession(transacted);
+                }
+                for (PendingSend pending : batch) {
+                    session.producer.send(pending.destination, pending.message,
+                        pending.deliveryMode, pending.priority, pending.timeToLive);
+                    if (!transacted) {
+                        sent++;
+                        complete(pending);
+                    }
+                }
+                if (transacted) {
+                    session.session.commit();
+                    commits.incrementAndGet();
+                    committed.addAndGet(batch.size());
+                    for (PendingSend pending : batch) {
+                        complete(pending);
+                    }
+                }
+
+            } catch (JMSException e) {
+                log.warn("Error sending a batch of " + batch.size() + " JMS messages " +
+                    "asynchronously for JMS CF : " + jmsConnectionFactory.getName(), e);
+                if (transacted && session != null) {
+                    try {
+                        session.session.rollback();
+                    } catch (JMSException ignore) {}
+                }
+                // start over with a new Session on the next batch
+                closeSession();
+                for (PendingSend pending : batch.subList(sent, batch.size())) {
+                    fail(pending, e);
+                }
+            } catch (AxisJMSException e) {
+                closeSession();
+                for (PendingSend pending : batch.subList(sent, batch.size())) {
+                    fail(pending, e);
+                }
+            }
+        }
+
+        private void closeSession() {
+            if (session != null) {
+                session.close();
+                session = null;
+            }
+        }
+    }
+
+    /**
+     * The Connection, Session and anonymous producer used to send
+     */
+    private class ProducerSession {
+
+        private final Connection connection;
+        private final Session session;
+        private final MessageProducer producer;
+
+        ProducerSession(boolean transacted) throws JMSException {
+            connection = jmsConnectionFactory.getConnection();
+            session = JMSUtils.createSession(connection, transacted,
+                Session.AUTO_ACKNOWLEDGE, jmsConnectionFactory.isJmsSpec11(),
+                jmsConnectionFactory.isQueue());
+            // an anonymous producer, as messages are sent to many destinations
+            producer = JMSUtils.createProducer(session, null, jmsConnectionFactory.isQueue(),
+                jmsConnectionFactory.isJmsSpec11());
+        }
+
+        void close() {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                log.warn("Error closing the JMS Session of the asynchronous sender of JMS CF : " +
+                    jmsConnectionFactory.getName(), e);
+            }
+            if (jmsConnectionFactory.getCacheLevel() < JMSConstants.CACHE_CONNECTION) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    log.warn("Error closing the JMS Connection of the asynchronous sender of " +
+                        "JMS CF : " + jmsConnectionFactory.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A message awaiting completion, which also acts as its CompletionListener
+     */
+    private class PendingSend implements InvocationHandler {
+
+        private final Message message;
+        private final Destination destination;
+        private final MessageContext msgCtx;
+        private final MetricsCollector metrics;
+        private final JMSSendCallback callback;
+        private final JMSSendCallback completion;
+        private final int deliveryMode;
+        private final int priority;
+        private final long timeToLive;
+
+        PendingSend(Message message, Destination destination, MessageContext msgCtx,
+            MetricsCollector metrics, JMSSendCallback completion) {
+            this.message = message;
+            this.destination = destination;
+            this.msgCtx = msgCtx;
+            this.metrics = metrics;
+            this.callback = (JMSSendCallback) msgCtx.getProperty(JMSConstants.JMS_SEND_CALLBACK);
+            this.completion = completion;
+
+            Object persistent = msgCtx.getProperty(JMSConstants.JMS_DELIVERY_MODE);
+            this.deliveryMode = persistent == null ? Message.DEFAULT_DELIVERY_MODE :
+                Boolean.valueOf(persistent.toString()) ?
+                    DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT;
+            Object p = msgCtx.getProperty(JMSConstants.JMS_PRIORITY);
+            this.priority = p == null ? Message.DEFAULT_PRIORITY : Integer.parseInt(p.toString());
+            Object ttl = msgCtx.getProperty(JMSConstants.JMS_TIME_TO_LIVE);
+            this.timeToLive = ttl == null ? Message.DEFAULT_TIME_TO_LIVE : Long.parseLong(ttl.toString());
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            String name = method.getName();
+            if ("onCompletion".equals(name)) {
+                complete(this);
+            } else if ("onException".equals(name)) {
+                fail(this, (Exception) args[1]);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "CompletionListener for Message Context ID : " + msgCtx.getMessageID();
+            }
+            return null;
+        }
+    }
+
+    // -- JMX --
+    public String getMode() {
+        return mode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getCommits() {
+        return commits.get();
+    }
+
+    public double getAverageBatchSize() {
+        long c = commits.get();
+        return c == 0 ? 0 : (double) committed.get() / c;
+    }
+
+    public void resetStatistics() {
+        completed.set(0);
+        failed.set(0);
+        commits.set(0);
+        committed.set(0);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Balances the messages sent through a logical JMS CF across the JMS CFs of several brokers,
+ * its members, and fails over between them. A member is selected either round-robin, or as the
+ * one with the fewest messages being sent through it. A member which fails is ejected for a
+ * while, starting with the eject time and doubling with each consecutive failure up to the
+ * maximum eject time, and is selected again once its eject time has passed. If every member is
+ * ejected, the one to be readmitted first is selected rather than failing outright.
+ * <p>
+ * The members are defined as ordinary JMS CFs of the transport, and are named by the
+ * {@link JMSConstants#PARAM_CONFAC_MEMBERS} parameter of the logical JMS CF. They are resolved
+ * by the {@link JMSConnectionFactoryManager} once all JMS CFs have been read.
+ */
+public class JMSBrokerGroup implements JMSBrokerGroupMBean {
+
+    private static final Log log = LogFactory.getLog(JMSBrokerGroup.class);
+
+    public static final String POLICY_ROUND_ROBIN = "roundRobin";
+    public static final String POLICY_LEAST_IN_FLIGHT = "leastInFlight";
+
+    /** The name of the logical JMS CF */
+    private final String name;
+    /** The names of the member JMS CFs, in the configured order */
+    private final String[] memberNames;
+    /** Select the member with the fewest messages in flight, instead of round-robin? */
+    private final boolean leastInFlight;
+    /** The number of milliseconds a member is ejected for after its first failure */
+    private final long ejectTime;
+    /** The maximum number of milliseconds a member is ejected for */
+    private final long maxEjectTime;
+
+    /** The resolved members, in the configured order */
+    private volatile Member[] members = new Member[0];
+    /** The position of the next member to be selected round-robin */
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong selections = new AtomicLong();
+    private final AtomicLong ejections = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    public JMSBrokerGroup(String name, String[] memberNames, boolean leastInFlight,
+        long ejectTime, long maxEjectTime) {
+        this.name = name;
+        this.memberNames = memberNames;
+        this.leastInFlight = leastInFlight;
+        this.ejectTime = ejectTime;
+        this.maxEjectTime = maxEjectTime;
+    }
+
+    /**
+     * Get the names of the member JMS CFs
+     * @return the member names, in the configured order
+     */
+    public String[] getMemberNames() {
+        return memberNames.clone();
+    }
+
+    /**
+     * Set the member JMS CFs, resolved from the member names
+     * @param connectionFactories the member JMS CFs, in the configured order
+     */
+    void setMembers(List<JMSConnectionFactory> connectionFactories) {
+        Member[] resolved = new Member[connectionFactories.size()];
+        for (int i = 0; i < resolved.length; i++) {
+            resolved[i] = new Member(connectionFactories.get(i));
+        }
+        members = resolved;
+    }
+
+    /**
+     * Get the member JMS CFs
+     * @return the member JMS CFs, in the configured order
+     */
+    public List<JMSConnectionFactory> getMembers() {
+        Member[] current = members;
+        List<JMSConnectionFactory> list = new ArrayList<JMSConnectionFactory>(current.length);
+        for (Member member : current) {
+            list.add(member.connectionFactory);
+        }
+        return list;
+    }
+
+    /**
+     * Select the member through which to send the next message. The caller must call
+     * {@link #release(JMSConnectionFactory, boolean)} once the message has been sent.
+     * @param excluded the members already tried for the message, or null
+     * @return the selected member, or null if all members have been tried
+     */
+    public JMSConnectionFactory select(Collection<JMSConnectionFactory> excluded) {
+
+        Member[] current = members;
+        long now = System.currentTimeMillis();
+        Member selected = null;
+        Member readmittedFirst = null;
+
+        int start = leastInFlight ? 0 : (next.getAndIncrement() & Integer.MAX_VALUE);
+        for (int i = 0; i < current.length; i++) {
+            Member member = current[(start + i) % current.length];
+            if (excluded != null && excluded.contains(member.connectionFactory)) {
+                continue;
+            }
+            if (member.ejectedUntil > now) {
+                if (readmittedFirst == null || member.ejectedUntil < readmittedFirst.ejectedUntil) {
+                    readmittedFirst = member;
+                }
+            } else if (!leastInFlight) {
+                selected = member;
+                break;
+            } else if (selected == null || member.inFlight.get() < selected.inFlight.get()) {
+                selected = member;
+            }
+        }
+
+        if (selected == null) {
+            selected = readmittedFirst;
+        }
+        if (selected == null) {
+            return null;
+        }
+        if (excluded != null && !excluded.isEmpty()) {
+            failovers.incrementAndGet();
+        }
+        selections.incrementAndGet();
+        selected.inFlight.incrementAndGet();
+        return selected.connectionFactory;
+    }
+
+    /**
+     * Release a member selected for a message, ejecting it if the message could not be sent
+     * @param connectionFactory the member returned by {@link #select(Collection)}
+     * @param failed true if the message could not be sent through the member
+     */
+    public void release(JMSConnectionFactory connectionFactory, boolean failed) {
+        Member member = getMember(connectionFactory);
+        if (member == null) {
+            return;
+        }
+        member.inFlight.decrementAndGet();
+
+        if (!failed) {
+            // a member has failed before iff it has an eject time, which is reset on success
+            if (member.ejectedUntil != 0) {
+                synchronized (member) {
+                    member.failures = 0;
+                    member.ejectedUntil = 0;
+                }
+            }
+            return;
+        }
+
+        long duration = ejectTime;
+        synchronized (member) {
+            for (int i = 0; i < member.failures && duration < maxEjectTime; i++) {
+                duration *= 2;
+            }
+            duration = Math.min(duration, maxEjectTime);
+            member.failures++;
+            member.ejectedUntil = System.currentTimeMillis() + duration;
+        }
+        ejections.incrementAndGet();
+        log.warn("Ejected JMS CF : " + connectionFactory.getName() + " of JMS CF : " + name +
+            " for " + duration + " ms after a failure");
+        // the Connection to the failed broker is unusable, so reconnect once readmitted
+        connectionFactory.resetSharedConnection();
+    }
+
+    private Member getMember(JMSConnectionFactory connectionFactory) {
+        for (Member member : members) {
+            if (member.connectionFactory == connectionFactory) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    // -- jmx/management methods--
+
+    public String getLoadBalancePolicy() {
+        return leastInFlight ? POLICY_LEAST_IN_FLIGHT : POLICY_ROUND_ROBIN;
+    }
+
+    public String[] getEjectedMemberNames() {
+        long now = System.currentTimeMillis();
+        List<String> names = new ArrayList<String>();
+        for (Member member : members) {
+            if (member.ejectedUntil > now) {
+                names.add(member.connectionFactory.getName());
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    public int getInFlightMessages() {
+        int inFlight = 0;
+        for (Member member : members) {
+            inFlight += member.inFlight.get();
+        }
+        return inFlight;
+    }
+
+    public long getSelections() {
+        return selections.get();
+    }
+
+    public long getEjections() {
+        return ejections.get();
+    }
+
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    public void resetStatistics() {
+        selections.set(0);
+        ejections.set(0);
+        failovers.set(0);
+    }
+
+    /**
+     * A member JMS CF and its health
+     */
+    private static class Member {
+        private final JMSConnectionFactory connectionFactory;
+        /** The number of messages being sent through this member */
+        private final AtomicInteger inFlight = new AtomicInteger();
+        /** The number of consecutive failures, guarded by this */
+        private int failures = 0;
+        /** The time until which this member is ejected, 0 if it is healthy */
+        private volatile long ejectedUntil = 0;
+
+        private Member(JMSConnectionFactory connectionFactory) {
+            this.connectionFactory = connectionFactory;
+        }
+    }
+}
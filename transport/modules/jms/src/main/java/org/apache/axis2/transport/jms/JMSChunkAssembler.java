@@ -0,0 +1,456 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reassembles the chunked messages received by a service, i.e. the BytesMessages sharing a
+ * {@link JMSConstants#CHUNK_ID_PROPERTY}. The payload of a chunked message is read as a stream
+ * over its chunks while they are being received, so that only a bounded number of chunks per
+ * message are held in memory: receiving a chunk waits while the maximum number of chunks are
+ * buffered ahead of the one being read, unless it is the very chunk the reader waits for.
+ * <p>
+ * Reading fails, and the chunked message is aborted, if the next chunk is not received within
+ * the chunk timeout. Aborted messages are remembered until their chunks stop arriving, so that
+ * late chunks are discarded instead of starting a new message. Messages whose chunks stopped
+ * arriving before they could be processed (e.g. as their first chunk was lost) are purged.
+ * A message whose processing failed accepts and drops its remaining chunks until its last chunk,
+ * which reports the failure so that all the chunks are rolled back together.
+ * <p>
+ * The chunked messages to be dead lettered are remembered, so that their chunks are moved to the
+ * dead letter queue one by one as they are received again. If a chunk could not be moved, the
+ * last chunk rolls all of them back, to be moved again.
+ */
+class JMSChunkAssembler {
+
+    private static final Log log = LogFactory.getLog(JMSChunkAssembler.class);
+
+    /** The number of milliseconds to wait for the next chunk of a message */
+    private final long timeout;
+    /** The maximum number of chunks buffered per message */
+    private final int maxBuffered;
+
+    /** The maximum number of chunked messages remembered to be dead lettered */
+    private static final int MAX_DEAD_LETTERS = 1000;
+
+    /** The chunked messages in progress or recently aborted, by chunk ID */
+    private final Map<String, ChunkedMessage> messages = new HashMap<String, ChunkedMessage>();
+    /**
+     * The IDs of the chunked messages whose chunks are to be dead lettered, oldest first, mapped
+     * to false once a chunk could not be moved to the dead letter queue
+     */
+    private final Map<String, Boolean> deadLetters =
+        new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_DEAD_LETTERS;
+            }
+        };
+    /** The last time stale messages were purged */
+    private long lastPurge = System.currentTimeMillis();
+
+    JMSChunkAssembler(long timeout, int maxBuffered) {
+        this.timeout = timeout;
+        this.maxBuffered = maxBuffered;
+    }
+
+    /**
+     * Is the given message a chunk of a chunked message?
+     * @param message the message received
+     * @return true if the message is a chunk
+     */
+    static boolean isChunk(Message message) {
+        try {
+            return message instanceof BytesMessage &&
+                message.propertyExists(JMSConstants.CHUNK_ID_PROPERTY);
+        } catch (JMSException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Is the given message a chunk other than the last chunk of its message? Its receipt must
+     * not be committed or acknowledged on its own, but along with the last chunk, once the
+     * whole message has been processed
+     * @param message the message received
+     * @return true if the message is a chunk, but not the last one
+     */
+    static boolean isPendingChunk(Message message) {
+        try {
+            return isChunk(message) &&
+                !message.getBooleanProperty(JMSConstants.CHUNK_LAST_PROPERTY);
+        } catch (JMSException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Add a chunk to its chunked message, waiting while the maximum number of chunks are buffered
+     * @param chunk the chunk received
+     * @return the chunked message, or null if the chunk was discarded as its message was aborted
+     * @throws JMSException on error reading the chunk properties
+     * @throws InterruptedException if interrupted while waiting
+     */
+    ChunkedMessage add(BytesMessage chunk) throws JMSException, InterruptedException {
+
+        String chunkId = chunk.getStringProperty(JMSConstants.CHUNK_ID_PROPERTY);
+        int seq = chunk.getIntProperty(JMSConstants.CHUNK_SEQ_PROPERTY);
+        boolean last = chunk.getBooleanProperty(JMSConstants.CHUNK_LAST_PROPERTY);
+
+        ChunkedMessage message;
+        synchronized (this) {
+            purge();
+            message = messages.get(chunkId);
+            if (message == null) {
+                message = new ChunkedMessage(chunkId);
+                messages.put(chunkId, message);
+            }
+        }
+        return message.add(chunk, seq, last) ? message : null;
+    }
+
+    /**
+     * Forget a chunked message once processed and its last chunk received. An aborted message is
+     * kept until purged, to discard its late chunks
+     * @param message the message processed
+     */
+    synchronized void processed(ChunkedMessage message) {
+        if (message.isComplete()) {
+            messages.remove(message.getChunkId());
+        }
+    }
+
+    /**
+     * Remember that the chunks of a chunked message are to be moved to the dead letter queue as
+     * they are received again
+     * @param chunkId the chunk ID of the message
+     */
+    synchronized void deadLetter(String chunkId) {
+        deadLetters.put(chunkId, Boolean.TRUE);
+    }
+
+    /**
+     * Is the given chunked message to be dead lettered?
+     * @param chunkId the chunk ID of the message
+     * @return true if its chunks are to be moved to the dead letter queue
+     */
+    synchronized boolean isDeadLetter(String chunkId) {
+        return deadLetters.containsKey(chunkId);
+    }
+
+    /**
+     * Remember that a chunk of a chunked message could not be moved to the dead letter queue
+     * @param chunkId the chunk ID of the message
+     */
+    synchronized void deadLetterFailed(String chunkId) {
+        deadLetters.put(chunkId, Boolean.FALSE);
+    }
+
+    /**
+     * Forget a chunked message once its last chunk has been moved to the dead letter queue,
+     * unless a chunk could not be moved. The chunks are then rolled back, and moved again as
+     * they are received again
+     * @param chunkId the chunk ID of the message
+     * @return true if all the chunks were moved, false if they must be rolled back
+     */
+    synchronized boolean deadLettered(String chunkId) {
+        if (Boolean.FALSE.equals(deadLetters.get(chunkId))) {
+            deadLetters.put(chunkId, Boolean.TRUE);
+            return false;
+        }
+        deadLetters.remove(chunkId);
+        return true;
+    }
+
+    /**
+     * Remove the messages which have not received or read a chunk within the timeout
+     */
+    private void purge() {
+
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < timeout) {
+            return;
+        }
+        lastPurge = now;
+
+        Iterator<ChunkedMessage> it = messages.values().iterator();
+        while (it.hasNext()) {
+            ChunkedMessage message = it.next();
+            if (message.isIdle(now)) {
+                it.remove();
+                if (message.abort()) {
+                    log.warn("Discarded incomplete chunked message : " + message.getChunkId() +
+                        " as no chunk was received within " + timeout + " ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * A message received as chunks
+     */
+    class ChunkedMessage {
+
+        private final String chunkId;
+        /** The chunks received and not yet read, by sequence number */
+        private final Map<Integer, BytesMessage> chunks = new HashMap<Integer, BytesMessage>();
+        /** The first chunk, carrying the properties of the message */
+        private BytesMessage first = null;
+        /** The sequence number of the next chunk to be read */
+        private int next = 1;
+        /** The sequence number of the last chunk, or 0 until it has been received */
+        private int last = 0;
+        private boolean aborted = false;
+        private boolean processing = false;
+        private boolean processed = false;
+        /** Was the message processed successfully? */
+        private boolean succeeded = false;
+        /** The last time a chunk was received or read */
+        private long lastActivity = System.currentTimeMillis();
+        /** The number of bytes read from the chunks, by the only reader of the message */
+        private long bytesRead = 0;
+
+        ChunkedMessage(String chunkId) {
+            this.chunkId = chunkId;
+        }
+
+        String getChunkId() {
+            return chunkId;
+        }
+
+        /**
+         * Get the first chunk, which carries the properties of the message
+         * @return the first chunk, or null if it has not been received yet
+         */
+        synchronized BytesMessage getFirstChunk() {
+            return first;
+        }
+
+        private synchronized boolean add(BytesMessage chunk, int seq, boolean isLast)
+            throws InterruptedException {
+
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!aborted && chunks.size() >= maxBuffered && seq != next) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    log.warn("Aborted chunked message : " + chunkId + " as chunk " + next +
+                        " was not read within " + timeout + " ms");
+                    abort();
+                    break;
+                }
+                wait(wait);
+            }
+            lastActivity = System.currentTimeMillis();
+            if (aborted || seq < next) {
+                return false;
+            }
+            if (processed) {
+                // no longer read, but the last chunk reports the result of the processing
+                if (isLast) {
+                    last = seq;
+                }
+                return true;
+            }
+
+            chunks.put(seq, chunk);
+            if (seq == 1) {
+                first = chunk;
+            }
+            if (isLast) {
+                last = seq;
+            }
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Wait for the next chunk to read
+         * @return the next chunk, or null after the last chunk
+         * @throws IOException if the message was aborted, or the chunk was not received in time
+         */
+        private synchronized BytesMessage nextChunk() throws IOException {
+
+            if (last > 0 && next > last) {
+                return null;
+            }
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!aborted && !chunks.containsKey(next)) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    abort();
+                    throw new IOException("Chunk " + next + " of chunked message : " + chunkId +
+                        " was not received within " + timeout + " ms");
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    abort();
+                    throw new IOException("Interrupted waiting for chunk " + next +
+                        " of chunked message : " + chunkId);
+                }
+            }
+            if (aborted) {
+                throw new IOException("Chunked message : " + chunkId + " has been aborted");
+            }
+            lastActivity = System.currentTimeMillis();
+            BytesMessage chunk = chunks.remove(next++);
+            notifyAll();
+            return chunk;
+        }
+
+        /**
+         * Get the stream over the payload of the message. Can only be read by one thread
+         * @return the payload of the message
+         */
+        InputStream getInputStream() {
+            return new ChunkInputStream();
+        }
+
+        /**
+         * Get the number of bytes read from the payload, i.e. the length of the chunks read,
+         * which is only known once read with a JMS 1.0 provider
+         * @return the number of bytes read by the reader of the message
+         */
+        long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * Mark the start of the processing of the message
+         */
+        synchronized void startProcessing() {
+            processing = true;
+        }
+
+        /**
+         * Mark the end of the processing of the message, dropping the chunks not read, and
+         * release any thread waiting for it
+         * @param succeeded true if the message was processed successfully
+         */
+        synchronized void endProcessing(boolean succeeded) {
+            processed = true;
+            this.succeeded = succeeded;
+            chunks.clear();
+            notifyAll();
+        }
+
+        /**
+         * Wait until the message has been processed or aborted. Aborts the message if its
+         * processing did not start in time, e.g. as its first chunk was lost
+         * @return false if the processing failed and the chunks must be rolled back, true if the
+         *         message was processed successfully or aborted
+         * @throws InterruptedException if interrupted while waiting
+         */
+        synchronized boolean awaitProcessed() throws InterruptedException {
+            while (!processed && !aborted) {
+                wait(timeout);
+                if (!processing && isIdle(System.currentTimeMillis())) {
+                    log.warn("Aborted chunked message : " + chunkId +
+                        " as its first chunk was not received within " + timeout + " ms");
+                    abort();
+                }
+            }
+            return !processed || succeeded;
+        }
+
+        /**
+         * @return true if the message was processed and its last chunk received
+         */
+        private synchronized boolean isComplete() {
+            return processed && !aborted && last > 0;
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return now - lastActivity >= timeout;
+        }
+
+        /**
+         * Abort the message, releasing its chunks and any thread waiting for it
+         * @return true if the message was aborted by this call
+         */
+        private synchronized boolean abort() {
+            if (aborted) {
+                return false;
+            }
+            aborted = true;
+            chunks.clear();
+            notifyAll();
+            return true;
+        }
+
+        /**
+         * Reads the chunks of the message one after the other
+         */
+        private class ChunkInputStream extends InputStream {
+
+            private BytesMessageInputStream current = null;
+            private boolean eof = false;
+
+            private boolean nextStream() throws IOException {
+                if (current == null && !eof) {
+                    BytesMessage chunk = nextChunk();
+                    if (chunk == null) {
+                        eof = true;
+                    } else {
+                        current = new BytesMessageInputStream(chunk);
+                    }
+                }
+                return !eof;
+            }
+
+            @Override
+            public int read() throws IOException {
+                while (nextStream()) {
+                    int b = current.read();
+                    if (b != -1) {
+                        bytesRead++;
+                        return b;
+                    }
+                    current = null;
+                }
+                return -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (nextStream()) {
+                    int c = current.read(b, off, len);
+                    if (c > 0) {
+                        bytesRead += c;
+                        return c;
+                    }
+                    current = null;
+                }
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.base.streams.CompressingOutputStream;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream that splits the data written to it into chunks, i.e. BytesMessages of at most
+ * the chunk size, which share the chunk ID and message group of the first chunk and are numbered
+ * from 1. The first chunk is the message carrying the properties of the chunked message. Every
+ * chunk but the last is sent as soon as it is full, so that only one chunk is held in memory.
+ * If the payload is compressed, the first chunk carries the
+ * {@link JMSConstants#CONTENT_ENCODING_PROPERTY} for the receiver to decompress the whole payload.
+ * Once the stream is closed, the last chunk is available from {@link #getLastChunk()}, to be sent
+ * by the caller, which completes the transaction of the chunks.
+ */
+class JMSChunkOutputStream extends OutputStream {
+
+    /** The sender of the chunks */
+    private final JMSMessageSender messageSender;
+    /** The MessageContext being sent */
+    private final MessageContext msgCtx;
+    /** The maximum number of bytes in a chunk */
+    private final int chunkSize;
+    /** The ID shared by the chunks */
+    private final String chunkId;
+    /** The message group of the chunks - the chunk ID, unless the message already had a group */
+    private final String groupId;
+    /** Are the chunks the only messages of their group? If so they are numbered within it */
+    private final boolean ownGroup;
+
+    /** The stream compressing the payload written to this stream, or null */
+    private CompressingOutputStream compressingOut;
+    /** The compression format of the compressing stream */
+    private String compression;
+
+    /** The chunk being written */
+    private BytesMessage chunk;
+    /** The sequence number of the chunk being written */
+    private int seq = 1;
+    /** The number of bytes written to the current chunk */
+    private int count = 0;
+    private boolean closed = false;
+
+    /**
+     * Create a stream writing to the given first chunk
+     * @param messageSender the sender to send the chunks with
+     * @param first the message carrying the properties, with its {@link JMSConstants#CHUNK_ID_PROPERTY} set
+     * @param msgCtx the MessageContext being sent
+     * @param chunkSize the maximum number of bytes in a chunk
+     * @throws JMSException on error reading the properties of the first chunk
+     */
+    JMSChunkOutputStream(JMSMessageSender messageSender, BytesMessage first,
+        MessageContext msgCtx, int chunkSize) throws JMSException {
+
+        this.messageSender = messageSender;
+        this.msgCtx = msgCtx;
+        this.chunkSize = chunkSize;
+        this.chunk = first;
+        this.chunkId = first.getStringProperty(JMSConstants.CHUNK_ID_PROPERTY);
+        String group = first.getStringProperty(JMSConstants.JMSX_GROUP_ID);
+        this.ownGroup = group == null;
+        this.groupId = ownGroup ? chunkId : group;
+    }
+
+    /**
+     * Set the stream compressing the payload before it is written to this stream. Whether the
+     * payload is compressed is decided before its first byte is written here, so it is known
+     * by the time the first chunk is completed
+     * @param compressingOut the compressing stream writing to this stream
+     * @param compression the compression format of the compressing stream
+     */
+    void setCompression(CompressingOutputStream compressingOut, String compression) {
+        this.compressingOut = compressingOut;
+        this.compression = compression;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        try {
+            if (count == chunkSize) {
+                nextChunk();
+            }
+            chunk.writeByte((byte) b);
+            count++;
+        } catch (JMSException e) {
+            throw new JMSExceptionWrapper(e);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        try {
+            while (len > 0) {
+                if (count == chunkSize) {
+                    nextChunk();
+                }
+                int n = Math.min(len, chunkSize - count);
+                chunk.writeBytes(b, off, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        } catch (JMSException e) {
+            throw new JMSExceptionWrapper(e);
+        }
+    }
+
+    /**
+     * Send the current chunk, which is full, and start the next one
+     * @throws JMSException on error creating the next chunk
+     */
+    private void nextChunk() throws JMSException {
+        setChunkProperties(false);
+        messageSender.sendChunk(chunk, msgCtx);
+        chunk = messageSender.getSession().createBytesMessage();
+        seq++;
+        count = 0;
+    }
+
+    private void setChunkProperties(boolean last) throws JMSException {
+        chunk.setStringProperty(JMSConstants.CHUNK_ID_PROPERTY, chunkId);
+        chunk.setIntProperty(JMSConstants.CHUNK_SEQ_PROPERTY, seq);
+        chunk.setBooleanProperty(JMSConstants.CHUNK_LAST_PROPERTY, last);
+        chunk.setStringProperty(JMSConstants.JMSX_GROUP_ID, groupId);
+        if (ownGroup) {
+            chunk.setIntProperty(JMSConstants.JMSX_GROUP_SEQ, seq);
+        }
+        if (seq == 1 && compressingOut != null && compressingOut.isCompressed()) {
+            chunk.setStringProperty(JMSConstants.CONTENT_ENCODING_PROPERTY, compression);
+        }
+    }
+
+    /**
+     * Complete the last chunk, without sending it
+     * @throws IOException on error setting the properties of the last chunk
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                setChunkProperties(true);
+            } catch (JMSException e) {
+                throw new JMSExceptionWrapper(e);
+            }
+        }
+    }
+
+    /**
+     * Get the last chunk, to be sent once the stream has been closed
+     * @return the last chunk
+     */
+    BytesMessage getLastChunk() {
+        return chunk;
+    }
+
+    /**
+     * Get the number of chunks written
+     * @return the number of chunks, including the last one
+     */
+    int getChunkCount() {
+        return seq;
+    }
+}
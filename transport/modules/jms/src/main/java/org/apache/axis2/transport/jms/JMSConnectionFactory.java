@@ -31,8 +31,10 @@ import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -65,8 +67,25 @@ public class JMSConnectionFactory {
     private MessageProducer sharedProducer = null;
     /** The Shared Destination */
     private Destination sharedDestination = null;
+    /** Guards the shared Connection, Session and MessageProducer */
+    private final Object sharedLock = new Object();
     /** The shared JMS connection for this JMS connection factory */
     private int cacheLevel = JMSConstants.CACHE_CONNECTION;
+    /** The pool of Sessions used for sending, if Sessions are cached */
+    private JMSSessionPool sessionPool = null;
+    /** The Destinations looked up by name, unless disabled */
+    private JMSDestinationCache destinationCache = null;
+    /** The asynchronous sender of one way messages, if enabled */
+    private JMSAsyncSender asyncSender = null;
+    /** The asynchronous publisher of dead letters, unless disabled */
+    private JMSDeadLetterPublisher deadLetterPublisher = null;
+    /** The members across which this JMS CF balances, if it is a broker group */
+    private JMSBrokerGroup brokerGroup = null;
+    /** The shared reply consumers, keyed by reply Destination */
+    private final Map<Destination, JMSReplyDispatcher> replyDispatchers =
+        new HashMap<Destination, JMSReplyDispatcher>();
+    /** The shared reply consumer on a temporary queue, for requests without a reply Destination */
+    private JMSReplyDispatcher temporaryReplyDispatcher = null;
 
     /**
      * Digest a JMS CF definition from an axis2.xml 'Parameter' and construct
@@ -74,6 +93,7 @@ public class JMSConnectionFactory {
      */
     public JMSConnectionFactory(Parameter parameter) {
 
+        long start = System.currentTimeMillis();
         this.name = parameter.getName();
         ParameterIncludeImpl pi = new ParameterIncludeImpl();
 
@@ -88,7 +108,19 @@ public class JMSConnectionFactory {
             parameters.put(p.getName(), (String) p.getValue());
         }
 
+        digestBrokerGroup();
+        if (brokerGroup != null) {
+            // the members provide the JMS resources of a broker group
+            log.info("JMS ConnectionFactory : " + name + " initialized as a group of : " +
+                parameters.get(JMSConstants.PARAM_CONFAC_MEMBERS));
+            return;
+        }
+
         digestCacheLevel();
+        digestSessionPool();
+        digestDestinationCache();
+        digestAsyncSender();
+        digestDeadLetterPublisher();
         try {
             context = new InitialContext(parameters);
             conFactory = JMSUtils.lookup(context, ConnectionFactory.class,
@@ -97,7 +129,8 @@ public class JMSConnectionFactory {
                 sharedDestination = JMSUtils.lookup(context, Destination.class,
                     parameters.get(JMSConstants.PARAM_DESTINATION));
             }
-            log.info("JMS ConnectionFactory : " + name + " initialized");
+            log.info("JMS ConnectionFactory : " + name + " initialized in " +
+                (System.currentTimeMillis() - start) + " ms");
 
         } catch (NamingException e) {
             throw new AxisJMSException("Cannot acquire JNDI context, JMS Connection factory : " +
@@ -128,6 +161,171 @@ public class JMSConnectionFactory {
         }
     }
 
+    /**
+     * Create the pool of Sessions used for sending, if Sessions are cached
+     */
+    private void digestSessionPool() {
+
+        if (cacheLevel < JMSConstants.CACHE_SESSION) {
+            return;
+        }
+
+        int poolSize = JMSConstants.DEFAULT_SESSION_POOL_SIZE;
+        long poolWait = JMSConstants.DEFAULT_SESSION_POOL_WAIT;
+        String val = parameters.get(JMSConstants.PARAM_SESSION_POOL_SIZE);
+        try {
+            if (val != null) {
+                poolSize = Integer.parseInt(val);
+            }
+            val = parameters.get(JMSConstants.PARAM_SESSION_POOL_WAIT);
+            if (val != null) {
+                poolWait = Long.parseLong(val);
+            }
+        } catch (NumberFormatException e) {
+            throw new AxisJMSException("Invalid session pool setting : " + val +
+                " for JMS CF : " + name);
+        }
+        if (poolSize < 1) {
+            throw new AxisJMSException("Invalid session pool size : " + poolSize +
+                " for JMS CF : " + name);
+        }
+        sessionPool = new JMSSessionPool(this, poolSize, poolWait);
+    }
+
+    /**
+     * Create the cache of the Destinations looked up by name, unless disabled
+     */
+    private void digestDestinationCache() {
+
+        long ttl = JMSConstants.DEFAULT_DEST_CACHE_TTL;
+        long negativeTtl = JMSConstants.DEFAULT_DEST_CACHE_NEGATIVE_TTL;
+        String val = parameters.get(JMSConstants.PARAM_DEST_CACHE_TTL);
+        try {
+            if (val != null) {
+                ttl = Long.parseLong(val);
+            }
+            val = parameters.get(JMSConstants.PARAM_DEST_CACHE_NEGATIVE_TTL);
+            if (val != null) {
+                negativeTtl = Long.parseLong(val);
+            }
+        } catch (NumberFormatException e) {
+            throw new AxisJMSException("Invalid destination cache setting : " + val +
+                " for JMS CF : " + name);
+        }
+        if (ttl > 0) {
+            destinationCache = new JMSDestinationCache(ttl, negativeTtl);
+        }
+    }
+
+    /**
+     * Create the asynchronous sender of one way messages, if enabled
+     */
+    private void digestAsyncSender() {
+
+        if (!Boolean.valueOf(parameters.get(JMSConstants.PARAM_ASYNC_SEND))) {
+            return;
+        }
+
+        int maxInFlight = JMSConstants.DEFAULT_MAX_ASYNC_IN_FLIGHT;
+        int commitBatchSize = 1;
+        String val = parameters.get(JMSConstants.PARAM_MAX_ASYNC_IN_FLIGHT);
+        try {
+            if (val != null) {
+                maxInFlight = Integer.parseInt(val);
+            }
+            val = parameters.get(JMSConstants.PARAM_ASYNC_COMMIT_BATCH_SIZE);
+            if (val != null) {
+                commitBatchSize = Integer.parseInt(val);
+            }
+        } catch (NumberFormatException e) {
+            throw new AxisJMSException("Invalid asynchronous send setting : " + val +
+                " for JMS CF : " + name);
+        }
+        if (maxInFlight < 1 || commitBatchSize < 1) {
+            throw new AxisJMSException("Invalid asynchronous send setting : " + maxInFlight +
+                " messages in flight, and commit batch size : " + commitBatchSize +
+                " for JMS CF : " + name);
+        }
+        asyncSender = new JMSAsyncSender(this, maxInFlight, commitBatchSize);
+    }
+
+    /**
+     * Create the asynchronous publisher of dead letters, unless disabled
+     */
+    private void digestDeadLetterPublisher() {
+
+        int bufferSize = JMSConstants.DEFAULT_DEAD_LETTER_BUFFER_SIZE;
+        String val = parameters.get(JMSConstants.PARAM_DEAD_LETTER_BUFFER_SIZE);
+        if (val != null) {
+            try {
+                bufferSize = Integer.parseInt(val);
+            } catch (NumberFormatException e) {
+                throw new AxisJMSException("Invalid dead letter buffer size : " + val +
+                    " for JMS CF : " + name);
+            }
+        }
+        if (bufferSize < 0) {
+            throw new AxisJMSException("Invalid dead letter buffer size : " + bufferSize +
+                " for JMS CF : " + name);
+        }
+        if (bufferSize > 0) {
+            deadLetterPublisher = new JMSDeadLetterPublisher(this, bufferSize);
+        }
+    }
+
+    /**
+     * Digest the members and load balancing settings, iff this is a broker group
+     */
+    private void digestBrokerGroup() {
+
+        String val = parameters.get(JMSConstants.PARAM_CONFAC_MEMBERS);
+        if (val == null) {
+            return;
+        }
+
+        List<String> memberNames = new ArrayList<String>();
+        for (String memberName : val.split(",")) {
+            if (memberName.trim().length() > 0) {
+                memberNames.add(memberName.trim());
+            }
+        }
+        if (memberNames.isEmpty() || memberNames.contains(name)) {
+            throw new AxisJMSException("Invalid broker group members : " + val +
+                " for JMS CF : " + name);
+        }
+
+        String policy = parameters.get(JMSConstants.PARAM_LOAD_BALANCE_POLICY);
+        boolean leastInFlight = JMSBrokerGroup.POLICY_LEAST_IN_FLIGHT.equalsIgnoreCase(policy);
+        if (policy != null && !leastInFlight &&
+            !JMSBrokerGroup.POLICY_ROUND_ROBIN.equalsIgnoreCase(policy)) {
+            throw new AxisJMSException("Invalid load balance policy : " + policy +
+                " for JMS CF : " + name);
+        }
+
+        long ejectTime = JMSConstants.DEFAULT_MEMBER_EJECT_TIME;
+        long maxEjectTime = JMSConstants.DEFAULT_MAX_MEMBER_EJECT_TIME;
+        try {
+            val = parameters.get(JMSConstants.PARAM_MEMBER_EJECT_TIME);
+            if (val != null) {
+                ejectTime = Long.parseLong(val);
+            }
+            val = parameters.get(JMSConstants.PARAM_MAX_MEMBER_EJECT_TIME);
+            if (val != null) {
+                maxEjectTime = Long.parseLong(val);
+            }
+        } catch (NumberFormatException e) {
+            throw new AxisJMSException("Invalid member eject time : " + val +
+                " for JMS CF : " + name);
+        }
+        if (ejectTime < 0 || maxEjectTime < ejectTime) {
+            throw new AxisJMSException("Invalid member eject time : " + ejectTime +
+                " ms, and maximum : " + maxEjectTime + " ms for JMS CF : " + name);
+        }
+
+        brokerGroup = new JMSBrokerGroup(name, memberNames.toArray(new String[memberNames.size()]),
+            leastInFlight, ejectTime, maxEjectTime);
+    }
+
     /**
      * Return the name assigned to this JMS CF definition
      * @return name of the JMS CF
@@ -160,6 +358,14 @@ public class JMSConnectionFactory {
         return cacheLevel;
     }
 
+    /**
+     * Get the pool of Sessions used for sending
+     * @return the Session pool, or null if Sessions are not cached by this JMS CF
+     */
+    public JMSSessionPool getSessionPool() {
+        return sessionPool;
+    }
+
     /**
      * Get the shared Destination - if defined
      * @return
@@ -174,6 +380,80 @@ public class JMSConnectionFactory {
      * @return JMS Destination for the given JNDI name or null
      */
     public Destination getDestination(String name) {
+        return getCachedDestination(name, null);
+    }
+
+    public Destination getDestination(String name, String type) {
+        return getCachedDestination(name, type == null ? "" : type);
+    }
+
+    /**
+     * Get the asynchronous sender of one way messages
+     * @return the asynchronous sender, or null if asynchronous sends are not enabled
+     */
+    public JMSAsyncSender getAsyncSender() {
+        return asyncSender;
+    }
+
+    /**
+     * Get the asynchronous publisher of dead letters
+     * @return the dead letter publisher, or null if dead letters are published synchronously
+     */
+    public JMSDeadLetterPublisher getDeadLetterPublisher() {
+        return deadLetterPublisher;
+    }
+
+    /**
+     * Get the members across which this JMS CF balances
+     * @return the broker group, or null if this JMS CF is bound to a single broker
+     */
+    public JMSBrokerGroup getBrokerGroup() {
+        return brokerGroup;
+    }
+
+    /**
+     * Get the cache of the Destinations looked up by name
+     * @return the Destination cache, or null if disabled
+     */
+    public JMSDestinationCache getDestinationCache() {
+        return destinationCache;
+    }
+
+    /**
+     * Remove a Destination from the cache, so that it is looked up again on its next use
+     * @param name the JNDI name of the Destination
+     */
+    public void invalidateDestination(String name) {
+        if (destinationCache != null && name != null) {
+            destinationCache.invalidate(name);
+        }
+    }
+
+    /**
+     * Get a Destination from the cache, or else look it up and cache the result
+     * @param name the JNDI name of the Destination
+     * @param type the Destination type for a dynamic Destination, or null for no fallback
+     * @return the Destination
+     */
+    private Destination getCachedDestination(String name, String type) {
+        if (destinationCache == null) {
+            return type == null ? lookupDestination(name) : lookupDestination(name, type);
+        }
+
+        Destination destination = destinationCache.get(name, type);
+        if (destination == null) {
+            try {
+                destination = type == null ? lookupDestination(name) : lookupDestination(name, type);
+            } catch (AxisJMSException e) {
+                destinationCache.putFailure(name, type, e);
+                throw e;
+            }
+            destinationCache.put(name, type, destination);
+        }
+        return destination;
+    }
+
+    private Destination lookupDestination(String name) {
         try {
             return JMSUtils.lookup(context, Destination.class, name);
         } catch (NamingException e) {
@@ -182,7 +462,7 @@ public class JMSConnectionFactory {
         return null;
     }
     
-    public Destination getDestination(String name, String type) {
+    private Destination lookupDestination(String name, String type) {
         try {
             return JMSUtils.lookup(context, Destination.class, name);
         } catch (NameNotFoundException e) {
@@ -211,6 +491,63 @@ public class JMSConnectionFactory {
         return parameters.get(JMSConstants.PARAM_REPLY_DESTINATION);
     }
 
+    /**
+     * Should synchronous replies be received through a shared reply consumer?
+     * @return true if a shared consumer per reply destination should be used
+     */
+    public boolean isSharedReplyConsumer() {
+        return Boolean.valueOf(parameters.get(JMSConstants.PARAM_SHARED_REPLY_CONSUMER));
+    }
+
+    /**
+     * Get the shared reply consumer for a reply Destination, starting it on first use
+     * @param replyDestination the reply Destination, or null for a temporary queue
+     * @return the started reply consumer
+     */
+    public synchronized JMSReplyDispatcher getReplyDispatcher(Destination replyDestination) {
+
+        JMSReplyDispatcher replyDispatcher = replyDestination == null ?
+            temporaryReplyDispatcher : replyDispatchers.get(replyDestination);
+
+        if (replyDispatcher != null && replyDispatcher.isFailed()) {
+            log.info("Replacing the failed shared reply consumer on : " + replyDestination +
+                " for JMS CF : " + name);
+            replyDispatcher.close();
+            replyDispatcher = null;
+        }
+        if (replyDispatcher == null) {
+            replyDispatcher = new JMSReplyDispatcher(
+                this, replyDestination, JMSConstants.DEFAULT_JMS_TIMEOUT);
+            try {
+                replyDispatcher.start();
+            } catch (JMSException e) {
+                replyDispatcher.close();
+                handleException("Error starting a shared reply consumer on : " +
+                    replyDestination + " for JMS CF : " + name, e);
+            }
+            if (replyDestination == null) {
+                temporaryReplyDispatcher = replyDispatcher;
+            } else {
+                replyDispatchers.put(replyDestination, replyDispatcher);
+            }
+        }
+        return replyDispatcher;
+    }
+
+    /**
+     * Close the shared reply consumers of this JMS CF
+     */
+    public synchronized void closeReplyDispatchers() {
+        for (JMSReplyDispatcher replyDispatcher : replyDispatchers.values()) {
+            replyDispatcher.close();
+        }
+        replyDispatchers.clear();
+        if (temporaryReplyDispatcher != null) {
+            temporaryReplyDispatcher.close();
+            temporaryReplyDispatcher = null;
+        }
+    }
+
     private void handleException(String msg, Exception e) {
         log.error(msg, e);
         throw new AxisJMSException(msg, e);
@@ -295,7 +632,7 @@ public class JMSConnectionFactory {
      * @param connection Connection to use
      * @return A new Session
      */
-    private Session createSession(Connection connection) {
+    Session createSession(Connection connection) {
         try {
             if (log.isDebugEnabled()) {
                 log.debug("Creating a new JMS Session from JMS CF : " + name);
@@ -315,7 +652,7 @@ public class JMSConnectionFactory {
      * @param destination Destination to be used
      * @return a new MessageProducer
      */
-    private MessageProducer createProducer(Session session, Destination destination) {
+    MessageProducer createProducer(Session session, Destination destination) {
         try {
             if (log.isDebugEnabled()) {
                 log.debug("Creating a new JMS MessageProducer from JMS CF : " + name);
@@ -376,13 +713,29 @@ public class JMSConnectionFactory {
      * @return new or shared Connection from this JMS CF
      */
     private Connection getSharedConnection() {
-        if  (sharedConnection == null) {
-            sharedConnection = createConnection();
-            if (log.isDebugEnabled()) {
-                log.debug("Created shared JMS Connection for JMS CF : " + name);
+        synchronized (sharedLock) {
+            if  (sharedConnection == null) {
+                final Connection connection = createConnection();
+                try {
+                    connection.setExceptionListener(new ExceptionListener() {
+                        public void onException(JMSException e) {
+                            log.warn("The shared JMS Connection of JMS CF : " + name +
+                                " failed : " + e.getMessage());
+                            resetSharedConnection(connection);
+                        }
+                    });
+                } catch (JMSException e) {
+                    // e.g. a J2EE container may not allow an ExceptionListener
+                    log.debug("Cannot set an ExceptionListener on the shared JMS Connection of " +
+                        "JMS CF : " + name, e);
+                }
+                sharedConnection = connection;
+                if (log.isDebugEnabled()) {
+                    log.debug("Created shared JMS Connection for JMS CF : " + name);
+                }
             }
+            return sharedConnection;
         }
-        return sharedConnection;
     }
 
     /**
@@ -390,13 +743,15 @@ public class JMSConnectionFactory {
      * @return shared Session from this JMS CF
      */
     private Session getSharedSession() {
-        if (sharedSession == null) {
-            sharedSession = createSession(getSharedConnection());
-            if (log.isDebugEnabled()) {
-                log.debug("Created shared JMS Session for JMS CF : " + name);
+        synchronized (sharedLock) {
+            if (sharedSession == null) {
+                sharedSession = createSession(getSharedConnection());
+                if (log.isDebugEnabled()) {
+                    log.debug("Created shared JMS Session for JMS CF : " + name);
+                }
             }
+            return sharedSession;
         }
-        return sharedSession;
     }
 
     /**
@@ -404,12 +759,53 @@ public class JMSConnectionFactory {
      * @return shared MessageProducer from this JMS CF
      */
     private MessageProducer getSharedProducer() {
-        if (sharedProducer == null) {
-            sharedProducer = createProducer(getSharedSession(), sharedDestination);
-            if (log.isDebugEnabled()) {
-                log.debug("Created shared JMS MessageConsumer for JMS CF : " + name);
+        synchronized (sharedLock) {
+            if (sharedProducer == null) {
+                sharedProducer = createProducer(getSharedSession(), sharedDestination);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created shared JMS MessageConsumer for JMS CF : " + name);
+                }
+            }
+            return sharedProducer;
+        }
+    }
+
+    /**
+     * Close the shared Connection of this JMS CF, together with the pooled Sessions and the
+     * reply consumers created off it, so that they are created afresh on the next send. Called
+     * when a broker group ejects this JMS CF, as the Connection to a failed broker is unusable,
+     * and when the Connection reports a failure to its ExceptionListener
+     */
+    void resetSharedConnection() {
+        resetSharedConnection(null);
+    }
+
+    /**
+     * Close the shared Connection of this JMS CF, unless it has been replaced already
+     * @param failed the Connection which failed, or null to close the current one
+     */
+    private void resetSharedConnection(Connection failed) {
+        Connection connection;
+        synchronized (sharedLock) {
+            if (failed != null && failed != sharedConnection) {
+                return;
+            }
+            connection = sharedConnection;
+            sharedConnection = null;
+            sharedSession = null;
+            sharedProducer = null;
+        }
+        if (sessionPool != null) {
+            sessionPool.reset();
+        }
+        closeReplyDispatchers();
+        if (connection != null) {
+            try {
+                connection.close();
+                log.info("Closed the shared JMS Connection of JMS CF : " + name);
+            } catch (JMSException e) {
+                log.warn("Error closing the shared JMS Connection of JMS CF : " + name, e);
             }
         }
-        return sharedProducer;
     }
 }
@@ -15,21 +15,31 @@
 */
 package org.apache.axis2.transport.jms;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.jms.JMSException;
 import javax.naming.Context;
 import javax.naming.NamingException;
 
+import org.apache.axiom.om.OMElement;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.ParameterInclude;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.axis2.transport.base.ParamUtils;
+import org.apache.axis2.transport.base.threads.NativeThreadFactory;
 import org.apache.axis2.transport.base.threads.WorkerPool;
 
 /**
@@ -59,12 +69,123 @@ public class JMSConnectionFactoryManager {
      */
     private void loadConnectionFactoryDefinitions(ParameterInclude trpDesc) {
 
+        List<Parameter> definitions = new ArrayList<Parameter>();
         for (Parameter p : trpDesc.getParameters()) {
+            // JMS CFs are defined by nested parameters, other transport settings are plain values
+            if (p.getValue() instanceof OMElement) {
+                definitions.add(p);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        int concurrency = Math.min(getStartupConcurrency(trpDesc), definitions.size());
+        if (concurrency <= 1) {
+            for (Parameter p : definitions) {
+                addConnectionFactory(createConnectionFactory(p));
+            }
+        } else {
+            // the JNDI lookups of the JMS CFs are independent round trips, so overlap them
+            ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                new NativeThreadFactory(new ThreadGroup("JMS CF startup thread group"),
+                    "JMS-CFStartup"));
             try {
-                JMSConnectionFactory jmsConFactory = new JMSConnectionFactory(p);
-                connectionFactories.put(jmsConFactory.getName(), jmsConFactory);
-            } catch (AxisJMSException e) {
-                log.error("Error setting up connection factory : " + p.getName(), e);
+                List<Future<JMSConnectionFactory>> futures =
+                    new ArrayList<Future<JMSConnectionFactory>>(definitions.size());
+                for (final Parameter p : definitions) {
+                    futures.add(executor.submit(new Callable<JMSConnectionFactory>() {
+                        public JMSConnectionFactory call() {
+                            return createConnectionFactory(p);
+                        }
+                    }));
+                }
+                for (Future<JMSConnectionFactory> future : futures) {
+                    addConnectionFactory(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("Interrupted while setting up the JMS connection factories");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw (Error) e.getCause();
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        resolveBrokerGroups();
+
+        if (log.isDebugEnabled()) {
+            log.debug("Set up " + connectionFactories.size() + " of " + definitions.size() +
+                " JMS connection factories in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Create the JMS CF of a definition, logging an invalid definition
+     * @param p the definition of the JMS CF in the transport configuration
+     * @return the JMS CF, or null if the definition is invalid
+     */
+    private JMSConnectionFactory createConnectionFactory(Parameter p) {
+        try {
+            return new JMSConnectionFactory(p);
+        } catch (AxisJMSException e) {
+            log.error("Error setting up connection factory : " + p.getName(), e);
+            return null;
+        }
+    }
+
+    private void addConnectionFactory(JMSConnectionFactory jmsConFactory) {
+        if (jmsConFactory != null) {
+            connectionFactories.put(jmsConFactory.getName(), jmsConFactory);
+        }
+    }
+
+    /**
+     * Get the number of JMS CFs to be set up at the same time
+     * @param trpDesc the transport description for JMS
+     * @return the startup concurrency, or the default if not set or invalid
+     */
+    static int getStartupConcurrency(ParameterInclude trpDesc) {
+        try {
+            return ParamUtils.getOptionalParamInt(trpDesc,
+                JMSConstants.PARAM_STARTUP_CONCURRENCY, JMSConstants.DEFAULT_STARTUP_CONCURRENCY);
+        } catch (AxisFault e) {
+            log.warn("Invalid " + JMSConstants.PARAM_STARTUP_CONCURRENCY + " - using the default of " +
+                JMSConstants.DEFAULT_STARTUP_CONCURRENCY, e);
+            return JMSConstants.DEFAULT_STARTUP_CONCURRENCY;
+        }
+    }
+
+    /**
+     * Resolve the members of the JMS CFs which are broker groups. A broker group with a member
+     * that is not defined, or is itself a broker group, is discarded
+     */
+    private void resolveBrokerGroups() {
+
+        Iterator<JMSConnectionFactory> it = connectionFactories.values().iterator();
+        while (it.hasNext()) {
+            JMSConnectionFactory cf = it.next();
+            JMSBrokerGroup brokerGroup = cf.getBrokerGroup();
+            if (brokerGroup == null) {
+                continue;
+            }
+            List<JMSConnectionFactory> members = new ArrayList<JMSConnectionFactory>();
+            for (String memberName : brokerGroup.getMemberNames()) {
+                JMSConnectionFactory member = connectionFactories.get(memberName);
+                if (member == null || member.getBrokerGroup() != null) {
+                    log.error("Error setting up connection factory : " + cf.getName() +
+                        " - member : " + memberName + " is not a JMS connection factory of a " +
+                        "single broker");
+                    members = null;
+                    break;
+                }
+                members.add(member);
+            }
+            if (members == null) {
+                it.remove();
+            } else {
+                brokerGroup.setMembers(members);
             }
         }
     }
@@ -80,6 +201,14 @@ public class JMSConnectionFactoryManager {
         return connectionFactories.get(name);
     }
 
+    /**
+     * Get all JMS connection factories managed by this
+     * @return the JMS connection factories
+     */
+    public Collection<JMSConnectionFactory> getJMSConnectionFactories() {
+        return connectionFactories.values();
+    }
+
     /**
      * Get the JMS connection factory that matches the given properties, i.e. referring to
      * the same underlying connection factory. Used by the JMSSender to determine if already
@@ -91,6 +220,9 @@ public class JMSConnectionFactoryManager {
      */
     public JMSConnectionFactory getJMSConnectionFactory(Map<String,String> props) {
         for (JMSConnectionFactory cf : connectionFactories.values()) {
+            if (cf.getBrokerGroup() != null) {
+                continue;
+            }
             Map<String,String> cfProperties = cf.getParameters();
 
             if (equals(props.get(JMSConstants.PARAM_CONFAC_JNDI_NAME),
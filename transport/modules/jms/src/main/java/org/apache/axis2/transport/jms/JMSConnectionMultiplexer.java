@@ -0,0 +1,246 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.transport.base.threads.WorkerPool;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.Connection;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Shares a small number of physical JMS Connections between the {@link ServiceTaskManager}s
+ * that use the same connection factory and credentials, which create their Sessions on them.
+ * Without this, every service listening over JMS opens its own Connection to the broker.
+ * <p>
+ * Connections are grouped by a key identifying the connection factory and credentials. A new
+ * Connection is opened for a key until the maximum number of Connections per key is reached,
+ * after which the Connection with the fewest users is handed out. A Connection is closed once
+ * its last user releases it. A Connection is opened outside the lock of the multiplexer, so
+ * that a slow or unreachable broker does not hold up the users of other keys; the users handed
+ * a Connection which is still being opened wait for it to be opened.
+ * <p>
+ * As a Connection has a single ExceptionListener, the multiplexer registers itself and fans a
+ * Connection failure out to the ExceptionListener of every user, on a thread of the worker pool
+ * so that the provider thread reporting the failure is not held up. A user must not reconnect
+ * on that thread, but schedule its reconnection, so that a broker outage does not tie up a
+ * worker thread per user. A failed Connection is no longer handed out.
+ */
+public class JMSConnectionMultiplexer {
+
+    private static final Log log = LogFactory.getLog(JMSConnectionMultiplexer.class);
+
+    /** The worker pool used to notify the users of a failed Connection */
+    private final WorkerPool workerPool;
+    /** The Connections which may be handed out, by key */
+    private final Map<String, List<SharedConnection>> connections =
+        new HashMap<String, List<SharedConnection>>();
+    /** All Connections in use, including the failed ones, by physical Connection */
+    private final Map<Connection, SharedConnection> inUse =
+        new IdentityHashMap<Connection, SharedConnection>();
+
+    public JMSConnectionMultiplexer(WorkerPool workerPool) {
+        this.workerPool = workerPool;
+    }
+
+    /**
+     * Acquire a started Connection for the given key, opening a new one if less than the
+     * maximum number of Connections are open for the key
+     * @param key the key identifying the connection factory and credentials
+     * @param maxConnections the maximum number of Connections for the key
+     * @param factory creates a new (not yet started) Connection
+     * @param listener notified of a failure of the Connection, until it is released
+     * @return the Connection to be used and later released by the caller
+     * @throws Exception if a new Connection could not be created or started
+     */
+    public Connection acquire(String key, int maxConnections,
+        Callable<Connection> factory, ExceptionListener listener) throws Exception {
+
+        SharedConnection shared = null;
+        boolean open = false;
+        synchronized (this) {
+            List<SharedConnection> list = connections.get(key);
+            if (list == null) {
+                list = new ArrayList<SharedConnection>();
+                connections.put(key, list);
+            }
+
+            if (list.size() >= maxConnections) {
+                for (SharedConnection candidate : list) {
+                    if (shared == null || candidate.listeners.size() < shared.listeners.size()) {
+                        shared = candidate;
+                    }
+                }
+            } else {
+                // reserve the slot, and open the Connection once the lock is released
+                shared = new SharedConnection(key);
+                list.add(shared);
+                open = true;
+            }
+            shared.listeners.add(listener);
+        }
+
+        try {
+            if (open) {
+                shared.open(factory);
+                if (log.isDebugEnabled()) {
+                    log.debug("Opened a shared JMS Connection of at most " + maxConnections +
+                        " for a connection factory");
+                }
+            }
+            return shared.awaitOpened();
+
+        } catch (Exception e) {
+            synchronized (this) {
+                shared.listeners.remove(listener);
+                if (open) {
+                    remove(shared);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Release a Connection acquired from this multiplexer, closing it if it has no more users
+     * @param connection the Connection to release
+     * @param listener the ExceptionListener passed when acquiring the Connection
+     */
+    public void release(Connection connection, ExceptionListener listener) {
+        SharedConnection shared;
+        synchronized (this) {
+            shared = inUse.get(connection);
+            if (shared == null || !shared.listeners.remove(listener) ||
+                !shared.listeners.isEmpty()) {
+                return;
+            }
+            inUse.remove(connection);
+            remove(shared);
+        }
+
+        try {
+            connection.close();
+            log.debug("Closed shared JMS Connection as it is no longer used");
+        } catch (JMSException e) {
+            log.warn("Error closing shared JMS Connection", e);
+        }
+    }
+
+    /**
+     * Stop handing out the given Connection
+     */
+    private synchronized void remove(SharedConnection shared) {
+        List<SharedConnection> list = connections.get(shared.key);
+        if (list != null) {
+            list.remove(shared);
+            if (list.isEmpty()) {
+                connections.remove(shared.key);
+            }
+        }
+    }
+
+    /**
+     * A physical Connection and the ExceptionListeners of its users
+     */
+    private class SharedConnection implements ExceptionListener {
+
+        private final String key;
+        /** The ExceptionListeners of the users, guarded by the multiplexer */
+        private final List<ExceptionListener> listeners = new ArrayList<ExceptionListener>();
+        /** The physical Connection once opened, guarded by this */
+        private Connection connection = null;
+        /** The reason the Connection could not be opened, guarded by this */
+        private Exception failure = null;
+
+        SharedConnection(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Open and start the Connection, and hand it to the users waiting for it
+         * @param factory creates a new (not yet started) Connection
+         * @throws Exception if the Connection could not be created or started
+         */
+        void open(Callable<Connection> factory) throws Exception {
+            Connection opened = null;
+            try {
+                opened = factory.call();
+                opened.setExceptionListener(this);
+                opened.start();
+            } catch (Exception e) {
+                if (opened != null) {
+                    try {
+                        opened.close();
+                    } catch (JMSException ignore) {}
+                }
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                throw e;
+            }
+
+            synchronized (JMSConnectionMultiplexer.this) {
+                inUse.put(opened, this);
+            }
+            synchronized (this) {
+                connection = opened;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Wait until the Connection has been opened by the user which reserved it
+         * @return the started Connection
+         * @throws Exception if the Connection could not be opened
+         */
+        synchronized Connection awaitOpened() throws Exception {
+            while (connection == null && failure == null) {
+                wait();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return connection;
+        }
+
+        public void onException(final JMSException e) {
+            List<ExceptionListener> affected;
+            synchronized (JMSConnectionMultiplexer.this) {
+                remove(this);
+                affected = new ArrayList<ExceptionListener>(listeners);
+            }
+
+            log.warn("Shared JMS Connection failure : " + e.getMessage() + " - notifying " +
+                affected.size() + " user(s)");
+            for (final ExceptionListener listener : affected) {
+                workerPool.execute(new Runnable() {
+                    public void run() {
+                        listener.onException(e);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -35,6 +35,76 @@ public class JMSConstants {
      * The default JMS time out waiting for a reply - also see {@link JMS_WAIT_REPLY}
      */
     public static final long DEFAULT_JMS_TIMEOUT = Options.DEFAULT_TIMEOUT_MILLISECONDS;
+    /**
+     * The default number of Sessions pooled by a JMS CF - also see {@link PARAM_SESSION_POOL_SIZE}
+     */
+    public static final int DEFAULT_SESSION_POOL_SIZE = 10;
+    /**
+     * The default wait for a pooled Session in milliseconds - also see {@link PARAM_SESSION_POOL_WAIT}
+     */
+    public static final long DEFAULT_SESSION_POOL_WAIT = Options.DEFAULT_TIMEOUT_MILLISECONDS;
+    /**
+     * The default time to live of a cached Destination in milliseconds - also see {@link PARAM_DEST_CACHE_TTL}
+     */
+    public static final long DEFAULT_DEST_CACHE_TTL = 300000;
+    /**
+     * The default time to live of a cached Destination lookup failure in milliseconds - also see
+     * {@link PARAM_DEST_CACHE_NEGATIVE_TTL}
+     */
+    public static final long DEFAULT_DEST_CACHE_NEGATIVE_TTL = 10000;
+    /**
+     * The default number of target EPRs cached by the JMS sender - also see {@link PARAM_EPR_CACHE_SIZE}
+     */
+    public static final int DEFAULT_EPR_CACHE_SIZE = 100;
+    /**
+     * The default time to live of a cached target EPR in milliseconds - also see {@link PARAM_EPR_CACHE_TTL}
+     */
+    public static final int DEFAULT_EPR_CACHE_TTL = 300000;
+    /**
+     * The default number of JMS CFs, or services, set up at the same time on startup - also see
+     * {@link PARAM_STARTUP_CONCURRENCY}
+     */
+    public static final int DEFAULT_STARTUP_CONCURRENCY = 8;
+    /**
+     * The default maximum number of asynchronous sends of a JMS CF awaiting completion - also see
+     * {@link PARAM_MAX_ASYNC_IN_FLIGHT}
+     */
+    public static final int DEFAULT_MAX_ASYNC_IN_FLIGHT = 100;
+    /**
+     * The default maximum number of dead letters of a JMS CF queued for publishing - also see
+     * {@link PARAM_DEAD_LETTER_BUFFER_SIZE}
+     */
+    public static final int DEFAULT_DEAD_LETTER_BUFFER_SIZE = 1000;
+    /**
+     * The default number of milliseconds a failed member of a JMS CF broker group is ejected for -
+     * also see {@link PARAM_MEMBER_EJECT_TIME}
+     */
+    public static final int DEFAULT_MEMBER_EJECT_TIME = 5000;
+    /**
+     * The default maximum number of milliseconds a failed member of a JMS CF broker group is
+     * ejected for - also see {@link PARAM_MAX_MEMBER_EJECT_TIME}
+     */
+    public static final int DEFAULT_MAX_MEMBER_EJECT_TIME = 300000;
+    /**
+     * The default size in bytes below which BytesMessages are not compressed - also see
+     * {@link PARAM_COMPRESSION_THRESHOLD}
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    /**
+     * The default wait for the next chunk of a chunked message in milliseconds - also see
+     * {@link PARAM_CHUNK_TIMEOUT}
+     */
+    public static final int DEFAULT_CHUNK_TIMEOUT = 60000;
+    /**
+     * The default number of chunks buffered ahead per chunked message - also see
+     * {@link PARAM_MAX_BUFFERED_CHUNKS}
+     */
+    public static final int DEFAULT_MAX_BUFFERED_CHUNKS = 4;
+    /**
+     * The default maximum number of chunked messages the JMS listener processes at the same
+     * time - also see {@link PARAM_MAX_CHUNKED_MESSAGES}
+     */
+    public static final int DEFAULT_MAX_CHUNKED_MESSAGES = 20;
     /**
      * Value indicating a Queue used for {@link DEST_PARAM_TYPE}, {@link REPLY_PARAM_TYPE}
      */
@@ -61,6 +131,13 @@ public class JMSConstants {
     /** automatic choice of an appropriate caching level (depending on the transaction strategy) */
 	public static final int CACHE_AUTO = 5;
 
+    /** Consumer tasks poll for messages with MessageConsumer.receive() */
+    public static final String CONSUMPTION_MODE_POLL = "poll";
+    /** Messages are pushed by the JMS provider to a MessageListener registered on each consumer */
+    public static final String CONSUMPTION_MODE_LISTENER = "listener";
+    /** Consumer tasks only receive messages, which are handed off to separate processing tasks */
+    public static final String CONSUMPTION_MODE_PIPELINED = "pipelined";
+
     /** A JMS 1.1 Generic Destination type or ConnectionFactory */
     public static final int GENERIC = 0;
     /** A Queue Destination type or ConnectionFactory */
@@ -110,6 +187,38 @@ public class JMSConstants {
      * The Parameter indicating the expected content type for messages received by the service.
      */
     public static final String CONTENT_TYPE_PARAM = "transport.jms.ContentType";
+    /**
+     * The compression of outgoing BytesMessages: gzip, deflate or none (default). Looked up on the
+     * message context, the service and the transport sender. See {@link CONTENT_ENCODING_PROPERTY}
+     */
+    public static final String PARAM_COMPRESSION = "transport.jms.Compression";
+    /** The compression level (0-9) of outgoing BytesMessages - See {@link PARAM_COMPRESSION} */
+    public static final String PARAM_COMPRESSION_LEVEL = "transport.jms.CompressionLevel";
+    /**
+     * The size in bytes below which outgoing BytesMessages are not compressed - See
+     * {@link DEFAULT_COMPRESSION_THRESHOLD}
+     */
+    public static final String PARAM_COMPRESSION_THRESHOLD = "transport.jms.CompressionThreshold";
+    /**
+     * The maximum size in bytes of the BytesMessages an outgoing message is split into - 0 (the
+     * default) to send it as a single message. Looked up like {@link PARAM_COMPRESSION}
+     */
+    public static final String PARAM_CHUNK_SIZE = "transport.jms.ChunkSize";
+    /**
+     * The number of milliseconds a service waits for the next chunk of a chunked message, before
+     * failing it - See {@link DEFAULT_CHUNK_TIMEOUT}
+     */
+    public static final String PARAM_CHUNK_TIMEOUT = "transport.jms.ChunkTimeout";
+    /**
+     * The maximum number of chunks of a chunked message received ahead of the chunk being read -
+     * See {@link DEFAULT_MAX_BUFFERED_CHUNKS}
+     */
+    public static final String PARAM_MAX_BUFFERED_CHUNKS = "transport.jms.MaxBufferedChunks";
+    /**
+     * The maximum number of chunked messages the JMS listener processes at the same time, each on
+     * a thread of its own - See {@link DEFAULT_MAX_CHUNKED_MESSAGES}
+     */
+    public static final String PARAM_MAX_CHUNKED_MESSAGES = "transport.jms.MaxChunkedMessages";
     /**
      * The Parameter indicating a final EPR as a String, to be published on the WSDL of a service
      * Could occur more than once, and could provide additional connection properties or a subset
@@ -142,12 +251,106 @@ public class JMSConstants {
     public static final String PARAM_SUB_DURABLE = "transport.jms.SubscriptionDurable";
     /** The name for the durable subscription See {@link PARAM_SUB_DURABLE}*/
     public static final String PARAM_DURABLE_SUB_NAME = "transport.jms.DurableSubscriberName";
+    /**
+     * Is the subscription to a topic shared by the consumers of the service, across threads and
+     * nodes ? - "true" or "false". The subscription is named after the durable subscriber name,
+     * or else the service name. See {@link PARAM_VIRTUAL_TOPIC_QUEUE}
+     */
+    public static final String PARAM_SHARED_SUBSCRIPTION = "transport.jms.SharedSubscription";
+    /**
+     * The JNDI or physical name of the queue which the broker fills from the topic, consumed from
+     * if the JMS provider does not support JMS 2.0 shared subscriptions. See
+     * {@link PARAM_SHARED_SUBSCRIPTION}
+     */
+    public static final String PARAM_VIRTUAL_TOPIC_QUEUE = "transport.jms.VirtualTopicQueue";
     /**
      * JMS Resource cachable level to be used for the service One of the following:
      * {@link CACHE_NONE}, {@link CACHE_CONNECTION}, {@link CACHE_SESSION}, {@link CACHE_PRODUCER},
      * {@link CACHE_CONSUMER}, or {@link CACHE_AUTO} - to let the transport decide
      */
     public static final String PARAM_CACHE_LEVEL = "transport.jms.CacheLevel";
+    /**
+     * The maximum number of Sessions (and their MessageProducers) a JMS CF will pool for sending,
+     * when the {@link PARAM_CACHE_LEVEL} is session or producer
+     */
+    public static final String PARAM_SESSION_POOL_SIZE = "transport.jms.SessionPoolSize";
+    /**
+     * The number of milliseconds a sender will wait for a pooled Session to become available,
+     * before failing - See {@link PARAM_SESSION_POOL_SIZE}
+     */
+    public static final String PARAM_SESSION_POOL_WAIT = "transport.jms.SessionPoolWaitTimeout";
+    /**
+     * The number of milliseconds a JMS CF caches the Destinations it looked up by name - 0 to
+     * disable the cache. See {@link DEFAULT_DEST_CACHE_TTL}
+     */
+    public static final String PARAM_DEST_CACHE_TTL = "transport.jms.DestinationCacheTimeToLive";
+    /**
+     * The number of milliseconds a JMS CF caches a failed Destination lookup - 0 to not cache
+     * failures. See {@link DEFAULT_DEST_CACHE_NEGATIVE_TTL}
+     */
+    public static final String PARAM_DEST_CACHE_NEGATIVE_TTL =
+        "transport.jms.DestinationCacheNegativeTimeToLive";
+    /**
+     * The maximum number of target EPRs of which the JMS sender caches the resolved connection
+     * factory and destinations - 0 to disable
+     */
+    public static final String PARAM_EPR_CACHE_SIZE = "transport.jms.EPRCacheSize";
+    /**
+     * The maximum number of JMS CFs of the JMS listener or sender looked up at the same time on
+     * startup, and of services whose ServiceTaskManagers the JMS listener starts at the same
+     * time - 1 to set them up one after the other
+     */
+    public static final String PARAM_STARTUP_CONCURRENCY = "transport.jms.StartupConcurrency";
+    /** The number of milliseconds after which a cached target EPR is resolved again */
+    public static final String PARAM_EPR_CACHE_TTL = "transport.jms.EPRCacheTimeToLive";
+    /**
+     * Should one way messages sent through a JMS CF be sent asynchronously, i.e. without waiting
+     * for the broker to acknowledge each send? - "true" or "false". Not used for messages sent
+     * within a JTA transaction, or when waiting for a synchronous reply
+     */
+    public static final String PARAM_ASYNC_SEND = "transport.jms.AsyncSend";
+    /**
+     * The maximum number of asynchronous sends of a JMS CF awaiting completion, after which
+     * senders block - See {@link DEFAULT_MAX_ASYNC_IN_FLIGHT}
+     */
+    public static final String PARAM_MAX_ASYNC_IN_FLIGHT = "transport.jms.MaxAsyncInFlight";
+    /**
+     * The maximum number of asynchronous sends committed together in one local transaction - if
+     * greater than 1, a transacted Session is used instead of a JMS 2.0 CompletionListener
+     */
+    public static final String PARAM_ASYNC_COMMIT_BATCH_SIZE = "transport.jms.AsyncCommitBatchSize";
+    /**
+     * The maximum number of dead letters of a JMS CF queued for publishing in batches by a
+     * background thread, after which callers block - 0 to publish each dead letter synchronously.
+     * See {@link DEFAULT_DEAD_LETTER_BUFFER_SIZE}
+     */
+    public static final String PARAM_DEAD_LETTER_BUFFER_SIZE = "transport.jms.DeadLetterBufferSize";
+    /**
+     * A comma separated list of the names of the JMS CFs of the transport across which a logical
+     * JMS CF balances the messages it sends, and whose Destinations its services consume from.
+     * A JMS CF with members is not bound to a JNDI ConnectionFactory of its own
+     */
+    public static final String PARAM_CONFAC_MEMBERS = "transport.jms.ConnectionFactoryMembers";
+    /**
+     * How the member of a JMS CF broker group is selected for a message - "roundRobin" (default)
+     * or "leastInFlight"
+     */
+    public static final String PARAM_LOAD_BALANCE_POLICY = "transport.jms.LoadBalancePolicy";
+    /**
+     * The number of milliseconds a member of a JMS CF broker group is ejected for after a failure,
+     * doubling with each consecutive failure. See {@link DEFAULT_MEMBER_EJECT_TIME}
+     */
+    public static final String PARAM_MEMBER_EJECT_TIME = "transport.jms.MemberEjectTime";
+    /**
+     * The maximum number of milliseconds a member of a JMS CF broker group is ejected for.
+     * See {@link DEFAULT_MAX_MEMBER_EJECT_TIME}
+     */
+    public static final String PARAM_MAX_MEMBER_EJECT_TIME = "transport.jms.MaxMemberEjectTime";
+    /**
+     * Should synchronous replies be received by one long-lived consumer per reply destination
+     * (or per temporary queue) of a JMS CF, instead of a consumer per request? - "true" or "false"
+     */
+    public static final String PARAM_SHARED_REPLY_CONSUMER = "transport.jms.SharedReplyConsumer";
     /** Should a pub-sub connection receive messages published by itself? */
     public static final String PARAM_PUBSUB_NO_LOCAL = "transport.jms.PubSubNoLocal";
     /**
@@ -187,6 +390,74 @@ public class JMSConstants {
     public static final String PARAM_RECON_FACTOR = "transport.jms.ReconnectProgressFactor";
     /** @see PARAM_RECON_INIT_DURATION */
     public static final String PARAM_RECON_MAX_DURATION = "transport.jms.MaxReconnectDuration";
+    /**
+     * How the consumers of a service receive messages - {@link CONSUMPTION_MODE_POLL} (default),
+     * {@link CONSUMPTION_MODE_LISTENER} or {@link CONSUMPTION_MODE_PIPELINED}
+     */
+    public static final String PARAM_CONSUMPTION_MODE = "transport.jms.ConsumptionMode";
+    /**
+     * The maximum number of received messages waiting to be processed in the
+     * {@link CONSUMPTION_MODE_PIPELINED} mode, before receiving blocks - default is 100
+     */
+    public static final String PARAM_PIPELINE_QUEUE_SIZE = "transport.jms.PipelineQueueSize";
+    /**
+     * Should the messages of each message group (JMSXGroupID) be processed in order, in the
+     * {@link CONSUMPTION_MODE_PIPELINED} mode? Default is false
+     */
+    public static final String PARAM_PRESERVE_GROUP_ORDER = "transport.jms.PreserveGroupOrder";
+    /** The maximum number of message groups processed in parallel - default is 100 */
+    public static final String PARAM_MAX_GROUP_LANES = "transport.jms.MaxGroupLanes";
+    /** The number of milliseconds after which an idle message group is forgotten - default 60000 */
+    public static final String PARAM_GROUP_LANE_IDLE_TIMEOUT = "transport.jms.GroupLaneIdleTimeout";
+    /**
+     * The maximum number of Connections shared by the services using the same connection factory
+     * and credentials, when the Connection is cached - default is 0, i.e. one per service
+     */
+    public static final String PARAM_MAX_SHARED_CONNECTIONS = "transport.jms.MaxSharedConnections";
+    /**
+     * The maximum number of messages of a service received and not yet processed, whatever the
+     * number of consumers - consumers stop receiving while it is reached. Default is unlimited
+     */
+    public static final String PARAM_MAX_IN_FLIGHT = "transport.jms.MaxInFlightMessages";
+    /**
+     * The number of received messages to commit (or acknowledge) together, when local
+     * transactions or client acknowledgement are used - default is 1, i.e. every message
+     */
+    public static final String PARAM_COMMIT_BATCH_SIZE = "transport.jms.CommitBatchSize";
+    /**
+     * The maximum number of milliseconds a processed message may wait for the commit of its
+     * batch - See {@link PARAM_COMMIT_BATCH_SIZE}
+     */
+    public static final String PARAM_COMMIT_BATCH_TIMEOUT = "transport.jms.CommitBatchTimeout";
+    /**
+     * The interval in milliseconds at which the number of consumers is adjusted to the measured
+     * load, between {@link PARAM_CONCURRENT_CONSUMERS} and {@link PARAM_MAX_CONSUMERS} - default
+     * is 0, i.e. consumers start one another and stop after {@link PARAM_IDLE_TASK_LIMIT}
+     */
+    public static final String PARAM_SCALING_INTERVAL = "transport.jms.ScalingInterval";
+    /**
+     * Should the queue be browsed to take its depth into account when scaling consumers?
+     * See {@link PARAM_SCALING_INTERVAL}
+     */
+    public static final String PARAM_SCALING_BROWSE_QUEUE = "transport.jms.ScalingBrowseQueue";
+    /**
+     * The number of times a message that failed to be processed is redelivered after a delay,
+     * before it is moved to the dead letter queue - default is 0, i.e. failed messages are rolled
+     * back for the JMS provider to redeliver them. See {@link REDELIVERY_COUNT_PROPERTY}
+     */
+    public static final String PARAM_MAX_REDELIVERIES = "transport.jms.MaxRedeliveries";
+    /**
+     * The number of milliseconds before the first redelivery of a failed message - default 1000.
+     * See {@link PARAM_MAX_REDELIVERIES}
+     */
+    public static final String PARAM_REDELIVERY_DELAY = "transport.jms.RedeliveryDelay";
+    /** The factor by which the redelivery delay grows with each failure - default is 2 */
+    public static final String PARAM_REDELIVERY_BACKOFF_FACTOR = "transport.jms.RedeliveryBackoffFactor";
+    /**
+     * The name of the queue failed messages wait on until their redelivery, when the JMS provider
+     * cannot delay a delivery (JMS 1.1) - optional. See {@link PARAM_MAX_REDELIVERIES}
+     */
+    public static final String PARAM_REDELIVERY_QUEUE = "transport.jms.RedeliveryQueue";
 
     /** The username to use when obtaining a JMS Connection */
     public static final String PARAM_JMS_USERNAME = "transport.jms.UserName";
@@ -218,6 +489,12 @@ public class JMSConstants {
      * A MessageContext property or client Option indicating the JMS message id
      */
     public static final String JMS_MESSAGE_ID = "JMS_MESSAGE_ID";
+    /**
+     * A MessageContext property holding the stream the body of a received BytesMessage is read
+     * from, when its JMS 1.0 provider can't tell its length up front. The length is then counted
+     * as the message is read - see {@link JMSUtils#getBytesRead}
+     */
+    public static final String JMS_BYTES_MESSAGE_STREAM = "JMS_BYTES_MESSAGE_STREAM";
     /**
      * A MessageContext property or client Option indicating the JMS delivery mode as an Integer or String
      * Value 1 - javax.jms.DeliveryMode.NON_PERSISTENT
@@ -262,6 +539,11 @@ public class JMSConstants {
      * A MessageContext property or client Option indicating the JMS time to live for message sent
      */
     public static final String JMS_TIME_TO_LIVE = "JMS_TIME_TO_LIVE";
+    /**
+     * A MessageContext property or client Option holding the {@link JMSSendCallback} to notify,
+     * once a message sent asynchronously has been completed or failed
+     */
+    public static final String JMS_SEND_CALLBACK = "JMS_SEND_CALLBACK";
 
     /** The prefix that denotes JMSX properties */
     public static final String JMSX_PREFIX = "JMSX";
@@ -269,6 +551,37 @@ public class JMSConstants {
     public static final String JMSX_GROUP_ID = "JMSXGroupID";
     /** The JMSXGroupSeq property */
     public static final String JMSX_GROUP_SEQ = "JMSXGroupSeq";
+    /** The JMSXDeliveryCount property */
+    public static final String JMSX_DELIVERY_COUNT = "JMSXDeliveryCount";
+    /**
+     * The message property flagging a compressed BytesMessage, holding the compression format
+     * (gzip or deflate) of its body
+     */
+    public static final String CONTENT_ENCODING_PROPERTY = "ContentEncoding";
+    /**
+     * The message property holding the unique ID of the chunked message a BytesMessage is a chunk
+     * of. The first chunk carries the properties of the message - See {@link PARAM_CHUNK_SIZE}
+     */
+    public static final String CHUNK_ID_PROPERTY = "ChunkID";
+    /** The message property holding the sequence number of a chunk, starting from 1 */
+    public static final String CHUNK_SEQ_PROPERTY = "ChunkSeq";
+    /** The message property flagging the last chunk of a chunked message */
+    public static final String CHUNK_LAST_PROPERTY = "ChunkLast";
+    /**
+     * The message property counting the times a failed message was sent again to the queue with
+     * a delivery delay - See {@link PARAM_MAX_REDELIVERIES}
+     */
+    public static final String REDELIVERY_COUNT_PROPERTY = "RedeliveryCount";
+    /**
+     * The message property holding the time in milliseconds after which a failed message waiting
+     * on the redelivery queue is moved back - See {@link PARAM_REDELIVERY_QUEUE}
+     */
+    public static final String REDELIVER_AFTER_PROPERTY = "RedeliverAfter";
+    /**
+     * The message property holding the name of the service a failed message waiting on the
+     * redelivery queue is moved back to - See {@link PARAM_REDELIVERY_QUEUE}
+     */
+    public static final String REDELIVERY_SERVICE_PROPERTY = "RedeliveryService";
 
     /**
      * A MessageContext property or client Option stating the name of the dead letter queue 
@@ -0,0 +1,182 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.mail.internet.ContentType;
+import javax.mail.internet.ParseException;
+
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
+import org.apache.axis2.builder.Builder;
+import org.apache.axis2.builder.BuilderUtil;
+import org.apache.axis2.builder.SOAPBuilder;
+import org.apache.axis2.context.MessageContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded cache of the information derived from the content types of the messages received
+ * by a {@link JMSEndpoint}, i.e. the charset encoding and the message builder. The content
+ * types seen by an endpoint are usually few, so this avoids parsing the content type and
+ * looking up the builder for every message. The least recently used entry is evicted when
+ * the cache is full.
+ * <p>
+ * The information only depends on the media type and the charset parameter, so the cache is
+ * keyed by these alone. Other parameters, such as the boundary and start of a multipart
+ * message, differ from one message to the next and would otherwise fill the cache with
+ * entries that are never hit again.
+ * <p>
+ * Looking up a builder also sets the message type of the message context, which determines
+ * the format of the response. Only the builder is cached, and the message type is set on the
+ * message context of every message, whether or not its content type was found in the cache.
+ */
+public class JMSContentTypeCache {
+
+    private static final Log log = LogFactory.getLog(JMSContentTypeCache.class);
+
+    /** The maximum number of content types in the cache */
+    private static final int MAX_SIZE = 32;
+
+    /** The resolved content types, least recently used first */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_SIZE;
+        }
+    };
+
+    /**
+     * Get the information for the given content type, resolving it on a miss. Message
+     * builders are resolved using the given message context, which is expected to refer to
+     * the same service and configuration for all the messages of the endpoint
+     * @param contentType the content type of a message
+     * @param msgContext the message context of the message
+     * @return the charset encoding and message builder to use for the content type
+     * @throws AxisFault on error looking up the message builder
+     */
+    public Entry get(String contentType, MessageContext msgContext) throws AxisFault {
+        String key = getKey(contentType);
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null) {
+            cached.setMessageType(msgContext);
+            return cached;
+        }
+        Entry entry = resolve(contentType, msgContext);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Get the cache key of a content type, i.e. its media type and charset parameter, without
+     * parsing it fully
+     * @param contentType the content type of a message
+     * @return the media type, followed by the charset parameter if there is one
+     */
+    static String getKey(String contentType) {
+        int index = contentType.indexOf(';');
+        if (index < 0) {
+            return contentType;
+        }
+        String type = contentType.substring(0, index).trim();
+        while (index >= 0) {
+            int start = index + 1;
+            index = contentType.indexOf(';', start);
+            String param = index < 0 ? contentType.substring(start) : contentType.substring(start, index);
+            int eq = param.indexOf('=');
+            if (eq > 0 && param.substring(0, eq).trim().equalsIgnoreCase("charset")) {
+                return type + ";charset=" + param.substring(eq + 1).trim();
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Resolve the information for the given content type, without caching it
+     * @param contentType the content type of a message
+     * @param msgContext the message context of the message
+     * @return the charset encoding and message builder to use for the content type
+     * @throws AxisFault on error looking up the message builder
+     */
+    public static Entry resolve(String contentType, MessageContext msgContext) throws AxisFault {
+        int index = contentType.indexOf(';');
+        String type = index > 0 ? contentType.substring(0, index) : contentType;
+        // sets the message type of the message context if a builder is found
+        Builder builder = BuilderUtil.getBuilderFromSelector(type, msgContext);
+        String messageType =
+            builder == null ? null : (String) msgContext.getProperty(Constants.Configuration.MESSAGE_TYPE);
+        if (builder == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("No message builder found for type '" + type + "'. Falling back to SOAP.");
+            }
+            builder = new SOAPBuilder();
+        }
+
+        String charSetEnc = null;
+        try {
+            charSetEnc = new ContentType(contentType).getParameter("charset");
+        } catch (ParseException ex) {
+            // ignore
+        }
+        return new Entry(builder, charSetEnc, messageType);
+    }
+
+    /**
+     * The information derived from a content type
+     */
+    public static class Entry {
+        private final Builder builder;
+        private final String charSetEncoding;
+        /** The message type set by the builder lookup, or null for the SOAP fallback */
+        private final String messageType;
+
+        Entry(Builder builder, String charSetEncoding, String messageType) {
+            this.builder = builder;
+            this.charSetEncoding = charSetEncoding;
+            this.messageType = messageType;
+        }
+
+        /**
+         * Set the message type of a message context as looking up the builder would have
+         * @param msgContext the message context of a message with this content type
+         */
+        void setMessageType(MessageContext msgContext) {
+            if (messageType != null) {
+                msgContext.setProperty(Constants.Configuration.MESSAGE_TYPE, messageType);
+            }
+        }
+
+        /**
+         * @return the message builder for the content type
+         */
+        public Builder getBuilder() {
+            return builder;
+        }
+
+        /**
+         * @return the charset parameter of the content type, or null if there is none
+         */
+        public String getCharSetEncoding() {
+            return charSetEncoding;
+        }
+    }
+}
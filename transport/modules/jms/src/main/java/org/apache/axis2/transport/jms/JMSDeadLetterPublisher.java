@@ -0,0 +1,310 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.apache.axis2.transport.base.threads.NativeThreadFactory;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the dead letters of a JMS CF asynchronously, so that a burst of poisoned messages
+ * does not cost a new Session, Destination lookup, producer and commit for each of them. The
+ * dead letters are queued in a bounded buffer, after which callers block, and a background
+ * thread sends them in batches through one transacted Session and anonymous producer, committing
+ * each batch at once. The dead letter queues are resolved once and kept for the life of the
+ * Session.
+ *
+ * The background thread is started on first use and stops after being idle for a while, so that
+ * a JMS CF which does not produce dead letters does not hold a thread or Session.
+ */
+public class JMSDeadLetterPublisher {
+
+    private static final Log log = LogFactory.getLog(JMSDeadLetterPublisher.class);
+
+    /** The number of milliseconds between checks whether the publisher has been closed */
+    private static final int STATE_CHECK_INTERVAL = 1000;
+    /** The number of milliseconds after which an idle background thread stops */
+    private static final int IDLE_TIMEOUT = 60000;
+    /** The maximum number of milliseconds to wait for the queued dead letters on close */
+    private static final int CLOSE_TIMEOUT = 30000;
+    /** The maximum number of dead letters committed together */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    /** The JMS CF used to create the Session and producer */
+    private final JMSConnectionFactory jmsConnectionFactory;
+    /** The dead letters queued for the background thread */
+    private final BlockingQueue<DeadLetter> queue;
+    private Thread publisherThread = null;
+    private boolean closed = false;
+
+    /**
+     * Create a dead letter publisher
+     * @param jmsConnectionFactory the JMS CF to publish through
+     * @param bufferSize the maximum number of dead letters queued for publishing
+     */
+    public JMSDeadLetterPublisher(JMSConnectionFactory jmsConnectionFactory, int bufferSize) {
+        this.jmsConnectionFactory = jmsConnectionFactory;
+        this.queue = new ArrayBlockingQueue<DeadLetter>(bufferSize);
+    }
+
+    /**
+     * Queue a dead letter for publishing, blocking while the buffer is full
+     * @param message the JMS message, with writable properties
+     * @param deadLetterQueueName the name of the dead letter queue
+     * @param metrics the metrics to update once published, or null
+     * @return true if queued, false if the publisher has been closed or the caller interrupted
+     */
+    public boolean publish(Message message, String deadLetterQueueName, MetricsCollector metrics) {
+
+        DeadLetter deadLetter = new DeadLetter(message, deadLetterQueueName, metrics);
+        try {
+            while (true) {
+                // the background thread only stops while holding the lock with an empty queue
+                synchronized (this) {
+                    if (closed) {
+                        return false;
+                    }
+                    startPublisher();
+                    if (queue.offer(deadLetter)) {
+                        return true;
+                    }
+                }
+                // wait for room without holding the lock, so as not to block close()
+                if (queue.offer(deadLetter, STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // the background thread may have stopped or been closed while waiting
+        synchronized (this) {
+            if (closed) {
+                return !queue.remove(deadLetter);
+            }
+            startPublisher();
+            return true;
+        }
+    }
+
+    /**
+     * Start the background thread, unless it is running. The caller must hold the lock
+     */
+    private void startPublisher() {
+        if (publisherThread == null) {
+            publisherThread = new NativeThreadFactory(
+                new ThreadGroup("JMS Dead letter publisher thread group"),
+                "JMS-DeadLetterPublisher-" + jmsConnectionFactory.getName()).newThread(
+                new Publisher());
+            publisherThread.start();
+        }
+    }
+
+    /**
+     * Stop accepting dead letters, and wait for the queued ones to be published
+     */
+    public void close() {
+
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = publisherThread;
+        }
+        if (thread != null) {
+            try {
+                thread.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (!queue.isEmpty()) {
+            log.warn(queue.size() + " dead letters of JMS CF : " + jmsConnectionFactory.getName() +
+                " were not published before closing");
+        }
+    }
+
+    /**
+     * Drains the queued dead letters into batches, until closed or idle. The JMS objects are
+     * private to each background thread, so that a thread which has stopped can close them
+     * while a new one is started
+     */
+    private class Publisher implements Runnable {
+
+        /** The Connection, Session and producer of this thread, created on first use */
+        private Connection connection = null;
+        private Session session = null;
+        private MessageProducer producer = null;
+        /** The dead letter queues resolved by name, for the current Session */
+        private final Map<String, Destination> deadLetterQueues =
+            new HashMap<String, Destination>();
+
+        public void run() {
+            List<DeadLetter> batch = new ArrayList<DeadLetter>(MAX_BATCH_SIZE);
+            long lastActive = System.currentTimeMillis();
+            try {
+                while (true) {
+                    DeadLetter deadLetter = queue.poll(STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (deadLetter == null) {
+                        synchronized (JMSDeadLetterPublisher.this) {
+                            if (queue.isEmpty() && (closed ||
+                                System.currentTimeMillis() - lastActive > IDLE_TIMEOUT)) {
+                                publisherThread = null;
+                                break;
+                            }
+                        }
+                        continue;
+                    }
+                    batch.add(deadLetter);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    try {
+                        sendBatch(batch);
+                    } finally {
+                        batch.clear();
+                    }
+                    lastActive = System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                synchronized (JMSDeadLetterPublisher.this) {
+                    publisherThread = null;
+                }
+            } finally {
+                closeSession();
+            }
+        }
+
+        /**
+         * Send a batch of dead letters, and commit them together
+         * @param batch the dead letters to send
+         */
+        private void sendBatch(List<DeadLetter> batch) {
+
+            try {
+                if (session == null) {
+                    createSession();
+                }
+                for (DeadLetter deadLetter : batch) {
+                    producer.send(getDeadLetterQueue(deadLetter.queueName), deadLetter.message);
+                }
+                session.commit();
+
+            } catch (Exception e) {
+                log.error("Could not queue " + batch.size() + " dead letters for JMS CF : " +
+                    jmsConnectionFactory.getName(), e);
+                if (session != null) {
+                    try {
+                        session.rollback();
+                    } catch (JMSException ignore) {}
+                }
+                // start over with a new Session on the next batch
+                closeSession();
+                return;
+            }
+
+            for (DeadLetter deadLetter : batch) {
+                if (deadLetter.metrics != null) {
+                    deadLetter.metrics.incrementDeadLetters();
+                }
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Enqueued " + batch.size() + " dead letters for JMS CF : " +
+                    jmsConnectionFactory.getName());
+            }
+        }
+
+        private Destination getDeadLetterQueue(String name) throws JMSException {
+
+            Destination deadLetterQueue = deadLetterQueues.get(name);
+            if (deadLetterQueue == null) {
+                deadLetterQueue = jmsConnectionFactory.getDestination(
+                    name, JMSConstants.DESTINATION_TYPE_GENERIC);
+                if (deadLetterQueue == null) {
+                    log.warn("Cannot get or lookup JMS dead letter queue : " + name + ". " +
+                        "Attempting to create a Queue named : " + name);
+                    deadLetterQueue = session.createQueue(name);
+                }
+                deadLetterQueues.put(name, deadLetterQueue);
+            }
+            return deadLetterQueue;
+        }
+
+        private void createSession() throws JMSException {
+            connection = jmsConnectionFactory.getConnection();
+            session = JMSUtils.createSession(connection, true, Session.AUTO_ACKNOWLEDGE,
+                jmsConnectionFactory.isJmsSpec11(), jmsConnectionFactory.isQueue());
+            // an anonymous producer, as the dead letter queue is set per message context
+            producer = JMSUtils.createProducer(session, null, jmsConnectionFactory.isQueue(),
+                jmsConnectionFactory.isJmsSpec11());
+        }
+
+        private void closeSession() {
+            if (session != null) {
+                try {
+                    session.close();
+                } catch (JMSException e) {
+                    log.warn("Error closing the JMS Session of the dead letter publisher of " +
+                        "JMS CF : " + jmsConnectionFactory.getName(), e);
+                }
+            }
+            if (connection != null &&
+                jmsConnectionFactory.getCacheLevel() < JMSConstants.CACHE_CONNECTION) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    log.warn("Error closing the JMS Connection of the dead letter publisher of " +
+                        "JMS CF : " + jmsConnectionFactory.getName(), e);
+                }
+            }
+            connection = null;
+            session = null;
+            producer = null;
+            deadLetterQueues.clear();
+        }
+    }
+
+    /**
+     * A dead letter awaiting publishing
+     */
+    private static class DeadLetter {
+
+        private final Message message;
+        private final String queueName;
+        private final MetricsCollector metrics;
+
+        DeadLetter(Message message, String queueName, MetricsCollector metrics) {
+            this.message = message;
+            this.queueName = queueName;
+            this.metrics = metrics;
+        }
+    }
+}
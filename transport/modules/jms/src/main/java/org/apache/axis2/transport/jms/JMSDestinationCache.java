@@ -0,0 +1,194 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import javax.jms.Destination;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the Destinations looked up through the JNDI context of a {@link JMSConnectionFactory},
+ * as the sender resolves reply Destinations and dead letter queues by name for every message.
+ * A failed lookup is cached as well for a shorter time, so that messages referring to an
+ * unknown Destination fail fast instead of each querying JNDI again.
+ *
+ * Entries are keyed by the JNDI name and, when the lookup may fall back to a dynamic
+ * Destination, its type. Invalidating a name removes all of its entries. As the names come
+ * from the messages sent, expired entries are purged at most once per time to live when
+ * entries are added, so that names which are never looked up again do not accumulate.
+ */
+public class JMSDestinationCache implements JMSDestinationCacheMBean {
+
+    /** The number of milliseconds a Destination is cached */
+    private final long timeToLive;
+    /** The number of milliseconds a failed lookup is cached, 0 to not cache failures */
+    private final long negativeTimeToLive;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    /** The time at which expired entries are next purged */
+    private final AtomicLong nextPurge = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public JMSDestinationCache(long timeToLive, long negativeTimeToLive) {
+        this.timeToLive = timeToLive;
+        this.negativeTimeToLive = negativeTimeToLive;
+    }
+
+    /**
+     * Get a cached Destination
+     * @param name the JNDI name of the Destination
+     * @param type the Destination type if the lookup may create a dynamic Destination, or null
+     * @return the Destination, or null if it is not cached or expired
+     * @throws AxisJMSException if a failed lookup of the Destination is cached
+     */
+    public Destination get(String name, String type) {
+        String key = getKey(name, type);
+        Entry entry = entries.get(key);
+        if (entry == null || entry.expiry < System.currentTimeMillis()) {
+            if (entry != null) {
+                entries.remove(key, entry);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+
+        if (entry.failure != null) {
+            negativeHits.incrementAndGet();
+            throw new AxisJMSException("Unknown JMS Destination : " + name +
+                " (cached lookup failure)", entry.failure);
+        }
+        hits.incrementAndGet();
+        return entry.destination;
+    }
+
+    /**
+     * Cache a Destination looked up successfully
+     */
+    public void put(String name, String type, Destination destination) {
+        if (destination != null) {
+            long now = System.currentTimeMillis();
+            purgeExpired(now);
+            entries.put(getKey(name, type), new Entry(destination, null, now + timeToLive));
+        }
+    }
+
+    /**
+     * Cache a failed lookup of a Destination
+     */
+    public void putFailure(String name, String type, AxisJMSException failure) {
+        if (negativeTimeToLive > 0) {
+            long now = System.currentTimeMillis();
+            purgeExpired(now);
+            entries.put(getKey(name, type), new Entry(null, failure, now + negativeTimeToLive));
+        }
+    }
+
+    /**
+     * Remove the expired entries, if they have not been purged within the time to live
+     * @param now the current time
+     */
+    private void purgeExpired(long now) {
+        long purgeAt = nextPurge.get();
+        if (now < purgeAt || !nextPurge.compareAndSet(purgeAt, now + timeToLive)) {
+            return;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            if (it.next().expiry < now) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Remove a Destination from the cache, e.g. after a failure to send to it
+     * @param name the JNDI name of the Destination
+     */
+    public void invalidate(String name) {
+        String prefix = name + "|";
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    private String getKey(String name, String type) {
+        return name + "|" + (type == null ? "" : type);
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public long getNegativeTimeToLive() {
+        return negativeTimeToLive;
+    }
+
+    public int getSize() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        long found = hits.get() + negativeHits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        negativeHits.set(0);
+        misses.set(0);
+        invalidations.set(0);
+    }
+
+    private static class Entry {
+        private final Destination destination;
+        private final AxisJMSException failure;
+        private final long expiry;
+
+        Entry(Destination destination, AxisJMSException failure, long expiry) {
+            this.destination = destination;
+            this.failure = failure;
+            this.expiry = expiry;
+        }
+    }
+}
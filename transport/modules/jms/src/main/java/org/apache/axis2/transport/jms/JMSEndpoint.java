@@ -37,6 +37,7 @@ public class JMSEndpoint {
     private int destinationType = JMSConstants.GENERIC;
     private Set<EndpointReference> endpointReferences = new HashSet<EndpointReference>();
     private ContentTypeRuleSet contentTypeRuleSet;
+    private final JMSContentTypeCache contentTypeCache = new JMSContentTypeCache();
 
     public AxisService getService() {
         return service;
@@ -101,6 +102,10 @@ public class JMSEndpoint {
         this.contentTypeRuleSet = contentTypeRuleSet;
     }
 
+    public JMSContentTypeCache getContentTypeCache() {
+        return contentTypeCache;
+    }
+
     public JMSConnectionFactory getCf() {
         return cf;
     }
@@ -0,0 +1,209 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.transport.base.TransportListenerEndpointView;
+
+/**
+ * The endpoint MBean of a service listening over JMS, which adds the statistics of the
+ * {@link ServiceTaskManager} of the service to the generic endpoint information
+ */
+public class JMSEndpointView extends TransportListenerEndpointView implements JMSEndpointViewMBean {
+
+    private final JMSListener listener;
+    private final String serviceName;
+
+    public JMSEndpointView(JMSListener listener, String serviceName) {
+        super(listener, serviceName);
+        this.listener = listener;
+        this.serviceName = serviceName;
+    }
+
+    /**
+     * Get the current ServiceTaskManager of the service, as it is replaced on a restart
+     * @return the ServiceTaskManager, or null if the service is not listening
+     */
+    private ServiceTaskManager getServiceTaskManager() {
+        return listener.getServiceTaskManager(serviceName);
+    }
+
+    public int getActiveTaskCount() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getActiveTaskCount();
+    }
+
+    public int getBatchSize() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getBatchSize();
+    }
+
+    public int getBatchTimeout() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getBatchTimeout();
+    }
+
+    public long getCommits() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getCommits();
+    }
+
+    public long getMessagesCommitted() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getMessagesCommitted();
+    }
+
+    public double getAvgBatchSize() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getAvgBatchSize();
+    }
+
+    public double getAvgCommitTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getAvgCommitTime();
+    }
+
+    public long getMaxCommitTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getMaxCommitTime();
+    }
+
+    public long getRollbacks() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getRollbacks();
+    }
+
+    public long getMessagesRolledBack() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getMessagesRolledBack();
+    }
+
+    public int getMaxInFlightMessages() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getMaxInFlightMessages();
+    }
+
+    public int getInFlightMessages() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getInFlightMessages();
+    }
+
+    public long getThrottleCount() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getThrottleCount();
+    }
+
+    public long getThrottledTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getThrottledTime();
+    }
+
+    public int getPipelineQueueSize() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getPipelineQueueSize();
+    }
+
+    public int getPipelineQueueDepth() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getPipelineQueueDepth();
+    }
+
+    public long getPipelineWaitTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getPipelineWaitTime();
+    }
+
+    public int getGroupLaneCount() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getGroupLaneCount();
+    }
+
+    public int getGroupLaneQueueDepth() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getGroupLaneQueueDepth();
+    }
+
+    public long getGroupLaneEvictions() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getGroupLaneEvictions();
+    }
+
+    public int getScalingInterval() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getScalingInterval();
+    }
+
+    public int getConsumerCount() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getConsumerCount();
+    }
+
+    public double getLastHitRatio() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getLastHitRatio();
+    }
+
+    public double getLastAvgProcessingTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getLastAvgProcessingTime();
+    }
+
+    public int getLastQueueDepth() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? -1 : stm.getLastQueueDepth();
+    }
+
+    public long getScaleUps() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getScaleUps();
+    }
+
+    public long getScaleDowns() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getScaleDowns();
+    }
+
+    public String getLastScalingDecision() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? null : stm.getLastScalingDecision();
+    }
+
+    public long getLastScalingTime() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getLastScalingTime();
+    }
+
+    public int getMaxRedeliveries() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getMaxRedeliveries();
+    }
+
+    public long getRedeliveries() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getRedeliveries();
+    }
+
+    public long getRedeliveryDeadLetters() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        return stm == null ? 0 : stm.getRedeliveryDeadLetters();
+    }
+
+    public void resetStatistics() {
+        ServiceTaskManager stm = getServiceTaskManager();
+        if (stm != null) {
+            stm.resetStatistics();
+        }
+    }
+}
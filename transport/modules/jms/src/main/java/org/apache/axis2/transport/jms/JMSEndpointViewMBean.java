@@ -0,0 +1,65 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.transport.base.TransportListenerEndpointViewMBean;
+
+/**
+ * Management interface of a service listening over JMS
+ */
+public interface JMSEndpointViewMBean extends TransportListenerEndpointViewMBean {
+
+    int getActiveTaskCount();
+
+    int getBatchSize();
+    int getBatchTimeout();
+    long getCommits();
+    long getMessagesCommitted();
+    double getAvgBatchSize();
+    double getAvgCommitTime();
+    long getMaxCommitTime();
+    long getRollbacks();
+    long getMessagesRolledBack();
+
+    int getMaxInFlightMessages();
+    int getInFlightMessages();
+    long getThrottleCount();
+    long getThrottledTime();
+
+    int getPipelineQueueSize();
+    int getPipelineQueueDepth();
+    long getPipelineWaitTime();
+
+    int getGroupLaneCount();
+    int getGroupLaneQueueDepth();
+    long getGroupLaneEvictions();
+
+    int getScalingInterval();
+    int getConsumerCount();
+    double getLastHitRatio();
+    double getLastAvgProcessingTime();
+    int getLastQueueDepth();
+    long getScaleUps();
+    long getScaleDowns();
+    String getLastScalingDecision();
+    long getLastScalingTime();
+
+    int getMaxRedeliveries();
+    long getRedeliveries();
+    long getRedeliveryDeadLetters();
+
+    void resetStatistics();
+}
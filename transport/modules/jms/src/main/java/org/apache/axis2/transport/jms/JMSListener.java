@@ -24,17 +24,32 @@ import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.TransportInDescription;
 import org.apache.axis2.transport.base.AbstractTransportListener;
 import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.BaseUtils;
 import org.apache.axis2.transport.base.ManagementSupport;
+import org.apache.axis2.transport.base.ParamUtils;
+import org.apache.axis2.transport.base.TransportListenerEndpointView;
 import org.apache.axis2.transport.base.event.TransportErrorListener;
 import org.apache.axis2.transport.base.event.TransportErrorSource;
 import org.apache.axis2.transport.base.event.TransportErrorSourceSupport;
+import org.apache.axis2.transport.base.threads.NativeThreadFactory;
 import org.apache.axis2.transport.jms.ctype.ContentTypeRuleFactory;
 import org.apache.axis2.transport.jms.ctype.ContentTypeRuleSet;
 import org.apache.axis2.transport.jms.ctype.MessageTypeRule;
 import org.apache.axis2.transport.jms.ctype.PropertyRule;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.BytesMessage;
 import javax.jms.TextMessage;
@@ -64,11 +79,34 @@ public class JMSListener extends AbstractTransportListener implements Management
     /** The JMSConnectionFactoryManager which centralizes the management of defined factories */
     private JMSConnectionFactoryManager connFacManager;
     /** A Map of service name to the JMS endpoints */
-    private Map<String,JMSEndpoint> serviceNameToEndpointMap = new HashMap<String,JMSEndpoint>();
-    /** A Map of service name to its ServiceTaskManager instances */
-    private Map<String, ServiceTaskManager> serviceNameToSTMMap =
-        new HashMap<String, ServiceTaskManager>();
+    private Map<String,JMSEndpoint> serviceNameToEndpointMap =
+        new ConcurrentHashMap<String,JMSEndpoint>();
+    /**
+     * A Map of service name to its ServiceTaskManager instances - one, or one per member if the
+     * service uses a broker group. Updated by the startup threads as well as by deployment
+     */
+    private ConcurrentMap<String, List<ServiceTaskManager>> serviceNameToSTMMap =
+        new ConcurrentHashMap<String, List<ServiceTaskManager>>();
     private final TransportErrorSourceSupport tess = new TransportErrorSourceSupport(this);
+    /** The scheduler shared by the ServiceTaskManagers for their periodic tasks */
+    private ScheduledExecutorService scheduler;
+    /** Shares JMS Connections between the ServiceTaskManagers using the same factory */
+    private JMSConnectionMultiplexer connectionMultiplexer;
+    /**
+     * Starts the ServiceTaskManagers of a bounded number of services at a time, or null to start
+     * them on the thread deploying the service
+     */
+    private ExecutorService startupExecutor;
+    /** Processes the chunked messages while their chunks are being received */
+    private ExecutorService chunkExecutor;
+    /**
+     * A Map of service name to the startup of its ServiceTaskManagers while it runs in the
+     * background. A startup removes itself once it has completed or failed
+     */
+    private ConcurrentMap<String, ServiceStartup> serviceNameToStartupMap =
+        new ConcurrentHashMap<String, ServiceStartup>();
+    /** Is the listener starting the services deployed so far, in the background ? */
+    private volatile boolean startingServices = false;
     
     /**
      * TransportListener initialization
@@ -81,9 +119,74 @@ public class JMSListener extends AbstractTransportListener implements Management
 
         super.init(cfgCtx, trpInDesc);
         connFacManager = new JMSConnectionFactoryManager(trpInDesc);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NativeThreadFactory(
+            new ThreadGroup("JMS Scheduler thread group"), "JMS-Scheduler"));
+        connectionMultiplexer = new JMSConnectionMultiplexer(workerPool);
+        // a chunked message holds its thread while its chunks are received, so rather than
+        // queueing the messages beyond the limit, they are rolled back to be redelivered later
+        chunkExecutor = new ThreadPoolExecutor(0, getMaxChunkedMessages(trpInDesc),
+            60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new NativeThreadFactory(
+                new ThreadGroup("JMS Chunk thread group"), "JMS-Chunk"));
+        int startupConcurrency = JMSConnectionFactoryManager.getStartupConcurrency(trpInDesc);
+        if (startupConcurrency > 1) {
+            startupExecutor = Executors.newFixedThreadPool(startupConcurrency, new NativeThreadFactory(
+                new ThreadGroup("JMS Startup thread group"), "JMS-Startup"));
+        }
         log.info("JMS Transport Receiver/Listener initialized...");
     }
 
+    /**
+     * Start the listener, starting the services deployed so far in parallel. Returns once they
+     * have all started, so that e.g. their topic subscriptions exist
+     * @throws AxisFault on error
+     */
+    public void start() throws AxisFault {
+        startingServices = true;
+        try {
+            super.start();
+        } finally {
+            startingServices = false;
+        }
+        for (ServiceStartup startup : serviceNameToStartupMap.values()) {
+            startup.awaitCompletion();
+        }
+    }
+
+    public void destroy() {
+        super.destroy();
+        if (startupExecutor != null) {
+            startupExecutor.shutdownNow();
+            // the startups still queued will not run
+            for (ServiceStartup startup : serviceNameToStartupMap.values()) {
+                startup.cancel();
+            }
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (chunkExecutor != null) {
+            chunkExecutor.shutdownNow();
+        }
+        if (connFacManager != null) {
+            for (JMSConnectionFactory jmsConnectionFactory : connFacManager.getJMSConnectionFactories()) {
+                if (jmsConnectionFactory.getDeadLetterPublisher() != null) {
+                    jmsConnectionFactory.getDeadLetterPublisher().close();
+                }
+            }
+        }
+    }
+
+    private int getMaxChunkedMessages(TransportInDescription trpInDesc) {
+        try {
+            return ParamUtils.getOptionalParamInt(trpInDesc,
+                JMSConstants.PARAM_MAX_CHUNKED_MESSAGES, JMSConstants.DEFAULT_MAX_CHUNKED_MESSAGES);
+        } catch (AxisFault e) {
+            log.warn("Invalid " + JMSConstants.PARAM_MAX_CHUNKED_MESSAGES + " - using the default of " +
+                JMSConstants.DEFAULT_MAX_CHUNKED_MESSAGES, e);
+            return JMSConstants.DEFAULT_MAX_CHUNKED_MESSAGES;
+        }
+    }
+
     /**
      * Returns EPRs for the given service over the JMS transport
      *
@@ -113,15 +216,20 @@ public class JMSListener extends AbstractTransportListener implements Management
      * @param service the Axis service for which to listen for messages
      */
     protected void startListeningForService(AxisService service) throws AxisFault {
+        long start = System.currentTimeMillis();
         JMSConnectionFactory cf = getConnectionFactory(service);
         if (cf == null) {
             throw new AxisFault("The service doesn't specify a JMS connection factory or refers " +
                 "to an invalid factory.");
         }
 
+        // a service using a broker group consumes from each of its members
+        List<JMSConnectionFactory> memberCfs = cf.getBrokerGroup() != null ?
+            cf.getBrokerGroup().getMembers() : Collections.singletonList(cf);
+
         JMSEndpoint endpoint = new JMSEndpoint();
         endpoint.setService(service);
-        endpoint.setCf(cf);
+        endpoint.setCf(memberCfs.get(0));
 
         Parameter destParam = service.getParameter(JMSConstants.PARAM_DESTINATION);
         if (destParam != null) {
@@ -159,26 +267,39 @@ public class JMSListener extends AbstractTransportListener implements Management
         endpoint.computeEPRs(); // compute service EPR and keep for later use        
         serviceNameToEndpointMap.put(service.getName(), endpoint);
         
-        ServiceTaskManager stm = JMSUtils.createTaskManagerForService(cf, service, workerPool);
-        stm.setJmsMessageReceiver(new JMSMessageReceiver(this, cf, endpoint));
-        stm.start();
-        serviceNameToSTMMap.put(service.getName(), stm);
-
-        for (int i=0; i<3; i++) {
-            if (stm.getActiveTaskCount() > 0) {
-                log.info("Started to listen on destination : " + stm.getDestinationJNDIName() +
-                    " of type " + JMSUtils.getDestinationTypeAsString(stm.getDestinationType()) +
-                    " for service " + stm.getServiceName());
-                return;
-            }
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ignore) {}
+        List<ServiceTaskManager> stms = new ArrayList<ServiceTaskManager>(memberCfs.size());
+        for (JMSConnectionFactory memberCf : memberCfs) {
+            ServiceTaskManager stm = JMSUtils.createTaskManagerForService(memberCf, service, workerPool);
+            stm.setJmsMessageReceiver(new JMSMessageReceiver(this, memberCf, endpoint, chunkExecutor,
+                new JMSChunkAssembler(
+                    ParamUtils.getOptionalParamInt(service, JMSConstants.PARAM_CHUNK_TIMEOUT,
+                        JMSConstants.DEFAULT_CHUNK_TIMEOUT),
+                    ParamUtils.getOptionalParamInt(service, JMSConstants.PARAM_MAX_BUFFERED_CHUNKS,
+                        JMSConstants.DEFAULT_MAX_BUFFERED_CHUNKS))));
+            stm.setScheduler(scheduler);
+            stm.setConnectionMultiplexer(connectionMultiplexer);
+            stms.add(stm);
         }
 
-        log.warn("Polling tasks on destination : " + stm.getDestinationJNDIName() +
-            " of type " + JMSUtils.getDestinationTypeAsString(stm.getDestinationType()) +
-            " for service " + stm.getServiceName() + " have not yet started after 3 seconds ..");
+        ServiceStartup startup = new ServiceStartup(service, stms,
+            cf.getBrokerGroup() != null ? memberCfs : null, System.currentTimeMillis() - start);
+        // the ServiceTaskManagers are known before they start, so that they can be stopped
+        serviceNameToSTMMap.put(service.getName(), stms);
+        if (startupExecutor == null) {
+            try {
+                startup.startTaskManagers();
+            } catch (RuntimeException e) {
+                startup.unregister();
+                throw e;
+            }
+        } else {
+            serviceNameToStartupMap.put(service.getName(), startup);
+            startupExecutor.execute(startup);
+            // a service deployed once the listener has started is started on its own
+            if (!startingServices) {
+                startup.awaitCompletion();
+            }
+        }
     }
 
     /**
@@ -188,16 +309,21 @@ public class JMSListener extends AbstractTransportListener implements Management
      */
     protected void stopListeningForService(AxisService service) {
 
-        ServiceTaskManager stm = serviceNameToSTMMap.get(service.getName());
-        if (stm != null) {
-            if (log.isDebugEnabled()) {
-                log.debug("Stopping listening on destination : " + stm.getDestinationJNDIName() +
-                    " for service : " + stm.getServiceName());
-            }
+        ServiceStartup startup = serviceNameToStartupMap.remove(service.getName());
+        if (startup != null) {
+            startup.cancel();
+        }
 
-            stm.stop();
+        List<ServiceTaskManager> stms = serviceNameToSTMMap.remove(service.getName());
+        if (stms != null) {
+            for (ServiceTaskManager stm : stms) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Stopping listening on destination : " + stm.getDestinationJNDIName() +
+                        " for service : " + stm.getServiceName());
+                }
+                stm.stop();
+            }
 
-            serviceNameToSTMMap.remove(service.getName());
             serviceNameToEndpointMap.remove(service.getName());
             log.info("Stopped listening for JMS messages to service : " + service.getName());
 
@@ -206,6 +332,34 @@ public class JMSListener extends AbstractTransportListener implements Management
                 " - unable to find its ServiceTaskManager");
         }
     }
+    /**
+     * Get the ServiceTaskManager receiving messages for a service - the one of its first member,
+     * if the service uses a broker group
+     * @param serviceName the name of the service
+     * @return the ServiceTaskManager, or null if not listening for the service
+     */
+    ServiceTaskManager getServiceTaskManager(String serviceName) {
+        List<ServiceTaskManager> stms = serviceNameToSTMMap.get(serviceName);
+        return stms == null ? null : stms.get(0);
+    }
+
+    /**
+     * Get the number of services whose ServiceTaskManagers are being started in the background
+     * @return the number of startups that have neither completed nor failed
+     */
+    int getStartupsInProgress() {
+        return serviceNameToStartupMap.size();
+    }
+
+    /**
+     * Create the endpoint MBean of a service, exposing the statistics of its ServiceTaskManager
+     * @param serviceName the name of the service
+     * @return the JMS endpoint MBean
+     */
+    protected TransportListenerEndpointView createEndpointView(String serviceName) {
+        return new JMSEndpointView(this, serviceName);
+    }
+
     /**
      * Return the connection factory name for this service. If this service
      * refers to an invalid factory or defaults to a non-existent default
@@ -234,8 +388,10 @@ public class JMSListener extends AbstractTransportListener implements Management
     public void pause() throws AxisFault {
         if (state != BaseConstants.STARTED) return;
         try {
-            for (ServiceTaskManager stm : serviceNameToSTMMap.values()) {
-                stm.pause();
+            for (List<ServiceTaskManager> stms : serviceNameToSTMMap.values()) {
+                for (ServiceTaskManager stm : stms) {
+                    stm.pause();
+                }
             }
             state = BaseConstants.PAUSED;
             log.info("Listener paused");
@@ -251,8 +407,10 @@ public class JMSListener extends AbstractTransportListener implements Management
     public void resume() throws AxisFault {
         if (state != BaseConstants.PAUSED) return;
         try {
-            for (ServiceTaskManager stm : serviceNameToSTMMap.values()) {
-                stm.resume();
+            for (List<ServiceTaskManager> stms : serviceNameToSTMMap.values()) {
+                for (ServiceTaskManager stm : stms) {
+                    stm.resume();
+                }
             }
             state = BaseConstants.STARTED;
             log.info("Listener resumed");
@@ -291,4 +449,144 @@ public class JMSListener extends AbstractTransportListener implements Management
     void error(AxisService service, Throwable ex) {
         tess.error(service, ex);
     }
+
+    /**
+     * Starts the ServiceTaskManagers of a service and waits for their first polling tasks, so that
+     * only a bounded number of services connect to their brokers at a time. Logs how long each
+     * step of the startup of the service took.
+     */
+    private class ServiceStartup implements Runnable {
+
+        /** The number of milliseconds between checks whether a polling task has started */
+        private static final int POLLING_TASK_CHECK_INTERVAL = 50;
+        /** The maximum number of milliseconds to wait for the first polling task */
+        private static final int POLLING_TASK_TIMEOUT = 3000;
+
+        private final AxisService service;
+        private final List<ServiceTaskManager> stms;
+        /** The broker group members the ServiceTaskManagers consume from, if any */
+        private final List<JMSConnectionFactory> memberCfs;
+        /** The number of milliseconds spent configuring the service */
+        private final long configurationTime;
+        private final long created = System.currentTimeMillis();
+        /** Has the service been stopped before it was started ? */
+        private volatile boolean cancelled = false;
+        /** Counted down once the startup has completed, failed or been cancelled */
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private ServiceStartup(AxisService service, List<ServiceTaskManager> stms,
+            List<JMSConnectionFactory> memberCfs, long configurationTime) {
+            this.service = service;
+            this.stms = stms;
+            this.memberCfs = memberCfs;
+            this.configurationTime = configurationTime;
+        }
+
+        public void run() {
+            try {
+                startTaskManagers();
+            } catch (Throwable e) {
+                String msg = "Unable to start listening for JMS messages to service : " +
+                    service.getName() + " - it will be disabled for the JMS transport and " +
+                    "marked as faulty";
+                log.error(msg, e);
+                unregister();
+                BaseUtils.markServiceAsFaulty(service.getName(), msg, service.getAxisConfiguration());
+                disableTransportForService(service);
+            } finally {
+                serviceNameToStartupMap.remove(service.getName(), this);
+                done.countDown();
+            }
+        }
+
+        /**
+         * Stop the ServiceTaskManagers of a service that failed to start, and forget them, unless
+         * the service has been redeployed meanwhile
+         */
+        private void unregister() {
+            for (ServiceTaskManager stm : stms) {
+                stm.stop();
+            }
+            if (serviceNameToSTMMap.remove(service.getName(), stms)) {
+                serviceNameToEndpointMap.remove(service.getName());
+            }
+        }
+
+        /**
+         * Wait until the startup has completed, failed or been cancelled
+         */
+        private void awaitCompletion() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Start the ServiceTaskManagers one after the other, unless the service has been stopped
+         */
+        private void startTaskManagers() {
+            long queueTime = System.currentTimeMillis() - created;
+            for (int i = 0; i < stms.size(); i++) {
+                ServiceTaskManager stm = stms.get(i);
+                String via = memberCfs == null ? "" : " through JMS CF : " + memberCfs.get(i).getName();
+
+                long start = System.currentTimeMillis();
+                // a concurrent stop waits for the start, or else the start is skipped
+                synchronized (stm) {
+                    if (cancelled) {
+                        return;
+                    }
+                    stm.start();
+                }
+                long startTime = System.currentTimeMillis() - start;
+
+                long pollingTaskTime = waitForPollingTask(stm);
+                if (pollingTaskTime < 0) {
+                    if (!cancelled) {
+                        log.warn("Polling tasks on destination : " + stm.getDestinationJNDIName() +
+                            " of type " + JMSUtils.getDestinationTypeAsString(stm.getDestinationType()) +
+                            " for service " + stm.getServiceName() + via +
+                            " have not yet started after 3 seconds ..");
+                    }
+                } else {
+                    log.info("Started to listen on destination : " + stm.getDestinationJNDIName() +
+                        " of type " + JMSUtils.getDestinationTypeAsString(stm.getDestinationType()) +
+                        " for service " + stm.getServiceName() + via + " - configuration : " +
+                        configurationTime + " ms, queued : " + queueTime + " ms, task manager " +
+                        "start : " + startTime + " ms, first polling task : " + pollingTaskTime + " ms");
+                }
+            }
+        }
+
+        /**
+         * Wait up to 3 seconds for the first polling task of a ServiceTaskManager to start
+         * @param stm the ServiceTaskManager just started
+         * @return the number of milliseconds until it started, or -1 if it has not yet started
+         */
+        private long waitForPollingTask(ServiceTaskManager stm) {
+            long start = System.currentTimeMillis();
+            while (stm.getActiveTaskCount() == 0) {
+                if (cancelled || System.currentTimeMillis() - start >= POLLING_TASK_TIMEOUT) {
+                    return -1;
+                }
+                try {
+                    Thread.sleep(POLLING_TASK_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return -1;
+                }
+            }
+            return System.currentTimeMillis() - start;
+        }
+
+        /**
+         * Skip the start of the ServiceTaskManagers not yet started, as the service is stopped
+         */
+        private void cancel() {
+            cancelled = true;
+            done.countDown();
+        }
+    }
 }
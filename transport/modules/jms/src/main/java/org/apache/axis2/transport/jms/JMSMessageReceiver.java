@@ -31,6 +31,9 @@ import org.apache.commons.logging.LogFactory;
 import javax.jms.*;
 import javax.xml.namespace.QName;
 import javax.transaction.UserTransaction;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * This is the JMS message receiver which is invoked when a message is received. This processes
@@ -48,21 +51,34 @@ public class JMSMessageReceiver {
     private MetricsCollector metrics = null;
     /** The endpoint this message receiver is bound to */
     final JMSEndpoint endpoint;
+    /**
+     * Processes chunked messages while their chunks are being received - dedicated, as the
+     * consumers adding the chunks may be waiting for it
+     */
+    private final Executor chunkExecutor;
+    /** Reassembles the chunked messages received */
+    private final JMSChunkAssembler chunkAssembler;
+    /** Should every failed message be dead lettered, rather than after its last redelivery? */
+    private volatile boolean deadLetterOnFailure = true;
 
     /**
      * Create a new JMSMessage receiver
      *
      * @param jmsListener the JMS transport Listener
      * @param jmsConFac   the JMS connection factory we are associated with
-     * @param workerPool  the worker thread pool to be used
+     * @param chunkExecutor the executor processing chunked messages
      * @param cfgCtx      the axis ConfigurationContext
      * @param serviceName the name of the Axis service
      * @param endpoint    the JMSEndpoint definition to be used
+     * @param chunkAssembler the reassembler of chunked messages
      */
-    JMSMessageReceiver(JMSListener jmsListener, JMSConnectionFactory jmsConFac, JMSEndpoint endpoint) {
+    JMSMessageReceiver(JMSListener jmsListener, JMSConnectionFactory jmsConFac, JMSEndpoint endpoint,
+        Executor chunkExecutor, JMSChunkAssembler chunkAssembler) {
         this.jmsListener = jmsListener;
         this.jmsConnectionFactory = jmsConFac;
         this.endpoint = endpoint;
+        this.chunkExecutor = chunkExecutor;
+        this.chunkAssembler = chunkAssembler;
         this.metrics = jmsListener.getMetricsCollector();
     }
 
@@ -102,13 +118,22 @@ public class JMSMessageReceiver {
             }
         }
 
-        // update transport level metrics
+        // update transport level metrics. A message of unknown length (JMS 1.0) is counted once
+        // it has been read, see process()
         try {
-            metrics.incrementBytesReceived(JMSUtils.getMessageSize(message));
+            long size = JMSUtils.getMessageSize(message);
+            if (size >= 0) {
+                metrics.incrementBytesReceived(size);
+            }
         } catch (JMSException e) {
             log.warn("Error reading JMS message size to update transport metrics", e);
         }
 
+        // the chunks of a message are not checked for expiry, as they are processed together
+        if (JMSChunkAssembler.isChunk(message)) {
+            return onChunk((BytesMessage) message);
+        }
+
         // has this message already expired? expiration time == 0 means never expires
         try {
             long expiryTime = message.getJMSExpiration();
@@ -121,11 +146,24 @@ public class JMSMessageReceiver {
         } catch (JMSException ignore) {}
 
 
+        return process(message, ut, null);
+    }
+
+    /**
+     * Process a message, or the reassembled payload of a chunked message, updating the metrics
+     *
+     * @param message the JMS message, or the first chunk of a chunked message
+     * @param ut      UserTransaction which was used to receive the message
+     * @param payload the payload of a chunked message, or null to read it from the message
+     * @return true if caller should commit
+     */
+    private boolean process(Message message, UserTransaction ut, InputStream payload) {
+
         boolean successful = false;
         Throwable cause = null;
         Holder<MessageContext> holder = new Holder<MessageContext>();
         try {
-            successful = processThoughEngine(message, ut, holder);
+            successful = processThoughEngine(message, ut, holder, payload);
 
         } catch (JMSException e) {
             log.error("JMS Exception encountered while processing", cause = e);
@@ -134,28 +172,169 @@ public class JMSMessageReceiver {
         } catch (Exception e) {
             log.error("Unknown error processing message", cause = e);
         } finally {
+            if (holder.getDelegate() != null) {
+                long bytesRead = JMSUtils.getBytesRead(holder.getDelegate());
+                if (bytesRead > 0) {
+                    metrics.incrementBytesReceived(bytesRead);
+                }
+            }
             if (successful) {
                 metrics.incrementMessagesReceived();
             } else {
                 metrics.incrementFaultsReceiving();
-                JMSUtils.handleDeadLetter(holder.getDelegate(), message, jmsConnectionFactory, cause);
+                // the chunks of a message are dead lettered as they are received again
+                if (payload == null && deadLetterOnFailure) {
+                    JMSUtils.handleDeadLetter(
+                        holder.getDelegate(), message, jmsConnectionFactory, cause, metrics);
+                }
             }
         }
 
         return successful;
     }
 
+    /**
+     * Set whether every message that fails to be processed is dead lettered. This is disabled
+     * when the ServiceTaskManager applies a redelivery policy, which dead letters a message
+     * only after its last redelivery
+     * @param deadLetterOnFailure true to dead letter every failed message
+     */
+    void setDeadLetterOnFailure(boolean deadLetterOnFailure) {
+        this.deadLetterOnFailure = deadLetterOnFailure;
+    }
+
+    /**
+     * Move a message to the default dead letter queue, synchronously so that the receipt of
+     * the message is only completed once the dead letter has been sent
+     * @param message the JMS message
+     * @param cause the reason why the message is dead lettered
+     * @return true if the dead letter was sent, false if the message must be rolled back
+     */
+    boolean deadLetter(Message message, Throwable cause) {
+        return JMSUtils.handleDeadLetter(null, message, jmsConnectionFactory, cause, metrics, true);
+    }
+
+    /**
+     * Remember that the chunks of a chunked message are to be moved to the dead letter queue as
+     * they are received again, once rolled back
+     * @param chunk a chunk of the message
+     */
+    void deadLetterChunks(Message chunk) {
+        try {
+            chunkAssembler.deadLetter(chunk.getStringProperty(JMSConstants.CHUNK_ID_PROPERTY));
+        } catch (JMSException e) {
+            log.error("Error reading the properties of a chunk", e);
+        }
+    }
+
+    /**
+     * Add a chunk to its chunked message. The first chunk starts the processing of the message on
+     * the chunk executor, which reads the chunks as they are received. The receipt of the chunks
+     * before the last is completed along with the last chunk, which waits until the message has
+     * been processed, so that all the chunks are committed or rolled back together
+     *
+     * @param chunk the chunk received
+     * @return for the last chunk, true if the chunked message was processed successfully or
+     *         discarded, false if the chunks must be rolled back
+     */
+    private boolean onChunk(BytesMessage chunk) {
+
+        final JMSChunkAssembler.ChunkedMessage chunked;
+        String chunkId;
+        boolean last;
+        try {
+            chunkId = chunk.getStringProperty(JMSConstants.CHUNK_ID_PROPERTY);
+            last = chunk.getBooleanProperty(JMSConstants.CHUNK_LAST_PROPERTY);
+            if (chunkAssembler.isDeadLetter(chunkId)) {
+                if (!deadLetter(chunk, new AxisJMSException("Processing of chunked message : " +
+                        chunkId + " failed"))) {
+                    chunkAssembler.deadLetterFailed(chunkId);
+                }
+                // the chunks are rolled back together if any of them was not dead lettered
+                return !last || chunkAssembler.deadLettered(chunkId);
+            }
+            chunked = chunkAssembler.add(chunk);
+            if (chunked == null) {
+                log.warn("Discarded chunk " + chunk.getIntProperty(JMSConstants.CHUNK_SEQ_PROPERTY) +
+                    " of aborted or duplicate chunked message : " + chunkId);
+                return true;
+            }
+        } catch (JMSException e) {
+            log.error("Error reading the properties of a chunk", e);
+            metrics.incrementFaultsReceiving();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        if (chunked.getFirstChunk() == chunk) {
+            chunked.startProcessing();
+            try {
+                executeChunked(chunked);
+            } catch (RejectedExecutionException e) {
+                // not a failure of the message itself, so roll its chunks back to be redelivered
+                log.warn("Rolling back chunked message : " + chunkId + " as the maximum number " +
+                    "of chunked messages are being processed");
+                chunked.endProcessing(false);
+                chunkAssembler.processed(chunked);
+            }
+        }
+
+        if (!last) {
+            return true;
+        }
+        try {
+            return chunked.awaitProcessed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            chunkAssembler.processed(chunked);
+        }
+    }
+
+    /**
+     * Process a chunked message on the chunk executor, reading its chunks as they are received
+     *
+     * @param chunked the chunked message whose first chunk has been received
+     * @throws RejectedExecutionException if the maximum number of chunked messages are being
+     *         processed
+     */
+    private void executeChunked(final JMSChunkAssembler.ChunkedMessage chunked) {
+        chunkExecutor.execute(new Runnable() {
+            public void run() {
+                boolean succeeded = false;
+                try {
+                    succeeded = process(chunked.getFirstChunk(), null, chunked.getInputStream());
+                } finally {
+                    // chunks of unknown length (JMS 1.0) are counted once read
+                    if (JMSUtils.getBodyLength(chunked.getFirstChunk()) < 0) {
+                        metrics.incrementBytesReceived(chunked.getBytesRead());
+                    }
+                    if (!succeeded && deadLetterOnFailure) {
+                        chunkAssembler.deadLetter(chunked.getChunkId());
+                    }
+                    chunked.endProcessing(succeeded);
+                    chunkAssembler.processed(chunked);
+                }
+            }
+        });
+    }
+
     /**
      * Process the new message through Axis2
      *
      * @param message the JMS message
      * @param ut      the UserTransaction used for receipt
+     * @param holder  receives the MessageContext created
+     * @param payload the payload of a chunked message, or null to read it from the message
      * @return true if the caller should commit
      * @throws JMSException, on JMS exceptions
      * @throws AxisFault     on Axis2 errors
      */
-    private boolean processThoughEngine(Message message, UserTransaction ut, Holder<MessageContext> holder)
-        throws JMSException, AxisFault {
+    private boolean processThoughEngine(Message message, UserTransaction ut,
+        Holder<MessageContext> holder, InputStream payload) throws JMSException, AxisFault {
 
         MessageContext msgContext = jmsListener.createMessageContext();
         holder.setDelegate(msgContext);
@@ -209,7 +388,14 @@ public class JMSMessageReceiver {
                     contentTypeInfo.getPropertyName()));
         }
 
-        JMSUtils.setSOAPEnvelope(message, msgContext, contentTypeInfo.getContentType());
+        if (payload == null) {
+            JMSUtils.setSOAPEnvelope(message, msgContext, contentTypeInfo.getContentType(),
+                endpoint.getContentTypeCache());
+        } else {
+            JMSUtils.setSOAPEnvelope(payload,
+                message.propertyExists(JMSConstants.CONTENT_ENCODING_PROPERTY), msgContext,
+                contentTypeInfo.getContentType(), endpoint.getContentTypeCache());
+        }
         if (ut != null) {
             msgContext.setProperty(BaseConstants.USER_TRANSACTION, ut);
         }
@@ -223,6 +409,8 @@ public class JMSMessageReceiver {
 
         } finally {
 
+            // the message is processed synchronously, before it is committed or acknowledged
+            JMSUtils.closeTransportIn(msgContext);
             Object o = msgContext.getProperty(BaseConstants.SET_ROLLBACK_ONLY);
             if (o != null) {
                 if ((o instanceof Boolean && ((Boolean) o)) ||
@@ -51,6 +51,14 @@ public class JMSMessageSender {
 
 	/** Are we sending to a Queue ? */
     private Boolean isQueue = null;
+    /** The Session pool of the JMS CF, if the Session was borrowed from it */
+    private JMSSessionPool sessionPool = null;
+    /** The Session borrowed from the pool, if any */
+    private JMSSessionPool.PooledSession pooledSession = null;
+    /** Did the send fail? If so a pooled Session is discarded instead of being reused */
+    private boolean sendFailed = false;
+    /** Was a message sent, and its transaction ended, through this sender? */
+    private boolean sent = false;
 
     /**
      * This is a low-end method to support the one-time sends using JMS 1.0.2b
@@ -86,12 +94,28 @@ public class JMSMessageSender {
             this.cacheLevel  = jmsConnectionFactory.getCacheLevel();
             this.jmsSpec11   = jmsConnectionFactory.isJmsSpec11();
             this.connection  = jmsConnectionFactory.getConnection();
-            this.session     = jmsConnectionFactory.getSession(connection);
             this.destination =
                 jmsConnectionFactory.getSharedDestination() == null ?
                     jmsConnectionFactory.getDestination(JMSUtils.getDestination(targetAddress)) :
                     jmsConnectionFactory.getSharedDestination();
-            this.producer = jmsConnectionFactory.getMessageProducer(connection, session, destination);
+            this.sessionPool = jmsConnectionFactory.getSessionPool();
+
+            if (sessionPool != null) {
+                // borrow a Session for the exclusive use of this sender, until closed
+                this.pooledSession = sessionPool.borrow();
+                this.session = pooledSession.getSession();
+                try {
+                    this.producer = cacheLevel > JMSConstants.CACHE_SESSION ?
+                        pooledSession.getProducer() :
+                        jmsConnectionFactory.getMessageProducer(connection, session, destination);
+                } catch (AxisJMSException e) {
+                    sessionPool.release(pooledSession, true);
+                    throw e;
+                }
+            } else {
+                this.session  = jmsConnectionFactory.getSession(connection);
+                this.producer = jmsConnectionFactory.getMessageProducer(connection, session, destination);
+            }
 
         } else {
             JMSOutTransportInfo jmsOut = new JMSOutTransportInfo(targetAddress);
@@ -107,17 +131,80 @@ public class JMSMessageSender {
      */
     public void send(Message message, MessageContext msgCtx) {
 
-        Boolean jtaCommit    = getBooleanProperty(msgCtx, BaseConstants.JTA_COMMIT_AFTER_SEND);
-        Boolean rollbackOnly = getBooleanProperty(msgCtx, BaseConstants.SET_ROLLBACK_ONLY);
+        configureProducer(msgCtx);
+
+        boolean sendingSuccessful = false;
+        // perform actual message sending
+        try {
+            doSend(message);
+
+            // set the actual MessageID to the message context for use by any others down the line
+            String msgId = null;
+            try {
+                msgId = message.getJMSMessageID();
+                if (msgId != null) {
+                    msgCtx.setProperty(JMSConstants.JMS_MESSAGE_ID, msgId);
+                }
+            } catch (JMSException ignore) {}
+
+            sendingSuccessful = true;
+           
+            if (log.isDebugEnabled()) {
+                log.debug("Sent Message Context ID : " + msgCtx.getMessageID() +
+                    " with JMS Message ID : " + msgId +
+                    " to destination : " + producer.getDestination());
+            }
+
+        } catch (JMSException e) {
+            sendFailed = true;
+            log.error("Error sending message with MessageContext ID : " +
+                msgCtx.getMessageID() + " to destination : " + destination, e);
+
+        } finally {
+            endTransaction(msgCtx, sendingSuccessful);
+        }
+        sent = sendingSuccessful;
+    }
+
+    /**
+     * Send a chunk of a chunked message, other than its last chunk. The transaction is left open,
+     * and completed when the last chunk is sent through {@link #send(Message, MessageContext)} -
+     * or rolled back if sending this chunk fails
+     *
+     * @param chunk the BytesMessage holding the chunk
+     * @param msgCtx the Axis2 MessageContext being sent
+     */
+    public void sendChunk(Message chunk, MessageContext msgCtx) {
+
+        configureProducer(msgCtx);
+        try {
+            doSend(chunk);
+        } catch (JMSException e) {
+            rollback(msgCtx);
+            handleException("Error sending a chunk of message with MessageContext ID : " +
+                msgCtx.getMessageID() + " to destination : " + destination, e);
+        }
+    }
+
+    /**
+     * Roll back the chunks sent so far, when a chunked message cannot be sent completely
+     * @param msgCtx the Axis2 MessageContext being sent
+     */
+    public void rollback(MessageContext msgCtx) {
+        sendFailed = true;
+        endTransaction(msgCtx, false);
+    }
+
+    /**
+     * Apply the delivery mode, priority and time to live requested on the MessageContext
+     * @param msgCtx the Axis2 MessageContext
+     */
+    private void configureProducer(MessageContext msgCtx) {
+
         Boolean persistent   = getBooleanProperty(msgCtx, JMSConstants.JMS_DELIVERY_MODE);
         Integer priority     = getIntegerProperty(msgCtx, JMSConstants.JMS_PRIORITY);
         Integer timeToLive   = getIntegerProperty(msgCtx, JMSConstants.JMS_TIME_TO_LIVE);
 
-        // Do not commit, if message is marked for rollback
-        if (rollbackOnly != null && rollbackOnly) {
-            jtaCommit = Boolean.FALSE;
-        }
-
         if (persistent != null) {
             try {
                 producer.setDeliveryMode(DeliveryMode.PERSISTENT);
@@ -139,96 +226,104 @@ public class JMSMessageSender {
                 handleException("Error setting JMS Producer TTL to : " + timeToLive, e);
             }
         }
+    }
 
-        boolean sendingSuccessful = false;
-        // perform actual message sending
-        try {
-            if (jmsSpec11 || isQueue == null) {
-                producer.send(message);
-
-            } else {
-                if (isQueue) {
-                    ((QueueSender) producer).send(message);
-
-                } else {
-                    ((TopicPublisher) producer).publish(message);
-                }
-            }
+    private void doSend(Message message) throws JMSException {
+        if (jmsSpec11 || isQueue == null) {
+            producer.send(message);
 
-            // set the actual MessageID to the message context for use by any others down the line
-            String msgId = null;
-            try {
-                msgId = message.getJMSMessageID();
-                if (msgId != null) {
-                    msgCtx.setProperty(JMSConstants.JMS_MESSAGE_ID, msgId);
-                }
-            } catch (JMSException ignore) {}
+        } else {
+            if (isQueue) {
+                ((QueueSender) producer).send(message);
 
-            sendingSuccessful = true;
-           
-            if (log.isDebugEnabled()) {
-                log.debug("Sent Message Context ID : " + msgCtx.getMessageID() +
-                    " with JMS Message ID : " + msgId +
-                    " to destination : " + producer.getDestination());
+            } else {
+                ((TopicPublisher) producer).publish(message);
             }
+        }
+    }
 
-        } catch (JMSException e) {
-            log.error("Error sending message with MessageContext ID : " +
-                msgCtx.getMessageID() + " to destination : " + destination, e);
-
-        } finally {
-
-            if (jtaCommit != null) {
+    /**
+     * Commit or roll back the JTA transaction (if requested) or the local session transaction
+     * @param msgCtx the Axis2 MessageContext sent
+     * @param sendingSuccessful was the message sent?
+     */
+    private void endTransaction(MessageContext msgCtx, boolean sendingSuccessful) {
 
-                UserTransaction ut = (UserTransaction) msgCtx.getProperty(BaseConstants.USER_TRANSACTION);
-                if (ut != null) {
+        Boolean jtaCommit    = getBooleanProperty(msgCtx, BaseConstants.JTA_COMMIT_AFTER_SEND);
+        Boolean rollbackOnly = getBooleanProperty(msgCtx, BaseConstants.SET_ROLLBACK_ONLY);
 
-                    try {
-                        if (sendingSuccessful && jtaCommit) {
-                            ut.commit();
-                        } else {
-                            ut.rollback();
-                        }
-                        msgCtx.removeProperty(BaseConstants.USER_TRANSACTION);
+        // Do not commit, if message is marked for rollback
+        if (rollbackOnly != null && rollbackOnly) {
+            jtaCommit = Boolean.FALSE;
+        }
 
-                        if (log.isDebugEnabled()) {
-                            log.debug((sendingSuccessful ? "Committed" : "Rolled back") +
-                                " JTA Transaction");
-                        }
+        if (jtaCommit != null) {
 
-                    } catch (Exception e) {
-                        handleException("Error committing/rolling back JTA transaction after " +
-                            "sending of message with MessageContext ID : " + msgCtx.getMessageID() +
-                            " to destination : " + destination, e);
-                    }
-                }
+            UserTransaction ut = (UserTransaction) msgCtx.getProperty(BaseConstants.USER_TRANSACTION);
+            if (ut != null) {
 
-            } else {
                 try {
-                    if (session.getTransacted()) {
-                        if (sendingSuccessful && (rollbackOnly == null || !rollbackOnly)) {
-                            session.commit();
-                        } else {
-                            session.rollback();
-                        }
+                    if (sendingSuccessful && jtaCommit) {
+                        ut.commit();
+                    } else {
+                        ut.rollback();
                     }
+                    msgCtx.removeProperty(BaseConstants.USER_TRANSACTION);
 
                     if (log.isDebugEnabled()) {
                         log.debug((sendingSuccessful ? "Committed" : "Rolled back") +
-                            " local (JMS Session) Transaction");
+                            " JTA Transaction");
                     }
 
-                } catch (JMSException e) {
-                    handleException("Error committing/rolling back local (i.e. session) " +
-                        "transaction after sending of message with MessageContext ID : " + 
-                        msgCtx.getMessageID() + " to destination : " + destination, e);
+                } catch (Exception e) {
+                    handleException("Error committing/rolling back JTA transaction after " +
+                        "sending of message with MessageContext ID : " + msgCtx.getMessageID() +
+                        " to destination : " + destination, e);
                 }
             }
+
+        } else {
+            try {
+                if (session.getTransacted()) {
+                    if (sendingSuccessful && (rollbackOnly == null || !rollbackOnly)) {
+                        session.commit();
+                    } else {
+                        session.rollback();
+                    }
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug((sendingSuccessful ? "Committed" : "Rolled back") +
+                        " local (JMS Session) Transaction");
+                }
+
+            } catch (JMSException e) {
+                handleException("Error committing/rolling back local (i.e. session) " +
+                    "transaction after sending of message with MessageContext ID : " + 
+                    msgCtx.getMessageID() + " to destination : " + destination, e);
+            }
         }
     }
 
     /**
-     * Close non-shared producer, session and connection if any
+     * Has sending a message through this sender failed with a JMS error?
+     * @return true if a send failed or was rolled back
+     */
+    public boolean isSendFailed() {
+        return sendFailed;
+    }
+
+    /**
+     * Has a message been sent through this sender? A message that was not may be sent again
+     * through another sender
+     * @return true if a message was sent, and its transaction committed or rolled back as requested
+     */
+    public boolean isSent() {
+        return sent;
+    }
+
+    /**
+     * Close non-shared producer, session and connection if any, and return a pooled session
      */
     public void close() {
         if (producer != null && cacheLevel < JMSConstants.CACHE_PRODUCER) {
@@ -241,6 +336,12 @@ public class JMSMessageSender {
             }
         }
 
+        if (pooledSession != null) {
+            sessionPool.release(pooledSession, sendFailed);
+            pooledSession = null;
+            session = null;
+        }
+
         if (session != null && cacheLevel < JMSConstants.CACHE_SESSION) {
             try {
                 session.close();
@@ -322,6 +423,10 @@ public class JMSMessageSender {
     public Session getSession() {
         return session;
     }
+
+    public Destination getDestination() {
+        return destination;
+    }
     
     public boolean isJmsSpec11() {
 		return jmsSpec11;
@@ -46,13 +46,13 @@ public class JMSOutTransportInfo implements OutTransportInfo {
 
     private static final Log log = LogFactory.getLog(JMSOutTransportInfo.class);
 
-    /** The naming context */
+    /** The naming context, guarded by this as an instance may be shared by concurrent senders */
     private Context context;
     /**
      * this is a reference to the underlying JMS ConnectionFactory when sending messages
      * through connection factories not defined at the TransportSender level
      */
-    private ConnectionFactory connectionFactory = null;
+    private volatile ConnectionFactory connectionFactory = null;
     /**
      * this is a reference to a JMS Connection Factory instance, which has a reference
      * to the underlying actual connection factory, an open connection to the JMS provider
@@ -137,8 +137,9 @@ public class JMSOutTransportInfo implements OutTransportInfo {
      * Provides a lazy load when created with a target EPR. This method performs actual
      * lookup for the connection factory and destination
      */
-    public void loadConnectionFactoryFromProperies() {
-        if (properties != null) {
+    public synchronized void loadConnectionFactoryFromProperies() {
+        // an instance may be cached and reused for successive sends to the same EPR
+        if (properties != null && connectionFactory == null) {
             connectionFactory = getConnectionFactory(context, properties);
         }
     }
@@ -233,13 +234,18 @@ public class JMSOutTransportInfo implements OutTransportInfo {
     }
     
     public Destination getDestination(String destination, String destinationType) {
+        if (jmsConnectionFactory == null) {
+            // an InitialContext is not thread safe, and this instance may be cached
+            synchronized (this) {
+                return lookupDestination(context, destination, destinationType);
+            }
+        }
+        return lookupDestination(jmsConnectionFactory.getContext(), destination, destinationType);
+    }
+
+    private Destination lookupDestination(Context context, String destination,
+        String destinationType) {
         try {
-        	Context context;
-        	if (jmsConnectionFactory == null) {
-        		context = this.context;
-        	} else {
-        		context = jmsConnectionFactory.getContext();
-        	}
             return JMSUtils.lookup(context, Destination.class,
                     destination);
         } catch (NameNotFoundException e) {
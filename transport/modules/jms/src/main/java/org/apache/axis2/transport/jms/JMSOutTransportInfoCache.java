@@ -0,0 +1,155 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the {@link JMSOutTransportInfo} of the target EPRs used by the JMS sender.
+ * Creating the out-transport info of an EPR parses its properties, creates an InitialContext
+ * and looks up the Destination and reply Destination, and later the ConnectionFactory if no
+ * JMS connection factory of the sender matches. Each of these JNDI lookups may take
+ * milliseconds, so the resolved information is reused for successive sends to the same EPR.
+ *
+ * The least recently used entry is evicted when the cache is full, and an entry expires after
+ * the configured time to live so that changes in JNDI are eventually picked up. An entry is
+ * also invalidated by the sender when sending to its EPR fails.
+ */
+public class JMSOutTransportInfoCache implements JMSOutTransportInfoCacheMBean {
+
+    private static final Log log = LogFactory.getLog(JMSOutTransportInfoCache.class);
+
+    /** The maximum number of EPRs in the cache */
+    private final int maxSize;
+    /** The number of milliseconds an entry may be used, 0 or less for no expiry */
+    private final long timeToLive;
+
+    /** The cached out-transport info by target EPR, least recently used first */
+    private final Map<String, Entry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    public JMSOutTransportInfoCache(int maxSize, long timeToLive) {
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > JMSOutTransportInfoCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the out-transport info of a target EPR, creating it on a miss or after expiry. The
+     * returned instance is shared and must not be modified
+     * @param targetEPR the target EPR
+     * @return the out-transport info of the EPR
+     */
+    public JMSOutTransportInfo get(String targetEPR) {
+        synchronized (this) {
+            Entry entry = entries.get(targetEPR);
+            if (entry != null &&
+                (timeToLive <= 0 || System.currentTimeMillis() - entry.created < timeToLive)) {
+                hits++;
+                return entry.info;
+            }
+            misses++;
+        }
+
+        // resolve outside the lock, as the JNDI lookups may be slow
+        JMSOutTransportInfo info = new JMSOutTransportInfo(targetEPR);
+        synchronized (this) {
+            entries.put(targetEPR, new Entry(info));
+        }
+        return info;
+    }
+
+    /**
+     * Remove the out-transport info of a target EPR, e.g. after a failure to send to it
+     * @param targetEPR the target EPR
+     */
+    public synchronized void invalidate(String targetEPR) {
+        if (entries.remove(targetEPR) != null) {
+            invalidations++;
+            if (log.isDebugEnabled()) {
+                log.debug("Invalidated the cached JMS out-transport info of : " + targetEPR);
+            }
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        invalidations = 0;
+    }
+
+    private static class Entry {
+        private final JMSOutTransportInfo info;
+        private final long created = System.currentTimeMillis();
+
+        Entry(JMSOutTransportInfo info) {
+            this.info = info;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+/**
+ * Management interface of the {@link JMSOutTransportInfoCache} of the JMS sender
+ */
+public interface JMSOutTransportInfoCacheMBean {
+
+    int getMaxSize();
+    long getTimeToLive();
+    int getSize();
+
+    long getHits();
+    long getMisses();
+    double getHitRatio();
+    long getEvictions();
+    long getInvalidations();
+
+    void clear();
+    void resetStatistics();
+}
@@ -0,0 +1,260 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-lived consumer on a reply destination, that dispatches the replies it receives to the
+ * threads waiting for them, by matching the JMSCorrelationID of a reply against the JMSMessageID
+ * of the request. This avoids creating a new MessageConsumer with a message selector (or even a
+ * new temporary queue) for every synchronous request/response, as the broker side selector
+ * evaluation and consumer churn would otherwise dominate the latency of the call.
+ *
+ * As the JMSMessageID of a request is only known once it has been sent, a reply may arrive
+ * before its caller starts waiting. Such a reply is kept until the caller picks it up, and
+ * replies that nobody picks up (e.g. as the caller timed out) are purged after the orphan
+ * timeout. Note that all messages on the reply destination are consumed, hence the reply
+ * destination must not be shared with other clients.
+ *
+ * A dispatcher whose Connection fails stops dispatching, and releases the callers waiting on it
+ * without a reply. The JMS CF then replaces it with a new dispatcher on the next request.
+ */
+public class JMSReplyDispatcher implements MessageListener, ExceptionListener {
+
+    private static final Log log = LogFactory.getLog(JMSReplyDispatcher.class);
+
+    /** The JMS CF used to create the Session and consumer */
+    private final JMSConnectionFactory jmsConnectionFactory;
+    /** The reply destination, or a temporary queue created by this dispatcher */
+    private Destination replyDestination;
+    /** Was the reply destination created by this dispatcher? */
+    private boolean temporary = false;
+    /** The number of milliseconds after which an unclaimed reply is discarded */
+    private final long orphanTimeout;
+
+    private Connection connection = null;
+    private Session session = null;
+    private MessageConsumer consumer = null;
+
+    /** The replies being waited for or received but not yet claimed, keyed by correlation ID */
+    private final ConcurrentHashMap<String, PendingReply> pendingReplies =
+        new ConcurrentHashMap<String, PendingReply>();
+    /** The time of the last purge of unclaimed replies */
+    private volatile long lastPurge = System.currentTimeMillis();
+    /** Has the Connection of this dispatcher failed, or has it been closed? */
+    private volatile boolean failed = false;
+
+    /**
+     * Create a reply dispatcher
+     * @param jmsConnectionFactory the JMS CF to receive replies with
+     * @param replyDestination the reply destination, or null to use a temporary queue
+     * @param orphanTimeout milliseconds to keep a reply that has not been claimed
+     */
+    public JMSReplyDispatcher(JMSConnectionFactory jmsConnectionFactory,
+        Destination replyDestination, long orphanTimeout) {
+        this.jmsConnectionFactory = jmsConnectionFactory;
+        this.replyDestination = replyDestination;
+        this.orphanTimeout = orphanTimeout;
+    }
+
+    /**
+     * Create the Session and the consumer, and start receiving replies
+     * @throws JMSException on error, to be handled by the caller
+     */
+    public synchronized void start() throws JMSException {
+
+        connection = jmsConnectionFactory.getConnection();
+        // replies are received asynchronously, so use a dedicated non transacted Session
+        session = JMSUtils.createSession(connection, false, Session.AUTO_ACKNOWLEDGE,
+            jmsConnectionFactory.isJmsSpec11(), jmsConnectionFactory.isQueue());
+
+        if (replyDestination == null) {
+            replyDestination = session.createTemporaryQueue();
+            temporary = true;
+        }
+
+        consumer = JMSUtils.createConsumer(session, replyDestination,
+            jmsConnectionFactory.isQueue(), null, null, false, false,
+            jmsConnectionFactory.isJmsSpec11());
+        consumer.setMessageListener(this);
+        if (jmsConnectionFactory.getCacheLevel() < JMSConstants.CACHE_CONNECTION) {
+            // a shared Connection reports its failures to the JMS CF instead
+            connection.setExceptionListener(this);
+        }
+        connection.start();  // multiple calls are safely ignored
+
+        if (log.isDebugEnabled()) {
+            log.debug("Started shared JMS reply consumer on : " + replyDestination +
+                " for JMS CF : " + jmsConnectionFactory.getName());
+        }
+    }
+
+    /**
+     * Get the destination replies are received from
+     * @return the reply destination
+     */
+    public Destination getReplyDestination() {
+        return replyDestination;
+    }
+
+    /**
+     * Wait for the reply to the request with the given JMSMessageID
+     * @param correlationId the JMSMessageID of the request
+     * @param timeout the maximum number of milliseconds to wait
+     * @return the reply, or null if none was received within the timeout
+     */
+    public Message receive(String correlationId, long timeout) {
+
+        if (failed) {
+            return null;
+        }
+        PendingReply pendingReply = new PendingReply();
+        PendingReply existing = pendingReplies.putIfAbsent(correlationId, pendingReply);
+        if (existing != null) {
+            pendingReply = existing;
+        }
+
+        try {
+            pendingReply.latch.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pendingReplies.remove(correlationId);
+        }
+        return pendingReply.reply;
+    }
+
+    public void onMessage(Message message) {
+
+        String correlationId = null;
+        try {
+            correlationId = message.getJMSCorrelationID();
+        } catch (JMSException e) {
+            log.warn("Error reading the JMS correlation ID of a reply on : " + replyDestination, e);
+        }
+
+        if (correlationId == null) {
+            log.warn("Discarding a JMS message without a correlation ID received on the " +
+                "reply destination : " + replyDestination);
+        } else {
+            PendingReply pendingReply = new PendingReply();
+            PendingReply existing = pendingReplies.putIfAbsent(correlationId, pendingReply);
+            if (existing != null) {
+                pendingReply = existing;
+            }
+            pendingReply.reply = message;
+            pendingReply.latch.countDown();
+        }
+
+        purgeOrphans();
+    }
+
+    /**
+     * Mark this dispatcher as failed when its Connection fails, so that it is replaced
+     */
+    public void onException(JMSException e) {
+        log.warn("The JMS Connection of the shared reply consumer on : " + replyDestination +
+            " failed : " + e.getMessage());
+        fail();
+    }
+
+    /**
+     * Has the Connection of this dispatcher failed, or has it been closed?
+     * @return true if this dispatcher no longer receives replies and must be replaced
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Stop dispatching, and release the callers waiting for a reply
+     */
+    private void fail() {
+        failed = true;
+        for (PendingReply pendingReply : pendingReplies.values()) {
+            pendingReply.latch.countDown();
+        }
+    }
+
+    /**
+     * Discard the replies that have not been claimed within the orphan timeout
+     */
+    private void purgeOrphans() {
+
+        long now = System.currentTimeMillis();
+        if (now - lastPurge < orphanTimeout) {
+            return;
+        }
+        lastPurge = now;
+
+        Iterator<Map.Entry<String, PendingReply>> it = pendingReplies.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, PendingReply> entry = it.next();
+            PendingReply pendingReply = entry.getValue();
+            if (pendingReply.reply != null && now - pendingReply.created > orphanTimeout) {
+                it.remove();
+                log.warn("Discarding an unclaimed JMS reply with correlation ID : " +
+                    entry.getKey() + " received on : " + replyDestination);
+            }
+        }
+    }
+
+    /**
+     * Stop receiving replies and release the JMS resources of this dispatcher
+     */
+    public synchronized void close() {
+        fail();
+        try {
+            if (consumer != null) {
+                consumer.close();
+            }
+            if (temporary) {
+                ((TemporaryQueue) replyDestination).delete();
+            }
+            if (session != null) {
+                session.close();
+            }
+            if (connection != null &&
+                jmsConnectionFactory.getCacheLevel() < JMSConstants.CACHE_CONNECTION) {
+                connection.close();
+            }
+        } catch (JMSException e) {
+            log.warn("Error closing the shared JMS reply consumer on : " + replyDestination, e);
+        } finally {
+            consumer = null;
+            session = null;
+            connection = null;
+        }
+    }
+
+    /**
+     * A reply that is being waited for, or that has been received but not yet claimed
+     */
+    private static class PendingReply {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long created = System.currentTimeMillis();
+        private volatile Message reply = null;
+    }
+}
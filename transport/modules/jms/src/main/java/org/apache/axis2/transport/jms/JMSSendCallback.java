@@ -0,0 +1,41 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.axis2.context.MessageContext;
+
+/**
+ * Notified once a message sent asynchronously through a JMS CF has been completed by the broker,
+ * or has failed. Set as the {@link JMSConstants#JMS_SEND_CALLBACK} property of the outgoing
+ * MessageContext. The methods are invoked on a JMS provider or transport thread, and should
+ * return quickly.
+ */
+public interface JMSSendCallback {
+
+    /**
+     * The message has been sent. The JMS_MESSAGE_ID property of the MessageContext holds
+     * the JMSMessageID assigned to it
+     * @param msgCtx the MessageContext sent
+     */
+    void onSendComplete(MessageContext msgCtx);
+
+    /**
+     * The message could not be sent
+     * @param msgCtx the MessageContext that was being sent
+     * @param e the cause of the failure
+     */
+    void onSendFailure(MessageContext msgCtx, Exception e);
+}
@@ -23,21 +23,27 @@ import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.TransportOutDescription;
 import org.apache.axis2.transport.TransportUtils;
 import org.apache.axis2.transport.MessageFormatter;
 import org.apache.axis2.transport.OutTransportInfo;
 import org.apache.axis2.transport.base.*;
+import org.apache.axis2.transport.base.streams.CompressingOutputStream;
+import org.apache.axis2.transport.base.streams.CountingOutputStream;
 import org.apache.axis2.transport.base.streams.WriterOutputStream;
 import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.axis2.util.JavaUtils;
 
 import javax.jms.*;
 import javax.activation.DataHandler;
+import javax.naming.NamingException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.*;
+import java.util.zip.Deflater;
 
 /**
  * The TransportSender for JMS
@@ -48,6 +54,8 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
 
     /** The JMS connection factory manager to be used when sending messages out */
     private JMSConnectionFactoryManager connFacManager;
+    /** The resolved out-transport info of target EPRs, if caching is enabled */
+    private JMSOutTransportInfoCache outTransportInfoCache;
 
     /**
      * Initialize the transport sender by reading pre-defined connection factories for
@@ -60,9 +68,94 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
     public void init(ConfigurationContext cfgCtx, TransportOutDescription transportOut) throws AxisFault {
         super.init(cfgCtx, transportOut);
         connFacManager = new JMSConnectionFactoryManager(transportOut);
+        int eprCacheSize = ParamUtils.getOptionalParamInt(transportOut,
+            JMSConstants.PARAM_EPR_CACHE_SIZE, JMSConstants.DEFAULT_EPR_CACHE_SIZE);
+        if (eprCacheSize > 0) {
+            outTransportInfoCache = new JMSOutTransportInfoCache(eprCacheSize,
+                ParamUtils.getOptionalParamInt(transportOut,
+                    JMSConstants.PARAM_EPR_CACHE_TTL, JMSConstants.DEFAULT_EPR_CACHE_TTL));
+            registerMBean(outTransportInfoCache, getOutTransportInfoCacheMBeanName());
+        }
+        for (JMSConnectionFactory jmsConnectionFactory : connFacManager.getJMSConnectionFactories()) {
+            if (jmsConnectionFactory.getSessionPool() != null) {
+                registerMBean(jmsConnectionFactory.getSessionPool(),
+                    getSessionPoolMBeanName(jmsConnectionFactory));
+            }
+            if (jmsConnectionFactory.getDestinationCache() != null) {
+                registerMBean(jmsConnectionFactory.getDestinationCache(),
+                    getDestinationCacheMBeanName(jmsConnectionFactory));
+            }
+            if (jmsConnectionFactory.getAsyncSender() != null) {
+                registerMBean(jmsConnectionFactory.getAsyncSender(),
+                    getAsyncSenderMBeanName(jmsConnectionFactory));
+            }
+            if (jmsConnectionFactory.getBrokerGroup() != null) {
+                registerMBean(jmsConnectionFactory.getBrokerGroup(),
+                    getBrokerGroupMBeanName(jmsConnectionFactory));
+            }
+        }
         log.info("JMS Transport Sender initialized...");
     }
 
+    /**
+     * Complete the asynchronous sends in flight and the queued dead letters, close the Session
+     * pools and shared reply consumers of the connection factories and stop the transport sender
+     */
+    public void stop() {
+        if (connFacManager != null) {
+            for (JMSConnectionFactory jmsConnectionFactory : connFacManager.getJMSConnectionFactories()) {
+                if (jmsConnectionFactory.getAsyncSender() != null) {
+                    unregisterMBean(getAsyncSenderMBeanName(jmsConnectionFactory));
+                    jmsConnectionFactory.getAsyncSender().close();
+                }
+                if (jmsConnectionFactory.getDeadLetterPublisher() != null) {
+                    jmsConnectionFactory.getDeadLetterPublisher().close();
+                }
+                if (jmsConnectionFactory.getSessionPool() != null) {
+                    unregisterMBean(getSessionPoolMBeanName(jmsConnectionFactory));
+                    jmsConnectionFactory.getSessionPool().close();
+                }
+                if (jmsConnectionFactory.getDestinationCache() != null) {
+                    unregisterMBean(getDestinationCacheMBeanName(jmsConnectionFactory));
+                    jmsConnectionFactory.getDestinationCache().clear();
+                }
+                if (jmsConnectionFactory.getBrokerGroup() != null) {
+                    unregisterMBean(getBrokerGroupMBeanName(jmsConnectionFactory));
+                }
+                jmsConnectionFactory.closeReplyDispatchers();
+            }
+        }
+        if (outTransportInfoCache != null) {
+            unregisterMBean(getOutTransportInfoCacheMBeanName());
+            outTransportInfoCache.clear();
+        }
+        super.stop();
+    }
+
+    private String getAsyncSenderMBeanName(JMSConnectionFactory jmsConnectionFactory) {
+        return getMBeanName() + ",Group=AsyncSenders,ConnectionFactory=" +
+            jmsConnectionFactory.getName();
+    }
+
+    private String getBrokerGroupMBeanName(JMSConnectionFactory jmsConnectionFactory) {
+        return getMBeanName() + ",Group=BrokerGroups,ConnectionFactory=" +
+            jmsConnectionFactory.getName();
+    }
+
+    private String getDestinationCacheMBeanName(JMSConnectionFactory jmsConnectionFactory) {
+        return getMBeanName() + ",Group=DestinationCaches,ConnectionFactory=" +
+            jmsConnectionFactory.getName();
+    }
+
+    private String getOutTransportInfoCacheMBeanName() {
+        return getMBeanName() + ",Group=EPRCache";
+    }
+
+    private String getSessionPoolMBeanName(JMSConnectionFactory jmsConnectionFactory) {
+        return getMBeanName() + ",Group=SessionPools,ConnectionFactory=" +
+            jmsConnectionFactory.getName();
+    }
+
     /**
      * Get corresponding JMS connection factory defined within the transport sender for the
      * transport-out information - usually constructed from a targetEPR
@@ -84,6 +177,22 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
         }
     }
 
+    /**
+     * Get a JMS connection factory defined within the transport sender
+     * @param name the name of the JMS connection factory
+     * @return the JMS connection factory, or null if not defined
+     */
+    JMSConnectionFactory getJMSConnectionFactory(String name) {
+        return connFacManager.getJMSConnectionFactory(name);
+    }
+
+    /**
+     * Close the decompressing stream of a synchronous response, once the caller is done with it
+     */
+    public void cleanup(MessageContext msgContext) throws AxisFault {
+        JMSUtils.closeTransportIn(msgContext);
+    }
+
     /**
      * Performs the actual sending of the JMS message
      */
@@ -93,20 +202,32 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
         JMSConnectionFactory jmsConnectionFactory = null;
         JMSOutTransportInfo jmsOut = null;
         JMSMessageSender messageSender = null;
+        JMSBrokerGroup brokerGroup = null;
 
         if (targetAddress != null) {
 
-            jmsOut = new JMSOutTransportInfo(targetAddress);
+            jmsOut = outTransportInfoCache != null ?
+                outTransportInfoCache.get(targetAddress) : new JMSOutTransportInfo(targetAddress);
             // do we have a definition for a connection factory to use for this address?
             jmsConnectionFactory = getJMSConnectionFactory(jmsOut);
-            
             if (jmsConnectionFactory != null) {
+                brokerGroup = jmsConnectionFactory.getBrokerGroup();
+            }
+
+            if (brokerGroup != null) {
+                sendThroughBrokerGroup(msgCtx, targetAddress, jmsOut, jmsConnectionFactory,
+                    brokerGroup);
+                return;
+
+            } else if (jmsConnectionFactory != null) {
                 messageSender = new JMSMessageSender(jmsConnectionFactory, targetAddress);
 
             } else {
                 try {
                     messageSender = JMSUtils.createJMSSender(jmsOut);
                 } catch (JMSException e) {
+                    // the cached connection factory or destination may be stale
+                    invalidateOutTransportInfo(targetAddress);
                     handleException("Unable to create a JMSMessageSender for : " + outTransportInfo, e);
                 }
             }
@@ -121,6 +242,85 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             }
         }
 
+        send(msgCtx, targetAddress, jmsOut, messageSender, jmsConnectionFactory, null);
+    }
+
+    /**
+     * Send a message through the members of a broker group. A message that could not be sent
+     * through a member, because of a JMS level error, is sent through the next member selected,
+     * until it has been tried through every member of the group. A message that reached a
+     * broker, e.g. a request whose response could not be received, or that was sent within a
+     * JTA transaction, is not sent again
+     * @param msgCtx the message context being sent
+     * @param targetAddress the target EPR
+     * @param jmsOut the out-transport info of the target EPR
+     * @param jmsConnectionFactory the JMS CF of the broker group
+     * @param brokerGroup the broker group
+     * @throws AxisFault if the message could not be sent through any member
+     */
+    private void sendThroughBrokerGroup(MessageContext msgCtx, String targetAddress,
+        JMSOutTransportInfo jmsOut, JMSConnectionFactory jmsConnectionFactory,
+        JMSBrokerGroup brokerGroup) throws AxisFault {
+
+        boolean retryable = msgCtx.getProperty(BaseConstants.JTA_COMMIT_AFTER_SEND) == null;
+        List<JMSConnectionFactory> tried = new ArrayList<JMSConnectionFactory>();
+        Exception lastFailure = null;
+        JMSConnectionFactory member;
+
+        while ((member = brokerGroup.select(tried)) != null) {
+            tried.add(member);
+            JMSMessageSender messageSender;
+            try {
+                messageSender = new JMSMessageSender(member, targetAddress);
+            } catch (AxisJMSException e) {
+                log.warn("Unable to create a JMSMessageSender for : " + targetAddress +
+                    " through JMS CF : " + member.getName() + " - trying the next member", e);
+                brokerGroup.release(member, true);
+                lastFailure = e;
+                continue;
+            }
+
+            try {
+                send(msgCtx, targetAddress, jmsOut, messageSender, member, brokerGroup);
+            } catch (AxisFault e) {
+                // e.g. the response to a request whose send failed is awaited until timeout
+                if (!retryable || messageSender.isSent() ||
+                    !(isBrokerFailure(e) || messageSender.isSendFailed())) {
+                    throw e;
+                }
+                log.warn("Unable to send message with MessageContext ID : " +
+                    msgCtx.getMessageID() + " through JMS CF : " + member.getName() +
+                    " - trying the next member", e);
+                lastFailure = e;
+                continue;
+            }
+            // a JMS error on send is logged rather than thrown, so also check the sender
+            if (!retryable || messageSender.isSent() || !messageSender.isSendFailed()) {
+                return;
+            }
+            log.warn("Unable to send message with MessageContext ID : " + msgCtx.getMessageID() +
+                " through JMS CF : " + member.getName() + " - trying the next member");
+        }
+
+        handleException("Unable to send message with MessageContext ID : " +
+            msgCtx.getMessageID() + " to : " + targetAddress + " through any member of JMS CF : " +
+            jmsConnectionFactory.getName(), lastFailure);
+    }
+
+    /**
+     * Send a message through the message sender given, which is closed once done
+     * @param msgCtx the message context being sent
+     * @param targetAddress the target EPR, or null if the message is not sent to an EPR
+     * @param jmsOut the out-transport info
+     * @param messageSender the message sender
+     * @param jmsConnectionFactory the JMS CF of the message sender, or null
+     * @param brokerGroup the broker group of the JMS CF, or null
+     * @throws AxisFault on error sending the message or receiving its response
+     */
+    private void send(MessageContext msgCtx, String targetAddress, JMSOutTransportInfo jmsOut,
+        JMSMessageSender messageSender, JMSConnectionFactory jmsConnectionFactory,
+        JMSBrokerGroup brokerGroup) throws AxisFault {
+
         // The message property to be used to send the content type is determined by
         // the out transport info, i.e. either from the EPR if we are sending a request,
         // or, if we are sending a response, from the configuration of the service that
@@ -132,22 +332,96 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             contentTypeProperty = jmsOut.getContentTypeProperty();
         }
 
-        // need to synchronize as Sessions are not thread safe
-        synchronized (messageSender.getSession()) {
-            try {
-                sendOverJMS(msgCtx, messageSender, contentTypeProperty, jmsConnectionFactory, jmsOut);
-            } finally {
-                messageSender.close();
+        // no need to synchronize, as the Session is either pooled or private to this sender
+        boolean brokerFailed = false;
+        boolean sentAsync = false;
+        try {
+            sentAsync = sendOverJMS(msgCtx, messageSender, contentTypeProperty,
+                jmsConnectionFactory, jmsOut, createAsyncCompletion(
+                    targetAddress, jmsConnectionFactory, brokerGroup));
+        } catch (AxisFault e) {
+            brokerFailed = isBrokerFailure(e);
+            throw e;
+        } finally {
+            // a JMS error on send is logged rather than thrown, so also check the sender
+            brokerFailed |= messageSender.isSendFailed();
+            if (brokerFailed) {
+                invalidateOutTransportInfo(targetAddress);
+                if (jmsConnectionFactory != null && targetAddress != null) {
+                    jmsConnectionFactory.invalidateDestination(
+                        JMSUtils.getDestination(targetAddress));
+                }
+            }
+            messageSender.close();
+            // the outcome of an asynchronous send is reported to the completion instead
+            if (brokerGroup != null && !sentAsync) {
+                brokerGroup.release(jmsConnectionFactory, brokerFailed);
+            }
+        }
+    }
+
+    /**
+     * Only a JMS or JNDI level error ejects the member of a broker group or invalidates the
+     * cached out-transport info, not e.g. a fault reply or a timeout
+     * @param e the fault raised sending a message
+     * @return true if the fault was caused by the JMS provider or JNDI
+     */
+    private static boolean isBrokerFailure(AxisFault e) {
+        return e.getCause() instanceof JMSException ||
+            e.getCause() instanceof AxisJMSException || e.getCause() instanceof NamingException;
+    }
+
+    /**
+     * Create the completion of an asynchronous send, which handles its outcome as a synchronous
+     * send does: a failure invalidates the cached out-transport info and destination, and the
+     * member of a broker group is only released, or ejected, once the send has completed
+     * @param targetAddress the target EPR, or null if the message was not sent to an EPR
+     * @param jmsConnectionFactory the JMS CF sent through, or null
+     * @param brokerGroup the broker group of the JMS CF, or null
+     * @return the completion to pass to the asynchronous sender
+     */
+    private JMSSendCallback createAsyncCompletion(final String targetAddress,
+        final JMSConnectionFactory jmsConnectionFactory, final JMSBrokerGroup brokerGroup) {
+
+        return new JMSSendCallback() {
+            public void onSendComplete(MessageContext msgCtx) {
+                if (brokerGroup != null) {
+                    brokerGroup.release(jmsConnectionFactory, false);
+                }
+            }
+
+            public void onSendFailure(MessageContext msgCtx, Exception e) {
+                invalidateOutTransportInfo(targetAddress);
+                if (jmsConnectionFactory != null && targetAddress != null) {
+                    jmsConnectionFactory.invalidateDestination(
+                        JMSUtils.getDestination(targetAddress));
+                }
+                if (brokerGroup != null) {
+                    brokerGroup.release(jmsConnectionFactory, true);
+                }
             }
+        };
+    }
+
+    /**
+     * Remove the cached out-transport info of a target EPR after a failure, so that its
+     * connection factory and destinations are looked up again on the next send
+     * @param targetAddress the target EPR, or null if the message was not sent to an EPR
+     */
+    private void invalidateOutTransportInfo(String targetAddress) {
+        if (targetAddress != null && outTransportInfoCache != null) {
+            outTransportInfoCache.invalidate(targetAddress);
         }
     }
 
     /**
      * Perform actual sending of the JMS message
+     * @return true if the message was handed to the asynchronous sender of the JMS CF, which
+     * reports the outcome of the send to the completion given
      */
-    private void sendOverJMS(MessageContext msgCtx, JMSMessageSender messageSender,
+    private boolean sendOverJMS(MessageContext msgCtx, JMSMessageSender messageSender,
         String contentTypeProperty, JMSConnectionFactory jmsConnectionFactory,
-        JMSOutTransportInfo jmsOut) throws AxisFault {
+        JMSOutTransportInfo jmsOut, JMSSendCallback asyncCompletion) throws AxisFault {
         
         // convert the axis message context into a JMS Message that we can send over JMS
         Message message = null;
@@ -176,6 +450,18 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
                 replyDestination = jmsOut.getReplyDestination(replyDestName, replyDestType);
             }
         }
+        // a shared reply consumer receives the responses of all requests to its destination
+        JMSReplyDispatcher replyDispatcher = null;
+        if (waitForResponse && jmsConnectionFactory != null &&
+            jmsConnectionFactory.isSharedReplyConsumer()) {
+            try {
+                replyDispatcher = jmsConnectionFactory.getReplyDispatcher(replyDestination);
+                replyDestination = replyDispatcher.getReplyDestination();
+            } catch (AxisJMSException e) {
+                handleException("Error starting a shared consumer for JMS response messages", e, msgCtx, message, jmsConnectionFactory);
+            }
+        }
+
         if (waitForResponse) {
 	        if (replyDestination == null) {
 	        	try {
@@ -190,9 +476,31 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
 	            replyDestination, messageSender.getSession(), message);
         }
 
+        boolean chunked = isChunked(message);
+
+        // one way messages outside of a transaction may be sent without awaiting completion. A
+        // message marked for rollback, or sent in a transacted session, goes through the session
+        // of the message sender, which ends the transaction as requested
+        JMSAsyncSender asyncSender = null;
+        if (!waitForResponse && !chunked && jmsConnectionFactory != null &&
+            !jmsConnectionFactory.isSessionTransacted() &&
+            msgCtx.getProperty(BaseConstants.JTA_COMMIT_AFTER_SEND) == null &&
+            !JavaUtils.isTrueExplicitly(msgCtx.getProperty(BaseConstants.SET_ROLLBACK_ONLY))) {
+            asyncSender = jmsConnectionFactory.getAsyncSender();
+        }
+
         try {
-            messageSender.send(message, msgCtx);
-            metrics.incrementMessagesSent(msgCtx);
+            if (asyncSender != null) {
+                // the metrics and any JMSSendCallback are updated once the send completes
+                asyncSender.send(message, messageSender.getDestination(), msgCtx, metrics,
+                    asyncCompletion);
+            } else if (chunked) {
+                sendChunked(msgCtx, messageSender, (BytesMessage) message);
+                metrics.incrementMessagesSent(msgCtx);
+            } else {
+                messageSender.send(message, msgCtx);
+                metrics.incrementMessagesSent(msgCtx);
+            }
         } catch (AxisJMSException e) {
             metrics.incrementFaultsSending();
             if (jmsConnectionFactory != null) {
@@ -202,10 +510,17 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             }
         }
 
-        try {
-            metrics.incrementBytesSent(msgCtx, JMSUtils.getMessageSize(message));
-        } catch (JMSException e) {
-            log.warn("Error reading JMS message size to update transport metrics", e);
+        if (!chunked) {
+            try {
+                long size = JMSUtils.getMessageSize(message);
+                if (size < 0) {
+                    // JMS 1.0 - the body is not read by the transport, so read it back
+                    size = JMSUtils.readBodyLength((BytesMessage) message);
+                }
+                metrics.incrementBytesSent(msgCtx, size);
+            } catch (JMSException e) {
+                log.warn("Error reading JMS message size to update transport metrics", e);
+            }
         }
 
         // if we are expecting a synchronous response back for the message sent out
@@ -226,8 +541,8 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             // We assume here that the response uses the same message property to
             // specify the content type of the message.
             try {
-            waitForResponseAndProcess(messageSender.getSession(), replyDestination,
-                msgCtx, correlationId, contentTypeProperty);
+            waitForResponseAndProcess(messageSender.getSession(), replyDispatcher,
+                replyDestination, msgCtx, correlationId, contentTypeProperty);
             } catch (Exception e) {
             	if (jmsConnectionFactory != null) {
             		handleException("Error receiving JMS response message for attached request message", e, msgCtx, message, jmsConnectionFactory);
@@ -237,27 +552,83 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             }
             // TODO ********************************************************************************
         }
+        return asyncSender != null;
+    }
+
+    /**
+     * Is the payload of the given message to be sent in chunks? See createJMSMessage()
+     */
+    private boolean isChunked(Message message) {
+        try {
+            return message.propertyExists(JMSConstants.CHUNK_ID_PROPERTY);
+        } catch (JMSException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the payload of a chunked message, sending it as a series of BytesMessages of at most
+     * the configured chunk size, so that it never has to be held in memory as a whole. The first
+     * chunk is the given message, which carries the message properties. All chunks are sent in
+     * the transaction completed by sending the last one
+     * @param msgCtx the message context being sent
+     * @param messageSender the sender to use
+     * @param message the first chunk
+     */
+    private void sendChunked(MessageContext msgCtx, JMSMessageSender messageSender,
+        BytesMessage message) {
+
+        JMSChunkOutputStream chunkOut;
+        CountingOutputStream out;
+        try {
+            chunkOut = new JMSChunkOutputStream(messageSender, message, msgCtx,
+                getIntParam(msgCtx, JMSConstants.PARAM_CHUNK_SIZE, 0));
+            out = new CountingOutputStream(chunkOut);
+            writeMessage(msgCtx, TransportUtils.getMessageFormatter(msgCtx),
+                BaseUtils.getOMOutputFormat(msgCtx), out, getCompression(msgCtx), chunkOut);
+        } catch (AxisJMSException e) {
+            throw e;    // the chunks have been rolled back already
+        } catch (Exception e) {
+            messageSender.rollback(msgCtx);
+            throw new AxisJMSException("Error writing the chunks of message with MessageContext ID : " +
+                msgCtx.getMessageID(), e);
+        }
+
+        messageSender.send(chunkOut.getLastChunk(), msgCtx);
+        // replies are correlated with the first chunk, which carries the message properties
+        try {
+            msgCtx.setProperty(JMSConstants.JMS_MESSAGE_ID, message.getJMSMessageID());
+        } catch (JMSException ignore) {}
+        metrics.incrementBytesSent(msgCtx, out.getByteCount());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Sent Message Context ID : " + msgCtx.getMessageID() + " in " +
+                chunkOut.getChunkCount() + " chunks of " + out.getByteCount() + " bytes in total");
+        }
     }
 
 	/**
-     * Create a Consumer for the reply destination and wait for the response JMS message
-     * synchronously. If a message arrives within the specified time interval, process it
-     * through Axis2
+     * Create a Consumer for the reply destination (or use the shared reply consumer) and wait
+     * for the response JMS message synchronously. If a message arrives within the specified
+     * time interval, process it through Axis2
      * @param session the session to use to listen for the response
+     * @param replyDispatcher the shared reply consumer to wait on, or null to create a consumer
      * @param replyDestination the JMS reply Destination
      * @param msgCtx the outgoing message for which we are expecting the response
      * @param contentTypeProperty the message property used to determine the content type
      *                            of the response message
      * @throws AxisFault on error
      */
-    private void waitForResponseAndProcess(Session session, Destination replyDestination,
-            MessageContext msgCtx, String correlationId,
+    private void waitForResponseAndProcess(Session session, JMSReplyDispatcher replyDispatcher,
+            Destination replyDestination, MessageContext msgCtx, String correlationId,
             String contentTypeProperty) throws AxisFault {
 
+        MessageConsumer consumer = null;
         try {
-            MessageConsumer consumer;
-            consumer = JMSUtils.createConsumer(session, replyDestination,
-                "JMSCorrelationID = '" + correlationId + "'");
+            if (replyDispatcher == null) {
+                consumer = JMSUtils.createConsumer(session, replyDestination,
+                    "JMSCorrelationID = '" + correlationId + "'");
+            }
 
             // how long are we willing to wait for the sync response
             long timeout = JMSConstants.DEFAULT_JMS_TIMEOUT;
@@ -272,14 +643,20 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
                     " with JMS correlation ID : " + correlationId);
             }
 
-            Message reply = consumer.receive(timeout);
+            Message reply = replyDispatcher != null ?
+                replyDispatcher.receive(correlationId, timeout) : consumer.receive(timeout);
 
             if (reply != null) {
 
                 // update transport level metrics
                 metrics.incrementMessagesReceived();                
                 try {
-                    metrics.incrementBytesReceived(JMSUtils.getMessageSize(reply));
+                    long size = JMSUtils.getMessageSize(reply);
+                    if (size < 0) {
+                        // JMS 1.0 - the response is read by the caller once this has returned
+                        size = JMSUtils.readBodyLength((BytesMessage) reply);
+                    }
+                    metrics.incrementBytesReceived(size);
                 } catch (JMSException e) {
                     log.warn("Error reading JMS message size to update transport metrics", e);
                 }
@@ -304,6 +681,15 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             handleException("Error creating a consumer, or receiving a synchronous reply " +
                 "for outgoing MessageContext ID : " + msgCtx.getMessageID() +
                 " and reply Destination : " + replyDestination, e);
+        } finally {
+            // the session may be pooled, so do not leave the consumer behind on it
+            if (consumer != null) {
+                try {
+                    consumer.close();
+                } catch (JMSException e) {
+                    log.warn("Error closing the JMS consumer for the synchronous reply", e);
+                }
+            }
         }
     }
 
@@ -350,11 +736,14 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
 
             OutputStream out;
             StringWriter sw;
+            boolean chunked = false;
             if (useBytesMessage) {
                 BytesMessage bytesMsg = session.createBytesMessage();
                 sw = null;
                 out = new BytesMessageOutputStream(bytesMsg);
                 message = bytesMsg;
+                // a chunked payload is only written when the message is sent, see sendChunked()
+                chunked = getIntParam(msgContext, JMSConstants.PARAM_CHUNK_SIZE, 0) > 0;
             } else {
                 sw = new StringWriter();
                 try {
@@ -365,11 +754,14 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
                 }
             }
             
-            try {
-                messageFormatter.writeTo(msgContext, format, out, true);
-                out.close();
-            } catch (IOException e) {
-                handleException("IO Error while creating BytesMessage", e);
+            String compression = useBytesMessage ? getCompression(msgContext) : null;
+            if (!chunked) {
+                try {
+                    compression = writeMessage(msgContext, messageFormatter, format, out, compression,
+                        null);
+                } catch (IOException e) {
+                    handleException("IO Error while creating BytesMessage", e);
+                }
             }
 
             if (!useBytesMessage) {
@@ -381,6 +773,12 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
             if (contentTypeProperty != null) {
                 message.setStringProperty(contentTypeProperty, contentType);
             }
+            if (chunked) {
+                message.setStringProperty(
+                    JMSConstants.CHUNK_ID_PROPERTY, UUID.randomUUID().toString());
+            } else if (compression != null) {
+                message.setStringProperty(JMSConstants.CONTENT_ENCODING_PROPERTY, compression);
+            }
 
         } else if (JMSConstants.JMS_BYTE_MESSAGE.equals(jmsPayloadType)) {
             message = session.createBytesMessage();
@@ -481,6 +879,11 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
         } catch (JMSException ex) {
             throw AxisFault.makeFault(ex);
         }
+        // the caller reads the response after this returns, and closes it through cleanup()
+        Object in = responseMsgCtx.getProperty(MessageContext.TRANSPORT_IN);
+        if (in != null) {
+            outMsgCtx.setProperty(MessageContext.TRANSPORT_IN, in);
+        }
 //        responseMsgCtx.setServerSide(true);
 
         handleIncomingMessage(
@@ -506,16 +909,108 @@ public class JMSSender extends AbstractTransportSender implements ManagementSupp
     private String getProperty(MessageContext mc, String key) {
         return (String) mc.getProperty(key);
     }
+
+    /**
+     * Write the message with the given formatter, compressing it if requested and if it is
+     * larger than the configured threshold
+     * @param msgContext the message context being sent
+     * @param messageFormatter the formatter of the message
+     * @param format the output format
+     * @param out the stream to write to, which is closed once written
+     * @param compression the compression format, or null to write the message uncompressed
+     * @param chunkOut the chunk stream of a chunked message, which flags its first chunk if the
+     *        message is compressed, or null
+     * @return the compression format of the message written, or null if it is not compressed
+     * @throws IOException on error writing the message
+     */
+    private String writeMessage(MessageContext msgContext, MessageFormatter messageFormatter,
+        OMOutputFormat format, OutputStream out, String compression,
+        JMSChunkOutputStream chunkOut) throws IOException {
+
+        if (compression == null) {
+            messageFormatter.writeTo(msgContext, format, out, true);
+            out.close();
+            return null;
+        }
+
+        // the payload is buffered until it reaches the threshold, and written as is below
+        CountingOutputStream wireOut = new CountingOutputStream(out);
+        CompressingOutputStream compressingOut = new CompressingOutputStream(wireOut, compression,
+            getIntParam(msgContext, JMSConstants.PARAM_COMPRESSION_LEVEL,
+                Deflater.DEFAULT_COMPRESSION),
+            getIntParam(msgContext, JMSConstants.PARAM_COMPRESSION_THRESHOLD,
+                JMSConstants.DEFAULT_COMPRESSION_THRESHOLD));
+        if (chunkOut != null) {
+            chunkOut.setCompression(compressingOut, compression);
+        }
+        messageFormatter.writeTo(msgContext, format, compressingOut, true);
+        compressingOut.close();
+        if (!compressingOut.isCompressed()) {
+            return null;
+        }
+        metrics.notifyCompressedMessageSent(wireOut.getByteCount(), compressingOut.getByteCount());
+        return compression;
+    }
+
+    /**
+     * Get the compression format configured for outgoing BytesMessages
+     * @param msgContext the message context being sent
+     * @return {@link BaseConstants#COMPRESSION_GZIP}, {@link BaseConstants#COMPRESSION_DEFLATE}
+     *         or null if messages are not compressed
+     * @throws AxisFault if the configured format is not supported
+     */
+    private String getCompression(MessageContext msgContext) throws AxisFault {
+        String compression = getParam(msgContext, JMSConstants.PARAM_COMPRESSION);
+        if (compression == null || BaseConstants.COMPRESSION_NONE.equals(compression)) {
+            return null;
+        } else if (BaseConstants.COMPRESSION_GZIP.equals(compression) ||
+            BaseConstants.COMPRESSION_DEFLATE.equals(compression)) {
+            return compression;
+        } else {
+            throw new AxisFault("Invalid value '" + compression + "' for parameter '" +
+                JMSConstants.PARAM_COMPRESSION + "'");
+        }
+    }
+
+    /**
+     * Look up a parameter on the message context (including the options set by a client),
+     * the service and operation, and finally on the transport sender
+     */
+    private String getParam(MessageContext msgContext, String name) {
+        Object value = msgContext.getProperty(name);
+        if (value == null) {
+            Parameter param = msgContext.getParameter(name);
+            if (param == null) {
+                TransportOutDescription transportOut = msgContext.getTransportOut();
+                param = transportOut == null ? null : transportOut.getParameter(name);
+            }
+            value = param == null ? null : param.getValue();
+        }
+        return value == null ? null : value.toString().trim();
+    }
+
+    private int getIntParam(MessageContext msgContext, String name, int defaultValue)
+        throws AxisFault {
+        String value = getParam(msgContext, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new AxisFault("Invalid value '" + value + "' for parameter '" + name + "'");
+        }
+    }
     
     protected void handleException(String msg, Exception e, 
     		MessageContext msgContext, Message message, JMSConnectionFactory jmsConnectionFactory) throws AxisFault {
-        JMSUtils.handleDeadLetter(msgContext, message, jmsConnectionFactory, e);
+        JMSUtils.handleDeadLetter(msgContext, message, jmsConnectionFactory, e, metrics);
     	super.handleException(msg, e);
     }
     
     private void handleException(String msg, Exception e,
 			MessageContext msgCtx, Message message, JMSOutTransportInfo jmsOut) throws AxisFault {
-        JMSUtils.handleDeadLetter(msgCtx, message, jmsOut, e);
+        JMSUtils.handleDeadLetter(msgCtx, message, jmsOut, e, metrics);
     	super.handleException(msg, e);
 	}
 
@@ -0,0 +1,326 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of Sessions (and their MessageProducers) created off the shared Connection
+ * of a {@link JMSConnectionFactory}. As a JMS Session must not be used by more than one thread
+ * at a time, a sender borrows a Session for the duration of a single send (and the wait for a
+ * synchronous response if any) and returns it afterwards. Thus concurrent senders can send in
+ * parallel over the one shared Connection, instead of being serialized through a single shared
+ * Session.
+ *
+ * Sessions are created lazily up to the maximum pool size. When all Sessions are in use, a
+ * borrower waits up to the configured timeout for a Session to be returned, and the time spent
+ * waiting is recorded for JMX.
+ */
+public class JMSSessionPool implements JMSSessionPoolMBean {
+
+    private static final Log log = LogFactory.getLog(JMSSessionPool.class);
+
+    /** The JMS CF that creates the Sessions and MessageProducers of this pool */
+    private final JMSConnectionFactory jmsConnectionFactory;
+    /** The maximum number of Sessions in this pool */
+    private final int maxSize;
+    /** The number of milliseconds to wait for a Session, 0 or less to wait forever */
+    private final long waitTimeout;
+
+    /** The Sessions currently not borrowed, most recently returned first */
+    private final LinkedList<PooledSession> idleSessions = new LinkedList<PooledSession>();
+    /** The number of Sessions created and not yet discarded */
+    private int poolSize = 0;
+    /** The number of Sessions currently borrowed */
+    private int activeSessions = 0;
+    private int peakActiveSessions = 0;
+    /** Has this pool been closed? */
+    private boolean closed = false;
+    /** Incremented on each reset, so that Sessions created before it are not reused */
+    private int generation = 0;
+
+    private long borrowCount = 0;
+    private long waitCount = 0;
+    private long waitTimeouts = 0;
+    private long totalWaitTime = 0;
+    private long maxWaitTime = 0;
+
+    public JMSSessionPool(JMSConnectionFactory jmsConnectionFactory, int maxSize, long waitTimeout) {
+        this.jmsConnectionFactory = jmsConnectionFactory;
+        this.maxSize = maxSize;
+        this.waitTimeout = waitTimeout;
+    }
+
+    /**
+     * Borrow a Session from the pool, creating a new one if none is idle and the pool has not
+     * reached its maximum size, or else waiting for one to be returned
+     * @return a Session for the exclusive use of the caller until it is returned
+     */
+    public PooledSession borrow() {
+
+        long start = 0;
+        boolean create = false;
+        int createGeneration = 0;
+        PooledSession pooledSession = null;
+
+        synchronized (this) {
+            while (!closed && idleSessions.isEmpty() && poolSize >= maxSize) {
+                long now = System.currentTimeMillis();
+                if (start == 0) {
+                    start = now;
+                    waitCount++;
+                } else if (waitTimeout > 0 && now - start >= waitTimeout) {
+                    waitTimeouts++;
+                    recordWait(now - start);
+                    handleException("Timed out after " + waitTimeout + " ms waiting for a " +
+                        "pooled JMS Session from JMS CF : " + jmsConnectionFactory.getName());
+                }
+                try {
+                    wait(waitTimeout > 0 ? waitTimeout - (now - start) : 0);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    handleException("Interrupted while waiting for a pooled JMS Session from " +
+                        "JMS CF : " + jmsConnectionFactory.getName());
+                }
+            }
+            if (closed) {
+                handleException("The JMS Session pool of JMS CF : " +
+                    jmsConnectionFactory.getName() + " is closed");
+            }
+            if (start != 0) {
+                recordWait(System.currentTimeMillis() - start);
+            }
+
+            if (idleSessions.isEmpty()) {
+                poolSize++;
+                create = true;
+                createGeneration = generation;
+            } else {
+                pooledSession = idleSessions.removeFirst();
+            }
+            borrowCount++;
+            activeSessions++;
+            if (activeSessions > peakActiveSessions) {
+                peakActiveSessions = activeSessions;
+            }
+        }
+
+        if (create) {
+            // create outside the lock, as this involves a round trip to the JMS provider
+            boolean created = false;
+            try {
+                pooledSession = new PooledSession(jmsConnectionFactory.createSession(
+                    jmsConnectionFactory.getConnection()), createGeneration);
+                created = true;
+                if (log.isDebugEnabled()) {
+                    log.debug("Created pooled JMS Session for JMS CF : " +
+                        jmsConnectionFactory.getName());
+                }
+            } finally {
+                if (!created) {
+                    synchronized (this) {
+                        poolSize--;
+                        activeSessions--;
+                        notify();
+                    }
+                }
+            }
+        }
+        return pooledSession;
+    }
+
+    /**
+     * Return a borrowed Session to the pool
+     * @param pooledSession the Session borrowed from this pool
+     * @param discard true if the Session should be closed instead of being reused, e.g. after
+     *        an error on the Session
+     */
+    public void release(PooledSession pooledSession, boolean discard) {
+        synchronized (this) {
+            activeSessions--;
+            if (!discard && !closed && pooledSession.generation == generation) {
+                idleSessions.addFirst(pooledSession);
+                notify();
+                return;
+            }
+            poolSize--;
+            notify();
+        }
+        pooledSession.close();
+    }
+
+    /**
+     * Close all idle Sessions of this pool. Sessions which are currently borrowed are closed
+     * when they are returned
+     */
+    public void close() {
+        LinkedList<PooledSession> sessions;
+        synchronized (this) {
+            closed = true;
+            sessions = new LinkedList<PooledSession>(idleSessions);
+            poolSize -= idleSessions.size();
+            idleSessions.clear();
+            notifyAll();
+        }
+        for (PooledSession pooledSession : sessions) {
+            pooledSession.close();
+        }
+    }
+
+    /**
+     * Close all idle Sessions of this pool, and discard the Sessions which are currently
+     * borrowed when they are returned, so that new Sessions are created off the new shared
+     * Connection of the JMS CF. Unlike {@link #close()}, the pool remains usable
+     */
+    public void reset() {
+        LinkedList<PooledSession> sessions;
+        synchronized (this) {
+            generation++;
+            sessions = new LinkedList<PooledSession>(idleSessions);
+            poolSize -= idleSessions.size();
+            idleSessions.clear();
+            notifyAll();
+        }
+        for (PooledSession pooledSession : sessions) {
+            pooledSession.close();
+        }
+    }
+
+    private void recordWait(long waitTime) {
+        totalWaitTime += waitTime;
+        if (waitTime > maxWaitTime) {
+            maxWaitTime = waitTime;
+        }
+    }
+
+    private void handleException(String msg) {
+        log.error(msg);
+        throw new AxisJMSException(msg);
+    }
+
+    // -- JMX --
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getWaitTimeout() {
+        return waitTimeout;
+    }
+
+    public synchronized int getPoolSize() {
+        return poolSize;
+    }
+
+    public synchronized int getActiveSessions() {
+        return activeSessions;
+    }
+
+    public synchronized int getIdleSessions() {
+        return idleSessions.size();
+    }
+
+    public synchronized int getPeakActiveSessions() {
+        return peakActiveSessions;
+    }
+
+    public synchronized long getBorrowCount() {
+        return borrowCount;
+    }
+
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    public synchronized long getWaitTimeouts() {
+        return waitTimeouts;
+    }
+
+    public synchronized long getTotalWaitTime() {
+        return totalWaitTime;
+    }
+
+    public synchronized long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    public synchronized double getAvgWaitTime() {
+        return waitCount == 0 ? 0 : (double) totalWaitTime / waitCount;
+    }
+
+    public synchronized void resetStatistics() {
+        peakActiveSessions = activeSessions;
+        borrowCount = 0;
+        waitCount = 0;
+        waitTimeouts = 0;
+        totalWaitTime = 0;
+        maxWaitTime = 0;
+    }
+
+    /**
+     * A Session of the pool, together with the MessageProducer cached on it (if the cache
+     * level of the JMS CF is producer)
+     */
+    public class PooledSession {
+
+        private final Session session;
+        /** The generation of the pool this Session was created in */
+        private final int generation;
+        private MessageProducer producer = null;
+
+        PooledSession(Session session, int generation) {
+            this.session = session;
+            this.generation = generation;
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Get the MessageProducer cached on this Session, creating it on first use
+         * @return the cached MessageProducer bound to the shared destination of the JMS CF
+         */
+        public MessageProducer getProducer() {
+            if (producer == null) {
+                producer = jmsConnectionFactory.createProducer(
+                    session, jmsConnectionFactory.getSharedDestination());
+            }
+            return producer;
+        }
+
+        void close() {
+            try {
+                if (producer != null) {
+                    producer.close();
+                }
+                session.close();
+                if (log.isDebugEnabled()) {
+                    log.debug("Closed pooled JMS Session for JMS CF : " +
+                        jmsConnectionFactory.getName());
+                }
+            } catch (JMSException e) {
+                log.warn("Error closing pooled JMS Session for JMS CF : " +
+                    jmsConnectionFactory.getName(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Queue;
+import javax.jms.Topic;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Map of the transport headers of a received JMS message, backed by the message itself.
+ * Individual headers and properties are only read from the message (and cached) when they
+ * are looked up; the full set of headers is only built when the map is iterated or modified.
+ * Property values are read using {@link Message#getObjectProperty(String)} and converted to
+ * strings, as {@link Message#getStringProperty(String)} would do.
+ * <p>
+ * Instances of this class are not thread safe. When serialized, they are replaced by a
+ * plain {@link HashMap} holding all the headers.
+ */
+final class JMSTransportHeaders extends AbstractMap<String,Object> implements Serializable {
+    private static final long serialVersionUID = -2867306487839231406L;
+
+    private static final Log log = LogFactory.getLog(JMSTransportHeaders.class);
+
+    /** The JMS header fields exposed by the map */
+    private static final String[] HEADER_NAMES = {
+        JMSConstants.JMS_COORELATION_ID,
+        JMSConstants.JMS_DELIVERY_MODE,
+        JMSConstants.JMS_DESTINATION,
+        JMSConstants.JMS_EXPIRATION,
+        JMSConstants.JMS_MESSAGE_ID,
+        JMSConstants.JMS_PRIORITY,
+        JMSConstants.JMS_REDELIVERED,
+        JMSConstants.JMS_REPLY_TO,
+        JMSConstants.JMS_TIMESTAMP,
+        JMSConstants.JMS_TYPE
+    };
+
+    /** Marker for looked up names that have no value in the message */
+    private static final Object NO_VALUE = new Object();
+
+    private final transient Message message;
+    /** The values looked up so far, until the full set of headers is built */
+    private Map<String,Object> cache = new HashMap<String,Object>();
+    /** All the headers, or null if they have not been built yet */
+    private Map<String,Object> headers;
+
+    JMSTransportHeaders(Message message) {
+        this.message = message;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (headers != null) {
+            return headers.get(key);
+        } else if (key instanceof String) {
+            return lookup((String) key);
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (headers != null) {
+            return headers.containsKey(key);
+        } else {
+            return get(key) != null;
+        }
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return getHeaders().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return getHeaders().remove(key);
+    }
+
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        return getHeaders().entrySet();
+    }
+
+    private Object lookup(String name) {
+        Object value = cache.get(name);
+        if (value == null) {
+            value = read(name);
+            cache.put(name, value == null ? NO_VALUE : value);
+        }
+        return value == NO_VALUE ? null : value;
+    }
+
+    private Map<String,Object> getHeaders() {
+        if (headers == null) {
+            Map<String,Object> map = new HashMap<String,Object>();
+            for (String name : HEADER_NAMES) {
+                Object value = lookup(name);
+                if (value != null) {
+                    map.put(name, value);
+                }
+            }
+            try {
+                Enumeration<?> e = message.getPropertyNames();
+                while (e.hasMoreElements()) {
+                    String name = (String) e.nextElement();
+                    Object value = lookup(name);
+                    if (value != null) {
+                        map.put(name, value);
+                    }
+                }
+            } catch (JMSException e) {
+                logError("property names", e);
+            }
+            headers = map;
+            cache = null;
+        }
+        return headers;
+    }
+
+    private Object read(String name) {
+        try {
+            if (JMSConstants.JMS_COORELATION_ID.equals(name)) {
+                return message.getJMSCorrelationID();
+            } else if (JMSConstants.JMS_DELIVERY_MODE.equals(name)) {
+                return Integer.toString(message.getJMSDeliveryMode());
+            } else if (JMSConstants.JMS_DESTINATION.equals(name)) {
+                return getName(message.getJMSDestination());
+            } else if (JMSConstants.JMS_EXPIRATION.equals(name)) {
+                return Long.toString(message.getJMSExpiration());
+            } else if (JMSConstants.JMS_MESSAGE_ID.equals(name)) {
+                return message.getJMSMessageID();
+            } else if (JMSConstants.JMS_PRIORITY.equals(name)) {
+                return Long.toString(message.getJMSPriority());
+            } else if (JMSConstants.JMS_REDELIVERED.equals(name)) {
+                return Boolean.toString(message.getJMSRedelivered());
+            } else if (JMSConstants.JMS_REPLY_TO.equals(name)) {
+                return getName(message.getJMSReplyTo());
+            } else if (JMSConstants.JMS_TIMESTAMP.equals(name)) {
+                return Long.toString(message.getJMSTimestamp());
+            } else if (JMSConstants.JMS_TYPE.equals(name)) {
+                return message.getJMSType();
+            } else {
+                Object value = message.getObjectProperty(name);
+                return value == null ? null : value.toString();
+            }
+        } catch (JMSException e) {
+            logError(name, e);
+            return null;
+        }
+    }
+
+    private static String getName(Destination dest) throws JMSException {
+        if (dest instanceof Queue) {
+            return ((Queue) dest).getQueueName();
+        } else if (dest instanceof Topic) {
+            return ((Topic) dest).getTopicName();
+        } else {
+            return null;
+        }
+    }
+
+    private static void logError(String name, JMSException e) {
+        if (log.isDebugEnabled()) {
+            log.debug("Unable to read " + name + " from the JMS message", e);
+        }
+    }
+
+    private Object writeReplace() {
+        return new HashMap<String,Object>(getHeaders());
+    }
+}
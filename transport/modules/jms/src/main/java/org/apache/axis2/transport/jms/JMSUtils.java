@@ -15,13 +15,17 @@
 */
 package org.apache.axis2.transport.jms;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
@@ -31,6 +35,7 @@ import javax.jms.Destination;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
+import javax.jms.MessageNotWriteableException;
 import javax.jms.MessageProducer;
 import javax.jms.Queue;
 import javax.jms.QueueConnection;
@@ -43,8 +48,6 @@ import javax.jms.Topic;
 import javax.jms.TopicConnection;
 import javax.jms.TopicConnectionFactory;
 import javax.jms.TopicSession;
-import javax.mail.internet.ContentType;
-import javax.mail.internet.ParseException;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.Reference;
@@ -53,8 +56,6 @@ import org.apache.axiom.om.OMElement;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
 import org.apache.axis2.builder.Builder;
-import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.builder.SOAPBuilder;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.Parameter;
@@ -64,6 +65,8 @@ import org.apache.axis2.format.TextMessageBuilderAdapter;
 import org.apache.axis2.transport.TransportUtils;
 import org.apache.axis2.transport.base.BaseConstants;
 import org.apache.axis2.transport.base.BaseUtils;
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.apache.axis2.transport.base.streams.DecompressingInputStream;
 import org.apache.axis2.transport.base.threads.WorkerPool;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -77,6 +80,27 @@ public class JMSUtils extends BaseUtils {
     private static final Class[]  NOARGS  = new Class[] {};
     private static final Object[] NOPARMS = new Object[] {};
 
+    /** The <tt>getBodyLength</tt> methods resolved per BytesMessage implementation class */
+    private static final Map<Class<?>,Method> bodyLengthMethods =
+            new ConcurrentHashMap<Class<?>,Method>();
+    /** BytesMessage implementation classes known not to have a <tt>getBodyLength</tt> method */
+    private static final Map<Class<?>,Boolean> noBodyLengthMethod =
+            new ConcurrentHashMap<Class<?>,Boolean>();
+    /** The JMS 2.0 shared consumer creation methods resolved per Session implementation class */
+    private static final Map<Class<?>,Method> sharedConsumerMethods =
+            new ConcurrentHashMap<Class<?>,Method>();
+    private static final Map<Class<?>,Method> sharedDurableConsumerMethods =
+            new ConcurrentHashMap<Class<?>,Method>();
+    /** Session implementation classes known to implement the JMS 1.1 API only */
+    private static final Map<Class<?>,Boolean> noSharedConsumerMethod =
+            new ConcurrentHashMap<Class<?>,Boolean>();
+    /** The JMS 2.0 <tt>setDeliveryDelay</tt> methods resolved per MessageProducer class */
+    private static final Map<Class<?>,Method> deliveryDelayMethods =
+            new ConcurrentHashMap<Class<?>,Method>();
+    /** MessageProducer implementation classes known to implement the JMS 1.1 API only */
+    private static final Map<Class<?>,Boolean> noDeliveryDelayMethod =
+            new ConcurrentHashMap<Class<?>,Boolean>();
+
     /**
      * Should this service be enabled over the JMS transport?
      *
@@ -185,6 +209,21 @@ public class JMSUtils extends BaseUtils {
      */
     public static void setSOAPEnvelope(Message message, MessageContext msgContext, String contentType)
         throws AxisFault, JMSException {
+        setSOAPEnvelope(message, msgContext, contentType, null);
+    }
+
+    /**
+     * Set the SOAPEnvelope to the Axis2 MessageContext, from the JMS Message passed in
+     * @param message the JMS message read
+     * @param msgContext the Axis2 MessageContext to be populated
+     * @param contentType content type for the message
+     * @param contentTypeCache the cache of the receiving endpoint, or null
+     * @throws AxisFault
+     * @throws JMSException
+     */
+    public static void setSOAPEnvelope(Message message, MessageContext msgContext,
+        String contentType, JMSContentTypeCache contentTypeCache)
+        throws AxisFault, JMSException {
 
         if (contentType == null) {
             if (message instanceof TextMessage) {
@@ -197,38 +236,36 @@ public class JMSUtils extends BaseUtils {
             }
         }
         
-        int index = contentType.indexOf(';');
-        String type = index > 0 ? contentType.substring(0, index) : contentType;
-        Builder builder = BuilderUtil.getBuilderFromSelector(type, msgContext);
-        if (builder == null) {
-            if (log.isDebugEnabled()) {
-                log.debug("No message builder found for type '" + type + "'. Falling back to SOAP.");
-            }
-            builder = new SOAPBuilder();
-        }
+        JMSContentTypeCache.Entry contentTypeEntry =
+            getContentTypeEntry(contentType, msgContext, contentTypeCache);
+        Builder builder = contentTypeEntry.getBuilder();
         
         OMElement documentElement;
         if (message instanceof BytesMessage) {
-            // Extract the charset encoding from the content type and
-            // set the CHARACTER_SET_ENCODING property as e.g. SOAPBuilder relies on this.
-            String charSetEnc = null;
-            try {
-                if (contentType != null) {
-                    charSetEnc = new ContentType(contentType).getParameter("charset");
-                }
-            } catch (ParseException ex) {
-                // ignore
-            }
-            msgContext.setProperty(Constants.Configuration.CHARACTER_SET_ENCODING, charSetEnc);
+            BytesMessage bytesMessage = (BytesMessage)message;
+            setCharSetEncoding(contentTypeEntry, msgContext);
+            // without a body length (JMS 1.0), the length is counted as the builder reads it
+            boolean lengthKnown = getBodyLength(bytesMessage) >= 0;
             
-            if (builder instanceof DataSourceMessageBuilder) {
+            if (message.propertyExists(JMSConstants.CONTENT_ENCODING_PROPERTY)) {
+                // decompressed while the builder reads the message, and closed once processed
+                BytesMessageInputStream bodyIn = new BytesMessageInputStream(bytesMessage);
+                if (!lengthKnown) {
+                    msgContext.setProperty(JMSConstants.JMS_BYTES_MESSAGE_STREAM, bodyIn);
+                }
+                InputStream in = new DecompressingInputStream(bodyIn);
+                msgContext.setProperty(MessageContext.TRANSPORT_IN, in);
+                documentElement = builder.processDocument(in, contentType, msgContext);
+            } else if (builder instanceof DataSourceMessageBuilder && lengthKnown) {
                 documentElement = ((DataSourceMessageBuilder)builder).processDocument(
-                        new BytesMessageDataSource((BytesMessage)message), contentType,
+                        new BytesMessageDataSource(bytesMessage), contentType,
                         msgContext);
             } else {
-                documentElement = builder.processDocument(
-                        new BytesMessageInputStream((BytesMessage)message), contentType,
-                        msgContext);
+                BytesMessageInputStream bodyIn = new BytesMessageInputStream(bytesMessage);
+                if (!lengthKnown) {
+                    msgContext.setProperty(JMSConstants.JMS_BYTES_MESSAGE_STREAM, bodyIn);
+                }
+                documentElement = builder.processDocument(bodyIn, contentType, msgContext);
             }
         } else if (message instanceof TextMessage) {
             TextMessageBuilder textMessageBuilder;
@@ -246,6 +283,77 @@ public class JMSUtils extends BaseUtils {
         msgContext.setEnvelope(TransportUtils.createSOAPEnvelope(documentElement));
     }
 
+    /**
+     * Set the SOAP envelope of the message context from the reassembled payload of a chunked
+     * message, decompressing it while it is read if its first chunk is flagged with the
+     * {@link JMSConstants#CONTENT_ENCODING_PROPERTY}
+     *
+     * @param payload the payload read from the chunks
+     * @param compressed true if the first chunk carries the content encoding property
+     * @param msgContext the axis MessageContext
+     * @param contentType the content type of the message, or null for a binary message
+     * @param contentTypeCache the cache of the receiving endpoint, or null
+     * @throws AxisFault on error
+     */
+    public static void setSOAPEnvelope(InputStream payload, boolean compressed,
+        MessageContext msgContext, String contentType, JMSContentTypeCache contentTypeCache)
+        throws AxisFault {
+
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+        JMSContentTypeCache.Entry contentTypeEntry =
+            getContentTypeEntry(contentType, msgContext, contentTypeCache);
+        setCharSetEncoding(contentTypeEntry, msgContext);
+        InputStream in = payload;
+        if (compressed) {
+            // decompressed while the builder reads the chunks, and closed once processed
+            in = new DecompressingInputStream(payload);
+            msgContext.setProperty(MessageContext.TRANSPORT_IN, in);
+        }
+        OMElement documentElement = contentTypeEntry.getBuilder().processDocument(
+            in, contentType, msgContext);
+        msgContext.setEnvelope(TransportUtils.createSOAPEnvelope(documentElement));
+    }
+
+    /**
+     * Close the decompressing stream a message was built from, if any, once the message has
+     * been processed, so that the Inflater of a compressed message is released right away
+     * rather than on finalization
+     * @param msgContext the message context of the message, or of the request it responds to
+     */
+    public static void closeTransportIn(MessageContext msgContext) {
+        Object in = msgContext.getProperty(MessageContext.TRANSPORT_IN);
+        if (in instanceof DecompressingInputStream) {
+            msgContext.removeProperty(MessageContext.TRANSPORT_IN);
+            try {
+                ((DecompressingInputStream) in).close();
+            } catch (IOException e) {
+                log.debug("Error closing the decompressing stream of a JMS message", e);
+            }
+        }
+    }
+
+    private static JMSContentTypeCache.Entry getContentTypeEntry(String contentType,
+        MessageContext msgContext, JMSContentTypeCache contentTypeCache) throws AxisFault {
+
+        if (contentTypeCache != null) {
+            return contentTypeCache.get(contentType, msgContext);
+        } else {
+            return JMSContentTypeCache.resolve(contentType, msgContext);
+        }
+    }
+
+    /**
+     * Set the CHARACTER_SET_ENCODING property from the charset of the content type, as e.g.
+     * SOAPBuilder relies on this
+     */
+    private static void setCharSetEncoding(JMSContentTypeCache.Entry contentTypeEntry,
+        MessageContext msgContext) {
+        msgContext.setProperty(Constants.Configuration.CHARACTER_SET_ENCODING,
+            contentTypeEntry.getCharSetEncoding());
+    }
+
     /**
      * Set the JMS ReplyTo for the message
      *
@@ -309,6 +417,13 @@ public class JMSUtils extends BaseUtils {
                 !(name.equals(JMSConstants.JMSX_GROUP_ID) || name.equals(JMSConstants.JMSX_GROUP_SEQ))) {
                 continue;
             }
+            // describe the body of the message received, not of the one being sent
+            if (JMSConstants.CONTENT_ENCODING_PROPERTY.equals(name) ||
+                JMSConstants.CHUNK_ID_PROPERTY.equals(name) ||
+                JMSConstants.CHUNK_SEQ_PROPERTY.equals(name) ||
+                JMSConstants.CHUNK_LAST_PROPERTY.equals(name)) {
+                continue;
+            }
 
             if (JMSConstants.JMS_COORELATION_ID.equals(name)) {
                 message.setJMSCorrelationID(
@@ -373,117 +488,15 @@ public class JMSUtils extends BaseUtils {
     }
 
     /**
-     * Extract transport level headers for JMS from the given message into a Map
+     * Extract transport level headers for JMS from the given message into a Map. The returned
+     * Map is backed by the message and only reads the headers and properties that are looked
+     * up; see {@link JMSTransportHeaders}.
      *
      * @param message the JMS message
      * @return a Map of the transport headers
      */
     public static Map<String, Object> getTransportHeaders(Message message) {
-        // create a Map to hold transport headers
-        Map<String, Object> map = new HashMap<String, Object>();
-
-        // correlation ID
-        try {
-            if (message.getJMSCorrelationID() != null) {
-                map.put(JMSConstants.JMS_COORELATION_ID, message.getJMSCorrelationID());
-            }
-        } catch (JMSException ignore) {}
-
-        // set the delivery mode as persistent or not
-        try {
-            map.put(JMSConstants.JMS_DELIVERY_MODE, Integer.toString(message.getJMSDeliveryMode()));
-        } catch (JMSException ignore) {}
-
-        // destination name
-        try {
-            if (message.getJMSDestination() != null) {
-                Destination dest = message.getJMSDestination();
-                map.put(JMSConstants.JMS_DESTINATION,
-                    dest instanceof Queue ?
-                        ((Queue) dest).getQueueName() : ((Topic) dest).getTopicName());
-            }
-        } catch (JMSException ignore) {}
-
-        // expiration
-        try {
-            map.put(JMSConstants.JMS_EXPIRATION, Long.toString(message.getJMSExpiration()));
-        } catch (JMSException ignore) {}
-
-        // if a JMS message ID is found
-        try {
-            if (message.getJMSMessageID() != null) {
-                map.put(JMSConstants.JMS_MESSAGE_ID, message.getJMSMessageID());
-            }
-        } catch (JMSException ignore) {}
-
-        // priority
-        try {
-            map.put(JMSConstants.JMS_PRIORITY, Long.toString(message.getJMSPriority()));
-        } catch (JMSException ignore) {}
-
-        // redelivered
-        try {
-            map.put(JMSConstants.JMS_REDELIVERED, Boolean.toString(message.getJMSRedelivered()));
-        } catch (JMSException ignore) {}
-
-        // replyto destination name
-        try {
-            if (message.getJMSReplyTo() != null) {
-                Destination dest = message.getJMSReplyTo();
-                map.put(JMSConstants.JMS_REPLY_TO,
-                    dest instanceof Queue ?
-                        ((Queue) dest).getQueueName() : ((Topic) dest).getTopicName());
-            }
-        } catch (JMSException ignore) {}
-
-        // priority
-        try {
-            map.put(JMSConstants.JMS_TIMESTAMP, Long.toString(message.getJMSTimestamp()));
-        } catch (JMSException ignore) {}
-
-        // message type
-        try {
-            if (message.getJMSType() != null) {
-                map.put(JMSConstants.JMS_TYPE, message.getJMSType());
-            }
-        } catch (JMSException ignore) {}
-
-        // any other transport properties / headers
-        Enumeration<String> e = null;
-        try {
-            e = message.getPropertyNames();
-        } catch (JMSException ignore) {}
-
-        if (e != null) {
-            while (e.hasMoreElements()) {
-                String headerName = e.nextElement();
-                try {
-                    map.put(headerName, message.getStringProperty(headerName));
-                    continue;
-                } catch (JMSException ignore) {}
-                try {
-                    map.put(headerName, message.getBooleanProperty(headerName));
-                    continue;
-                } catch (JMSException ignore) {}
-                try {
-                    map.put(headerName, message.getIntProperty(headerName));
-                    continue;
-                } catch (JMSException ignore) {}
-                try {
-                    map.put(headerName, message.getLongProperty(headerName));
-                    continue;
-                } catch (JMSException ignore) {}
-                try {
-                    map.put(headerName, message.getDoubleProperty(headerName));
-                    continue;
-                } catch (JMSException ignore) {}
-                try {
-                    map.put(headerName, message.getFloatProperty(headerName));
-                } catch (JMSException ignore) {}
-            }
-        }
-
-        return map;
+        return new JMSTransportHeaders(message);
     }
 
 
@@ -522,24 +535,68 @@ public class JMSUtils extends BaseUtils {
     }
 
     /**
-     * Return the body length in bytes for a bytes message
+     * Return the body length in bytes for a bytes message. The <tt>getBodyLength</tt>
+     * method is looked up once per message class. If the provider doesn't implement it
+     * (JMS 1.0), the length is unknown until the body has been read, which is left to
+     * the caller - see {@link #getBytesRead(MessageContext)}
      * @param bMsg the JMS BytesMessage
-     * @return length of body in bytes
+     * @return length of body in bytes, or -1 if the provider can't tell
      */
     public static long getBodyLength(BytesMessage bMsg) {
-        try {
-            Method mtd = bMsg.getClass().getMethod("getBodyLength", NOARGS);
-            if (mtd != null) {
+        Class<?> clazz = bMsg.getClass();
+        if (!noBodyLengthMethod.containsKey(clazz)) {
+            try {
+                Method mtd = bodyLengthMethods.get(clazz);
+                if (mtd == null) {
+                    mtd = clazz.getMethod("getBodyLength", NOARGS);
+                    // a JMS 1.0 provider run against the JMS 1.1 API inherits it unimplemented
+                    if (Modifier.isAbstract(mtd.getModifiers())) {
+                        throw new NoSuchMethodException("getBodyLength");
+                    }
+                    bodyLengthMethods.put(clazz, mtd);
+                }
                 return (Long) mtd.invoke(bMsg, NOPARMS);
-            }
-        } catch (Exception e) {
-            // JMS 1.0
-            if (log.isDebugEnabled()) {
-                log.debug("Error trying to determine JMS BytesMessage body length", e);
+            } catch (NoSuchMethodException e) {
+                // JMS 1.0
+                noBodyLengthMethod.put(clazz, Boolean.TRUE);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof AbstractMethodError) {
+                    // JMS 1.0
+                    noBodyLengthMethod.put(clazz, Boolean.TRUE);
+                } else if (log.isDebugEnabled()) {
+                    log.debug("Error trying to determine JMS BytesMessage body length", e);
+                }
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Error trying to determine JMS BytesMessage body length", e);
+                }
             }
         }
 
         // if JMS 1.0
+        return -1;
+    }
+
+    /**
+     * Get the number of bytes read from the body of a BytesMessage whose length was unknown
+     * when it was received (JMS 1.0), once the message has been built and processed
+     * @param msgContext the message context the message was built into
+     * @return the number of bytes read, or 0 if the length of the message was known
+     */
+    public static long getBytesRead(MessageContext msgContext) {
+        Object in = msgContext.getProperty(JMSConstants.JMS_BYTES_MESSAGE_STREAM);
+        return in instanceof BytesMessageInputStream ?
+            ((BytesMessageInputStream) in).getByteCount() : 0;
+    }
+
+    /**
+     * Read the body of a BytesMessage to determine its length, and reset it so that it can
+     * still be read. Only for messages whose body is not read by the transport, as the
+     * length of a message being processed is counted as it is read
+     * @param bMsg the JMS BytesMessage
+     * @return length of body in bytes
+     */
+    static long readBodyLength(BytesMessage bMsg) {
         long length = 0;
         try {
             byte[] buffer = new byte[2048];
@@ -548,6 +605,7 @@ public class JMSUtils extends BaseUtils {
                  bytesRead = bMsg.readBytes(buffer)) {
                     length += bytesRead;
             }
+            bMsg.reset();
         } catch (JMSException ignore) {}
         return length;
     }
@@ -555,21 +613,44 @@ public class JMSUtils extends BaseUtils {
     /**
      * Get the length of the message in bytes
      * @param message
-     * @return message size (or approximation) in bytes
+     * @return message size (or approximation) in bytes, or -1 for a BytesMessage whose
+     *         provider can't tell its length before it is read (JMS 1.0)
      * @throws JMSException
      */
     public static long getMessageSize(Message message) throws JMSException {
         if (message instanceof BytesMessage) {
             return JMSUtils.getBodyLength((BytesMessage) message);
         } else if (message instanceof TextMessage) {
-            // TODO: Converting the whole message to a byte array is too much overhead just to determine the message size.
-            //       Anyway, the result is not accurate since we don't know what encoding the JMS provider uses.
-            return ((TextMessage) message).getText().getBytes().length;
+            // The result is not accurate since we don't know what encoding the JMS provider
+            // uses; assume UTF-8 and compute the encoded length without converting the text.
+            return getUTF8Length(((TextMessage) message).getText());
         } else {
             log.warn("Can't determine size of JMS message; unsupported message type : " + message.getClass().getName());
             return 0;
         }
     }
+
+    private static long getUTF8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
     
     public static <T> T lookup(Context context, Class<T> clazz, String name)
         throws NamingException {
@@ -641,11 +722,17 @@ public class JMSUtils extends BaseUtils {
             getOptionalBooleanProperty(JMSConstants.PARAM_SUB_DURABLE, svc, cf));
         stm.setDurableSubscriberName(
             getOptionalStringProperty(JMSConstants.PARAM_DURABLE_SUB_NAME, svc, cf));
+        stm.setSharedSubscription(
+            getOptionalBooleanProperty(JMSConstants.PARAM_SHARED_SUBSCRIPTION, svc, cf));
+        stm.setVirtualTopicQueue(
+            getOptionalStringProperty(JMSConstants.PARAM_VIRTUAL_TOPIC_QUEUE, svc, cf));
 
         stm.setCacheLevel(
             getCacheLevel(svc, cf));
         stm.setPubSubNoLocal(
             getOptionalBooleanProperty(JMSConstants.PARAM_PUBSUB_NO_LOCAL, svc, cf));
+        stm.setConsumptionMode(
+            getOptionalStringProperty(JMSConstants.PARAM_CONSUMPTION_MODE, svc, cf));
 
         Integer value = getOptionalIntProperty(JMSConstants.PARAM_RCV_TIMEOUT, svc, cf);
         if (value != null) {
@@ -667,6 +754,56 @@ public class JMSUtils extends BaseUtils {
         if (value != null) {
             stm.setMaxMessagesPerTask(value);
         }
+        value = getOptionalIntProperty(JMSConstants.PARAM_COMMIT_BATCH_SIZE, svc, cf);
+        if (value != null) {
+            stm.setBatchSize(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_COMMIT_BATCH_TIMEOUT, svc, cf);
+        if (value != null) {
+            stm.setBatchTimeout(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_MAX_SHARED_CONNECTIONS, svc, cf);
+        if (value != null) {
+            stm.setMaxSharedConnections(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_MAX_IN_FLIGHT, svc, cf);
+        if (value != null) {
+            stm.setMaxInFlightMessages(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_PIPELINE_QUEUE_SIZE, svc, cf);
+        if (value != null) {
+            stm.setPipelineQueueSize(value);
+        }
+        stm.setPreserveGroupOrder(
+            getOptionalBooleanProperty(JMSConstants.PARAM_PRESERVE_GROUP_ORDER, svc, cf));
+        value = getOptionalIntProperty(JMSConstants.PARAM_MAX_GROUP_LANES, svc, cf);
+        if (value != null) {
+            stm.setMaxGroupLanes(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_GROUP_LANE_IDLE_TIMEOUT, svc, cf);
+        if (value != null) {
+            stm.setGroupLaneIdleTimeout(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_SCALING_INTERVAL, svc, cf);
+        if (value != null) {
+            stm.setScalingInterval(value);
+        }
+        stm.setScalingBrowseQueue(
+            getOptionalBooleanProperty(JMSConstants.PARAM_SCALING_BROWSE_QUEUE, svc, cf));
+        value = getOptionalIntProperty(JMSConstants.PARAM_MAX_REDELIVERIES, svc, cf);
+        if (value != null) {
+            stm.setMaxRedeliveries(value);
+        }
+        value = getOptionalIntProperty(JMSConstants.PARAM_REDELIVERY_DELAY, svc, cf);
+        if (value != null) {
+            stm.setRedeliveryDelay(value);
+        }
+        Double factor = getOptionalDoubleProperty(JMSConstants.PARAM_REDELIVERY_BACKOFF_FACTOR, svc, cf);
+        if (factor != null) {
+            stm.setRedeliveryBackoffFactor(factor);
+        }
+        stm.setRedeliveryQueue(
+            getOptionalStringProperty(JMSConstants.PARAM_REDELIVERY_QUEUE, svc, cf));
 
         value = getOptionalIntProperty(JMSConstants.PARAM_RECON_INIT_DURATION, svc, cf);
         if (value != null) {
@@ -694,13 +831,30 @@ public class JMSUtils extends BaseUtils {
         stm.removeJmsProperties(JMSConstants.PARAM_MSG_SELECTOR);
         stm.removeJmsProperties(JMSConstants.PARAM_SUB_DURABLE);
         stm.removeJmsProperties(JMSConstants.PARAM_DURABLE_SUB_NAME);
+        stm.removeJmsProperties(JMSConstants.PARAM_SHARED_SUBSCRIPTION);
+        stm.removeJmsProperties(JMSConstants.PARAM_VIRTUAL_TOPIC_QUEUE);
         stm.removeJmsProperties(JMSConstants.PARAM_CACHE_LEVEL);
         stm.removeJmsProperties(JMSConstants.PARAM_PUBSUB_NO_LOCAL);
+        stm.removeJmsProperties(JMSConstants.PARAM_CONSUMPTION_MODE);
         stm.removeJmsProperties(JMSConstants.PARAM_RCV_TIMEOUT);
         stm.removeJmsProperties(JMSConstants.PARAM_CONCURRENT_CONSUMERS);
         stm.removeJmsProperties(JMSConstants.PARAM_MAX_CONSUMERS);
         stm.removeJmsProperties(JMSConstants.PARAM_IDLE_TASK_LIMIT);
         stm.removeJmsProperties(JMSConstants.PARAM_MAX_MSGS_PER_TASK);
+        stm.removeJmsProperties(JMSConstants.PARAM_COMMIT_BATCH_SIZE);
+        stm.removeJmsProperties(JMSConstants.PARAM_COMMIT_BATCH_TIMEOUT);
+        stm.removeJmsProperties(JMSConstants.PARAM_MAX_SHARED_CONNECTIONS);
+        stm.removeJmsProperties(JMSConstants.PARAM_MAX_IN_FLIGHT);
+        stm.removeJmsProperties(JMSConstants.PARAM_PIPELINE_QUEUE_SIZE);
+        stm.removeJmsProperties(JMSConstants.PARAM_PRESERVE_GROUP_ORDER);
+        stm.removeJmsProperties(JMSConstants.PARAM_MAX_GROUP_LANES);
+        stm.removeJmsProperties(JMSConstants.PARAM_GROUP_LANE_IDLE_TIMEOUT);
+        stm.removeJmsProperties(JMSConstants.PARAM_SCALING_INTERVAL);
+        stm.removeJmsProperties(JMSConstants.PARAM_SCALING_BROWSE_QUEUE);
+        stm.removeJmsProperties(JMSConstants.PARAM_MAX_REDELIVERIES);
+        stm.removeJmsProperties(JMSConstants.PARAM_REDELIVERY_DELAY);
+        stm.removeJmsProperties(JMSConstants.PARAM_REDELIVERY_BACKOFF_FACTOR);
+        stm.removeJmsProperties(JMSConstants.PARAM_REDELIVERY_QUEUE);
         stm.removeJmsProperties(JMSConstants.PARAM_RECON_INIT_DURATION);
         stm.removeJmsProperties(JMSConstants.PARAM_RECON_MAX_DURATION);
         stm.removeJmsProperties(JMSConstants.PARAM_RECON_FACTOR);
@@ -1003,6 +1157,216 @@ public class JMSUtils extends BaseUtils {
         }
     }
 
+    /**
+     * Create a MessageConsumer on a shared subscription to a topic, through the JMS 2.0
+     * <tt>createSharedDurableConsumer</tt> or <tt>createSharedConsumer</tt> method of the Session.
+     * As the transport is built against the JMS 1.1 API, the method is looked up once per Session
+     * class and invoked reflectively.
+     *
+     * @param session JMS session
+     * @param topic the topic
+     * @param subscriptionName the name of the shared subscription
+     * @param messageSelector optional message selector
+     * @param isDurable is this a durable shared subscription?
+     * @return the MessageConsumer, or null if the JMS provider implements the JMS 1.1 API only
+     * @throws JMSException on errors, to be handled and logged by the caller
+     */
+    public static MessageConsumer createSharedConsumer(Session session, Topic topic,
+        String subscriptionName, String messageSelector, boolean isDurable) throws JMSException {
+
+        Class<?> clazz = session.getClass();
+        if (noSharedConsumerMethod.containsKey(clazz)) {
+            return null;
+        }
+        Map<Class<?>,Method> methods = isDurable ? sharedDurableConsumerMethods : sharedConsumerMethods;
+        Method mtd = methods.get(clazz);
+        if (mtd == null) {
+            try {
+                mtd = clazz.getMethod(isDurable ? "createSharedDurableConsumer" : "createSharedConsumer",
+                    Topic.class, String.class, String.class);
+            } catch (NoSuchMethodException e) {
+                noSharedConsumerMethod.put(clazz, Boolean.TRUE);
+                return null;
+            }
+            // the provider may implement the JMS 1.1 API only
+            if (Modifier.isAbstract(mtd.getModifiers())) {
+                noSharedConsumerMethod.put(clazz, Boolean.TRUE);
+                return null;
+            }
+            methods.put(clazz, mtd);
+        }
+
+        try {
+            return (MessageConsumer) mtd.invoke(session, topic, subscriptionName, messageSelector);
+        } catch (IllegalAccessException e) {
+            throw new AxisJMSException("Cannot access the JMS shared consumer creation", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JMSException) {
+                throw (JMSException) cause;
+            } else if (cause instanceof AbstractMethodError) {
+                noSharedConsumerMethod.put(clazz, Boolean.TRUE);
+                return null;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new AxisJMSException("Error creating a shared JMS consumer", e);
+            }
+        }
+    }
+
+    /**
+     * Send a received message again after a delivery delay, through the transacted Session it
+     * was received on, so that the send is committed or rolled back together with the receipt.
+     * Through a non transacted Session, the send could not be undone if the receipt then failed
+     * to be acknowledged, leaving a copy of the message on the destination. The properties
+     * of the received message are read only, so they are copied out and back in after clearing
+     * them, along with the count of times the message was sent again. The JMS 2.0
+     * <tt>setDeliveryDelay</tt> method of the MessageProducer is looked up once per
+     * MessageProducer class and invoked reflectively.
+     *
+     * @param session the transacted JMS session the message was received on
+     * @param destination the destination to send the message to
+     * @param message the message received
+     * @param count the number of times the message was sent again, including this time
+     * @param delay the delivery delay in milliseconds
+     * @return true if sent, or false if the JMS provider implements the JMS 1.1 API only and
+     *         cannot delay the delivery of the message
+     * @throws JMSException on errors, to be handled and logged by the caller
+     */
+    public static boolean resendWithDelay(Session session, Destination destination,
+        Message message, int count, long delay) throws JMSException {
+
+        MessageProducer producer = session.createProducer(destination);
+        try {
+            if (!setDeliveryDelay(producer, delay)) {
+                return false;
+            }
+            prepareResend(message, count);
+            resend(producer, message);
+            return true;
+
+        } finally {
+            producer.close();
+        }
+    }
+
+    /**
+     * Send a received message to the redelivery queue, through the transacted Session it was
+     * received on, for a JMS provider that cannot delay a delivery. The message waits there until
+     * the STM of the service moves it back once the redelivery time has passed.
+     *
+     * @param session the transacted JMS session the message was received on
+     * @param redeliveryQueue the redelivery queue
+     * @param message the message received
+     * @param count the number of times the message was sent again, including this time
+     * @param redeliverAfter the time in milliseconds after which the message is moved back
+     * @param serviceName the name of the service the message is moved back to
+     * @throws JMSException on errors, to be handled and logged by the caller
+     */
+    public static void sendForRedelivery(Session session, Destination redeliveryQueue,
+        Message message, int count, long redeliverAfter, String serviceName) throws JMSException {
+
+        MessageProducer producer = session.createProducer(redeliveryQueue);
+        try {
+            prepareResend(message, count);
+            message.setLongProperty(JMSConstants.REDELIVER_AFTER_PROPERTY, redeliverAfter);
+            message.setStringProperty(JMSConstants.REDELIVERY_SERVICE_PROPERTY, serviceName);
+            resend(producer, message);
+        } finally {
+            producer.close();
+        }
+    }
+
+    /**
+     * The properties of a received message are read only, so copy them out and back in after
+     * clearing them, along with the count of times the message was sent again
+     * @param message the message received
+     * @param count the number of times the message was sent again, including this time
+     * @throws JMSException on error reading or writing the properties
+     */
+    private static void prepareResend(Message message, int count) throws JMSException {
+
+        HashMap<String, Object> msgProperties = new HashMap<String, Object>();
+        for (Enumeration<?> propertyNames = message.getPropertyNames();
+                propertyNames.hasMoreElements(); ) {
+            String propertyName = (String) propertyNames.nextElement();
+            // counted again by the JMS provider for the new message
+            if (!JMSConstants.JMSX_DELIVERY_COUNT.equals(propertyName)) {
+                msgProperties.put(propertyName, message.getObjectProperty(propertyName));
+            }
+        }
+        message.clearProperties();
+        for (Map.Entry<String, Object> property : msgProperties.entrySet()) {
+            message.setObjectProperty(property.getKey(), property.getValue());
+        }
+        message.setIntProperty(JMSConstants.REDELIVERY_COUNT_PROPERTY, count);
+    }
+
+    /**
+     * Send a received message again, keeping its delivery mode, priority and expiration
+     * @param producer the MessageProducer to send through
+     * @param message the message received
+     * @throws JMSException on errors sending the message
+     */
+    static void resend(MessageProducer producer, Message message) throws JMSException {
+        long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+        if (message.getJMSExpiration() > 0) {
+            timeToLive = Math.max(1, message.getJMSExpiration() - System.currentTimeMillis());
+        }
+        producer.send(message, message.getJMSDeliveryMode(), message.getJMSPriority(),
+            timeToLive);
+    }
+
+    /**
+     * Set the JMS 2.0 delivery delay of a MessageProducer
+     * @param producer the MessageProducer
+     * @param delay the delivery delay in milliseconds
+     * @return true if set, false if the JMS provider implements the JMS 1.1 API only
+     * @throws JMSException on errors setting the delivery delay
+     */
+    private static boolean setDeliveryDelay(MessageProducer producer, long delay)
+        throws JMSException {
+
+        Class<?> clazz = producer.getClass();
+        if (noDeliveryDelayMethod.containsKey(clazz)) {
+            return false;
+        }
+        Method mtd = deliveryDelayMethods.get(clazz);
+        if (mtd == null) {
+            try {
+                mtd = clazz.getMethod("setDeliveryDelay", long.class);
+            } catch (NoSuchMethodException e) {
+                noDeliveryDelayMethod.put(clazz, Boolean.TRUE);
+                return false;
+            }
+            if (Modifier.isAbstract(mtd.getModifiers())) {
+                noDeliveryDelayMethod.put(clazz, Boolean.TRUE);
+                return false;
+            }
+            deliveryDelayMethods.put(clazz, mtd);
+        }
+
+        try {
+            mtd.invoke(producer, delay);
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new AxisJMSException("Cannot access the JMS delivery delay", e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof JMSException) {
+                throw (JMSException) cause;
+            } else if (cause instanceof AbstractMethodError) {
+                noDeliveryDelayMethod.put(clazz, Boolean.TRUE);
+                return false;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new AxisJMSException("Error setting the JMS delivery delay", e);
+            }
+        }
+    }
+
     /**
      * This is a JMS spec independent method to create a MessageProducer. Please be cautious when
      * making any changes
@@ -1121,15 +1485,56 @@ public class JMSUtils extends BaseUtils {
     
     public static void handleDeadLetter(
             MessageContext msgContext, Message message, JMSConnectionFactory connFactory, Throwable cause) {
-    	String deadLetterQueueName = (String) msgContext.getProperty(JMSConstants.JMS_DEAD_LETTER_QUEUE);
-    	if (deadLetterQueueName == null || deadLetterQueueName.length() == 0) {
-    		deadLetterQueueName = JMSConstants.DEFAULT_DEAD_LETTER_QUEUE;    		
-    	}
+        handleDeadLetter(msgContext, message, connFactory, cause, null);
+    }
+
+    /**
+     * Move a message that could not be processed or sent to the dead letter queue of the
+     * message context, through the dead letter publisher of the JMS CF if enabled
+     *
+     * @param msgContext the message context, or null if not created yet
+     * @param message the JMS message
+     * @param connFactory the JMS CF to publish through
+     * @param cause the cause of the failure
+     * @param metrics the metrics to count the dead letter in, or null
+     */
+    public static void handleDeadLetter(MessageContext msgContext, Message message,
+            JMSConnectionFactory connFactory, Throwable cause, MetricsCollector metrics) {
+        handleDeadLetter(msgContext, message, connFactory, cause, metrics, false);
+    }
+
+    /**
+     * Move a message that could not be processed or sent to the dead letter queue of the
+     * message context. The dead letter publisher of the JMS CF, if enabled, only confirms that
+     * it queued the dead letter, so it is bypassed when the caller needs the dead letter to be
+     * sent before it completes the receipt of the message
+     *
+     * @param msgContext the message context, or null if not created yet
+     * @param message the JMS message
+     * @param connFactory the JMS CF to publish through
+     * @param cause the cause of the failure
+     * @param metrics the metrics to count the dead letter in, or null
+     * @param confirm true to send the dead letter synchronously, and report whether it was sent
+     * @return true if the dead letter was sent, or queued for publishing unless confirm is set
+     */
+    public static boolean handleDeadLetter(MessageContext msgContext, Message message,
+            JMSConnectionFactory connFactory, Throwable cause, MetricsCollector metrics,
+            boolean confirm) {
+        String deadLetterQueueName = getDeadLetterQueueName(msgContext);
+        if (!prepareDeadLetter(message, cause)) {
+            return false;
+        }
+        JMSDeadLetterPublisher publisher = confirm ? null : connFactory.getDeadLetterPublisher();
+        if (publisher != null && publisher.publish(message, deadLetterQueueName, metrics)) {
+            return true;
+        }
 
+    	Connection connection = null;
     	Session session = null;
     	try {
-            Connection connection = connFactory.getConnection();
-            session = connFactory.getSession(connection);
+            connection = connFactory.getConnection();
+            // a Session of our own, as a shared Session would be closed below
+            session = connFactory.createSession(connection);
 	    	Destination deadLetterQueue = connFactory.getDestination(deadLetterQueueName, JMSConstants.DESTINATION_TYPE_GENERIC);
 	    	
 	    	if (deadLetterQueue == null) {
@@ -1143,24 +1548,6 @@ public class JMSUtils extends BaseUtils {
 	                deadLetterQueueName + " : ");
 	        }
 	        
-	        // make a copy of the message properties
-	        HashMap<String, Object> msgProperties = new HashMap<String, Object>();  
-	        for (Enumeration<String> propertyNames = message.getPropertyNames(); 
-	        		propertyNames.hasMoreElements(); ) {	        	
-	        	String propertyName = propertyNames.nextElement();
-	        	msgProperties.put(propertyName, message.getObjectProperty(propertyName));	        	
-	        }
-	        // clear the message properties in order to make them writable
-	        message.clearProperties();
-	        // re-insert the original set of message properties
-	        for (Iterator<String> propertyNames = msgProperties.keySet().iterator(); propertyNames.hasNext(); ) {
-	        	String propertyName = propertyNames.next();
-	        	message.setObjectProperty(propertyName, msgProperties.get(propertyName));
-	        }
-	        // add a message properties that identifies the root cause of the problem
-	        message.setStringProperty(JMSConstants.PROPERTY_DEAD_LETTER_CAUSE, 
-	        		cause != null ? cause.getLocalizedMessage() : "Unknown");
-	        
 	        if (deadLetterQueue != null) {
 	        	MessageProducer producer = session.createProducer(deadLetterQueue);
 	        	producer.send(message);
@@ -1169,15 +1556,20 @@ public class JMSUtils extends BaseUtils {
 			if (connFactory.isSessionTransacted()) {
 				session.commit();
 			}
+            if (metrics != null) {
+                metrics.incrementDeadLetters();
+            }
+            return true;
     	} catch (Exception e) {
     		log.error("Could not queue dead letter" + message, e);
-			if (connFactory.isSessionTransacted()) {
+			if (connFactory.isSessionTransacted() && session != null) {
 				try {
 					session.rollback();
 				} catch (JMSException e1) {
 		    		log.error("Could not rollback session properly" + message, e);
 				}
 			}
+            return false;
     	} finally {
     		if (session != null) {
     			try {
@@ -1186,15 +1578,41 @@ public class JMSUtils extends BaseUtils {
 		    		log.error("Could not close session properly" + message, e);
 				}
     		}
+            if (connection != null && connFactory.getCacheLevel() < JMSConstants.CACHE_CONNECTION) {
+                try {
+                    connection.close();
+                } catch (JMSException e) {
+                    log.error("Could not close connection properly" + message, e);
+                }
+            }
     	}
     }
     
     public static void handleDeadLetter(
             MessageContext msgContext, Message message, JMSOutTransportInfo jmsOut, Throwable cause) {
-    	String deadLetterQueueName = (String) msgContext.getProperty(JMSConstants.JMS_DEAD_LETTER_QUEUE);
-    	if (deadLetterQueueName == null || deadLetterQueueName.length() == 0) {
-    		deadLetterQueueName = JMSConstants.DEFAULT_DEAD_LETTER_QUEUE;    		
-    	}
+        handleDeadLetter(msgContext, message, jmsOut, cause, null);
+    }
+
+    /**
+     * Move a message that could not be sent to the dead letter queue of the message context,
+     * through the dead letter publisher of the JMS CF of the target EPR if any
+     *
+     * @param msgContext the message context
+     * @param message the JMS message
+     * @param jmsOut the JMS out-transport info of the target EPR
+     * @param cause the cause of the failure
+     * @param metrics the metrics to count the dead letter in, or null
+     */
+    public static void handleDeadLetter(MessageContext msgContext, Message message,
+            JMSOutTransportInfo jmsOut, Throwable cause, MetricsCollector metrics) {
+        if (jmsOut.getJmsConnectionFactory() != null) {
+            handleDeadLetter(msgContext, message, jmsOut.getJmsConnectionFactory(), cause, metrics);
+            return;
+        }
+        String deadLetterQueueName = getDeadLetterQueueName(msgContext);
+        if (!prepareDeadLetter(message, cause)) {
+            return;
+        }
 
     	JMSMessageSender messageSender = null;
     	try {
@@ -1218,6 +1636,49 @@ public class JMSUtils extends BaseUtils {
                 handleException("Unable to create a JMSMessageSender for : " + deadLetterQueue, e);
             }
             
+	        if (deadLetterQueue != null) {
+	        	messageSender.send(message, msgContext);
+	        }
+            if (metrics != null) {
+                metrics.incrementDeadLetters();
+            }
+    		log.info("Enqueued un-sent message into queue dead letter" + message);
+    	} catch (Exception e) {
+    		log.error("Could not queue dead letter" + message, e);
+    	} finally {
+    		if (messageSender != null) {
+        		messageSender.close();
+    		}
+    	}
+    }
+
+    private static String getDeadLetterQueueName(MessageContext msgContext) {
+        String deadLetterQueueName = msgContext == null ? null :
+            (String) msgContext.getProperty(JMSConstants.JMS_DEAD_LETTER_QUEUE);
+        if (deadLetterQueueName == null || deadLetterQueueName.length() == 0) {
+            deadLetterQueueName = JMSConstants.DEFAULT_DEAD_LETTER_QUEUE;
+        }
+        return deadLetterQueueName;
+    }
+
+    /**
+     * Add the cause of death to the properties of a dead letter. The properties of a received
+     * message are read only, in which case they are copied out and back in after clearing them
+     *
+     * @param message the JMS message
+     * @param cause the cause of the failure
+     * @return true if the message is ready to be published
+     */
+    private static boolean prepareDeadLetter(Message message, Throwable cause) {
+        String causeOfDeath = cause != null ? cause.getLocalizedMessage() : "Unknown";
+        try {
+            try {
+                message.setStringProperty(JMSConstants.PROPERTY_DEAD_LETTER_CAUSE, causeOfDeath);
+                return true;
+            } catch (MessageNotWriteableException e) {
+                // a received message
+            }
+
 	        // make a copy of the message properties
 	        HashMap<String, Object> msgProperties = new HashMap<String, Object>();  
 	        for (Enumeration<String> propertyNames = message.getPropertyNames(); 
@@ -1228,28 +1689,16 @@ public class JMSUtils extends BaseUtils {
 	        // clear the message properties in order to make them writable
 	        message.clearProperties();
 	        // re-insert the original set of message properties
-	        for (Iterator<String> propertyNames = msgProperties.keySet().iterator(); propertyNames.hasNext(); ) {
-	        	String propertyName = propertyNames.next();
-	        	message.setObjectProperty(propertyName, msgProperties.get(propertyName));
+	        for (Map.Entry<String, Object> property : msgProperties.entrySet()) {
+	        	message.setObjectProperty(property.getKey(), property.getValue());
 	        }
 	        // add a message properties that identifies the root cause of the problem
-	        message.setStringProperty(JMSConstants.PROPERTY_DEAD_LETTER_CAUSE, 
-	        		cause != null ? cause.getLocalizedMessage() : "Unknown");
-	        
-	        if (deadLetterQueue != null) {
-//	        	MessageProducer producer = jmsOut.createProducer(deadLetterQueue);
-//	        	messageSender.setJmsSpec11(!(producer instanceof QueueSender));
-//	        	messageSender.setProducer(producer);
-	        	messageSender.send(message, msgContext);
-	        }
-    		log.info("Enqueued un-sent message into queue dead letter" + message);
-    	} catch (Exception e) {
-    		log.error("Could not queue dead letter" + message, e);
-    	} finally {
-    		if (messageSender != null) {
-        		messageSender.close();
-    		}
-    	}
+	        message.setStringProperty(JMSConstants.PROPERTY_DEAD_LETTER_CAUSE, causeOfDeath);
+            return true;
+        } catch (JMSException e) {
+            log.error("Could not queue dead letter" + message, e);
+            return false;
+        }
     }
     
 }
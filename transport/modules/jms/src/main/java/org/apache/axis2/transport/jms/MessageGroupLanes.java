@@ -0,0 +1,203 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Processes messages in parallel while preserving the order of the messages of each message
+ * group (JMSXGroupID). Every group currently in progress has a serial lane, i.e. a queue of
+ * messages processed one after the other by a single task at a time, while the lanes of
+ * different groups run in parallel. A lane with pending messages is handed to the executor
+ * given, which must not run it on a thread that dispatches messages.
+ * <p>
+ * The number of lanes and the total number of messages waiting in them are bounded, and
+ * dispatching waits while either bound is reached. A lane without pending messages is evicted
+ * once it has been idle for the configured timeout, or earlier if its place is needed for the
+ * lane of another group.
+ */
+class MessageGroupLanes {
+
+    private static final Log log = LogFactory.getLog(MessageGroupLanes.class);
+
+    /** Runs the lanes with pending messages */
+    private final Executor executor;
+    /** The maximum number of lanes */
+    private final int maxLanes;
+    /** The maximum number of messages waiting in all lanes */
+    private final int maxQueued;
+    /** The number of milliseconds after which an idle lane is evicted */
+    private final long idleTimeout;
+
+    /** The lanes by group ID, least recently used first */
+    private final LinkedHashMap<String, Lane> lanes = new LinkedHashMap<String, Lane>(16, 0.75f, true);
+    /** The number of messages waiting in all lanes */
+    private int queued = 0;
+    /** The last time idle lanes were evicted */
+    private long lastEviction = System.currentTimeMillis();
+    private long evictions = 0;
+
+    MessageGroupLanes(Executor executor, int maxLanes, int maxQueued, long idleTimeout) {
+        this.executor = executor;
+        this.maxLanes = maxLanes;
+        this.maxQueued = maxQueued;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Queue a task on the lane of its group, to be run after the tasks queued before on the
+     * same lane. Waits up to the given time while no lane or no room is available
+     * @param groupId the message group of the task
+     * @param task the processing of a message
+     * @param wait the maximum number of milliseconds to wait
+     * @return true if the task was queued, false if the wait expired
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized boolean dispatch(String groupId, Runnable task, long wait)
+        throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + wait;
+        Lane lane;
+        while ((lane = getLane(groupId)) == null || queued >= maxQueued) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+
+        lane.tasks.add(task);
+        queued++;
+        if (!lane.running) {
+            lane.running = true;
+            executor.execute(lane);
+        }
+        return true;
+    }
+
+    /**
+     * Get the lane of a group, creating it if the maximum number of lanes is not reached, or if
+     * an idle lane can be evicted to make room
+     * @param groupId the message group
+     * @return the lane of the group, or null if all lanes are busy
+     */
+    private Lane getLane(String groupId) {
+        Lane lane = lanes.get(groupId);
+        if (lane != null) {
+            return lane;
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastEviction >= idleTimeout) {
+            evictIdleLanes(now - idleTimeout);
+            lastEviction = now;
+        }
+        if (lanes.size() >= maxLanes) {
+            // take the place of the least recently used lane which is idle
+            evictIdleLanes(Long.MAX_VALUE, 1);
+        }
+        if (lanes.size() >= maxLanes) {
+            return null;
+        }
+
+        lane = new Lane(groupId);
+        lanes.put(groupId, lane);
+        return lane;
+    }
+
+    private void evictIdleLanes(long idleSince) {
+        evictIdleLanes(idleSince, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Evict lanes without pending messages, least recently used first
+     * @param idleSince only evict lanes idle since this time
+     * @param max the maximum number of lanes to evict
+     */
+    private void evictIdleLanes(long idleSince, int max) {
+        int count = 0;
+        for (Iterator<Map.Entry<String, Lane>> it = lanes.entrySet().iterator();
+            it.hasNext() && count < max; ) {
+            Lane lane = it.next().getValue();
+            if (!lane.running && lane.lastUsed <= idleSince) {
+                it.remove();
+                count++;
+            }
+        }
+        evictions += count;
+        if (count > 0 && log.isDebugEnabled()) {
+            log.debug("Evicted " + count + " idle message group lane(s)");
+        }
+    }
+
+    synchronized int getLaneCount() {
+        return lanes.size();
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * The serial lane of a message group, run by the executor while it has pending tasks
+     */
+    private class Lane implements Runnable {
+
+        private final String groupId;
+        private final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+        /** Has this lane been handed to the executor to run its pending tasks? */
+        private boolean running = false;
+        private long lastUsed = System.currentTimeMillis();
+
+        Lane(String groupId) {
+            this.groupId = groupId;
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                synchronized (MessageGroupLanes.this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        running = false;
+                        lastUsed = System.currentTimeMillis();
+                        MessageGroupLanes.this.notifyAll();
+                        return;
+                    }
+                    queued--;
+                    MessageGroupLanes.this.notifyAll();
+                }
+
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Error processing a message of group : " + groupId, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+* Copyright 2004,2005 The Apache Software Foundation.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package org.apache.axis2.transport.jms;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+
+/**
+ * The redelivery policy of the messages that failed to be processed: the delay before a
+ * redelivery grows geometrically with the number of failures of the message, which is dead
+ * lettered after the maximum number of redeliveries. The failures are counted from the
+ * message itself, so that nothing is held in memory while a message waits for its redelivery.
+ */
+class RedeliveryBackoff {
+
+    /** The maximum number of redeliveries of a message before it is dead lettered */
+    private final int maxRedeliveries;
+    /** The number of milliseconds before the first redelivery */
+    private final long initialDelay;
+    /** The factor by which the delay grows with each failure */
+    private final double backoffFactor;
+
+    private long redeliveries = 0;
+    private long deadLetters = 0;
+
+    RedeliveryBackoff(int maxRedeliveries, long initialDelay, double backoffFactor) {
+        this.maxRedeliveries = maxRedeliveries;
+        this.initialDelay = initialDelay;
+        this.backoffFactor = backoffFactor;
+    }
+
+    /**
+     * Count the failed processing attempts of a message, i.e. the number of times it was sent
+     * again with a delay plus the number of times the JMS provider delivered it
+     * @param message the JMS message that failed to be processed
+     * @return the number of failures of the message, including this one
+     * @throws JMSException on error reading the properties of the message
+     */
+    static int getFailureCount(Message message) throws JMSException {
+        int count = 0;
+        if (message.propertyExists(JMSConstants.REDELIVERY_COUNT_PROPERTY)) {
+            count = message.getIntProperty(JMSConstants.REDELIVERY_COUNT_PROPERTY);
+        }
+        // JMSXDeliveryCount is optional before JMS 2.0. It is read rather than checked with
+        // propertyExists, as some providers (e.g. ActiveMQ 5.1) compute it without listing it
+        Object deliveryCount = message.getObjectProperty(JMSConstants.JMSX_DELIVERY_COUNT);
+        if (deliveryCount instanceof Number) {
+            count += Math.max(1, ((Number) deliveryCount).intValue());
+        } else {
+            count += message.getJMSRedelivered() ? 2 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * @param failureCount the number of failures of a message
+     * @return true if the message must be dead lettered instead of being redelivered
+     */
+    boolean isExhausted(int failureCount) {
+        return failureCount > maxRedeliveries;
+    }
+
+    /**
+     * @param failureCount the number of failures of a message
+     * @return the number of milliseconds to wait before redelivering the message
+     */
+    long getDelay(int failureCount) {
+        return (long) (initialDelay * Math.pow(backoffFactor, failureCount - 1));
+    }
+
+    synchronized void notifyRedelivery() {
+        redeliveries++;
+    }
+
+    synchronized void notifyDeadLetter() {
+        deadLetters++;
+    }
+
+    int getMaxRedeliveries() {
+        return maxRedeliveries;
+    }
+
+    synchronized long getRedeliveries() {
+        return redeliveries;
+    }
+
+    synchronized long getDeadLetters() {
+        return deadLetters;
+    }
+
+    synchronized void resetStatistics() {
+        redeliveries = 0;
+        deadLetters = 0;
+    }
+}
@@ -26,13 +26,27 @@ import org.apache.commons.logging.LogFactory;
 
 import javax.jms.*;
 import javax.jms.IllegalStateException;
+import javax.jms.Queue;
 import javax.naming.InitialContext;
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.transaction.UserTransaction;
 import javax.transaction.NotSupportedException;
 import javax.transaction.SystemException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Each service will have one ServiceTaskManager instance that will create, manage and also destroy
@@ -61,6 +75,26 @@ public class ServiceTaskManager {
     /** The Task manager has encountered an error */
     private static final int STATE_FAILURE = 4;
 
+    /** The receive hit ratio at or above which consumers are considered to be saturated */
+    private static final double SCALE_UP_HIT_RATIO = 0.9;
+    /** The receive hit ratio at or below which consumers are considered to be under used */
+    private static final double SCALE_DOWN_HIT_RATIO = 0.3;
+    /** The number of consecutive intervals with low load required before scaling down */
+    private static final int SCALE_DOWN_INTERVALS = 3;
+    /** The maximum number of messages counted when browsing the queue for its depth */
+    private static final int MAX_BROWSE_DEPTH = 1000;
+    /** Milliseconds between checks of the task state while waiting for a message or capacity */
+    private static final int STATE_CHECK_INTERVAL = 1000;
+    /** The number of checks for the consumers to be connected, after a reconnection attempt */
+    private static final int RECONNECT_CHECKS = 5;
+    /** Milliseconds between checks for the consumers to be connected after a reconnection attempt */
+    private static final int RECONNECT_CHECK_INTERVAL = 1000;
+    /** The bounds in milliseconds of the interval between moves from the redelivery queue */
+    private static final int MIN_REDELIVERY_MOVE_INTERVAL = 100;
+    private static final int MAX_REDELIVERY_MOVE_INTERVAL = 1000;
+    /** Milliseconds to wait for the next message due for its redelivery, while moving them */
+    private static final int REDELIVERY_RECEIVE_TIMEOUT = 100;
+
     /** The name of the service managed by this instance */
     private String serviceName;
     /** The ConnectionFactory MUST refer to an XAConnectionFactory to use JTA */
@@ -85,9 +119,19 @@ public class ServiceTaskManager {
     private boolean subscriptionDurable = false;
     /** The name of the durable subscriber for this client */
     private String durableSubscriberName = null;
+    /** Is the subscription to a topic shared by the consumers of this and of other nodes ? */
+    private boolean sharedSubscription = false;
+    /**
+     * The queue fed from the topic by the broker, consumed from if the JMS provider does not
+     * support JMS 2.0 shared subscriptions
+     */
+    private String virtualTopicQueue = null;
     /** In PubSub mode, should I receive messages sent by me / my connection ? */
     private boolean pubSubNoLocal = false;
-    /** Number of concurrent consumers - for PubSub, this should be 1 to prevent multiple receipt */
+    /**
+     * Number of concurrent consumers - for PubSub, this should be 1 to prevent multiple receipt,
+     * unless the subscription is shared
+     */
     private int concurrentConsumers = 1;
     /** Maximum number of consumers to create - see @concurrentConsumers */
     private int maxConcurrentConsumers = 1;
@@ -105,6 +149,37 @@ public class ServiceTaskManager {
     private UserTransaction sharedUserTransaction = null;
     /** Should this service use JMS 1.1 ? (when false, defaults to 1.0.2b) */
     private boolean jmsSpec11 = true;
+    /** Should tasks poll for messages, or register a MessageListener to have them pushed? */
+    private String consumptionMode = JMSConstants.CONSUMPTION_MODE_POLL;
+    /** The number of messages to commit or acknowledge together - 1 for every message */
+    private int batchSize = 1;
+    /** The maximum number of milliseconds a message waits in a batch for its commit or ack */
+    private int batchTimeout = 1000;
+    /** The maximum number of Connections shared with other services - 0 to use a private one */
+    private int maxSharedConnections = 0;
+    /** The maximum number of messages received and not yet processed - 0 for unlimited */
+    private int maxInFlightMessages = 0;
+    /** The capacity of the hand-off queue between receiving and processing tasks, if pipelined */
+    private int pipelineQueueSize = 100;
+    /** Process the messages of each message group in order, if pipelined */
+    private boolean preserveGroupOrder = false;
+    /** The maximum number of message groups processed in parallel */
+    private int maxGroupLanes = 100;
+    /** The number of milliseconds after which the lane of an idle message group is evicted */
+    private int groupLaneIdleTimeout = 60000;
+    /** Interval in milliseconds of the load aware scaling of consumers - 0 to disable */
+    private int scalingInterval = 0;
+    /** Should the scaling controller browse the queue to take its depth into account? */
+    private boolean scalingBrowseQueue = false;
+    /** The number of delayed redeliveries of a failed message before it is dead lettered - 0 to
+     * roll back failed messages for their redelivery by the JMS provider */
+    private int maxRedeliveries = 0;
+    /** The number of milliseconds before the first redelivery of a failed message */
+    private int redeliveryDelay = 1000;
+    /** Progression factor for the geometric series of redelivery delays */
+    private double redeliveryBackoffFactor = 2.0;
+    /** The name of the queue failed messages wait on, if the JMS provider cannot delay them */
+    private String redeliveryQueue = null;
 
     /** Initial duration to attempt re-connection to JMS provider after failure */
     private int initialReconnectDuration = 10000;
@@ -131,12 +206,79 @@ public class ServiceTaskManager {
     /** State of this Task Manager */
     private volatile int serviceTaskManagerState = STATE_STOPPED;
     /** Number of invoker tasks active */
-    private volatile int activeTaskCount = 0;
+    private final AtomicInteger activeTaskCount = new AtomicInteger();
     /** The shared thread pool from the Listener */
     private WorkerPool workerPool = null;
+    /** The shared scheduler from the Listener, for periodic tasks */
+    private ScheduledExecutorService scheduler = null;
+    /** The scheduled execution of the scaling controller, if active */
+    private ScheduledFuture<?> scalingFuture = null;
+    /** The scheduled execution of the redelivery mover, if a redelivery queue is used */
+    private ScheduledFuture<?> redeliveryFuture = null;
+    /** The messages received and waiting to be processed, in the pipelined consumption mode */
+    private volatile HandOffQueue handOffQueue = null;
+    /** The serial lanes of the message groups being processed, if the group order is preserved */
+    private volatile MessageGroupLanes groupLanes = null;
+    /** The total number of milliseconds receiving tasks waited on a full hand-off queue */
+    private final AtomicLong pipelineWaitTime = new AtomicLong();
+    /** The permits to receive a message, if the number of messages in flight is limited */
+    private Semaphore inFlightPermits = null;
+    /** The number of messages received and not yet processed */
+    private final AtomicInteger inFlightMessages = new AtomicInteger();
+    /** The number of times and total milliseconds consumers waited for a message in flight */
+    private final AtomicLong throttleCount = new AtomicLong();
+    private final AtomicLong throttledTime = new AtomicLong();
 
     /** The JMS Connection shared between multiple polling tasks - when enabled (reccomended) */
     private Connection sharedConnection = null;
+    /** Guards the creation of the shared connection by the polling tasks */
+    private final Object connectionLock = new Object();
+    /** The multiplexer of the Connections shared with other services, from the Listener */
+    private JMSConnectionMultiplexer connectionMultiplexer = null;
+    /** Notified of a failure of a Connection shared with other services */
+    private final ExceptionListener sharedConnectionListener = new ExceptionListener() {
+        public void onException(JMSException j) {
+            if (!isSTMActive()) {
+                return;
+            }
+            log.warn("Shared JMS Connection failure for service : " + serviceName);
+            synchronized(pollingTasks) {
+                for (MessageListenerTask lstTask : pollingTasks) {
+                    lstTask.setConnected(false);
+                }
+            }
+            reconnect(j);
+        }
+    };
+
+    /**
+     * Statistics on the commits/acknowledgements and rollbacks of received messages, guarded
+     * by their own lock as the STM monitor is held by stop() while it waits for the tasks
+     */
+    private final Object statisticsLock = new Object();
+    private long commits = 0;
+    private long messagesCommitted = 0;
+    private long totalCommitTime = 0;
+    private long maxCommitTime = 0;
+    private long rollbacks = 0;
+    private long messagesRolledBack = 0;
+
+    /** Load measured by the polling tasks since the last run of the scaling controller */
+    private final AtomicLong receiveAttempts = new AtomicLong();
+    private final AtomicLong receiveHits = new AtomicLong();
+    private final AtomicLong processingTime = new AtomicLong();
+    /** The scaling controller of this STM, recording its last decision for JMX */
+    private final ScalingController scalingController = new ScalingController();
+    /** The redelivery policy of failed messages, if any */
+    private volatile RedeliveryBackoff redeliveryBackoff = null;
+    /** Moves the failed messages due for their redelivery back from the redelivery queue */
+    private final RedeliveryMover redeliveryMover = new RedeliveryMover();
+    /** The JMS Destination of the redelivery queue, once resolved */
+    private volatile Destination redeliveryDestination = null;
+    /** The reconnection in progress after a Connection failure, if any */
+    private Reconnection reconnection = null;
+    /** Guards the reconnection, as the STM monitor is held while restarting */
+    private final Object reconnectionLock = new Object();
 
     /**
      * Start or re-start the Task Manager by shutting down any existing worker tasks and
@@ -153,7 +295,7 @@ public class ServiceTaskManager {
 
         // if any tasks are running, stop whats running now
         if (!pollingTasks.isEmpty()) {
-            stop();
+            stopTasks();
         }
 
         if (cacheLevel == JMSConstants.CACHE_AUTO) {
@@ -161,6 +303,84 @@ public class ServiceTaskManager {
                 transactionality == BaseConstants.TRANSACTION_NONE ?
                     JMSConstants.CACHE_CONSUMER : JMSConstants.CACHE_NONE;
         }
+
+        if (JMSConstants.CONSUMPTION_MODE_LISTENER.equals(consumptionMode)) {
+            if (transactionality == BaseConstants.TRANSACTION_JTA) {
+                // a JTA transaction must be started before the message is received
+                log.warn("A MessageListener cannot be used with JTA transactions - service : " +
+                    serviceName + " will poll for messages instead");
+                consumptionMode = JMSConstants.CONSUMPTION_MODE_POLL;
+            } else if (cacheLevel < JMSConstants.CACHE_CONSUMER) {
+                // a MessageListener stays registered on its Session and Consumer
+                log.debug("The JMS Connection, Session and MessageConsumer will be cached as " +
+                    "messages are received by a MessageListener for service : " + serviceName);
+                cacheLevel = JMSConstants.CACHE_CONSUMER;
+            }
+        } else if (JMSConstants.CONSUMPTION_MODE_PIPELINED.equals(consumptionMode)) {
+            if (transactionality == BaseConstants.TRANSACTION_JTA || isSessionTransacted()) {
+                // a transaction is bound to the thread or session that received the message
+                log.warn("Pipelined processing requires a non transacted session - service : " +
+                    serviceName + " will poll for messages instead");
+                consumptionMode = JMSConstants.CONSUMPTION_MODE_POLL;
+            } else if (getSessionAckMode() != Session.CLIENT_ACKNOWLEDGE) {
+                // otherwise a message is acknowledged on receipt, and lost if its processing
+                // fails or the service stops while it waits in the hand-off queue
+                log.warn("Pipelined processing requires client acknowledgement - service : " +
+                    serviceName + " will poll for messages instead");
+                consumptionMode = JMSConstants.CONSUMPTION_MODE_POLL;
+            } else if (cacheLevel < JMSConstants.CACHE_CONSUMER) {
+                // messages are acknowledged through the session that received them
+                log.debug("The JMS Connection, Session and MessageConsumer will be cached as " +
+                    "messages are processed in a pipeline for service : " + serviceName);
+                cacheLevel = JMSConstants.CACHE_CONSUMER;
+            }
+        } else if (!JMSConstants.CONSUMPTION_MODE_POLL.equals(consumptionMode)) {
+            handleException("Invalid consumption mode : " + consumptionMode +
+                " for service : " + serviceName);
+        }
+
+        if (sharedSubscription && !jmsSpec11 && Boolean.FALSE.equals(isQueue())) {
+            // the JMS 1.0.2b TopicSession of a topic has no shared consumers, and can't consume
+            // from the virtual topic queue either
+            handleException("Shared subscriptions, including the " +
+                JMSConstants.PARAM_VIRTUAL_TOPIC_QUEUE + " fallback, require the JMS 1.1 API, " +
+                "but " + JMSConstants.PARAM_JMS_SPEC_VER + " is 1.0.2b for service : " +
+                serviceName);
+        }
+
+        if (sharedSubscription && !subscriptionDurable && cacheLevel < JMSConstants.CACHE_CONSUMER) {
+            // a non durable shared subscription is removed along with its last consumer
+            if (transactionality == BaseConstants.TRANSACTION_JTA) {
+                log.warn("Messages published while no consumer is polling the non durable " +
+                    "shared subscription of service : " + serviceName + " are lost, as the " +
+                    "MessageConsumer is not cached with JTA transactions");
+            } else {
+                log.debug("The JMS Connection, Session and MessageConsumer will be cached to " +
+                    "keep the non durable shared subscription of service : " + serviceName);
+                cacheLevel = JMSConstants.CACHE_CONSUMER;
+            }
+        }
+
+        if (batchSize > 1) {
+            if (transactionality == BaseConstants.TRANSACTION_JTA || isMessageListenerMode() ||
+                isPipelinedMode()) {
+                log.warn("Batched commits are not supported with JTA transactions, a " +
+                    "MessageListener or pipelined processing - messages of service : " + serviceName +
+                    " will be committed one by one");
+                batchSize = 1;
+            } else if (!isSessionTransacted() &&
+                getSessionAckMode() != Session.CLIENT_ACKNOWLEDGE) {
+                log.warn("Batched commits require a transacted Session or client " +
+                    "acknowledgement - ignoring the batch size of service : " + serviceName);
+                batchSize = 1;
+            } else if (cacheLevel < JMSConstants.CACHE_CONSUMER) {
+                // a batch spans the messages received by the same Session and Consumer
+                log.debug("The JMS Connection, Session and MessageConsumer will be cached as " +
+                    "messages are committed in batches for service : " + serviceName);
+                cacheLevel = JMSConstants.CACHE_CONSUMER;
+            }
+        }
+
         switch (cacheLevel) {
             case JMSConstants.CACHE_NONE:
                 log.debug("No JMS resources will be cached/shared between poller " +
@@ -184,18 +404,84 @@ public class ServiceTaskManager {
             }
         }
 
+        if (isPipelinedMode()) {
+            final HandOffQueue queue = new HandOffQueue(pipelineQueueSize);
+            handOffQueue = queue;
+            if (preserveGroupOrder) {
+                // the lanes are run by the processing tasks, rather than by tasks of their own on
+                // the worker pool, as these would wait behind the long running polling and
+                // processing tasks once the core threads of the pool are taken
+                groupLanes = new MessageGroupLanes(new Executor() {
+                    public void execute(Runnable lane) {
+                        queue.addLane(lane);
+                    }
+                }, maxGroupLanes, pipelineQueueSize, groupLaneIdleTimeout);
+            } else {
+                groupLanes = null;
+            }
+        } else if (preserveGroupOrder) {
+            log.warn("Message groups are only processed in order in the pipelined consumption " +
+                "mode - ignoring for service : " + serviceName);
+        }
+        inFlightPermits = maxInFlightMessages > 0 ? new Semaphore(maxInFlightMessages) : null;
+
+        // kept on a re-start, along with its statistics
+        if (maxRedeliveries > 0 && redeliveryBackoff == null) {
+            redeliveryBackoff = new RedeliveryBackoff(maxRedeliveries, redeliveryDelay,
+                redeliveryBackoffFactor);
+        }
+        jmsMessageReceiver.setDeadLetterOnFailure(redeliveryBackoff == null);
+
         for (int i=0; i<concurrentConsumers; i++) {
             workerPool.execute(new MessageListenerTask());
         }
 
+        if (isScalingControllerEnabled()) {
+            if (scheduler == null) {
+                log.warn("No scheduler available for the scaling controller of service : " +
+                    serviceName + " - the number of consumers will remain fixed");
+            } else {
+                scalingFuture = scheduler.scheduleWithFixedDelay(scalingController,
+                    scalingInterval, scalingInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        // the messages left waiting by a previous run are moved back as well
+        if (redeliveryBackoff != null && redeliveryQueue != null) {
+            if (scheduler == null) {
+                log.warn("No scheduler available to move the failed messages of service : " +
+                    serviceName + " back from the redelivery queue : " + redeliveryQueue);
+            } else {
+                long interval = Math.max(MIN_REDELIVERY_MOVE_INTERVAL,
+                    Math.min(MAX_REDELIVERY_MOVE_INTERVAL, redeliveryDelay));
+                redeliveryFuture = scheduler.scheduleWithFixedDelay(redeliveryMover,
+                    interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
         serviceTaskManagerState = STATE_STARTED;
+
+        if (isPipelinedMode()) {
+            for (int i=0; i<Math.max(concurrentConsumers, maxConcurrentConsumers); i++) {
+                workerPool.execute(new MessageProcessorTask(handOffQueue));
+            }
+        }
         log.info("Task manager for service : " + serviceName + " [re-]initialized");
     }
 
     /**
-     * Shutdown the tasks and release any shared resources
+     * Shutdown the tasks and release any shared resources, giving up on a reconnection in
+     * progress
      */
     public synchronized void stop() {
+        cancelReconnection();
+        stopTasks();
+    }
+
+    /**
+     * Shutdown the tasks and release any shared resources
+     */
+    private synchronized void stopTasks() {
 
         if (log.isDebugEnabled()) {
             log.debug("Stopping ServiceTaskManager for service : " + serviceName);
@@ -205,15 +491,28 @@ public class ServiceTaskManager {
             serviceTaskManagerState = STATE_SHUTTING_DOWN;
         }
 
+        if (scalingFuture != null) {
+            scalingFuture.cancel(false);
+            scalingFuture = null;
+        }
+        // the messages waiting on the redelivery queue stay there until the next start
+        if (redeliveryFuture != null) {
+            redeliveryFuture.cancel(false);
+            redeliveryFuture = null;
+        }
+
+        // a listening task removes itself from the polling tasks as it shuts down
+        List<MessageListenerTask> tasks;
         synchronized(pollingTasks) {
-            for (MessageListenerTask lstTask : pollingTasks) {
-                lstTask.requestShutdown();
-            }
+            tasks = new ArrayList<MessageListenerTask>(pollingTasks);
+        }
+        for (MessageListenerTask lstTask : tasks) {
+            lstTask.requestShutdown();
         }
 
         // try to wait a bit for task shutdown
         for (int i=0; i<5; i++) {
-            if (activeTaskCount == 0) {
+            if (activeTaskCount.get() == 0) {
                 break;
             }
             try {
@@ -222,16 +521,21 @@ public class ServiceTaskManager {
         }
 
         if (sharedConnection != null) {
-            try {
-                sharedConnection.stop();
-            } catch (JMSException e) {
-                logError("Error stopping shared Connection", e);
-            } finally {
+            if (isConnectionMultiplexed()) {
+                connectionMultiplexer.release(sharedConnection, sharedConnectionListener);
                 sharedConnection = null;
+            } else {
+                try {
+                    sharedConnection.stop();
+                } catch (JMSException e) {
+                    logError("Error stopping shared Connection", e);
+                } finally {
+                    sharedConnection = null;
+                }
             }
         }
 
-        if (activeTaskCount > 0) {
+        if (activeTaskCount.get() > 0) {
             log.warn("Unable to shutdown all polling tasks of service : " + serviceName);
         }
 
@@ -249,7 +553,8 @@ public class ServiceTaskManager {
         for (MessageListenerTask lstTask : pollingTasks) {
             lstTask.pause();
         }
-        if (sharedConnection != null) {
+        // a Connection shared with other services must keep delivering to them
+        if (sharedConnection != null && !isConnectionMultiplexed()) {
             try {
                 sharedConnection.stop();
             } catch (JMSException e) {
@@ -265,7 +570,7 @@ public class ServiceTaskManager {
         for (MessageListenerTask lstTask : pollingTasks) {
             lstTask.resume();
         }
-        if (sharedConnection != null) {
+        if (sharedConnection != null && !isConnectionMultiplexed()) {
             try {
                 sharedConnection.start();
             } catch (JMSException e) {
@@ -279,7 +584,8 @@ public class ServiceTaskManager {
      * e do not have any idle tasks - i.e. scale up listening
      */
     private void scheduleNewTaskIfAppropriate() {
-        if (serviceTaskManagerState == STATE_STARTED &&
+        if (serviceTaskManagerState == STATE_STARTED && !isMessageListenerMode() &&
+            !isPipelinedMode() && !isScalingControllerEnabled() &&
             pollingTasks.size() < getMaxConcurrentConsumers() && getIdleTaskCount() == 0) {
             workerPool.execute(new MessageListenerTask());
         }
@@ -314,194 +620,1300 @@ public class ServiceTaskManager {
     }
 
     /**
-     * The actual threads/tasks that perform message polling
+     * Record a commit or acknowledgement of received messages
+     * @param messageCount the number of messages committed
+     * @param commitTime the number of milliseconds the commit took
      */
-    private class MessageListenerTask implements Runnable, ExceptionListener {
+    private void notifyCommit(int messageCount, long commitTime) {
+        synchronized (statisticsLock) {
+            commits++;
+            messagesCommitted += messageCount;
+            totalCommitTime += commitTime;
+            if (commitTime > maxCommitTime) {
+                maxCommitTime = commitTime;
+            }
+        }
+    }
 
-        /** The Connection used by the polling task */
-        private Connection connection = null;
-        /** The Sesson used by the polling task */
-        private Session session = null;
-        /** The MessageConsumer used by the polling task */
-        private MessageConsumer consumer = null;
-        /** State of the worker polling task */
-        private volatile int workerState = STATE_STOPPED;
-        /** The number of idle (i.e. without fetching a message) polls for this task */
-        private int idleExecutionCount = 0;
-        /** Is this task idle right now? */
-        private volatile boolean idle = false;
-        /** Is this task connected to the JMS provider successfully? */
-        private boolean connected = false;
+    /**
+     * Record a rollback (or recovery) of received messages
+     * @param messageCount the number of messages rolled back
+     */
+    private void notifyRollback(int messageCount) {
+        synchronized (statisticsLock) {
+            rollbacks++;
+            messagesRolledBack += messageCount;
+        }
+    }
 
-        /** As soon as we create a new polling task, add it to the STM for control later */
-        MessageListenerTask() {
-            synchronized(pollingTasks) {
-                pollingTasks.add(this);
+    /**
+     * Apply the redelivery policy to a message that failed to be processed. The message is dead
+     * lettered once it has failed more than the maximum number of redeliveries. Or else it is
+     * sent again to the queue, with a delivery delay growing with each failure, through the
+     * transacted session it was received on: the send is committed along with the failed
+     * receipt, so the message stays on the JMS provider while it waits, and the consumer moves on
+     * to the next messages meanwhile. The message is rolled back for the JMS provider to
+     * redeliver it after its own delay if a topic is consumed, or if the session is not locally
+     * transacted: with client acknowledgement, the send would complete before the
+     * acknowledgement, and a failure in between would leave both the message and its copy on
+     * the queue. If the JMS provider cannot delay a delivery, the message is sent to the
+     * redelivery queue instead, for the {@link RedeliveryMover} to move it back once its delay
+     * has elapsed, or rolled back if no redelivery queue is configured
+     * @param message the JMS message that failed to be processed
+     * @param session the session the message was received on
+     * @return true if the message was dead lettered or sent again, and must be committed or
+     *         acknowledged; false if it must be rolled back for the JMS provider to redeliver it,
+     *         including when the dead letter could not be sent
+     */
+    private boolean handleFailedMessage(Message message, Session session) {
+
+        RedeliveryBackoff backoff = redeliveryBackoff;
+        if (backoff == null) {
+            return false;
+        }
+
+        String messageId = null;
+        int failures;
+        try {
+            messageId = message.getJMSMessageID();
+            failures = RedeliveryBackoff.getFailureCount(message);
+        } catch (JMSException e) {
+            logError("Error reading the redelivery count of message : " + messageId +
+                " of service : " + serviceName, e);
+            return false;
+        }
+
+        // the chunks of a message are rolled back together, and dead lettered one by one
+        if (JMSChunkAssembler.isChunk(message)) {
+            if (backoff.isExhausted(failures)) {
+                log.warn("Chunked message : " + messageId + " of service : " + serviceName +
+                    " failed " + failures + " times - moving its chunks to the dead letter queue");
+                jmsMessageReceiver.deadLetterChunks(message);
+                backoff.notifyDeadLetter();
             }
+            return false;
         }
 
-        /**
-         * Pause this polling worker task
-         */
-        public void pause() {
-            if (isActive()) {
-                if (connection != null && cacheLevel < JMSConstants.CACHE_CONNECTION) {
-                    try {
-                        connection.stop();
-                    } catch (JMSException e) {
-                        log.warn("Error pausing Message Listener task for service : " + serviceName);
-                    }
-                }
-                workerState = STATE_PAUSED;
+        if (backoff.isExhausted(failures)) {
+            log.warn("Message : " + messageId + " of service : " + serviceName + " failed " +
+                failures + " times - moving it to the dead letter queue");
+            // the receipt is only completed once the dead letter has been sent
+            if (!jmsMessageReceiver.deadLetter(message, new AxisJMSException(
+                    "Processing failed " + failures + " times"))) {
+                log.error("Message : " + messageId + " of service : " + serviceName +
+                    " could not be moved to the dead letter queue - rolling it back");
+                return false;
             }
+            backoff.notifyDeadLetter();
+            return true;
         }
 
-        /**
-         * Resume this polling task
-         */
-        public void resume() {
-            if (connection != null && cacheLevel < JMSConstants.CACHE_CONNECTION) {
-                try {
-                    connection.start();
-                } catch (JMSException e) {
-                    log.warn("Error resuming Message Listener task for service : " + serviceName);
+        // a message sent again to a topic would reach every subscriber
+        if (session == null || !(destination instanceof Queue) || !isJmsSpec11() ||
+            !isSessionTransacted()) {
+            return false;
+        }
+        long delay = backoff.getDelay(failures);
+        try {
+            if (!JMSUtils.resendWithDelay(session, destination, message, failures, delay)) {
+                if (redeliveryQueue == null) {
+                    return false;
                 }
+                JMSUtils.sendForRedelivery(session, getRedeliveryQueue(session), message,
+                    failures, System.currentTimeMillis() + delay, serviceName);
             }
-            workerState = STATE_STARTED;
+        } catch (JMSException e) {
+            logError("Error sending message : " + messageId + " of service : " + serviceName +
+                " again for its redelivery", e);
+            return false;
+        } catch (RuntimeException e) {
+            logError("Error sending message : " + messageId + " of service : " + serviceName +
+                " again for its redelivery", e);
+            return false;
+        }
+        backoff.notifyRedelivery();
+        if (log.isDebugEnabled()) {
+            log.debug("Message : " + messageId + " of service : " + serviceName + " failed " +
+                failures + " time(s) - redelivering it in " + delay + "ms");
         }
+        return true;
+    }
 
-        /**
-         * Execute the polling worker task
-         */
-        public void run() {
-            workerState = STATE_STARTED;
-            activeTaskCount++;
-            int messageCount = 0;
+    /**
+     * Re-initialize the STM after the failure of a Connection shared by its tasks, unless a
+     * reconnection is already in progress, e.g. as several consumers report the same failure
+     * @param j the exception reported by the Connection
+     */
+    private void reconnect(JMSException j) {
+        synchronized (reconnectionLock) {
+            if (reconnection != null) {
+                return;
+            }
+            // if we failed while active, update state to show failure
+            setServiceTaskManagerState(STATE_FAILURE);
+            log.error("JMS Connection failed : " + j.getMessage() + " - shutting down worker tasks");
 
-            if (log.isDebugEnabled()) {
-                log.debug("New poll task starting : thread id = " + Thread.currentThread().getId());
+            if (scheduler == null) {
+                log.error("No scheduler available to reconnect service : " + serviceName);
+                return;
             }
+            reconnection = new Reconnection();
+            reconnection.schedule(0);
+        }
+    }
 
-            try {
-                while (isActive() &&
-                    (getMaxMessagesPerTask() < 0 || messageCount < getMaxMessagesPerTask()) &&
-                    (getConcurrentConsumers() == 1 || idleExecutionCount < getIdleTaskExecutionLimit())) {
+    /**
+     * Cancel the reconnection in progress, if any
+     */
+    private void cancelReconnection() {
+        synchronized (reconnectionLock) {
+            if (reconnection != null) {
+                reconnection.cancelled = true;
+                reconnection = null;
+            }
+        }
+    }
 
-                    UserTransaction ut = null;
-                    try {
-                        if (transactionality == BaseConstants.TRANSACTION_JTA) {
-                            ut = getUserTransaction();
-                            ut.begin();
-                        }
-                    } catch (NotSupportedException e) {
-                        handleException("Listener Task is already associated with a transaction", e);
-                    } catch (SystemException e) {
-                        handleException("Error starting a JTA transaction", e);
-                    }
+    /**
+     * Restarts the STM after a Connection failure, and retries with a growing delay until all
+     * consumers are connected again. The restart runs on the worker pool, as it waits for the
+     * tasks to stop, while the checks of the consumers and the delays between the attempts are
+     * scheduled on the scheduler. Thus no thread is held while the JMS provider is unavailable,
+     * however many services share the failed Connection
+     */
+    private class Reconnection implements Runnable {
+
+        /** Set once the STM has been stopped or reconnected */
+        private volatile boolean cancelled = false;
+        /** Is the outcome of the last attempt being checked, rather than a new attempt due? */
+        private boolean checking = false;
+        private int attempt = 0;
+        private int checks = 0;
+        private long retryDuration = initialReconnectDuration;
+
+        void schedule(long delay) {
+            scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+        }
 
-                    // Get a message by polling, or receive null
-                    Message message = receiveMessage();
+        public void run() {
+            if (cancelled) {
+                return;
+            }
 
-                    if (log.isTraceEnabled()) {
-                        if (message != null) {
-                            try {
-                                log.trace("<<<<<<< READ message with Message ID : " +
-                                    message.getJMSMessageID() + " from : " + destination +
-                                    " by Thread ID : " + Thread.currentThread().getId());
-                            } catch (JMSException ignore) {}
-                        } else {
-                            log.trace("No message received by Thread ID : " +
-                                Thread.currentThread().getId() + " for destination : " + destination);
-                        }
+            if (!checking) {
+                workerPool.execute(new Runnable() {
+                    public void run() {
+                        restart();
                     }
-
-                    if (message != null) {
-                        idle = false;
-                        idleExecutionCount = 0;
-                        messageCount++;
-                        // I will be busy now while processing this message, so start another if needed
-                        scheduleNewTaskIfAppropriate();
-                        handleMessage(message, ut);
-
-                    } else {
-                        idle = true;
-                        idleExecutionCount++;
+                });
+
+            } else if (isSTMActive() && getConnectedTaskCount() >= concurrentConsumers) {
+                log.info("Reconnection attempt : " + attempt + " for service : " + serviceName +
+                    " succeeded");
+                synchronized (reconnectionLock) {
+                    if (reconnection == this) {
+                        reconnection = null;
                     }
                 }
 
-            } finally {
-                workerState = STATE_STOPPED;
-                activeTaskCount--;
-                synchronized(pollingTasks) {
-                    pollingTasks.remove(this);
+            } else if (++checks < RECONNECT_CHECKS) {
+                schedule(RECONNECT_CHECK_INTERVAL);
+
+            } else {
+                log.error("Reconnection attempt : " + attempt + " for service : " + serviceName +
+                    " failed. Next retry in " + (retryDuration/1000) + "seconds");
+                checking = false;
+                schedule(retryDuration);
+                retryDuration = (long) (retryDuration * reconnectionProgressionFactor);
+                if (retryDuration > maxReconnectDuration) {
+                    retryDuration = maxReconnectDuration;
                 }
             }
+        }
 
-            if (log.isTraceEnabled()) {
-                log.trace("Listener task with Thread ID : " + Thread.currentThread().getId() +
-                    " is stopping after processing : " + messageCount + " messages :: " +
-                    " isActive : " + isActive() + " maxMessagesPerTask : " +
-                    getMaxMessagesPerTask() + " concurrentConsumers : " + getConcurrentConsumers() +
-                    " idleExecutionCount : " + idleExecutionCount + " idleTaskExecutionLimit : " + 
-                    getIdleTaskExecutionLimit());
-            } else if (log.isDebugEnabled()) {
-                log.debug("Listener task with Thread ID : " + Thread.currentThread().getId() +
-                    " is stopping after processing : " + messageCount + " messages");
+        private void restart() {
+            if (cancelled) {
+                return;
             }
-
-            closeConsumer(true);
-            closeSession(true);
-            closeConnection();
-
-            // My time is up, so if I am going away, create another
-            scheduleNewTaskIfAppropriate();
+            attempt++;
+            try {
+                log.info("Reconnection attempt : " + attempt + " for service : " + serviceName);
+                start();
+            } catch (Exception e) {
+                log.debug("Error restarting service : " + serviceName, e);
+            }
+            checking = true;
+            checks = 0;
+            schedule(RECONNECT_CHECK_INTERVAL);
         }
+    }
 
-        /**
-         * Poll for and return a message if available
-         *
-         * @return a message read, or null
-         */
-        private Message receiveMessage() {
+    /**
+     * Periodically adjusts the number of polling tasks between the concurrent and maximum
+     * concurrent consumers, replacing the scaling by the tasks themselves, i.e. a task starting
+     * another whenever it receives a message and tasks stopping after idle receives.
+     * <p>
+     * The decision is based on the load measured over the last interval: the ratio of receive
+     * calls that returned a message, the average processing time, and optionally the depth of
+     * the queue. With a known depth, the number of tasks required to drain the backlog within
+     * one interval is targeted. Otherwise a task is added when nearly every receive returns a
+     * message. To avoid oscillation, scaling up happens immediately, while scaling down
+     * requires low load for several consecutive intervals and removes one task at a time.
+     * <p>
+     * Browsing the queue is a round trip to the broker, so the scheduler only triggers it, and
+     * the browse and the adjustment that follows run on the worker pool. An interval is skipped
+     * while the previous browse is still in progress.
+     */
+    private class ScalingController implements Runnable {
 
-            // get a new connection, session and consumer to prevent a conflict.
-            // If idle, it means we can re-use what we already have 
-            if (consumer == null) {
-                connection = getConnection();
-                session = getSession();
-                consumer = getMessageConsumer();
-                if (log.isDebugEnabled()) {
-                    log.debug("Preparing a Connection, Session and Consumer to read messages");
-                }
-            }
+        /** Is a browse of the queue depth running on the worker pool? */
+        private final AtomicBoolean browsing = new AtomicBoolean();
 
-            if (log.isDebugEnabled()) {
-                log.debug("Waiting for a message for service : " + serviceName + " - duration : "
-                    + (getReceiveTimeout() < 0 ? "unlimited" : (getReceiveTimeout() + "ms")));
-            }
+        private int lowLoadIntervals = 0;
+        private long scaleUps = 0;
+        private long scaleDowns = 0;
+        private volatile double lastHitRatio = 0;
+        private volatile double lastAvgProcessingTime = 0;
+        private volatile int lastQueueDepth = -1;
+        private volatile String lastDecision = null;
+        private volatile long lastDecisionTime = 0;
 
+        public void run() {
             try {
-                if (getReceiveTimeout() < 0) {
-                    return consumer.receive();
-                } else {
-                    return consumer.receive(getReceiveTimeout());
+                if (!scalingBrowseQueue) {
+                    adjust(-1);
+                } else if (isSTMActive() && browsing.compareAndSet(false, true)) {
+                    workerPool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                adjust(browseQueueDepth());
+                            } catch (Exception e) {
+                                logError("Error scaling the consumers of service : " +
+                                    serviceName, e);
+                            } finally {
+                                browsing.set(false);
+                            }
+                        }
+                    });
                 }
-            } catch (IllegalStateException ignore) {
-                // probably the consumer (shared) was closed.. which is still ok.. as we didn't read
-            } catch (JMSException e) {
-                logError("Error receiving message for service : " + serviceName, e);
+            } catch (Exception e) {
+                // an exception would cancel further executions by the scheduler
+                browsing.set(false);
+                logError("Error scaling the consumers of service : " + serviceName, e);
             }
-            return null;
         }
 
         /**
-         * Invoke ultimate message handler/listener and ack message and/or
-         * commit/rollback transactions
-         * @param message the JMS message received
-         * @param ut the UserTransaction used to receive this message, or null
+         * Adjust the number of polling tasks to the load measured since the last adjustment
+         * @param depth the depth of the queue, or -1 if unknown
+         */
+        private synchronized void adjust(int depth) {
+            if (!isSTMActive()) {
+                return;
+            }
+
+            long attempts = receiveAttempts.getAndSet(0);
+            long hits = receiveHits.getAndSet(0);
+            long time = processingTime.getAndSet(0);
+            double hitRatio = attempts == 0 ? 0 : (double) hits / attempts;
+            double avgProcessingTime = hits == 0 ? 0 : (double) time / hits;
+            int current = pollingTasks.size();
+
+            lastHitRatio = hitRatio;
+            lastAvgProcessingTime = avgProcessingTime;
+            lastQueueDepth = depth;
+
+            int target = current;
+            if (depth >= 0 && hits > 0) {
+                // tasks needed to drain the backlog within one interval
+                target = (int) Math.ceil(depth * avgProcessingTime / scalingInterval);
+            } else if (hitRatio >= SCALE_UP_HIT_RATIO) {
+                target = current + 1;
+            } else if (hitRatio <= SCALE_DOWN_HIT_RATIO && depth <= 0) {
+                target = current - 1;
+            }
+            target = Math.max(getConcurrentConsumers(), Math.min(getMaxConcurrentConsumers(), target));
+
+            String reason = "hit ratio : " + hitRatio + ", avg processing time : " +
+                avgProcessingTime + "ms, queue depth : " + (depth < 0 ? "unknown" : depth);
+
+            if (target > current) {
+                lowLoadIntervals = 0;
+                for (int i = current; i < target; i++) {
+                    workerPool.execute(new MessageListenerTask());
+                }
+                scaleUps++;
+                recordDecision("Scaled up from " + current + " to " + target + " consumers - " + reason);
+
+            } else if (target < current) {
+                if (++lowLoadIntervals >= SCALE_DOWN_INTERVALS && retireIdleTask()) {
+                    lowLoadIntervals = 0;
+                    scaleDowns++;
+                    recordDecision("Scaled down from " + current + " to " + (current - 1) +
+                        " consumers - " + reason);
+                }
+            } else {
+                lowLoadIntervals = 0;
+            }
+        }
+
+        /**
+         * Ask one idle polling task to stop
+         * @return true if an idle task was found
+         */
+        private boolean retireIdleTask() {
+            synchronized(pollingTasks) {
+                for (MessageListenerTask lstTask : pollingTasks) {
+                    if (lstTask.isTaskIdle() && lstTask.isActive()) {
+                        lstTask.retire();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Count the messages waiting on the queue using a QueueBrowser, up to a maximum
+         * @return the queue depth, or -1 if it could not be determined
+         */
+        private int browseQueueDepth() {
+            if (!(destination instanceof Queue) || sharedConnection == null) {
+                return -1;
+            }
+
+            Session session = null;
+            try {
+                session = JMSUtils.createSession(sharedConnection, false,
+                    Session.AUTO_ACKNOWLEDGE, isJmsSpec11(), isQueue());
+                QueueBrowser browser = session.createBrowser((Queue) destination, messageSelector);
+                int depth = 0;
+                for (Enumeration e = browser.getEnumeration();
+                    e.hasMoreElements() && depth < MAX_BROWSE_DEPTH; depth++) {
+                    e.nextElement();
+                }
+                browser.close();
+                return depth;
+
+            } catch (JMSException e) {
+                log.warn("Error browsing the queue depth of service : " + serviceName, e);
+                return -1;
+            } finally {
+                if (session != null) {
+                    try {
+                        session.close();
+                    } catch (JMSException ignore) {}
+                }
+            }
+        }
+
+        private void recordDecision(String decision) {
+            lastDecision = decision;
+            lastDecisionTime = System.currentTimeMillis();
+            if (log.isDebugEnabled()) {
+                log.debug(decision + " for service : " + serviceName);
+            }
+        }
+    }
+
+    /**
+     * Moves the failed messages whose redelivery time has passed from the redelivery queue back
+     * to the queue of the service, when the JMS provider cannot delay a delivery. A message
+     * selector on the redelivery time picks the due messages, so that the others stay on the
+     * JMS provider, and each message is moved in a local transaction of its own.
+     * <p>
+     * The scheduler only triggers the move, which runs on the worker pool. A run is skipped while
+     * the previous one is still in progress.
+     */
+    private class RedeliveryMover implements Runnable {
+
+        /** Is a move running on the worker pool? */
+        private final AtomicBoolean moving = new AtomicBoolean();
+
+        public void run() {
+            try {
+                if (isSTMActive() && moving.compareAndSet(false, true)) {
+                    workerPool.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                moveDueMessages();
+                            } finally {
+                                moving.set(false);
+                            }
+                        }
+                    });
+                }
+            } catch (Exception e) {
+                // an exception would cancel further executions by the scheduler
+                moving.set(false);
+                logError("Error moving the failed messages of service : " + serviceName +
+                    " back from the redelivery queue : " + redeliveryQueue, e);
+            }
+        }
+
+        private void moveDueMessages() {
+            Connection connection = sharedConnection;
+            boolean ownConnection = connection == null;
+            Session session = null;
+            int moved = 0;
+            try {
+                if (ownConnection) {
+                    connection = openConnection();
+                    connection.start();
+                }
+                session = JMSUtils.createSession(connection, true, Session.SESSION_TRANSACTED,
+                    isJmsSpec11(), isQueue());
+                MessageConsumer consumer = session.createConsumer(getRedeliveryQueue(session),
+                    JMSConstants.REDELIVER_AFTER_PROPERTY + " <= " + System.currentTimeMillis() +
+                    " AND " + JMSConstants.REDELIVERY_SERVICE_PROPERTY + " = '" +
+                    serviceName.replace("'", "''") + "'");
+                MessageProducer producer = session.createProducer(getDestination(session));
+                Message message;
+                while (isSTMActive() &&
+                    (message = consumer.receive(REDELIVERY_RECEIVE_TIMEOUT)) != null) {
+                    JMSUtils.resend(producer, message);
+                    session.commit();
+                    moved++;
+                }
+
+            } catch (Exception e) {
+                log.warn("Error moving the failed messages of service : " + serviceName +
+                    " back from the redelivery queue : " + redeliveryQueue, e);
+                if (session != null) {
+                    try {
+                        session.rollback();
+                    } catch (JMSException ignore) {}
+                }
+            } finally {
+                if (session != null) {
+                    try {
+                        session.close();
+                    } catch (JMSException ignore) {}
+                }
+                if (ownConnection && connection != null) {
+                    try {
+                        connection.close();
+                    } catch (JMSException ignore) {}
+                }
+            }
+            if (moved > 0 && log.isDebugEnabled()) {
+                log.debug(moved + " failed message(s) of service : " + serviceName +
+                    " moved back from the redelivery queue : " + redeliveryQueue);
+            }
+        }
+    }
+
+    /**
+     * A message received by a polling task and waiting to be processed by a
+     * {@link MessageProcessorTask} or the lane of its message group, in the pipelined
+     * consumption mode
+     */
+    private class PipelinedMessage implements Runnable {
+        /** The message received */
+        private final Message message;
+        /** The task which received the message, and acknowledges it */
+        private final MessageListenerTask receiver;
+        /** Has the processing of the message completed? */
+        private boolean processed = false;
+        /** Was the message processed successfully? */
+        private boolean succeeded = false;
+        /** Should the message be skipped, as it will be redelivered? */
+        private volatile boolean discarded = false;
+
+        PipelinedMessage(Message message, MessageListenerTask receiver) {
+            this.message = message;
+            this.receiver = receiver;
+        }
+
+        /**
+         * Process the message, unless discarded, and report the result to its receiver
+         */
+        public void run() {
+            boolean succeeded = false;
+            if (!discarded) {
+                long start = System.currentTimeMillis();
+                try {
+                    succeeded = jmsMessageReceiver.onMessage(message, null);
+                } catch (RuntimeException e) {
+                    logError("Error processing message for service : " + serviceName, e);
+                } finally {
+                    receiveHits.incrementAndGet();
+                    processingTime.addAndGet(System.currentTimeMillis() - start);
+                }
+            }
+            receiver.messageProcessed(this, succeeded);
+            receiver.releaseInFlight();
+        }
+    }
+
+    /**
+     * The queue of the processing tasks in the pipelined consumption mode. It holds up to the
+     * pipeline queue size of received messages, along with the lanes of the message groups
+     * which have pending messages, so that the same tasks process both
+     */
+    private class HandOffQueue {
+
+        private final LinkedBlockingQueue<Runnable> tasks = new LinkedBlockingQueue<Runnable>();
+        /** The permits to queue a received message */
+        private final Semaphore messagePermits;
+        private final int capacity;
+
+        HandOffQueue(int capacity) {
+            this.capacity = capacity;
+            this.messagePermits = new Semaphore(capacity);
+        }
+
+        /**
+         * Queue a received message, waiting up to the given time for room
+         * @param pm the received message
+         * @param timeout the maximum number of milliseconds to wait
+         * @return true if the message was queued, false if the wait expired
+         * @throws InterruptedException if interrupted while waiting
+         */
+        boolean offer(PipelinedMessage pm, long timeout) throws InterruptedException {
+            if (!messagePermits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            tasks.add(pm);
+            return true;
+        }
+
+        /**
+         * Queue a lane with pending messages. Never waits, as the messages of the lane have
+         * already been counted against the bound of the lanes
+         * @param lane the lane to be run
+         */
+        void addLane(Runnable lane) {
+            tasks.add(lane);
+        }
+
+        Runnable poll(long timeout) throws InterruptedException {
+            Runnable task = tasks.poll(timeout, TimeUnit.MILLISECONDS);
+            if (task instanceof PipelinedMessage) {
+                messagePermits.release();
+            }
+            return task;
+        }
+
+        boolean isEmpty() {
+            return tasks.isEmpty();
+        }
+
+        int getMessageCount() {
+            return capacity - messagePermits.availablePermits();
+        }
+    }
+
+    /**
+     * Processes the messages handed off by the polling tasks in the pipelined consumption mode,
+     * so that receiving continues while a service is slow. The results are reported back to
+     * the polling task which received each message, as only it may use its session to
+     * acknowledge the message. When the group order is preserved, the same tasks run the lanes
+     * of the message groups with pending messages
+     */
+    private class MessageProcessorTask implements Runnable {
+
+        /** The hand-off queue of the STM when this task was started */
+        private final HandOffQueue queue;
+
+        MessageProcessorTask(HandOffQueue queue) {
+            this.queue = queue;
+        }
+
+        public void run() {
+            // messages already received are still processed when the STM is stopped
+            while ((queue == handOffQueue && isSTMActive()) || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(STATE_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (task != null) {
+                    task.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * The actual threads/tasks that perform message polling. In the listener consumption mode,
+     * a task instead registers itself as the MessageListener of its consumer, and the messages
+     * pushed by the JMS provider are processed on the thread of the provider
+     */
+    private class MessageListenerTask implements Runnable, ExceptionListener, MessageListener {
+
+        /** The Connection used by the polling task */
+        private Connection connection = null;
+        /** The Sesson used by the polling task */
+        private Session session = null;
+        /** The MessageConsumer used by the polling task */
+        private MessageConsumer consumer = null;
+        /** State of the worker polling task */
+        private volatile int workerState = STATE_STOPPED;
+        /** The number of idle (i.e. without fetching a message) polls for this task */
+        private int idleExecutionCount = 0;
+        /** Is this task idle right now? */
+        private volatile boolean idle = false;
+        /** Is this task connected to the JMS provider successfully? */
+        private boolean connected = false;
+        /** Is this task registered as the MessageListener of its consumer? */
+        private volatile boolean listening = false;
+        /** The number of processed messages not yet committed or acknowledged */
+        private int batchCount = 0;
+        /** The time the first message of the current batch was processed */
+        private long batchStart = 0;
+        /** The last message of the current batch, used to acknowledge the batch */
+        private Message batchLastMessage = null;
+        /** Was this task stopped by the scaling controller? */
+        private volatile boolean retired = false;
+        /** The in flight permits of the STM when this task was created, if limited */
+        private final Semaphore permits = inFlightPermits;
+        /** Messages handed off for processing and not yet acknowledged, in order of receipt */
+        private final LinkedList<PipelinedMessage> pendingAcks = new LinkedList<PipelinedMessage>();
+        /** Has a chunk been received whose receipt is completed along with its last chunk? */
+        private boolean chunkPending = false;
+        /** The JTA transaction the pending chunks were received in, if any */
+        private UserTransaction chunkTransaction = null;
+        /** The pending chunks received in the pipelined consumption mode */
+        private final List<PipelinedMessage> pendingChunks = new ArrayList<PipelinedMessage>();
+
+        /** As soon as we create a new polling task, add it to the STM for control later */
+        MessageListenerTask() {
+            synchronized(pollingTasks) {
+                pollingTasks.add(this);
+            }
+        }
+
+        /**
+         * Pause this polling worker task
+         */
+        public void pause() {
+            if (isActive()) {
+                if (connection != null && cacheLevel < JMSConstants.CACHE_CONNECTION) {
+                    try {
+                        connection.stop();
+                    } catch (JMSException e) {
+                        log.warn("Error pausing Message Listener task for service : " + serviceName);
+                    }
+                }
+                workerState = STATE_PAUSED;
+            }
+        }
+
+        /**
+         * Resume this polling task
+         */
+        public void resume() {
+            if (connection != null && cacheLevel < JMSConstants.CACHE_CONNECTION) {
+                try {
+                    connection.start();
+                } catch (JMSException e) {
+                    log.warn("Error resuming Message Listener task for service : " + serviceName);
+                }
+            }
+            workerState = STATE_STARTED;
+        }
+
+        /**
+         * Execute the polling worker task
+         */
+        public void run() {
+            if (isMessageListenerMode()) {
+                startListening();
+                return;
+            }
+
+            workerState = STATE_STARTED;
+            activeTaskCount.incrementAndGet();
+            int messageCount = 0;
+
+            if (log.isDebugEnabled()) {
+                log.debug("New poll task starting : thread id = " + Thread.currentThread().getId());
+            }
+
+            try {
+                // a task receiving the chunks of a message goes on until the last chunk
+                while (isActive() && (chunkPending ||
+                    (getMaxMessagesPerTask() < 0 || messageCount < getMaxMessagesPerTask()) &&
+                    (getConcurrentConsumers() == 1 || isScalingControllerEnabled() ||
+                        isPipelinedMode() || idleExecutionCount < getIdleTaskExecutionLimit()))) {
+
+                    // do not receive more messages than may be in flight, leaving them on the broker
+                    if (!acquireInFlight()) {
+                        break;
+                    }
+
+                    UserTransaction ut = chunkTransaction;
+                    try {
+                        if (ut == null && transactionality == BaseConstants.TRANSACTION_JTA) {
+                            ut = getUserTransaction();
+                            ut.begin();
+                        }
+                    } catch (NotSupportedException e) {
+                        handleException("Listener Task is already associated with a transaction", e);
+                    } catch (SystemException e) {
+                        handleException("Error starting a JTA transaction", e);
+                    }
+
+                    // Get a message by polling, or receive null
+                    Message message = null;
+                    try {
+                        message = receiveMessage();
+                    } finally {
+                        if (message == null) {
+                            releasePermit();
+                        } else {
+                            inFlightMessages.incrementAndGet();
+                        }
+                    }
+                    receiveAttempts.incrementAndGet();
+
+                    if (log.isTraceEnabled()) {
+                        if (message != null) {
+                            try {
+                                log.trace("<<<<<<< READ message with Message ID : " +
+                                    message.getJMSMessageID() + " from : " + destination +
+                                    " by Thread ID : " + Thread.currentThread().getId());
+                            } catch (JMSException ignore) {}
+                        } else {
+                            log.trace("No message received by Thread ID : " +
+                                Thread.currentThread().getId() + " for destination : " + destination);
+                        }
+                    }
+
+                    if (isPipelinedMode()) {
+                        if (message != null) {
+                            messageCount++;
+                            handOff(message);
+                        }
+                        // an acknowledgement covers every message received on the session, so
+                        // stop receiving until the messages not yet acknowledged are processed
+                        if (!chunkPending && getPendingAckCount() >= pipelineQueueSize) {
+                            awaitProcessed(true);
+                        }
+                        acknowledgeProcessed();
+
+                    } else if (message != null) {
+                        idle = false;
+                        idleExecutionCount = 0;
+                        messageCount++;
+                        // I will be busy now while processing this message, so start another if needed
+                        scheduleNewTaskIfAppropriate();
+                        long start = System.currentTimeMillis();
+                        try {
+                            handleMessage(message, ut);
+                        } finally {
+                            releaseInFlight();
+                        }
+                        receiveHits.incrementAndGet();
+                        processingTime.addAndGet(System.currentTimeMillis() - start);
+
+                    } else {
+                        idle = true;
+                        idleExecutionCount++;
+                        if (batchCount > 0 && !chunkPending &&
+                            System.currentTimeMillis() - batchStart >= batchTimeout) {
+                            completeBatch(true);
+                        }
+                    }
+                }
+
+                // commit what has been processed successfully before the session is closed,
+                // unless it would commit the chunks of an incomplete message
+                if (batchCount > 0) {
+                    completeBatch(!chunkPending);
+                }
+                if (chunkTransaction != null) {
+                    try {
+                        chunkTransaction.rollback();
+                    } catch (Exception e) {
+                        logError("Error rolling back the JTA txn of incomplete chunked message " +
+                            "for service : " + serviceName, e);
+                    }
+                    chunkTransaction = null;
+                }
+                if (isPipelinedMode()) {
+                    abandonChunks();
+                    awaitProcessed(true);
+                    acknowledgeProcessed();
+                }
+
+            } finally {
+                workerState = STATE_STOPPED;
+                activeTaskCount.decrementAndGet();
+                synchronized(pollingTasks) {
+                    pollingTasks.remove(this);
+                }
+            }
+
+            if (log.isTraceEnabled()) {
+                log.trace("Listener task with Thread ID : " + Thread.currentThread().getId() +
+                    " is stopping after processing : " + messageCount + " messages :: " +
+                    " isActive : " + isActive() + " maxMessagesPerTask : " +
+                    getMaxMessagesPerTask() + " concurrentConsumers : " + getConcurrentConsumers() +
+                    " idleExecutionCount : " + idleExecutionCount + " idleTaskExecutionLimit : " + 
+                    getIdleTaskExecutionLimit());
+            } else if (log.isDebugEnabled()) {
+                log.debug("Listener task with Thread ID : " + Thread.currentThread().getId() +
+                    " is stopping after processing : " + messageCount + " messages");
+            }
+
+            closeConsumer(true);
+            closeSession(true);
+            closeConnection();
+
+            // My time is up, so if I am going away, create another
+            if (isScalingControllerEnabled()) {
+                if (!retired && isSTMActive()) {
+                    workerPool.execute(new MessageListenerTask());
+                }
+            } else {
+                scheduleNewTaskIfAppropriate();
+            }
+        }
+
+        /**
+         * Register this task as the MessageListener of a cached consumer, and return the
+         * thread. The task remains active until a shutdown is requested
+         */
+        private void startListening() {
+            workerState = STATE_STARTED;
+            activeTaskCount.incrementAndGet();
+            listening = true;
+            idle = true;
+
+            try {
+                connection = getConnection();
+                session = getSession();
+                consumer = getMessageConsumer();
+                consumer.setMessageListener(this);
+                if (log.isDebugEnabled()) {
+                    log.debug("Registered a MessageListener to receive messages for service : " +
+                        serviceName + " from : " + destination);
+                }
+            } catch (Exception e) {
+                logError("Error registering a MessageListener for service : " + serviceName, e);
+                stopListening();
+            }
+        }
+
+        /**
+         * Process a message pushed by the JMS provider. A message delivered while a shutdown is
+         * in progress is still processed, as it may already have been acknowledged
+         * @param message the JMS message received
+         */
+        public void onMessage(Message message) {
+
+            if (log.isTraceEnabled()) {
+                try {
+                    log.trace("<<<<<<< RECEIVED message with Message ID : " +
+                        message.getJMSMessageID() + " from : " + destination +
+                        " by Thread ID : " + Thread.currentThread().getId());
+                } catch (JMSException ignore) {}
+            }
+
+            // blocking the provider's thread holds back further deliveries to this consumer
+            boolean acquired = acquireInFlight();
+            if (acquired) {
+                inFlightMessages.incrementAndGet();
+            }
+            idle = false;
+            try {
+                handleMessage(message, null);
+            } catch (RuntimeException e) {
+                // a MessageListener must not throw exceptions back to the JMS provider
+                logError("Error processing message for service : " + serviceName, e);
+            } finally {
+                idle = true;
+                if (acquired) {
+                    releaseInFlight();
+                }
+            }
+        }
+
+        /**
+         * Unregister this task as a MessageListener, closing its consumer and session. Closing
+         * the consumer waits for a message being processed to complete
+         */
+        private synchronized void stopListening() {
+            if (!listening) {
+                return;
+            }
+            listening = false;
+
+            try {
+                closeConsumer(true);
+                closeSession(true);
+                closeConnection();
+            } finally {
+                workerState = STATE_STOPPED;
+                activeTaskCount.decrementAndGet();
+                synchronized(pollingTasks) {
+                    pollingTasks.remove(this);
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Unregistered a MessageListener for service : " + serviceName);
+            }
+        }
+
+        /**
+         * Poll for and return a message if available
+         *
+         * @return a message read, or null
+         */
+        private Message receiveMessage() {
+
+            // get a new connection, session and consumer to prevent a conflict.
+            // If idle, it means we can re-use what we already have 
+            if (consumer == null) {
+                connection = getConnection();
+                session = getSession();
+                consumer = getMessageConsumer();
+                if (log.isDebugEnabled()) {
+                    log.debug("Preparing a Connection, Session and Consumer to read messages");
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("Waiting for a message for service : " + serviceName + " - duration : "
+                    + (getReceiveTimeout() < 0 ? "unlimited" : (getReceiveTimeout() + "ms")));
+            }
+
+            try {
+                if (batchCount > 0) {
+                    // do not wait beyond the time the pending batch must be committed
+                    long wait = batchTimeout - (System.currentTimeMillis() - batchStart);
+                    if (getReceiveTimeout() >= 0 && getReceiveTimeout() < wait) {
+                        wait = getReceiveTimeout();
+                    }
+                    return wait > 0 ? consumer.receive(wait) : consumer.receiveNoWait();
+                } else if (isPipelinedMode() &&
+                    (getReceiveTimeout() < 0 || getReceiveTimeout() > STATE_CHECK_INTERVAL)) {
+                    // return regularly to acknowledge the messages processed meanwhile
+                    return consumer.receive(STATE_CHECK_INTERVAL);
+                } else if (getReceiveTimeout() < 0) {
+                    return consumer.receive();
+                } else {
+                    return consumer.receive(getReceiveTimeout());
+                }
+            } catch (IllegalStateException ignore) {
+                // probably the consumer (shared) was closed.. which is still ok.. as we didn't read
+            } catch (JMSException e) {
+                logError("Error receiving message for service : " + serviceName, e);
+            }
+            return null;
+        }
+
+        /**
+         * Hand off a received message to the processing tasks, waiting while the hand-off
+         * queue is full. With client acknowledgement, the message is tracked until it can be
+         * acknowledged in order
+         * @param message the JMS message received
+         */
+        private void handOff(Message message) {
+            if (JMSChunkAssembler.isChunk(message)) {
+                receiveChunk(message);
+                return;
+            }
+
+            PipelinedMessage pm = new PipelinedMessage(message, this);
+            boolean clientAck = getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE;
+            if (clientAck) {
+                synchronized (pendingAcks) {
+                    pendingAcks.add(pm);
+                }
+            }
+
+            String groupId = null;
+            if (groupLanes != null) {
+                try {
+                    groupId = message.getStringProperty(JMSConstants.JMSX_GROUP_ID);
+                } catch (JMSException e) {
+                    log.warn("Error reading the message group of a message for service : " +
+                        serviceName + " - processing it without ordering", e);
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            boolean handedOff = false;
+            try {
+                // an unacknowledged message may be given up on shutdown, as it will be redelivered
+                while (!(handedOff = groupId != null ?
+                    groupLanes.dispatch(groupId, pm, STATE_CHECK_INTERVAL) :
+                    handOffQueue.offer(pm, STATE_CHECK_INTERVAL))
+                    && (isSTMActive() || !clientAck)) {
+                    // keep acknowledging what completes while the processing tasks are busy
+                    acknowledgeProcessed();
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while handing off a message for service : " + serviceName);
+            } finally {
+                pipelineWaitTime.addAndGet(System.currentTimeMillis() - start);
+            }
+
+            if (!handedOff) {
+                releaseInFlight();
+                if (clientAck) {
+                    // recover the session rather than acknowledge the message with the others
+                    pm.discarded = true;
+                    messageProcessed(pm, false);
+                }
+            }
+        }
+
+        /**
+         * Process a chunk on this task instead of handing it off, as the chunks of a message are
+         * received in order by one consumer, and their payload is read by the chunk executor. The
+         * chunks are tracked with the messages handed off, but only marked processed once the last
+         * chunk reports the result of the whole message, so that none of them is acknowledged before
+         * @param chunk the chunk received
+         */
+        private void receiveChunk(Message chunk) {
+            PipelinedMessage pm = new PipelinedMessage(chunk, this);
+            if (getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE) {
+                synchronized (pendingAcks) {
+                    pendingAcks.add(pm);
+                }
+            }
+            pendingChunks.add(pm);
+
+            boolean succeeded = false;
+            long start = System.currentTimeMillis();
+            try {
+                succeeded = jmsMessageReceiver.onMessage(chunk, null);
+            } catch (RuntimeException e) {
+                logError("Error processing message for service : " + serviceName, e);
+            } finally {
+                // buffered by the chunk assembler, so that the next chunks can be received
+                releaseInFlight();
+                receiveHits.incrementAndGet();
+                processingTime.addAndGet(System.currentTimeMillis() - start);
+            }
+
+            chunkPending = JMSChunkAssembler.isPendingChunk(chunk);
+            if (!chunkPending) {
+                for (PipelinedMessage chunkMessage : pendingChunks) {
+                    messageProcessed(chunkMessage, succeeded);
+                }
+                pendingChunks.clear();
+            }
+        }
+
+        /**
+         * Give up on the chunks of an incomplete message when this task stops, so that they are
+         * redelivered once its session is closed
+         */
+        private void abandonChunks() {
+            for (PipelinedMessage chunkMessage : pendingChunks) {
+                chunkMessage.discarded = true;
+                messageProcessed(chunkMessage, false);
+            }
+            pendingChunks.clear();
+            chunkPending = false;
+        }
+
+        /**
+         * Take a place for a message in flight before receiving it, waiting while the maximum
+         * number of messages received and not yet processed by the STM is reached. The message is
+         * only counted in flight once it has been received
+         * @return true if a place was taken, false if this task was stopped while waiting
+         */
+        private boolean acquireInFlight() {
+            if (permits != null && !permits.tryAcquire()) {
+                throttleCount.incrementAndGet();
+                long start = System.currentTimeMillis();
+                try {
+                    while (!permits.tryAcquire(STATE_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        if (!isActive()) {
+                            return false;
+                        }
+                        if (isPipelinedMode()) {
+                            acknowledgeProcessed();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return false;
+                } finally {
+                    throttledTime.addAndGet(System.currentTimeMillis() - start);
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Release the place of a message in flight, once it has been processed
+         */
+        void releaseInFlight() {
+            inFlightMessages.decrementAndGet();
+            releasePermit();
+        }
+
+        /**
+         * Release a place taken for a message that was not received
+         */
+        private void releasePermit() {
+            if (permits != null) {
+                permits.release();
+            }
+        }
+
+        /**
+         * Record the completion of the processing of a message received by this task
+         * @param pm the message processed
+         * @param succeeded true if the message was processed successfully
+         */
+        void messageProcessed(PipelinedMessage pm, boolean succeeded) {
+            synchronized (pendingAcks) {
+                pm.succeeded = succeeded;
+                pm.processed = true;
+                pendingAcks.notifyAll();
+            }
+        }
+
+        /**
+         * Acknowledge the messages received by this task, once all of them have been processed
+         * successfully. As acknowledging a message in client mode also acknowledges every other
+         * message received on the session, nothing is acknowledged while a message is still being
+         * processed. A failed message is sent again for a delayed redelivery if possible. Or else
+         * the session is recovered once the messages being processed have completed, so that all
+         * messages not yet acknowledged are redelivered, including those processed successfully
+         */
+        private void acknowledgeProcessed() {
+            Message last = null;
+            int count = 0;
+            boolean failed = false;
+
+            while (true) {
+                PipelinedMessage failedMessage = null;
+                synchronized (pendingAcks) {
+                    for (PipelinedMessage pm : pendingAcks) {
+                        if (!pm.processed) {
+                            return;
+                        }
+                        if (!pm.succeeded) {
+                            failedMessage = pm;
+                            break;
+                        }
+                    }
+                    if (failedMessage == null) {
+                        if (pendingAcks.isEmpty()) {
+                            return;
+                        }
+                        last = pendingAcks.getLast().message;
+                        count = pendingAcks.size();
+                        pendingAcks.clear();
+                        break;
+                    }
+                }
+                // only this task may use its session to send the message again
+                if (failedMessage.discarded ||
+                    !handleFailedMessage(failedMessage.message, session)) {
+                    failed = true;
+                    break;
+                }
+                synchronized (pendingAcks) {
+                    failedMessage.succeeded = true;
+                }
+            }
+
+            if (failed) {
+                awaitProcessed(false);
+                int recovered;
+                synchronized (pendingAcks) {
+                    recovered = pendingAcks.size();
+                    pendingAcks.clear();
+                }
+                notifyRollback(recovered);
+                try {
+                    session.recover();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Session recovered for redelivery of " + recovered +
+                            " message(s) of service : " + serviceName);
+                    }
+                } catch (JMSException e) {
+                    logError("Error recovering session after a failed message of service : " +
+                        serviceName, e);
+                }
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                last.acknowledge();
+                notifyCommit(count, System.currentTimeMillis() - start);
+                if (log.isDebugEnabled()) {
+                    log.debug(count + " processed message(s) acknowledged for service : " +
+                        serviceName);
+                }
+            } catch (JMSException e) {
+                logError("Error acknowledging processed messages of service : " + serviceName, e);
+            }
+        }
+
+        /**
+         * Get the number of messages received by this task and not yet acknowledged
+         * @return the number of messages pending acknowledgement
+         */
+        private int getPendingAckCount() {
+            synchronized (pendingAcks) {
+                return pendingAcks.size();
+            }
+        }
+
+        /**
+         * Wait until the processing of every message handed off by this task is complete
+         * @param process false to skip the messages not yet processed, as they will be redelivered
+         */
+        private void awaitProcessed(boolean process) {
+            synchronized (pendingAcks) {
+                if (!process) {
+                    for (PipelinedMessage pm : pendingAcks) {
+                        pm.discarded = true;
+                    }
+                }
+                while (true) {
+                    boolean done = true;
+                    for (PipelinedMessage pm : pendingAcks) {
+                        if (!pm.processed) {
+                            done = false;
+                            break;
+                        }
+                    }
+                    if (done) {
+                        return;
+                    }
+                    try {
+                        pendingAcks.wait(STATE_CHECK_INTERVAL);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Invoke ultimate message handler/listener and ack message and/or
+         * commit/rollback transactions
+         * @param message the JMS message received
+         * @param ut the UserTransaction used to receive this message, or null
          */
         private void handleMessage(Message message, UserTransaction ut) {
 
+            // the receipt of the chunks of a message is completed along with its last chunk
+            if (JMSChunkAssembler.isPendingChunk(message)) {
+                chunkPending = true;
+                chunkTransaction = ut;
+                jmsMessageReceiver.onMessage(message, ut);
+                return;
+            }
+            if (chunkPending && JMSChunkAssembler.isChunk(message)) {
+                chunkPending = false;
+                chunkTransaction = null;
+            }
+
             String messageId = null;
             try {
                 messageId = message.getJMSMessageID();
@@ -510,66 +1922,161 @@ public class ServiceTaskManager {
             boolean commitOrAck = true;
             try {
                 commitOrAck = jmsMessageReceiver.onMessage(message, ut);
+                if (!commitOrAck) {
+                    commitOrAck = handleFailedMessage(message, session);
+                }
 
             } finally {
 
-                // if client acknowledgement is selected, and processing requested ACK
-                if (commitOrAck && getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE) {
-                    try {
-                        message.acknowledge();
+                if (batchSize > 1) {
+                    addToBatch(message, commitOrAck);
+                } else {
+                    completeMessage(message, messageId, commitOrAck, ut);
+                }
+            }
+        }
+
+        /**
+         * Acknowledge the message and/or commit/rollback the transactions for a single message
+         * @param message the JMS message processed
+         * @param messageId the JMS message ID
+         * @param commitOrAck true if the message was processed successfully
+         * @param ut the UserTransaction used to receive this message, or null
+         */
+        private void completeMessage(Message message, String messageId, boolean commitOrAck,
+            UserTransaction ut) {
+
+            long commitStart = System.currentTimeMillis();
+            boolean committed = false;
+
+            // if client acknowledgement is selected, and processing requested ACK
+            if (commitOrAck && getSessionAckMode() == Session.CLIENT_ACKNOWLEDGE) {
+                try {
+                    message.acknowledge();
+                    committed = true;
+                    if (log.isDebugEnabled()) {
+                        log.debug("Message : " + messageId + " acknowledged");
+                    }
+                } catch (JMSException e) {
+                    logError("Error acknowledging message : " + messageId, e);
+                }
+            }
+
+            // close the consumer
+            closeConsumer(false);
+
+            // if session was transacted, commit it or rollback
+            try {
+                if (session.getTransacted()) {
+                    if (commitOrAck) {
+                        session.commit();
+                        committed = true;
                         if (log.isDebugEnabled()) {
-                            log.debug("Message : " + messageId + " acknowledged");
+                            log.debug("Session for message : " + messageId + " committed");
+                        }
+                    } else {
+                        notifyRollback(1);
+                        session.rollback();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Session for message : " + messageId + " rolled back");
+                        }
+                    }
+                }
+            } catch (JMSException e) {
+                logError("Error " + (commitOrAck ? "committing" : "rolling back") +
+                    " local session txn for message : " + messageId, e);
+            }
+
+            // if a JTA transaction was being used, commit it or rollback
+            try {
+                if (ut != null) {
+                    if (commitOrAck) {
+                        ut.commit();
+                        committed = true;
+                        if (log.isDebugEnabled()) {
+                            log.debug("JTA txn for message : " + messageId + " committed");
+                        }
+                    } else {
+                        notifyRollback(1);
+                        ut.rollback();
+                        if (log.isDebugEnabled()) {
+                            log.debug("JTA txn for message : " + messageId + " rolled back");
                         }
-                    } catch (JMSException e) {
-                        logError("Error acknowledging message : " + messageId, e);
                     }
                 }
+            } catch (Exception e) {
+                logError("Error " + (commitOrAck ? "committing" : "rolling back") +
+                    " JTA txn for message : " + messageId + " from the session", e);
+            }
+
+            if (committed) {
+                notifyCommit(1, System.currentTimeMillis() - commitStart);
+            }
+
+            closeSession(false);
+            closeConnection();
+        }
+
+        /**
+         * Add a processed message to the current batch, and commit or acknowledge the batch when
+         * it is full or its timeout expired. A failed message rolls back the whole batch
+         * @param message the JMS message processed
+         * @param commitOrAck true if the message was processed successfully
+         */
+        private void addToBatch(Message message, boolean commitOrAck) {
+            if (batchCount == 0) {
+                batchStart = System.currentTimeMillis();
+            }
+            batchCount++;
+            batchLastMessage = message;
+
+            if (!commitOrAck) {
+                completeBatch(false);
+            } else if (batchCount >= batchSize ||
+                System.currentTimeMillis() - batchStart >= batchTimeout) {
+                completeBatch(true);
+            }
+        }
 
-                // close the consumer
-                closeConsumer(false);
+        /**
+         * Commit or acknowledge the messages of the current batch, or roll them back (or recover
+         * the session, when client acknowledgement is used) for redelivery
+         * @param commit true to commit, false to roll back
+         */
+        private void completeBatch(boolean commit) {
+            int count = batchCount;
+            Message lastMessage = batchLastMessage;
+            batchCount = 0;
+            batchLastMessage = null;
 
-                // if session was transacted, commit it or rollback
-                try {
-                    if (session.getTransacted()) {
-                        if (commitOrAck) {
-                            session.commit();
-                            if (log.isDebugEnabled()) {
-                                log.debug("Session for message : " + messageId + " committed");
-                            }
-                        } else {
-                            session.rollback();
-                            if (log.isDebugEnabled()) {
-                                log.debug("Session for message : " + messageId + " rolled back");
-                            }
-                        }
+            long start = System.currentTimeMillis();
+            try {
+                if (session.getTransacted()) {
+                    if (commit) {
+                        session.commit();
+                    } else {
+                        session.rollback();
                     }
-                } catch (JMSException e) {
-                    logError("Error " + (commitOrAck ? "committing" : "rolling back") +
-                        " local session txn for message : " + messageId, e);
+                } else if (commit) {
+                    lastMessage.acknowledge();
+                } else {
+                    session.recover();
                 }
 
-                // if a JTA transaction was being used, commit it or rollback
-                try {
-                    if (ut != null) {
-                        if (commitOrAck) {
-                            ut.commit();
-                            if (log.isDebugEnabled()) {
-                                log.debug("JTA txn for message : " + messageId + " committed");
-                            }
-                        } else {
-                            ut.rollback();
-                            if (log.isDebugEnabled()) {
-                                log.debug("JTA txn for message : " + messageId + " rolled back");
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    logError("Error " + (commitOrAck ? "committing" : "rolling back") +
-                        " JTA txn for message : " + messageId + " from the session", e);
+                if (commit) {
+                    notifyCommit(count, System.currentTimeMillis() - start);
+                } else {
+                    notifyRollback(count);
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Batch of : " + count + " messages for service : " + serviceName +
+                        (commit ? " committed" : " rolled back"));
                 }
 
-                closeSession(false);
-                closeConnection();
+            } catch (JMSException e) {
+                notifyRollback(count);
+                logError("Error " + (commit ? "committing" : "rolling back") + " a batch of : " +
+                    count + " messages for service : " + serviceName, e);
             }
         }
 
@@ -592,48 +2099,22 @@ public class ServiceTaskManager {
                 return;
             }
 
-            // if we failed while active, update state to show failure
-            setServiceTaskManagerState(STATE_FAILURE);
-            log.error("JMS Connection failed : " + j.getMessage() + " - shutting down worker tasks");
-
-            int r = 1;
-            long retryDuration = initialReconnectDuration;
-
-            do {
-                try {
-                    log.info("Reconnection attempt : " + r + " for service : " + serviceName);
-                    start();
-                } catch (Exception ignore) {}
-
-                boolean connected = false;
-                for (int i=0; i<5; i++) {
-                    if (getConnectedTaskCount() == concurrentConsumers) {
-                        connected = true;
-                        break;
-                    }
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException ignore) {}
-                }
-
-                if (!connected) {
-                    log.error("Reconnection attempt : " + (r++) + " for service : " + serviceName +
-                        " failed. Next retry in " + (retryDuration/1000) + "seconds");
-                    retryDuration = (long) (retryDuration * reconnectionProgressionFactor);
-                    if (retryDuration > maxReconnectDuration) {
-                        retryDuration = maxReconnectDuration;
-                    }
-
-                    try {
-                        Thread.sleep(retryDuration);
-                    } catch (InterruptedException ignore) {}
-                }
+            reconnect(j);
+        }
 
-            } while (!isSTMActive() || getConnectedTaskCount() < concurrentConsumers);
+        /**
+         * Stop this task as the scaling controller reduces the number of consumers
+         */
+        protected void retire() {
+            retired = true;
+            requestShutdown();
         }
 
         protected void requestShutdown() {
             workerState = STATE_SHUTTING_DOWN;
+            if (listening) {
+                stopListening();
+            }
         }
 
         private boolean isActive() {
@@ -666,9 +2147,10 @@ public class ServiceTaskManager {
                 if (sharedConnection != null) {
                     connection = sharedConnection;
                 } else {
-                    synchronized(this) {
+                    synchronized(connectionLock) {
                         if (sharedConnection == null) {
-                            sharedConnection = createConnection();
+                            sharedConnection = isConnectionMultiplexed() ?
+                                acquireMultiplexedConnection() : createConnection();
                         }
                         connection = sharedConnection;
                     }
@@ -772,23 +2254,8 @@ public class ServiceTaskManager {
          */
         private Connection createConnection() {
 
+            Connection connection = openConnection();
             try {
-                conFactory = JMSUtils.lookup(
-                    getInitialContext(), ConnectionFactory.class, getConnFactoryJNDIName());
-                log.debug("Connected to the JMS connection factory : " + getConnFactoryJNDIName());
-            } catch (NamingException e) {
-                handleException("Error looking up connection factory : " + getConnFactoryJNDIName() +
-                    " using JNDI properties : " + jmsProperties, e);
-            }
-
-            Connection connection = null;
-            try {
-                connection = JMSUtils.createConnection(
-                    conFactory,
-                    jmsProperties.get(JMSConstants.PARAM_JMS_USERNAME),
-                    jmsProperties.get(JMSConstants.PARAM_JMS_PASSWORD),
-                    isJmsSpec11(), isQueue());
-
                 connection.setExceptionListener(this);
                 connection.start();
                 log.debug("JMS Connection for service : " + serviceName + " created and started");
@@ -800,6 +2267,31 @@ public class ServiceTaskManager {
             return connection;
         }
 
+        /**
+         * Acquire a Connection shared with the other services using the same connection factory
+         * and credentials. Its failures are reported to the sharedConnectionListener of this STM
+         * @return a started Connection shared with other services
+         */
+        private Connection acquireMultiplexedConnection() {
+            try {
+                Connection connection = connectionMultiplexer.acquire(getConnectionKey(),
+                    maxSharedConnections, new Callable<Connection>() {
+                        public Connection call() {
+                            return openConnection();
+                        }
+                    }, sharedConnectionListener);
+                log.debug("Shared JMS Connection acquired for service : " + serviceName);
+                return connection;
+
+            } catch (AxisJMSException e) {
+                throw e;
+            } catch (Exception e) {
+                handleException("Error acquiring a shared JMS connection to : " +
+                    getConnFactoryJNDIName() + " using JNDI properties : " + jmsProperties, e);
+            }
+            return null;
+        }
+
         /**
          * Create a new Session for this STM
          * @param connection the Connection to be used
@@ -830,10 +2322,12 @@ public class ServiceTaskManager {
                     log.debug("Creating a new JMS MessageConsumer for service : " + serviceName);
                 }
 
+                Destination destination = getDestination(session);
+                if (isSharedSubscription() && !Boolean.TRUE.equals(isQueue())) {
+                    return createSharedConsumer(destination);
+                }
                 return JMSUtils.createConsumer(
-                    session, getDestination(session), isQueue(),
-                    (isSubscriptionDurable() && getDurableSubscriberName() == null ?
-                        getDurableSubscriberName() : serviceName),
+                    session, destination, isQueue(), getSubscriptionName(),
                     getMessageSelector(), isPubSubNoLocal(), isSubscriptionDurable(), isJmsSpec11());
 
             } catch (JMSException e) {
@@ -841,6 +2335,39 @@ public class ServiceTaskManager {
             }
             return null;
         }
+
+        /**
+         * Create a MessageConsumer on the shared subscription to the topic, so that the messages
+         * published to it are spread across the consumers of this STM and of other nodes. The
+         * JMS 2.0 shared subscription is used if the provider supports it, or else the virtual
+         * topic queue the broker fills from the topic, if any
+         * @param destination the topic
+         * @return a new MessageConsumer on the shared subscription
+         * @throws JMSException on error creating the MessageConsumer
+         */
+        private MessageConsumer createSharedConsumer(Destination destination) throws JMSException {
+
+            if (destination instanceof Topic) {
+                MessageConsumer consumer = JMSUtils.createSharedConsumer(session,
+                    (Topic) destination, getSubscriptionName(), getMessageSelector(),
+                    isSubscriptionDurable());
+                if (consumer != null) {
+                    return consumer;
+                }
+            }
+
+            if (virtualTopicQueue == null) {
+                handleException("The JMS provider does not support shared subscriptions, and " +
+                    "no " + JMSConstants.PARAM_VIRTUAL_TOPIC_QUEUE + " is set for service : " +
+                    serviceName);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Consuming from virtual topic queue : " + virtualTopicQueue +
+                    " instead of a shared subscription for service : " + serviceName);
+            }
+            return JMSUtils.createConsumer(session, getVirtualTopicQueue(session), null, null,
+                getMessageSelector(), false, false, isJmsSpec11());
+        }
     }
 
     // -------------- mundane private methods ----------------
@@ -895,6 +2422,80 @@ public class ServiceTaskManager {
         return destination;
     }
 
+    /**
+     * Look up the connection factory and create a new Connection, not yet started
+     * @return a new Connection for this STM, using JNDI properties and credentials provided
+     */
+    private Connection openConnection() {
+
+        try {
+            conFactory = JMSUtils.lookup(
+                getInitialContext(), ConnectionFactory.class, getConnFactoryJNDIName());
+            log.debug("Connected to the JMS connection factory : " + getConnFactoryJNDIName());
+        } catch (NamingException e) {
+            handleException("Error looking up connection factory : " + getConnFactoryJNDIName() +
+                " using JNDI properties : " + jmsProperties, e);
+        }
+
+        Connection connection = null;
+        try {
+            connection = JMSUtils.createConnection(
+                conFactory,
+                jmsProperties.get(JMSConstants.PARAM_JMS_USERNAME),
+                jmsProperties.get(JMSConstants.PARAM_JMS_PASSWORD),
+                isJmsSpec11(), isQueue());
+
+        } catch (JMSException e) {
+            handleException("Error acquiring a JMS connection to : " + getConnFactoryJNDIName() +
+                " using JNDI properties : " + jmsProperties, e);
+        }
+        return connection;
+    }
+
+    /**
+     * Return the virtual topic queue from the InitialContext, or by its physical name
+     * @return the JMS Queue consumed from instead of a shared subscription
+     */
+    private Destination getVirtualTopicQueue(Session session) {
+        try {
+            return JMSUtils.lookup(getInitialContext(), Destination.class, virtualTopicQueue);
+        } catch (NamingException e) {
+            try {
+                return session.createQueue(virtualTopicQueue);
+            } catch (JMSException j) {
+                handleException("Error looking up and creating JMS virtual topic queue : " +
+                    virtualTopicQueue + " using JNDI properties : " + jmsProperties, j);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return the redelivery queue from the InitialContext, or by its physical name
+     * @return the JMS Queue failed messages wait on until their redelivery
+     */
+    private Destination getRedeliveryQueue(Session session) throws JMSException {
+        if (redeliveryDestination == null) {
+            try {
+                redeliveryDestination =
+                    JMSUtils.lookup(getInitialContext(), Destination.class, redeliveryQueue);
+            } catch (NamingException e) {
+                redeliveryDestination = session.createQueue(redeliveryQueue);
+            }
+        }
+        return redeliveryDestination;
+    }
+
+    /**
+     * The name of the (durable or shared) subscription to the topic. A durable subscription that
+     * is not shared is named after the service, as it always was, so that it survives upgrades
+     * @return the durable subscriber name of a shared subscription if set, or else the service name
+     */
+    String getSubscriptionName() {
+        return sharedSubscription && durableSubscriberName != null ?
+            durableSubscriberName : serviceName;
+    }
+
     /**
      * The UserTransaction to be used, looked up from the JNDI
      * @return The UserTransaction to be used, looked up from the JNDI
@@ -936,6 +2537,73 @@ public class ServiceTaskManager {
         return serviceTaskManagerState == STATE_STARTED;
     }
 
+    private boolean isMessageListenerMode() {
+        return JMSConstants.CONSUMPTION_MODE_LISTENER.equals(consumptionMode);
+    }
+
+    private boolean isConnectionMultiplexed() {
+        // a durable subscription which is not shared belongs to the client ID of the Connection
+        // that created it, so its subscriber keeps a Connection of its own
+        return connectionMultiplexer != null && maxSharedConnections > 0 &&
+            cacheLevel >= JMSConstants.CACHE_CONNECTION &&
+            !(subscriptionDurable && !sharedSubscription);
+    }
+
+    /**
+     * Get the key identifying the connection factory and credentials of this STM, i.e. the
+     * services with which its Connections may be shared
+     * @return the key of the Connections of this STM
+     */
+    private String getConnectionKey() {
+        Map<String, String> key = new TreeMap<String, String>();
+        for (Map.Entry<String, String> e : jmsProperties.entrySet()) {
+            if (e.getKey().startsWith("java.naming.")) {
+                key.put(e.getKey(), e.getValue());
+            }
+        }
+        key.put(JMSConstants.PARAM_CONFAC_JNDI_NAME, getConnFactoryJNDIName());
+        key.put(JMSConstants.PARAM_JMS_USERNAME, jmsProperties.get(JMSConstants.PARAM_JMS_USERNAME));
+        // the key is kept in memory for the life of the Connections, so don't keep the password
+        key.put(JMSConstants.PARAM_JMS_PASSWORD,
+            digest(jmsProperties.get(JMSConstants.PARAM_JMS_PASSWORD)));
+        key.put(JMSConstants.PARAM_JMS_SPEC_VER, String.valueOf(isJmsSpec11()));
+        key.put(JMSConstants.PARAM_CONFAC_TYPE, String.valueOf(isQueue()));
+        return key.toString();
+    }
+
+    /**
+     * Get the SHA-256 digest of a value, in hex
+     * @param value the value to digest, or null
+     * @return the hex digest, or null if the value is null
+     */
+    private static String digest(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AxisJMSException("SHA-256 is not supported", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new AxisJMSException("UTF-8 is not supported", e);
+        }
+    }
+
+    private boolean isPipelinedMode() {
+        return JMSConstants.CONSUMPTION_MODE_PIPELINED.equals(consumptionMode);
+    }
+
+    private boolean isScalingControllerEnabled() {
+        return scalingInterval > 0 && !isMessageListenerMode() && !isPipelinedMode() &&
+            maxConcurrentConsumers > concurrentConsumers;
+    }
+
     /**
      * Is this STM bound to a Queue, Topic or a JMS 1.1 Generic Destination?
      * @return TRUE for a Queue, FALSE for a Topic and NULL for a Generic Destination
@@ -1053,6 +2721,24 @@ public class ServiceTaskManager {
         this.durableSubscriberName = durableSubscriberName;
     }
 
+    public boolean isSharedSubscription() {
+        return sharedSubscription;
+    }
+
+    public void setSharedSubscription(Boolean sharedSubscription) {
+        if (sharedSubscription != null) {
+            this.sharedSubscription = sharedSubscription;
+        }
+    }
+
+    public String getVirtualTopicQueue() {
+        return virtualTopicQueue;
+    }
+
+    public void setVirtualTopicQueue(String virtualTopicQueue) {
+        this.virtualTopicQueue = virtualTopicQueue;
+    }
+
     public boolean isPubSubNoLocal() {
         return pubSubNoLocal;
     }
@@ -1163,6 +2849,277 @@ public class ServiceTaskManager {
         this.jmsSpec11 = jmsSpec11;
     }
 
+    public String getConsumptionMode() {
+        return consumptionMode;
+    }
+
+    public void setConsumptionMode(String consumptionMode) {
+        if (consumptionMode != null) {
+            this.consumptionMode = consumptionMode;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchTimeout() {
+        return batchTimeout;
+    }
+
+    public void setBatchTimeout(int batchTimeout) {
+        this.batchTimeout = batchTimeout;
+    }
+
+    public long getCommits() {
+        synchronized (statisticsLock) {
+            return commits;
+        }
+    }
+
+    public long getMessagesCommitted() {
+        synchronized (statisticsLock) {
+            return messagesCommitted;
+        }
+    }
+
+    public double getAvgBatchSize() {
+        synchronized (statisticsLock) {
+            return commits == 0 ? 0 : (double) messagesCommitted / commits;
+        }
+    }
+
+    public double getAvgCommitTime() {
+        synchronized (statisticsLock) {
+            return commits == 0 ? 0 : (double) totalCommitTime / commits;
+        }
+    }
+
+    public long getMaxCommitTime() {
+        synchronized (statisticsLock) {
+            return maxCommitTime;
+        }
+    }
+
+    public long getRollbacks() {
+        synchronized (statisticsLock) {
+            return rollbacks;
+        }
+    }
+
+    public long getMessagesRolledBack() {
+        synchronized (statisticsLock) {
+            return messagesRolledBack;
+        }
+    }
+
+    public int getMaxSharedConnections() {
+        return maxSharedConnections;
+    }
+
+    public void setMaxSharedConnections(int maxSharedConnections) {
+        this.maxSharedConnections = maxSharedConnections;
+    }
+
+    public void setConnectionMultiplexer(JMSConnectionMultiplexer connectionMultiplexer) {
+        this.connectionMultiplexer = connectionMultiplexer;
+    }
+
+    public int getMaxInFlightMessages() {
+        return maxInFlightMessages;
+    }
+
+    public void setMaxInFlightMessages(int maxInFlightMessages) {
+        this.maxInFlightMessages = maxInFlightMessages;
+    }
+
+    public int getInFlightMessages() {
+        return inFlightMessages.get();
+    }
+
+    public long getThrottleCount() {
+        return throttleCount.get();
+    }
+
+    public long getThrottledTime() {
+        return throttledTime.get();
+    }
+
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    public void setPipelineQueueSize(int pipelineQueueSize) {
+        this.pipelineQueueSize = pipelineQueueSize;
+    }
+
+    public int getPipelineQueueDepth() {
+        HandOffQueue queue = handOffQueue;
+        return queue == null ? 0 : queue.getMessageCount();
+    }
+
+    public long getPipelineWaitTime() {
+        return pipelineWaitTime.get();
+    }
+
+    public boolean isPreserveGroupOrder() {
+        return preserveGroupOrder;
+    }
+
+    public void setPreserveGroupOrder(Boolean preserveGroupOrder) {
+        if (preserveGroupOrder != null) {
+            this.preserveGroupOrder = preserveGroupOrder;
+        }
+    }
+
+    public int getMaxGroupLanes() {
+        return maxGroupLanes;
+    }
+
+    public void setMaxGroupLanes(int maxGroupLanes) {
+        this.maxGroupLanes = maxGroupLanes;
+    }
+
+    public int getGroupLaneIdleTimeout() {
+        return groupLaneIdleTimeout;
+    }
+
+    public void setGroupLaneIdleTimeout(int groupLaneIdleTimeout) {
+        this.groupLaneIdleTimeout = groupLaneIdleTimeout;
+    }
+
+    public int getGroupLaneCount() {
+        MessageGroupLanes lanes = groupLanes;
+        return lanes == null ? 0 : lanes.getLaneCount();
+    }
+
+    public int getGroupLaneQueueDepth() {
+        MessageGroupLanes lanes = groupLanes;
+        return lanes == null ? 0 : lanes.getQueued();
+    }
+
+    public long getGroupLaneEvictions() {
+        MessageGroupLanes lanes = groupLanes;
+        return lanes == null ? 0 : lanes.getEvictions();
+    }
+
+    public int getScalingInterval() {
+        return scalingInterval;
+    }
+
+    public void setScalingInterval(int scalingInterval) {
+        this.scalingInterval = scalingInterval;
+    }
+
+    public boolean isScalingBrowseQueue() {
+        return scalingBrowseQueue;
+    }
+
+    public void setScalingBrowseQueue(Boolean scalingBrowseQueue) {
+        if (scalingBrowseQueue != null) {
+            this.scalingBrowseQueue = scalingBrowseQueue;
+        }
+    }
+
+    public int getMaxRedeliveries() {
+        return maxRedeliveries;
+    }
+
+    public void setMaxRedeliveries(int maxRedeliveries) {
+        this.maxRedeliveries = maxRedeliveries;
+    }
+
+    public int getRedeliveryDelay() {
+        return redeliveryDelay;
+    }
+
+    public void setRedeliveryDelay(int redeliveryDelay) {
+        this.redeliveryDelay = redeliveryDelay;
+    }
+
+    public double getRedeliveryBackoffFactor() {
+        return redeliveryBackoffFactor;
+    }
+
+    public void setRedeliveryBackoffFactor(double redeliveryBackoffFactor) {
+        this.redeliveryBackoffFactor = redeliveryBackoffFactor;
+    }
+
+    public String getRedeliveryQueue() {
+        return redeliveryQueue;
+    }
+
+    public void setRedeliveryQueue(String redeliveryQueue) {
+        this.redeliveryQueue = redeliveryQueue;
+    }
+
+    public long getRedeliveries() {
+        RedeliveryBackoff backoff = redeliveryBackoff;
+        return backoff == null ? 0 : backoff.getRedeliveries();
+    }
+
+    public long getRedeliveryDeadLetters() {
+        RedeliveryBackoff backoff = redeliveryBackoff;
+        return backoff == null ? 0 : backoff.getDeadLetters();
+    }
+
+    public int getConsumerCount() {
+        return pollingTasks.size();
+    }
+
+    public double getLastHitRatio() {
+        return scalingController.lastHitRatio;
+    }
+
+    public double getLastAvgProcessingTime() {
+        return scalingController.lastAvgProcessingTime;
+    }
+
+    public int getLastQueueDepth() {
+        return scalingController.lastQueueDepth;
+    }
+
+    public long getScaleUps() {
+        synchronized (scalingController) {
+            return scalingController.scaleUps;
+        }
+    }
+
+    public long getScaleDowns() {
+        synchronized (scalingController) {
+            return scalingController.scaleDowns;
+        }
+    }
+
+    public String getLastScalingDecision() {
+        return scalingController.lastDecision;
+    }
+
+    public long getLastScalingTime() {
+        return scalingController.lastDecisionTime;
+    }
+
+    public void resetStatistics() {
+        synchronized (statisticsLock) {
+            commits = 0;
+            messagesCommitted = 0;
+            totalCommitTime = 0;
+            maxCommitTime = 0;
+            rollbacks = 0;
+            messagesRolledBack = 0;
+        }
+        pipelineWaitTime.set(0);
+        throttleCount.set(0);
+        throttledTime.set(0);
+        if (redeliveryBackoff != null) {
+            redeliveryBackoff.resetStatistics();
+        }
+    }
+
     public Hashtable<String, String> getJmsProperties() {
         return jmsProperties;
     }
@@ -1195,8 +3152,12 @@ public class ServiceTaskManager {
         this.workerPool = workerPool;
     }
 
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
     public int getActiveTaskCount() {
-        return activeTaskCount;
+        return activeTaskCount.get();
     }
 
     public void setServiceTaskManagerState(int serviceTaskManagerState) {
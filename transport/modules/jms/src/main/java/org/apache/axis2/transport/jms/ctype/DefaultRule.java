@@ -21,14 +21,14 @@ import javax.jms.Message;
  * Content type rule that always matches and that returns a fixed (default) content type.
  */
 public class DefaultRule implements ContentTypeRule {
-    private final String contentType;
+    private final ContentTypeInfo contentTypeInfo;
 
     public DefaultRule(String contentType) {
-        this.contentType = contentType;
+        contentTypeInfo = new ContentTypeInfo(null, contentType);
     }
 
     public ContentTypeInfo getContentType(Message message) {
-        return new ContentTypeInfo(null, contentType);
+        return contentTypeInfo;
     }
 
     public String getExpectedContentTypeProperty() {
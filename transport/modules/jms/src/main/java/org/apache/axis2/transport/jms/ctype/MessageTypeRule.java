@@ -22,15 +22,15 @@ import javax.jms.Message;
  */
 public class MessageTypeRule implements ContentTypeRule {
     private final Class<? extends Message> messageType;
-    private final String contentType;
+    private final ContentTypeInfo contentTypeInfo;
     
     public MessageTypeRule(Class<? extends Message> messageType, String contentType) {
         this.messageType = messageType;
-        this.contentType = contentType;
+        contentTypeInfo = new ContentTypeInfo(null, contentType);
     }
 
     public ContentTypeInfo getContentType(Message message) {
-        return messageType.isInstance(message) ? new ContentTypeInfo(null, contentType) : null;
+        return messageType.isInstance(message) ? contentTypeInfo : null;
     }
 
     public String getExpectedContentTypeProperty() {
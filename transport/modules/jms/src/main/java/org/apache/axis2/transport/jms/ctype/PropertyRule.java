@@ -23,6 +23,8 @@ import javax.jms.Message;
  */
 public class PropertyRule implements ContentTypeRule {
     private final String propertyName;
+    /** The last content type returned, reused as long as the property value doesn't change */
+    private volatile ContentTypeInfo lastContentTypeInfo;
 
     public PropertyRule(String propertyName) {
         this.propertyName = propertyName;
@@ -30,7 +32,15 @@ public class PropertyRule implements ContentTypeRule {
 
     public ContentTypeInfo getContentType(Message message) throws JMSException {
         String value = message.getStringProperty(propertyName);
-        return value == null ? null : new ContentTypeInfo(propertyName, value);
+        if (value == null) {
+            return null;
+        }
+        ContentTypeInfo contentTypeInfo = lastContentTypeInfo;
+        if (contentTypeInfo == null || !value.equals(contentTypeInfo.getContentType())) {
+            contentTypeInfo = new ContentTypeInfo(propertyName, value);
+            lastContentTypeInfo = contentTypeInfo;
+        }
+        return contentTypeInfo;
     }
 
     public String getExpectedContentTypeProperty() {
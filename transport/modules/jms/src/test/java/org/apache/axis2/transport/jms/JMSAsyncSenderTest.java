@@ -0,0 +1,212 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSAsyncSenderTest extends TestCase {
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    private static final String UNAVAILABLE_CONNECTION_FACTORY = "UnavailableConnectionFactory";
+    
+    private Context context;
+    private ActiveMQConnectionFactory connectionFactory;
+    private JMSConnectionFactory jmsConnectionFactory;
+    private final Queue queue = new ActiveMQQueue("AsyncSenderQueue");
+    private JMSAsyncSender sender;
+    /** Keeps the embedded broker running while the sender connects and disconnects */
+    private Connection brokerConnection;
+    
+    @Override
+    protected void setUp() throws Exception {
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        connectionFactory = new ActiveMQConnectionFactory(
+            "vm://async-sender-test?broker.persistent=false&broker.useJmx=false");
+        context.bind(CONNECTION_FACTORY, connectionFactory);
+        brokerConnection = connectionFactory.createConnection();
+        // no broker is started for this one
+        context.bind(UNAVAILABLE_CONNECTION_FACTORY,
+            new ActiveMQConnectionFactory("vm://async-sender-unavailable?create=false"));
+        jmsConnectionFactory = JMSTestUtils.createConnectionFactory("test", CONNECTION_FACTORY,
+            new String[0][]);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        if (sender != null) {
+            sender.close();
+        }
+        jmsConnectionFactory.resetSharedConnection();
+        brokerConnection.close();
+        context.unbind(UNAVAILABLE_CONNECTION_FACTORY);
+        context.unbind(CONNECTION_FACTORY);
+        MockContextFactory.revertSetAsInitial();
+    }
+    
+    private MessageContext createMessageContext(JMSSendCallback callback) {
+        MessageContext msgCtx = new MessageContext();
+        msgCtx.setProperty(JMSConstants.JMS_SEND_CALLBACK, callback);
+        return msgCtx;
+    }
+    
+    private void send(JMSAsyncSender sender, String text, MessageContext msgCtx,
+            JMSSendCallback completion) throws Exception {
+        Session session = brokerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            // the message outlives the Session which created it
+            sender.send(session.createTextMessage(text), queue, msgCtx, new MetricsCollector(),
+                completion);
+        } finally {
+            session.close();
+        }
+    }
+    
+    private void waitForInFlight(int inFlight) throws InterruptedException {
+        for (int i = 0; i < 100 && sender.getInFlight() != inFlight; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(inFlight, sender.getInFlight());
+    }
+    
+    public void testMessagesAreSentInBatches() throws Exception {
+        sender = new JMSAsyncSender(jmsConnectionFactory, 10, 5);
+        TestCallback callback = new TestCallback(5);
+        TestCallback completion = new TestCallback(5);
+        for (int i = 0; i < 5; i++) {
+            send(sender, "m" + i, createMessageContext(callback), completion);
+        }
+        assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        assertTrue(completion.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(5, callback.completed.size());
+        assertEquals(0, callback.failures.size());
+        assertEquals(JMSAsyncSender.MODE_BATCH, sender.getMode());
+        assertEquals(5, sender.getCompleted());
+        assertEquals(0, sender.getInFlight());
+        assertTrue(sender.getCommits() >= 1);
+        // the JMSMessageID assigned on send is reported
+        for (MessageContext msgCtx : callback.completed) {
+            assertNotNull(msgCtx.getProperty(JMSConstants.JMS_MESSAGE_ID));
+        }
+        
+        Connection connection = connectionFactory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("m" + i, ((TextMessage) consumer.receive(5000)).getText());
+            }
+        } finally {
+            connection.close();
+        }
+    }
+    
+    public void testFailureIsReportedToTheCompletion() throws Exception {
+        JMSConnectionFactory unavailable = JMSTestUtils.createConnectionFactory("unavailable",
+            UNAVAILABLE_CONNECTION_FACTORY, new String[0][]);
+        sender = new JMSAsyncSender(unavailable, 10, 1);
+        TestCallback callback = new TestCallback(1);
+        TestCallback completion = new TestCallback(1);
+        send(sender, "m1", createMessageContext(callback), completion);
+        
+        // the failure happens on the background thread, after send has returned
+        assertTrue(completion.latch.await(10, TimeUnit.SECONDS));
+        assertTrue(callback.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, completion.failures.size());
+        assertEquals(1, callback.failures.size());
+        assertEquals(1, sender.getFailed());
+        assertEquals(0, sender.getInFlight());
+    }
+    
+    public void testInvalidPriorityDoesNotLeakPermit() throws Exception {
+        sender = new JMSAsyncSender(jmsConnectionFactory, 1, 1);
+        TestCallback completion = new TestCallback(1);
+        MessageContext msgCtx = createMessageContext(null);
+        msgCtx.setProperty(JMSConstants.JMS_PRIORITY, "high");
+        try {
+            send(sender, "m1", msgCtx, completion);
+            fail("Expected an invalid priority to be rejected");
+        } catch (AxisJMSException e) {
+            // expected
+        }
+        assertEquals(0, sender.getInFlight());
+        
+        // the only permit is still available, and is returned once the send completes
+        send(sender, "m2", createMessageContext(null), completion);
+        assertTrue(completion.latch.await(10, TimeUnit.SECONDS));
+        assertEquals(0, completion.failures.size());
+        assertEquals(1, completion.completed.size());
+        waitForInFlight(0);
+    }
+    
+    public void testSendAfterCloseIsRejected() throws Exception {
+        sender = new JMSAsyncSender(jmsConnectionFactory, 10, 1);
+        sender.close();
+        try {
+            send(sender, "m1", createMessageContext(null), null);
+            fail("Expected a closed sender to reject the message");
+        } catch (AxisJMSException e) {
+            // expected
+        }
+        assertEquals(0, sender.getInFlight());
+    }
+    
+    private static class TestCallback implements JMSSendCallback {
+        private final CountDownLatch latch;
+        private final List<MessageContext> completed =
+            Collections.synchronizedList(new ArrayList<MessageContext>());
+        private final List<Exception> failures =
+            Collections.synchronizedList(new ArrayList<Exception>());
+        
+        TestCallback(int count) {
+            latch = new CountDownLatch(count);
+        }
+        
+        public void onSendComplete(MessageContext msgCtx) {
+            completed.add(msgCtx);
+            latch.countDown();
+        }
+        
+        public void onSendFailure(MessageContext msgCtx, Exception e) {
+            failures.add(e);
+            latch.countDown();
+        }
+    }
+}
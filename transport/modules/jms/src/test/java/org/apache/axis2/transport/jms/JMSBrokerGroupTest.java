@@ -0,0 +1,278 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.description.TransportOutDescription;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSBrokerGroupTest extends TestCase {
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    private static final String UNAVAILABLE_CONNECTION_FACTORY = "UnavailableConnectionFactory";
+    private static final String QUEUE = "BrokerGroupQueue";
+    
+    private Context context;
+    private ActiveMQConnectionFactory connectionFactory;
+    private JMSConnectionFactory member1;
+    private JMSConnectionFactory member2;
+    private JMSSender sender;
+    
+    @Override
+    protected void setUp() throws Exception {
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        connectionFactory = new ActiveMQConnectionFactory(
+            "vm://broker-group-test?broker.persistent=false&broker.useJmx=false");
+        context.bind(CONNECTION_FACTORY, connectionFactory);
+        // no broker is started for this one
+        context.bind(UNAVAILABLE_CONNECTION_FACTORY,
+            new ActiveMQConnectionFactory("vm://broker-group-unavailable?create=false"));
+        context.bind(QUEUE, new ActiveMQQueue(QUEUE));
+        member1 = JMSTestUtils.createConnectionFactory("member1", CONNECTION_FACTORY,
+            new String[0][]);
+        member2 = JMSTestUtils.createConnectionFactory("member2", CONNECTION_FACTORY,
+            new String[0][]);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        if (sender != null) {
+            sender.stop();
+        }
+        context.unbind(QUEUE);
+        context.unbind(UNAVAILABLE_CONNECTION_FACTORY);
+        context.unbind(CONNECTION_FACTORY);
+        MockContextFactory.revertSetAsInitial();
+    }
+    
+    private JMSBrokerGroup createGroup(boolean leastInFlight, long ejectTime, long maxEjectTime) {
+        JMSBrokerGroup group = new JMSBrokerGroup("group", new String[] { "member1", "member2" },
+            leastInFlight, ejectTime, maxEjectTime);
+        group.setMembers(Arrays.asList(member1, member2));
+        return group;
+    }
+    
+    private static JMSConnectionFactory selectAndRelease(JMSBrokerGroup group) {
+        JMSConnectionFactory selected = group.select(null);
+        group.release(selected, false);
+        return selected;
+    }
+    
+    /**
+     * Make a member fail, by excluding the other member from the selection
+     */
+    private void ejectMember(JMSBrokerGroup group, JMSConnectionFactory member) {
+        JMSConnectionFactory other = member == member1 ? member2 : member1;
+        assertSame(member, group.select(Collections.singleton(other)));
+        group.release(member, true);
+    }
+    
+    private static boolean isEjected(JMSBrokerGroup group, JMSConnectionFactory member) {
+        return Arrays.asList(group.getEjectedMemberNames()).contains(member.getName());
+    }
+    
+    public void testRoundRobin() {
+        JMSBrokerGroup group = createGroup(false, 1000, 10000);
+        JMSConnectionFactory first = selectAndRelease(group);
+        JMSConnectionFactory second = selectAndRelease(group);
+        assertNotSame(first, second);
+        assertSame(first, selectAndRelease(group));
+        assertSame(second, selectAndRelease(group));
+        assertEquals(4, group.getSelections());
+        assertEquals(0, group.getInFlightMessages());
+    }
+    
+    public void testLeastInFlight() {
+        JMSBrokerGroup group = createGroup(true, 1000, 10000);
+        assertSame(member1, group.select(null));
+        assertSame(member2, group.select(null));
+        assertEquals(2, group.getInFlightMessages());
+        group.release(member2, false);
+        // member1 still has a message in flight
+        assertSame(member2, group.select(null));
+        group.release(member2, false);
+        group.release(member1, false);
+        assertEquals(0, group.getInFlightMessages());
+    }
+    
+    public void testEjectionAndReadmission() throws Exception {
+        JMSBrokerGroup group = createGroup(false, 200, 1000);
+        ejectMember(group, member1);
+        assertEquals(1, group.getEjections());
+        assertTrue(isEjected(group, member1));
+        for (int i = 0; i < 4; i++) {
+            assertSame(member2, selectAndRelease(group));
+        }
+        
+        Thread.sleep(300);
+        assertFalse(isEjected(group, member1));
+        // both members are selected again
+        Set<JMSConnectionFactory> selected = new HashSet<JMSConnectionFactory>();
+        selected.add(selectAndRelease(group));
+        selected.add(selectAndRelease(group));
+        assertEquals(2, selected.size());
+    }
+    
+    public void testEjectTimeGrowsWithConsecutiveFailures() throws Exception {
+        JMSBrokerGroup group = createGroup(false, 200, 1000);
+        ejectMember(group, member1);
+        Thread.sleep(300);
+        assertFalse(isEjected(group, member1));
+        
+        // failing again before a success doubles the eject time
+        ejectMember(group, member1);
+        Thread.sleep(300);
+        assertTrue(isEjected(group, member1));
+        Thread.sleep(200);
+        assertFalse(isEjected(group, member1));
+        
+        // a successful send resets the eject time
+        assertSame(member1, group.select(Collections.singleton(member2)));
+        group.release(member1, false);
+        ejectMember(group, member1);
+        Thread.sleep(300);
+        assertFalse(isEjected(group, member1));
+        assertEquals(3, group.getEjections());
+    }
+    
+    public void testAllMembersEjected() throws Exception {
+        JMSBrokerGroup group = createGroup(false, 1000, 10000);
+        ejectMember(group, member1);
+        Thread.sleep(20);
+        ejectMember(group, member2);
+        // the member to be readmitted first is selected, rather than failing outright
+        assertSame(member1, selectAndRelease(group));
+        assertFalse(isEjected(group, member1));
+        assertTrue(isEjected(group, member2));
+    }
+    
+    public void testFailover() {
+        JMSBrokerGroup group = createGroup(false, 1000, 10000);
+        JMSConnectionFactory first = group.select(null);
+        group.release(first, true);
+        JMSConnectionFactory second = group.select(Collections.singleton(first));
+        assertNotSame(first, second);
+        group.release(second, false);
+        assertEquals(1, group.getFailovers());
+        // no member is left once all have been tried for a message
+        assertNull(group.select(Arrays.asList(member1, member2)));
+    }
+    
+    /**
+     * Create a JMS transport sender with a broker group of two members
+     */
+    private JMSSender createSender(String connectionFactory1, String connectionFactory2)
+            throws Exception {
+        TransportOutDescription transportOut = new TransportOutDescription("jms");
+        transportOut.addParameter(JMSTestUtils.createParameter("member1", connectionFactory1,
+            new String[0][]));
+        transportOut.addParameter(JMSTestUtils.createParameter("member2", connectionFactory2,
+            new String[0][]));
+        transportOut.addParameter(JMSTestUtils.createParameter("group", CONNECTION_FACTORY,
+            new String[][] { { JMSConstants.PARAM_CONFAC_MEMBERS, "member1,member2" } }));
+        ConfigurationContext cfgCtx = ConfigurationContextFactory.createEmptyConfigurationContext();
+        JMSSender sender = new JMSSender();
+        sender.init(cfgCtx, transportOut);
+        return sender;
+    }
+    
+    private MessageContext createMessageContext() throws Exception {
+        MessageContext msgCtx = new MessageContext();
+        msgCtx.setConfigurationContext(ConfigurationContextFactory.createEmptyConfigurationContext());
+        SOAPEnvelope envelope = OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope();
+        // a text payload is sent as is, without a message formatter
+        OMElement wrapper = OMAbstractFactory.getOMFactory().createOMElement(
+            BaseConstants.DEFAULT_TEXT_WRAPPER);
+        wrapper.setText("test");
+        envelope.getBody().addChild(wrapper);
+        msgCtx.setEnvelope(envelope);
+        return msgCtx;
+    }
+    
+    private static String getTargetAddress() {
+        return "jms:/" + QUEUE + "?" + JMSConstants.PARAM_JMS_CONFAC + "=group";
+    }
+    
+    private JMSBrokerGroup getBrokerGroup(JMSSender sender) {
+        return sender.getJMSConnectionFactory("group").getBrokerGroup();
+    }
+    
+    public void testSendFailsOverToNextMember() throws Exception {
+        sender = createSender(UNAVAILABLE_CONNECTION_FACTORY, CONNECTION_FACTORY);
+        sender.sendMessage(createMessageContext(), getTargetAddress(), null);
+        
+        JMSBrokerGroup group = getBrokerGroup(sender);
+        assertEquals(1, group.getFailovers());
+        assertEquals(1, group.getEjections());
+        assertEquals(Collections.singletonList("member1"),
+            Arrays.asList(group.getEjectedMemberNames()));
+        assertEquals(0, group.getInFlightMessages());
+        
+        Connection connection = connectionFactory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(new ActiveMQQueue(QUEUE));
+            TextMessage message = (TextMessage) consumer.receive(5000);
+            assertNotNull(message);
+            assertEquals("test", message.getText());
+        } finally {
+            connection.close();
+        }
+    }
+    
+    public void testSendFaultsOnceEveryMemberFailed() throws Exception {
+        sender = createSender(UNAVAILABLE_CONNECTION_FACTORY, UNAVAILABLE_CONNECTION_FACTORY);
+        try {
+            sender.sendMessage(createMessageContext(), getTargetAddress(), null);
+            fail("Expected AxisFault");
+        } catch (AxisFault expected) {
+        }
+        
+        // each member is tried once
+        JMSBrokerGroup group = getBrokerGroup(sender);
+        assertEquals(2, group.getSelections());
+        assertEquals(2, group.getEjections());
+        assertEquals(0, group.getInFlightMessages());
+    }
+}
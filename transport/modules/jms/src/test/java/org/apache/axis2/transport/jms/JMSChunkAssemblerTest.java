@@ -0,0 +1,185 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jms.BytesMessage;
+
+import junit.framework.TestCase;
+
+import org.mockejb.jms.BytesMessageImpl;
+
+public class JMSChunkAssemblerTest extends TestCase {
+    private static final String CHUNK_ID = "chunked-1";
+    
+    private static BytesMessage createChunk(int seq, boolean last, String data) throws Exception {
+        BytesMessage chunk = new BytesMessageImpl();
+        chunk.setStringProperty(JMSConstants.CHUNK_ID_PROPERTY, CHUNK_ID);
+        chunk.setIntProperty(JMSConstants.CHUNK_SEQ_PROPERTY, seq);
+        chunk.setBooleanProperty(JMSConstants.CHUNK_LAST_PROPERTY, last);
+        chunk.writeBytes(data.getBytes("UTF-8"));
+        chunk.reset();
+        return chunk;
+    }
+    
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16];
+        int c;
+        while ((c = in.read(buffer)) != -1) {
+            out.write(buffer, 0, c);
+        }
+        return out.toString("UTF-8");
+    }
+    
+    public void testChunkDetection() throws Exception {
+        BytesMessage chunk = createChunk(1, false, "abc");
+        assertTrue(JMSChunkAssembler.isChunk(chunk));
+        assertTrue(JMSChunkAssembler.isPendingChunk(chunk));
+        BytesMessage last = createChunk(2, true, "def");
+        assertTrue(JMSChunkAssembler.isChunk(last));
+        assertFalse(JMSChunkAssembler.isPendingChunk(last));
+        assertFalse(JMSChunkAssembler.isChunk(new BytesMessageImpl()));
+    }
+    
+    public void testReassemblyOutOfOrder() throws Exception {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(5000, 4);
+        BytesMessage first = createChunk(1, false, "abc");
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(3, true, "ghi"));
+        assertNotNull(message);
+        assertNull(message.getFirstChunk());
+        assertSame(message, assembler.add(createChunk(2, false, "def")));
+        assertSame(message, assembler.add(first));
+        assertSame(first, message.getFirstChunk());
+        
+        message.startProcessing();
+        assertEquals("abcdefghi", read(message.getInputStream()));
+        assertEquals(9, message.getBytesRead());
+        message.endProcessing(true);
+        assertTrue(message.awaitProcessed());
+        
+        // a new message with the same chunk ID starts once the previous one is forgotten
+        assembler.processed(message);
+        assertNotSame(message, assembler.add(createChunk(1, false, "abc")));
+    }
+    
+    public void testReadWhileReceiving() throws Exception {
+        final JMSChunkAssembler assembler = new JMSChunkAssembler(5000, 1);
+        final Exception[] failure = new Exception[1];
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(1, false, "abc"));
+        Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // each add waits until the reader has taken the buffered chunk
+                    assembler.add(createChunk(2, false, "def"));
+                    assembler.add(createChunk(3, false, "ghi"));
+                    assembler.add(createChunk(4, true, "jkl"));
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        receiver.start();
+        assertEquals("abcdefghijkl", read(message.getInputStream()));
+        receiver.join(5000);
+        assertFalse(receiver.isAlive());
+        assertNull(failure[0]);
+    }
+    
+    public void testMissingChunkTimesOut() throws Exception {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(200, 4);
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(1, false, "abc"));
+        message.startProcessing();
+        long start = System.currentTimeMillis();
+        try {
+            read(message.getInputStream());
+            fail("Expected an IOException as chunk 2 is never received");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        // the message is aborted, so the receipt of its last chunk can be completed
+        assertTrue(message.awaitProcessed());
+    }
+    
+    public void testBufferLimitAbortsMessage() throws Exception {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(200, 2);
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(2, false, "def"));
+        assertSame(message, assembler.add(createChunk(3, false, "ghi")));
+        // chunk 1 is not read, so no room is made for chunk 4 within the timeout
+        assertNull(assembler.add(createChunk(4, true, "jkl")));
+        try {
+            read(message.getInputStream());
+            fail("Expected an IOException as the message has been aborted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    public void testLostFirstChunkIsDiscarded() throws Exception {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(200, 4);
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(2, true, "def"));
+        // the processing never starts, so the last chunk is completed once the message is aborted
+        assertTrue(message.awaitProcessed());
+        try {
+            read(message.getInputStream());
+            fail("Expected an IOException as the message has been aborted");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+    
+    public void testFailedProcessingRollsBackLastChunk() throws Exception {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(5000, 4);
+        JMSChunkAssembler.ChunkedMessage message = assembler.add(createChunk(1, false, "abc"));
+        message.startProcessing();
+        message.endProcessing(false);
+        // the remaining chunks are accepted and dropped, and the last one reports the failure
+        assertSame(message, assembler.add(createChunk(2, false, "def")));
+        assertSame(message, assembler.add(createChunk(3, true, "ghi")));
+        assertFalse(message.awaitProcessed());
+        assembler.processed(message);
+        assertNotSame(message, assembler.add(createChunk(1, false, "abc")));
+    }
+    
+    public void testDeadLetterTracking() {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(5000, 4);
+        assertFalse(assembler.isDeadLetter(CHUNK_ID));
+        assembler.deadLetter(CHUNK_ID);
+        assertTrue(assembler.isDeadLetter(CHUNK_ID));
+        assertTrue(assembler.deadLettered(CHUNK_ID));
+        assertFalse(assembler.isDeadLetter(CHUNK_ID));
+    }
+    
+    public void testFailedDeadLetterRollsBackChunks() {
+        JMSChunkAssembler assembler = new JMSChunkAssembler(5000, 4);
+        assembler.deadLetter(CHUNK_ID);
+        assembler.deadLetterFailed(CHUNK_ID);
+        // the last chunk rolls the chunks back, which are dead lettered again once redelivered
+        assertFalse(assembler.deadLettered(CHUNK_ID));
+        assertTrue(assembler.isDeadLetter(CHUNK_ID));
+        assertTrue(assembler.deadLettered(CHUNK_ID));
+        assertFalse(assembler.isDeadLetter(CHUNK_ID));
+    }
+}
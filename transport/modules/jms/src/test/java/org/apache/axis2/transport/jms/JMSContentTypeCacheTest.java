@@ -0,0 +1,68 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import junit.framework.TestCase;
+
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.context.MessageContext;
+
+public class JMSContentTypeCacheTest extends TestCase {
+    private static final String MULTIPART =
+        "multipart/related; boundary=MIMEBoundaryurn_uuid_%s; type=\"application/xop+xml\"; " +
+        "start=\"<0.urn:uuid:%s@apache.org>\"; start-info=\"text/xml\"";
+    
+    private MessageContext msgContext;
+    
+    @Override
+    protected void setUp() throws Exception {
+        msgContext = new MessageContext();
+        msgContext.setConfigurationContext(
+            ConfigurationContextFactory.createEmptyConfigurationContext());
+    }
+    
+    public void testKey() {
+        assertEquals("text/xml", JMSContentTypeCache.getKey("text/xml"));
+        assertEquals("text/xml;charset=UTF-8",
+            JMSContentTypeCache.getKey("text/xml; charset=UTF-8"));
+        assertEquals("application/soap+xml;charset=UTF-8", JMSContentTypeCache.getKey(
+            "application/soap+xml; action=\"urn:echo\"; Charset=UTF-8"));
+        assertEquals("multipart/related",
+            JMSContentTypeCache.getKey(String.format(MULTIPART, "1", "1")));
+    }
+    
+    public void testMultipartBoundariesShareAnEntry() throws Exception {
+        JMSContentTypeCache cache = new JMSContentTypeCache();
+        JMSContentTypeCache.Entry first = cache.get(String.format(MULTIPART, "1", "1"), msgContext);
+        JMSContentTypeCache.Entry second = cache.get(String.format(MULTIPART, "2", "2"), msgContext);
+        assertSame(first, second);
+    }
+    
+    public void testCharsetsHaveTheirOwnEntries() throws Exception {
+        JMSContentTypeCache cache = new JMSContentTypeCache();
+        JMSContentTypeCache.Entry utf8 = cache.get("text/xml; charset=UTF-8", msgContext);
+        JMSContentTypeCache.Entry latin1 = cache.get("text/xml; charset=ISO-8859-1", msgContext);
+        assertNotSame(utf8, latin1);
+        assertEquals("UTF-8", utf8.getCharSetEncoding());
+        assertEquals("ISO-8859-1", latin1.getCharSetEncoding());
+        assertSame(utf8, cache.get("text/xml;charset=UTF-8", msgContext));
+        assertNull(cache.get("text/xml", msgContext).getCharSetEncoding());
+    }
+}
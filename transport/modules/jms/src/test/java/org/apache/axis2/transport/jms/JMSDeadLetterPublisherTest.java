@@ -0,0 +1,192 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSDeadLetterPublisherTest extends TestCase {
+    private static final String BROKER_NAME = "dlq-test";
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    private static final String DEAD_LETTER_QUEUE = "DeadLetterQueue";
+    
+    private BrokerService broker;
+    private ActiveMQConnectionFactory connectionFactory;
+    private Queue deadLetterQueue;
+    private Context context;
+    private JMSConnectionFactory jmsConnectionFactory;
+    private Connection connection;
+    private Session session;
+    
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName(BROKER_NAME);
+        broker.setUseJmx(false);
+        broker.setDataDirectory("target/activemq-data");
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        broker.start();
+        
+        connectionFactory = new ActiveMQConnectionFactory("vm://" + BROKER_NAME);
+        deadLetterQueue = new ActiveMQQueue(DEAD_LETTER_QUEUE);
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        context.bind(CONNECTION_FACTORY, connectionFactory);
+        context.bind(DEAD_LETTER_QUEUE, deadLetterQueue);
+        
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        OMElement element = factory.createOMElement(new QName("parameter"));
+        element.addAttribute("name", "default", null);
+        element.addChild(createParameterElement(factory, Context.INITIAL_CONTEXT_FACTORY,
+            MockContextFactory.class.getName()));
+        element.addChild(createParameterElement(factory, JMSConstants.PARAM_CONFAC_JNDI_NAME,
+            CONNECTION_FACTORY));
+        jmsConnectionFactory = new JMSConnectionFactory(new Parameter("default", element));
+        
+        connection = connectionFactory.createConnection();
+        connection.start();
+        session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        connection.close();
+        jmsConnectionFactory.resetSharedConnection();
+        context.unbind(CONNECTION_FACTORY);
+        context.unbind(DEAD_LETTER_QUEUE);
+        MockContextFactory.revertSetAsInitial();
+        broker.stop();
+    }
+    
+    private static OMElement createParameterElement(OMFactory factory, String name, String value) {
+        OMElement element = factory.createOMElement(new QName("parameter"));
+        element.addAttribute("name", name, null);
+        element.setText(value);
+        return element;
+    }
+    
+    private Set<String> receiveDeadLetters(int count) throws JMSException {
+        Set<String> texts = new HashSet<String>();
+        MessageConsumer consumer = session.createConsumer(deadLetterQueue);
+        try {
+            for (int i = 0; i < count; i++) {
+                Message message = consumer.receive(5000);
+                assertNotNull("Dead letter " + (i + 1) + " of " + count + " not received", message);
+                texts.add(((TextMessage) message).getText());
+            }
+            assertNull(consumer.receive(500));
+        } finally {
+            consumer.close();
+        }
+        return texts;
+    }
+    
+    public void testPublish() throws Exception {
+        JMSDeadLetterPublisher publisher = new JMSDeadLetterPublisher(jmsConnectionFactory, 10);
+        MetricsCollector metrics = new MetricsCollector();
+        Set<String> expected = new HashSet<String>();
+        try {
+            for (int i = 0; i < 25; i++) {
+                String text = "dead letter " + i;
+                expected.add(text);
+                assertTrue(publisher.publish(session.createTextMessage(text), DEAD_LETTER_QUEUE,
+                    metrics));
+            }
+        } finally {
+            // waits for the queued dead letters to be published
+            publisher.close();
+        }
+        assertEquals(expected, receiveDeadLetters(expected.size()));
+        assertEquals(expected.size(), metrics.getDeadLetters());
+    }
+    
+    public void testConcurrentPublishersWithFullBuffer() throws Exception {
+        final JMSDeadLetterPublisher publisher = new JMSDeadLetterPublisher(jmsConnectionFactory, 2);
+        final MetricsCollector metrics = new MetricsCollector();
+        final Set<String> expected = new HashSet<String>();
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // each thread has its own session, as JMS sessions are single threaded
+                        Session threadSession = connection.createSession(false,
+                            Session.AUTO_ACKNOWLEDGE);
+                        for (int i = 0; i < 10; i++) {
+                            String text = "dead letter " + thread + "-" + i;
+                            synchronized (expected) {
+                                expected.add(text);
+                            }
+                            // blocks while the buffer is full, without blocking the others
+                            assertTrue(publisher.publish(threadSession.createTextMessage(text),
+                                DEAD_LETTER_QUEUE, metrics));
+                        }
+                        threadSession.close();
+                    } catch (Throwable e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+        publisher.close();
+        assertNull(failure[0]);
+        assertEquals(expected, receiveDeadLetters(expected.size()));
+        assertEquals(expected.size(), metrics.getDeadLetters());
+    }
+    
+    public void testPublishAfterClose() throws Exception {
+        JMSDeadLetterPublisher publisher = new JMSDeadLetterPublisher(jmsConnectionFactory, 10);
+        publisher.close();
+        assertFalse(publisher.publish(session.createTextMessage("late"), DEAD_LETTER_QUEUE, null));
+        assertTrue(receiveDeadLetters(0).isEmpty());
+    }
+}
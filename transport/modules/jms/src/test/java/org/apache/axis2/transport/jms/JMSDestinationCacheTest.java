@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.jms.Destination;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+
+public class JMSDestinationCacheTest extends TestCase {
+    private final Destination queue = new ActiveMQQueue("TestQueue");
+    
+    public void testHitAndExpiry() throws Exception {
+        JMSDestinationCache cache = new JMSDestinationCache(200, 100);
+        assertNull(cache.get("TestQueue", null));
+        cache.put("TestQueue", null, queue);
+        assertSame(queue, cache.get("TestQueue", null));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        
+        Thread.sleep(300);
+        assertNull(cache.get("TestQueue", null));
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getSize());
+    }
+    
+    public void testEntriesPerType() {
+        JMSDestinationCache cache = new JMSDestinationCache(10000, 0);
+        cache.put("TestQueue", JMSConstants.DESTINATION_TYPE_QUEUE, queue);
+        // a lookup without a dynamic fallback may resolve differently
+        assertNull(cache.get("TestQueue", null));
+        assertSame(queue, cache.get("TestQueue", JMSConstants.DESTINATION_TYPE_QUEUE));
+    }
+    
+    public void testFailedLookupIsCached() throws Exception {
+        JMSDestinationCache cache = new JMSDestinationCache(10000, 100);
+        cache.putFailure("Unknown", null, new AxisJMSException("Unknown JMS Destination"));
+        try {
+            cache.get("Unknown", null);
+            fail("Expected the cached lookup failure");
+        } catch (AxisJMSException e) {
+            // expected
+        }
+        assertEquals(1, cache.getNegativeHits());
+        
+        // a failure is cached for the negative time to live only
+        Thread.sleep(200);
+        assertNull(cache.get("Unknown", null));
+    }
+    
+    public void testFailedLookupNotCached() {
+        JMSDestinationCache cache = new JMSDestinationCache(10000, 0);
+        cache.putFailure("Unknown", null, new AxisJMSException("Unknown JMS Destination"));
+        assertNull(cache.get("Unknown", null));
+        assertEquals(0, cache.getSize());
+    }
+    
+    public void testInvalidate() {
+        JMSDestinationCache cache = new JMSDestinationCache(10000, 0);
+        Destination other = new ActiveMQQueue("OtherQueue");
+        cache.put("TestQueue", null, queue);
+        cache.put("TestQueue", JMSConstants.DESTINATION_TYPE_QUEUE, queue);
+        cache.put("TestQueue2", null, other);
+        
+        // all the entries of the name are removed, but not those of names it is a prefix of
+        cache.invalidate("TestQueue");
+        assertEquals(2, cache.getInvalidations());
+        assertNull(cache.get("TestQueue", null));
+        assertNull(cache.get("TestQueue", JMSConstants.DESTINATION_TYPE_QUEUE));
+        assertSame(other, cache.get("TestQueue2", null));
+    }
+    
+    public void testExpiredEntriesArePurged() throws Exception {
+        JMSDestinationCache cache = new JMSDestinationCache(100, 0);
+        cache.put("TestQueue", null, queue);
+        Thread.sleep(200);
+        // the expired entry is removed when another is added, without being looked up again
+        cache.put("OtherQueue", null, new ActiveMQQueue("OtherQueue"));
+        assertEquals(1, cache.getSize());
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportInDescription;
+import org.apache.axis2.engine.AxisConfiguration;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSListenerTest extends TestCase {
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    private static final String QUEUE_NAME = "ListenerQueue";
+    private static final String TOPIC_NAME = "ListenerTopic";
+    
+    private Context context;
+    private AxisConfiguration axisConfig;
+    private JMSListener listener;
+    
+    @Override
+    protected void setUp() throws Exception {
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        context.bind(CONNECTION_FACTORY, new ActiveMQConnectionFactory(
+            "vm://listener-test?broker.persistent=false&broker.useJmx=false"));
+        context.bind(QUEUE_NAME, new ActiveMQQueue(QUEUE_NAME));
+        context.bind(TOPIC_NAME, new ActiveMQTopic(TOPIC_NAME));
+        
+        ConfigurationContext cfgCtx = ConfigurationContextFactory.createEmptyConfigurationContext();
+        axisConfig = cfgCtx.getAxisConfiguration();
+        TransportInDescription transportIn = new TransportInDescription(JMSListener.TRANSPORT_NAME);
+        transportIn.addParameter(JMSTestUtils.createParameter(JMSConstants.DEFAULT_CONFAC_NAME,
+            CONNECTION_FACTORY, new String[0][]));
+        transportIn.addParameter(new Parameter(
+            JMSConstants.PARAM_STARTUP_CONCURRENCY, "4"));
+        listener = new JMSListener();
+        transportIn.setReceiver(listener);
+        axisConfig.addTransportIn(transportIn);
+        listener.init(cfgCtx, transportIn);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        listener.stop();
+        listener.destroy();
+        context.unbind(TOPIC_NAME);
+        context.unbind(QUEUE_NAME);
+        context.unbind(CONNECTION_FACTORY);
+        MockContextFactory.revertSetAsInitial();
+    }
+    
+    private AxisService deployService(String name, String destination, String destinationType,
+            String[][] parameters) throws Exception {
+        AxisService service = new AxisService(name);
+        service.addParameter(JMSConstants.PARAM_DESTINATION, destination);
+        service.addParameter(JMSConstants.PARAM_DEST_TYPE, destinationType);
+        for (String[] parameter : parameters) {
+            service.addParameter(parameter[0], parameter[1]);
+        }
+        axisConfig.addService(service);
+        return service;
+    }
+    
+    private void assertListening(String serviceName) {
+        ServiceTaskManager stm = listener.getServiceTaskManager(serviceName);
+        assertNotNull(stm);
+        assertTrue(stm.getActiveTaskCount() > 0);
+    }
+    
+    public void testStartReturnsOnceServicesHaveStarted() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            deployService("QueueService" + i, QUEUE_NAME, JMSConstants.DESTINATION_TYPE_QUEUE,
+                new String[0][]);
+        }
+        deployService("TopicService", TOPIC_NAME, JMSConstants.DESTINATION_TYPE_TOPIC,
+            new String[0][]);
+        listener.start();
+        
+        // the subscription to the topic exists once the listener has started
+        for (int i = 0; i < 6; i++) {
+            assertListening("QueueService" + i);
+        }
+        assertListening("TopicService");
+        assertEquals(0, listener.getStartupsInProgress());
+    }
+    
+    public void testServiceDeployedAfterStart() throws Exception {
+        listener.start();
+        deployService("QueueService", QUEUE_NAME, JMSConstants.DESTINATION_TYPE_QUEUE,
+            new String[0][]);
+        assertListening("QueueService");
+        assertEquals(0, listener.getStartupsInProgress());
+        
+        axisConfig.removeService("QueueService");
+        assertNull(listener.getServiceTaskManager("QueueService"));
+        assertNull(listener.getEPRsForService("QueueService"));
+    }
+    
+    public void testFailedStartupIsUnregistered() throws Exception {
+        // a shared subscription to a topic is refused with the JMS 1.0.2b API
+        deployService("FaultyService", TOPIC_NAME, JMSConstants.DESTINATION_TYPE_TOPIC,
+            new String[][] { { JMSConstants.PARAM_SHARED_SUBSCRIPTION, "true" },
+                             { JMSConstants.PARAM_JMS_SPEC_VER, "1.0.2b" } });
+        deployService("QueueService", QUEUE_NAME, JMSConstants.DESTINATION_TYPE_QUEUE,
+            new String[0][]);
+        listener.start();
+        
+        assertNull(listener.getServiceTaskManager("FaultyService"));
+        assertNull(listener.getEPRsForService("FaultyService"));
+        assertNotNull(axisConfig.getFaultyServices().get("FaultyService"));
+        assertListening("QueueService");
+        assertEquals(0, listener.getStartupsInProgress());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSOutTransportInfoCacheTest extends TestCase {
+    private static final String[] QUEUES = { "Queue1", "Queue2", "Queue3" };
+    
+    private Context context;
+    
+    @Override
+    protected void setUp() throws Exception {
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        for (String queue : QUEUES) {
+            context.bind(queue, new ActiveMQQueue(queue));
+        }
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        for (String queue : QUEUES) {
+            context.unbind(queue);
+        }
+        MockContextFactory.revertSetAsInitial();
+    }
+    
+    private static String getEPR(String queue) {
+        return "jms:/" + queue + "?" + JMSConstants.PARAM_CONFAC_JNDI_NAME + "=ConnectionFactory&" +
+            Context.INITIAL_CONTEXT_FACTORY + "=" + MockContextFactory.class.getName();
+    }
+    
+    public void testHit() {
+        JMSOutTransportInfoCache cache = new JMSOutTransportInfoCache(10, 0);
+        JMSOutTransportInfo info = cache.get(getEPR("Queue1"));
+        assertNotNull(info.getDestination());
+        assertSame(info, cache.get(getEPR("Queue1")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+    
+    public void testInvalidate() {
+        JMSOutTransportInfoCache cache = new JMSOutTransportInfoCache(10, 0);
+        JMSOutTransportInfo info = cache.get(getEPR("Queue1"));
+        cache.invalidate(getEPR("Queue1"));
+        assertEquals(1, cache.getInvalidations());
+        assertEquals(0, cache.getSize());
+        assertNotSame(info, cache.get(getEPR("Queue1")));
+        // invalidating an EPR which is not cached is not counted
+        cache.invalidate(getEPR("Queue2"));
+        assertEquals(1, cache.getInvalidations());
+    }
+    
+    public void testExpiry() throws Exception {
+        JMSOutTransportInfoCache cache = new JMSOutTransportInfoCache(10, 100);
+        JMSOutTransportInfo info = cache.get(getEPR("Queue1"));
+        Thread.sleep(200);
+        assertNotSame(info, cache.get(getEPR("Queue1")));
+        assertEquals(2, cache.getMisses());
+    }
+    
+    public void testLeastRecentlyUsedIsEvicted() {
+        JMSOutTransportInfoCache cache = new JMSOutTransportInfoCache(2, 0);
+        JMSOutTransportInfo info1 = cache.get(getEPR("Queue1"));
+        JMSOutTransportInfo info2 = cache.get(getEPR("Queue2"));
+        assertSame(info1, cache.get(getEPR("Queue1")));
+        cache.get(getEPR("Queue3"));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+        assertSame(info1, cache.get(getEPR("Queue1")));
+        assertNotSame(info2, cache.get(getEPR("Queue2")));
+    }
+}
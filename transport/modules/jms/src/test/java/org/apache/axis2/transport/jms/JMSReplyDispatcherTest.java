@@ -0,0 +1,150 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSReplyDispatcherTest extends TestCase {
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    
+    private ActiveMQConnectionFactory connectionFactory;
+    private Connection connection;
+    private Context context;
+    private JMSConnectionFactory jmsConnectionFactory;
+    
+    @Override
+    protected void setUp() throws Exception {
+        connectionFactory = new ActiveMQConnectionFactory(
+            "vm://reply-dispatcher-test?broker.persistent=false&broker.useJmx=false");
+        // keeps the embedded broker alive for the duration of the test
+        connection = connectionFactory.createConnection();
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        context.bind(CONNECTION_FACTORY, connectionFactory);
+        jmsConnectionFactory = JMSTestUtils.createConnectionFactory("test", CONNECTION_FACTORY,
+            new String[0][]);
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        jmsConnectionFactory.resetSharedConnection();
+        context.unbind(CONNECTION_FACTORY);
+        MockContextFactory.revertSetAsInitial();
+        connection.close();
+    }
+    
+    private void sendReply(Destination destination, String correlationId, String text)
+            throws JMSException {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            MessageProducer producer = session.createProducer(destination);
+            TextMessage message = session.createTextMessage(text);
+            message.setJMSCorrelationID(correlationId);
+            producer.send(message);
+        } finally {
+            session.close();
+        }
+    }
+    
+    private static String getText(Message message) throws JMSException {
+        return ((TextMessage) message).getText();
+    }
+    
+    public void testRepliesAreMatchedByCorrelationId() throws Exception {
+        JMSReplyDispatcher dispatcher = jmsConnectionFactory.getReplyDispatcher(null);
+        // the replies arrive before their callers start waiting, and out of order
+        sendReply(dispatcher.getReplyDestination(), "ID:2", "second");
+        sendReply(dispatcher.getReplyDestination(), "ID:1", "first");
+        assertEquals("first", getText(dispatcher.receive("ID:1", 5000)));
+        assertEquals("second", getText(dispatcher.receive("ID:2", 5000)));
+    }
+    
+    public void testCallerWaitsForReply() throws Exception {
+        final JMSReplyDispatcher dispatcher = jmsConnectionFactory.getReplyDispatcher(null);
+        final Exception[] error = new Exception[1];
+        Thread replier = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                    sendReply(dispatcher.getReplyDestination(), "ID:1", "reply");
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        replier.start();
+        Message reply = dispatcher.receive("ID:1", 5000);
+        replier.join();
+        assertNull(error[0]);
+        assertEquals("reply", getText(reply));
+    }
+    
+    public void testReceiveTimesOut() {
+        JMSReplyDispatcher dispatcher = jmsConnectionFactory.getReplyDispatcher(null);
+        long start = System.currentTimeMillis();
+        assertNull(dispatcher.receive("ID:1", 200));
+        assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+    
+    public void testDispatcherIsSharedPerReplyDestination() {
+        JMSReplyDispatcher dispatcher = jmsConnectionFactory.getReplyDispatcher(null);
+        assertSame(dispatcher, jmsConnectionFactory.getReplyDispatcher(null));
+    }
+    
+    public void testCloseReleasesWaitingCallers() throws Exception {
+        final JMSReplyDispatcher dispatcher = jmsConnectionFactory.getReplyDispatcher(null);
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                dispatcher.close();
+            }
+        };
+        closer.start();
+        long start = System.currentTimeMillis();
+        assertNull(dispatcher.receive("ID:1", 10000));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        closer.join();
+        assertTrue(dispatcher.isFailed());
+        
+        // the failed dispatcher is replaced on the next request
+        JMSReplyDispatcher replacement = jmsConnectionFactory.getReplyDispatcher(null);
+        assertNotSame(dispatcher, replacement);
+        assertFalse(replacement.isFailed());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.jms.Session;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.mockejb.jndi.MockContextFactory;
+
+public class JMSSessionPoolTest extends TestCase {
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    
+    private Context context;
+    private JMSConnectionFactory jmsConnectionFactory;
+    private JMSSessionPool pool;
+    
+    @Override
+    protected void setUp() throws Exception {
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        context.bind(CONNECTION_FACTORY, new ActiveMQConnectionFactory(
+            "vm://session-pool-test?broker.persistent=false&broker.useJmx=false"));
+        jmsConnectionFactory = JMSTestUtils.createConnectionFactory("test", CONNECTION_FACTORY,
+            new String[][] {
+                { JMSConstants.PARAM_CACHE_LEVEL, "session" },
+                { JMSConstants.PARAM_SESSION_POOL_SIZE, "2" },
+                { JMSConstants.PARAM_SESSION_POOL_WAIT, "200" } });
+        pool = jmsConnectionFactory.getSessionPool();
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        pool.close();
+        jmsConnectionFactory.resetSharedConnection();
+        context.unbind(CONNECTION_FACTORY);
+        MockContextFactory.revertSetAsInitial();
+    }
+    
+    public void testSessionIsReused() {
+        JMSSessionPool.PooledSession first = pool.borrow();
+        Session session = first.getSession();
+        pool.release(first, false);
+        
+        JMSSessionPool.PooledSession second = pool.borrow();
+        assertSame(session, second.getSession());
+        pool.release(second, false);
+        assertEquals(1, pool.getPoolSize());
+        assertEquals(1, pool.getIdleSessions());
+        assertEquals(2, pool.getBorrowCount());
+    }
+    
+    public void testConcurrentBorrowersGetDistinctSessions() {
+        JMSSessionPool.PooledSession first = pool.borrow();
+        JMSSessionPool.PooledSession second = pool.borrow();
+        assertNotSame(first.getSession(), second.getSession());
+        assertEquals(2, pool.getActiveSessions());
+        assertEquals(2, pool.getPeakActiveSessions());
+        pool.release(second, false);
+        pool.release(first, false);
+        assertEquals(0, pool.getActiveSessions());
+        assertEquals(2, pool.getIdleSessions());
+    }
+    
+    public void testBorrowTimesOutWhenPoolIsExhausted() {
+        JMSSessionPool.PooledSession first = pool.borrow();
+        JMSSessionPool.PooledSession second = pool.borrow();
+        long start = System.currentTimeMillis();
+        try {
+            pool.borrow();
+            fail("The pool is exhausted");
+        } catch (AxisJMSException e) {
+            // expected
+        }
+        assertTrue(System.currentTimeMillis() - start >= 200);
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getWaitTimeouts());
+        pool.release(second, false);
+        pool.release(first, false);
+    }
+    
+    public void testWaitingBorrowerGetsReturnedSession() throws Exception {
+        final JMSSessionPool.PooledSession first = pool.borrow();
+        JMSSessionPool.PooledSession second = pool.borrow();
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pool.release(first, false);
+            }
+        };
+        releaser.start();
+        JMSSessionPool.PooledSession third = pool.borrow();
+        releaser.join();
+        assertSame(first, third);
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(0, pool.getWaitTimeouts());
+        pool.release(third, false);
+        pool.release(second, false);
+    }
+    
+    public void testDiscardedSessionIsReplaced() {
+        JMSSessionPool.PooledSession first = pool.borrow();
+        pool.release(first, true);
+        assertEquals(0, pool.getPoolSize());
+        
+        JMSSessionPool.PooledSession second = pool.borrow();
+        assertNotSame(first, second);
+        pool.release(second, false);
+    }
+    
+    public void testSessionsBorrowedBeforeResetAreNotReused() {
+        JMSSessionPool.PooledSession borrowed = pool.borrow();
+        JMSSessionPool.PooledSession idle = pool.borrow();
+        pool.release(idle, false);
+        
+        pool.reset();
+        assertEquals(0, pool.getIdleSessions());
+        pool.release(borrowed, false);
+        assertEquals(0, pool.getIdleSessions());
+        assertEquals(0, pool.getPoolSize());
+        
+        JMSSessionPool.PooledSession session = pool.borrow();
+        assertNotSame(borrowed, session);
+        assertNotSame(idle, session);
+        pool.release(session, false);
+    }
+}
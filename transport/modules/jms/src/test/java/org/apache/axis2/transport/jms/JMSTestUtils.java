@@ -0,0 +1,81 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.naming.Context;
+import javax.xml.namespace.QName;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axis2.description.Parameter;
+import org.mockejb.jndi.MockContextFactory;
+
+/**
+ * Helper methods for the unit tests of the JMS transport classes.
+ */
+public class JMSTestUtils {
+    private JMSTestUtils() {}
+    
+    /**
+     * Create a JMS CF definition looking up its JMS resources in the mockejb JNDI context,
+     * as it would be digested from axis2.xml.
+     * 
+     * @param name the name of the JMS CF definition
+     * @param connectionFactory the JNDI name of the JMS connection factory
+     * @param parameters additional parameters of the definition, as name/value pairs
+     * @return the JMS CF definition
+     */
+    public static JMSConnectionFactory createConnectionFactory(String name,
+            String connectionFactory, String[][] parameters) {
+        return new JMSConnectionFactory(createParameter(name, connectionFactory, parameters));
+    }
+    
+    /**
+     * Create the parameter defining a JMS CF in the configuration of the transport, looking up
+     * its JMS resources in the mockejb JNDI context.
+     * 
+     * @param name the name of the JMS CF definition
+     * @param connectionFactory the JNDI name of the JMS connection factory
+     * @param parameters additional parameters of the definition, as name/value pairs
+     * @return the parameter defining the JMS CF
+     */
+    public static Parameter createParameter(String name, String connectionFactory,
+            String[][] parameters) {
+        OMFactory factory = OMAbstractFactory.getOMFactory();
+        OMElement element = factory.createOMElement(new QName("parameter"));
+        element.addAttribute("name", name, null);
+        element.addChild(createParameterElement(factory, Context.INITIAL_CONTEXT_FACTORY,
+            MockContextFactory.class.getName()));
+        element.addChild(createParameterElement(factory, JMSConstants.PARAM_CONFAC_JNDI_NAME,
+            connectionFactory));
+        for (String[] parameter : parameters) {
+            element.addChild(createParameterElement(factory, parameter[0], parameter[1]));
+        }
+        return new Parameter(name, element);
+    }
+    
+    private static OMElement createParameterElement(OMFactory factory, String name, String value) {
+        OMElement element = factory.createOMElement(new QName("parameter"));
+        element.addAttribute("name", name, null);
+        element.setText(value);
+        return element;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.jms.JMSException;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+
+public class JMSTransportHeadersTest extends TestCase {
+    /**
+     * A message recording the properties read from it
+     */
+    private static class RecordingMessage extends ActiveMQTextMessage {
+        final List<String> propertiesRead = new ArrayList<String>();
+        
+        @Override
+        public Object getObjectProperty(String name) throws JMSException {
+            propertiesRead.add(name);
+            return super.getObjectProperty(name);
+        }
+    }
+    
+    private RecordingMessage message;
+    
+    @Override
+    protected void setUp() throws Exception {
+        message = new RecordingMessage();
+        message.setJMSCorrelationID("corr-1");
+        message.setJMSDestination(new ActiveMQQueue("TestQueue"));
+        message.setStringProperty("name", "value");
+        message.setIntProperty("count", 42);
+        message.setBooleanProperty("flag", true);
+    }
+    
+    public void testPropertiesAreReadOnDemand() {
+        Map<String,Object> headers = JMSUtils.getTransportHeaders(message);
+        assertTrue(message.propertiesRead.isEmpty());
+        
+        assertEquals("value", headers.get("name"));
+        assertEquals("value", headers.get("name"));
+        // the value is cached once read
+        assertEquals(1, message.propertiesRead.size());
+        
+        assertTrue(headers.containsKey("count"));
+        assertFalse(headers.containsKey("missing"));
+        assertNull(headers.get("missing"));
+        assertEquals(3, message.propertiesRead.size());
+    }
+    
+    public void testValuesAreConvertedToStrings() {
+        Map<String,Object> headers = JMSUtils.getTransportHeaders(message);
+        assertEquals("42", headers.get("count"));
+        assertEquals("true", headers.get("flag"));
+        assertEquals("corr-1", headers.get(JMSConstants.JMS_COORELATION_ID));
+        assertEquals("TestQueue", headers.get(JMSConstants.JMS_DESTINATION));
+        // header fields are not read as properties
+        assertEquals(Arrays.asList("count", "flag"), message.propertiesRead);
+    }
+    
+    public void testIterationBuildsAllHeaders() {
+        Map<String,Object> headers = JMSUtils.getTransportHeaders(message);
+        Map<String,Object> copy = new HashMap<String,Object>(headers);
+        assertEquals("value", copy.get("name"));
+        assertEquals("42", copy.get("count"));
+        assertEquals("true", copy.get("flag"));
+        assertEquals("corr-1", copy.get(JMSConstants.JMS_COORELATION_ID));
+        assertFalse(copy.containsKey(JMSConstants.JMS_TYPE));
+        assertEquals(copy.size(), headers.size());
+    }
+    
+    public void testModificationsDoNotAffectTheMessage() throws Exception {
+        Map<String,Object> headers = JMSUtils.getTransportHeaders(message);
+        assertEquals("value", headers.remove("name"));
+        headers.put("added", "new");
+        assertNull(headers.get("name"));
+        assertEquals("new", headers.get("added"));
+        assertEquals("value", message.getStringProperty("name"));
+        assertFalse(message.propertyExists("added"));
+    }
+    
+    public void testSerializedAsHashMap() throws Exception {
+        Map<String,Object> headers = JMSUtils.getTransportHeaders(message);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(headers);
+        out.close();
+        Object copy = new ObjectInputStream(
+            new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(HashMap.class, copy.getClass());
+        assertEquals("42", ((Map<?,?>) copy).get("count"));
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.streams.CompressingOutputStream;
+
+public class JMSUtilsTest extends TestCase {
+    private static final String CONTENT_TYPE = "text/xml; charset=UTF-8";
+    
+    private static String createEnvelope(String text) {
+        return "<soapenv:Envelope xmlns:soapenv='http://schemas.xmlsoap.org/soap/envelope/'>" +
+            "<soapenv:Body><echo>" + text + "</echo></soapenv:Body></soapenv:Envelope>";
+    }
+    
+    private static String createText(int length) {
+        StringBuffer text = new StringBuffer();
+        while (text.length() < length) {
+            text.append("Isaac Asimov, The Foundation Trilogy. ");
+        }
+        return text.toString();
+    }
+    
+    private static MessageContext createMessageContext() throws Exception {
+        MessageContext msgContext = new MessageContext();
+        msgContext.setConfigurationContext(
+            ConfigurationContextFactory.createEmptyConfigurationContext());
+        return msgContext;
+    }
+    
+    /**
+     * Write a payload to a BytesMessage as JMSSender does, compressing it above the threshold
+     */
+    private static BytesMessage createBytesMessage(String payload, String compression,
+            int threshold) throws Exception {
+        ActiveMQBytesMessage message = new ActiveMQBytesMessage();
+        OutputStream out = new BytesMessageOutputStream(message);
+        CompressingOutputStream compressingOut = null;
+        if (compression != null) {
+            compressingOut = new CompressingOutputStream(out, compression, -1, threshold);
+            out = compressingOut;
+        }
+        out.write(payload.getBytes("UTF-8"));
+        out.close();
+        if (compressingOut != null && compressingOut.isCompressed()) {
+            message.setStringProperty(JMSConstants.CONTENT_ENCODING_PROPERTY, compression);
+        }
+        message.reset();
+        return message;
+    }
+    
+    /**
+     * A BytesMessage of a JMS 1.0 provider, which does not implement getBodyLength
+     */
+    private static class JMS10BytesMessage extends ActiveMQBytesMessage {
+        @Override
+        public long getBodyLength() {
+            throw new AbstractMethodError("getBodyLength");
+        }
+    }
+    
+    /**
+     * The MessageProducer of a JMS 2.0 provider, which may delay the delivery of a message
+     */
+    public interface DelayingMessageProducer extends MessageProducer {
+        void setDeliveryDelay(long deliveryDelay);
+    }
+    
+    /**
+     * Records the calls made to a mocked Session and the MessageProducer it creates
+     */
+    private static class RecordingHandler implements InvocationHandler {
+        private final Class<? extends MessageProducer> producerClass;
+        private final List<String> calls = new ArrayList<String>();
+        private final List<Object[]> arguments = new ArrayList<Object[]>();
+        
+        RecordingHandler(Class<? extends MessageProducer> producerClass) {
+            this.producerClass = producerClass;
+        }
+        
+        Session createSession() {
+            return (Session) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] { Session.class }, this);
+        }
+        
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            calls.add(method.getName());
+            arguments.add(args);
+            if ("createProducer".equals(method.getName())) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] { producerClass }, this);
+            }
+            return null;
+        }
+        
+        Object[] getArguments(String name) {
+            return arguments.get(calls.indexOf(name));
+        }
+    }
+    
+    private static Message createReceivedMessage() throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setText("failed");
+        message.setStringProperty("Custom", "value");
+        message.setJMSDeliveryMode(DeliveryMode.PERSISTENT);
+        message.setJMSPriority(7);
+        // the properties of a received message are read only
+        message.setReadOnlyProperties(true);
+        return message;
+    }
+    
+    private static String getText(MessageContext msgContext) {
+        SOAPEnvelope envelope = msgContext.getEnvelope();
+        return envelope.getBody().getFirstElement().getText();
+    }
+    
+    public void testCompressedMessage() throws Exception {
+        String text = createText(4096);
+        String payload = createEnvelope(text);
+        for (String compression : new String[] { BaseConstants.COMPRESSION_GZIP,
+                BaseConstants.COMPRESSION_DEFLATE }) {
+            BytesMessage message = createBytesMessage(payload, compression, 1024);
+            assertEquals(compression,
+                message.getStringProperty(JMSConstants.CONTENT_ENCODING_PROPERTY));
+            assertTrue(message.getBodyLength() < payload.length());
+            
+            MessageContext msgContext = createMessageContext();
+            JMSUtils.setSOAPEnvelope(message, msgContext, CONTENT_TYPE);
+            assertEquals(text, getText(msgContext));
+        }
+    }
+    
+    public void testMessageBelowThresholdIsNotCompressed() throws Exception {
+        String payload = createEnvelope("small");
+        BytesMessage message = createBytesMessage(payload, BaseConstants.COMPRESSION_GZIP, 1024);
+        assertFalse(message.propertyExists(JMSConstants.CONTENT_ENCODING_PROPERTY));
+        assertEquals(payload.length(), message.getBodyLength());
+        
+        MessageContext msgContext = createMessageContext();
+        JMSUtils.setSOAPEnvelope(message, msgContext, CONTENT_TYPE);
+        assertEquals("small", getText(msgContext));
+    }
+    
+    public void testChunkedPayloadIsDecompressedWhenFlagged() throws Exception {
+        String text = createText(4096);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        CompressingOutputStream out = new CompressingOutputStream(compressed,
+            BaseConstants.COMPRESSION_GZIP, -1, 1024);
+        out.write(createEnvelope(text).getBytes("UTF-8"));
+        out.close();
+        assertTrue(out.isCompressed());
+        
+        MessageContext msgContext = createMessageContext();
+        JMSUtils.setSOAPEnvelope(new ByteArrayInputStream(compressed.toByteArray()), true,
+            msgContext, CONTENT_TYPE, null);
+        assertEquals(text, getText(msgContext));
+    }
+    
+    public void testUnflaggedChunkedPayloadIsReadAsIs() throws Exception {
+        MessageContext msgContext = createMessageContext();
+        JMSUtils.setSOAPEnvelope(new ByteArrayInputStream(
+            createEnvelope("small").getBytes("UTF-8")), false, msgContext, CONTENT_TYPE, null);
+        assertEquals("small", getText(msgContext));
+        assertNull(msgContext.getProperty(MessageContext.TRANSPORT_IN));
+    }
+    
+    public void testBodyLength() throws Exception {
+        String payload = createEnvelope("small");
+        BytesMessage message = createBytesMessage(payload, null, 0);
+        assertEquals(payload.length(), JMSUtils.getBodyLength(message));
+        assertEquals(payload.length(), JMSUtils.getMessageSize(message));
+    }
+    
+    public void testUnknownBodyLengthIsCountedWhileRead() throws Exception {
+        String payload = createEnvelope(createText(4096));
+        JMS10BytesMessage message = new JMS10BytesMessage();
+        message.writeBytes(payload.getBytes("UTF-8"));
+        message.reset();
+        
+        // the body is not read up front
+        assertEquals(-1, JMSUtils.getBodyLength(message));
+        assertEquals(-1, JMSUtils.getMessageSize(message));
+        
+        MessageContext msgContext = createMessageContext();
+        JMSUtils.setSOAPEnvelope(message, msgContext, CONTENT_TYPE);
+        msgContext.getEnvelope().build();
+        assertEquals(payload.length(), JMSUtils.getBytesRead(msgContext));
+        
+        // the length of a message whose body is not read by the transport is read on demand
+        message.reset();
+        assertEquals(payload.length(), JMSUtils.readBodyLength(message));
+    }
+    
+    public void testKnownBodyLengthIsNotCounted() throws Exception {
+        BytesMessage message = createBytesMessage(createEnvelope("small"), null, 0);
+        MessageContext msgContext = createMessageContext();
+        JMSUtils.setSOAPEnvelope(message, msgContext, CONTENT_TYPE);
+        assertEquals(0, JMSUtils.getBytesRead(msgContext));
+    }
+    
+    public void testResendWithDeliveryDelay() throws Exception {
+        RecordingHandler handler = new RecordingHandler(DelayingMessageProducer.class);
+        Destination queue = new ActiveMQQueue("RedeliveryQueue");
+        Message message = createReceivedMessage();
+        
+        assertTrue(JMSUtils.resendWithDelay(handler.createSession(), queue, message, 2, 4000));
+        assertEquals(queue, handler.getArguments("createProducer")[0]);
+        assertEquals(4000L, handler.getArguments("setDeliveryDelay")[0]);
+        // the delay is set before the message is sent, and the producer closed afterwards
+        assertTrue(handler.calls.indexOf("setDeliveryDelay") < handler.calls.indexOf("send"));
+        assertEquals("close", handler.calls.get(handler.calls.size() - 1));
+        
+        Object[] send = handler.getArguments("send");
+        assertSame(message, send[0]);
+        assertEquals(DeliveryMode.PERSISTENT, send[1]);
+        assertEquals(7, send[2]);
+        assertEquals(Message.DEFAULT_TIME_TO_LIVE, send[3]);
+        // the properties are kept, along with the count of times the message was sent again
+        assertEquals("value", message.getStringProperty("Custom"));
+        assertEquals(2, message.getIntProperty(JMSConstants.REDELIVERY_COUNT_PROPERTY));
+    }
+    
+    public void testResendRequiresDeliveryDelay() throws Exception {
+        RecordingHandler handler = new RecordingHandler(MessageProducer.class);
+        Message message = createReceivedMessage();
+        
+        // a JMS 1.1 producer cannot delay the message, which is left untouched
+        assertFalse(JMSUtils.resendWithDelay(handler.createSession(),
+            new ActiveMQQueue("RedeliveryQueue"), message, 1, 1000));
+        assertFalse(handler.calls.contains("send"));
+        assertTrue(handler.calls.contains("close"));
+        assertFalse(message.propertyExists(JMSConstants.REDELIVERY_COUNT_PROPERTY));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import javax.jms.Message;
+
+import junit.framework.TestCase;
+
+import org.mockejb.jms.TextMessageImpl;
+
+public class RedeliveryBackoffTest extends TestCase {
+    /**
+     * A message of a JMS provider which does not set JMSXDeliveryCount (the mock message
+     * ignores the redelivered flag)
+     */
+    private static class RedeliverableMessage extends TextMessageImpl {
+        private boolean redelivered;
+        
+        @Override
+        public boolean getJMSRedelivered() {
+            return redelivered;
+        }
+        
+        @Override
+        public void setJMSRedelivered(boolean redelivered) {
+            this.redelivered = redelivered;
+        }
+    }
+    
+    public void testFailureCountWithoutDeliveryCount() throws Exception {
+        Message message = new RedeliverableMessage();
+        assertEquals(1, RedeliveryBackoff.getFailureCount(message));
+        message.setJMSRedelivered(true);
+        assertEquals(2, RedeliveryBackoff.getFailureCount(message));
+    }
+    
+    public void testFailureCountWithDeliveryCount() throws Exception {
+        Message message = new TextMessageImpl();
+        message.setIntProperty(JMSConstants.JMSX_DELIVERY_COUNT, 3);
+        assertEquals(3, RedeliveryBackoff.getFailureCount(message));
+    }
+    
+    public void testFailureCountOfMessageSentAgain() throws Exception {
+        // a message sent again with a delay is a new delivery for the JMS provider
+        Message message = new TextMessageImpl();
+        message.setIntProperty(JMSConstants.REDELIVERY_COUNT_PROPERTY, 2);
+        message.setIntProperty(JMSConstants.JMSX_DELIVERY_COUNT, 1);
+        assertEquals(3, RedeliveryBackoff.getFailureCount(message));
+    }
+    
+    public void testDelayGrowsWithFailures() {
+        RedeliveryBackoff backoff = new RedeliveryBackoff(3, 100, 2.0);
+        assertEquals(100, backoff.getDelay(1));
+        assertEquals(200, backoff.getDelay(2));
+        assertEquals(400, backoff.getDelay(3));
+    }
+    
+    public void testExhaustedAfterMaxRedeliveries() {
+        RedeliveryBackoff backoff = new RedeliveryBackoff(3, 100, 2.0);
+        // the first delivery and three redeliveries are processed before dead lettering
+        assertFalse(backoff.isExhausted(1));
+        assertFalse(backoff.isExhausted(3));
+        assertTrue(backoff.isExhausted(4));
+    }
+    
+    public void testStatistics() {
+        RedeliveryBackoff backoff = new RedeliveryBackoff(3, 100, 2.0);
+        backoff.notifyRedelivery();
+        backoff.notifyRedelivery();
+        backoff.notifyDeadLetter();
+        assertEquals(2, backoff.getRedeliveries());
+        assertEquals(1, backoff.getDeadLetters());
+        backoff.resetStatistics();
+        assertEquals(0, backoff.getRedeliveries());
+        assertEquals(0, backoff.getDeadLetters());
+    }
+}
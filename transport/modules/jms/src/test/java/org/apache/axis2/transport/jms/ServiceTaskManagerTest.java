@@ -0,0 +1,773 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *   * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ */
+
+package org.apache.axis2.transport.jms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+import javax.transaction.UserTransaction;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.store.memory.MemoryPersistenceAdapter;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.threads.WorkerPool;
+import org.apache.axis2.transport.base.threads.WorkerPoolFactory;
+import org.mockejb.jndi.MockContextFactory;
+
+public class ServiceTaskManagerTest extends TestCase {
+    private static final String BROKER_NAME = "stm-test";
+    private static final String CONNECTION_FACTORY = "ConnectionFactory";
+    private static final String QUEUE_NAME = "TestQueue";
+    private static final String VIRTUAL_TOPIC_NAME = "VirtualTopic.TestTopic";
+    
+    private String brokerName;
+    private BrokerService broker;
+    private ActiveMQConnectionFactory connectionFactory;
+    private Queue queue;
+    private Context context;
+    private WorkerPool workerPool;
+    private ServiceTaskManager stm;
+    private ServiceTaskManager otherStm;
+    private ScheduledExecutorService scheduler;
+    
+    @Override
+    protected void setUp() throws Exception {
+        // the broker of the previous test may still accept vm connections while it shuts down
+        brokerName = BROKER_NAME + "-" + getName();
+        startBroker();
+        
+        // do not create another embedded broker while the test broker is stopped
+        connectionFactory = new ActiveMQConnectionFactory("vm://" + brokerName + "?create=false");
+        // redeliver rolled back messages without delay
+        connectionFactory.getRedeliveryPolicy().setInitialRedeliveryDelay(0);
+        queue = new ActiveMQQueue(QUEUE_NAME);
+        
+        MockContextFactory.setAsInitial();
+        context = new InitialContext();
+        context.bind(CONNECTION_FACTORY, connectionFactory);
+        context.bind(QUEUE_NAME, queue);
+        
+        workerPool = WorkerPoolFactory.getWorkerPool(4, 8, 5, -1, "STM test", "stm-test-worker");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception {
+        if (stm != null) {
+            stm.stop();
+        }
+        if (otherStm != null) {
+            otherStm.stop();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        workerPool.shutdown(1000);
+        context.unbind(CONNECTION_FACTORY);
+        context.unbind(QUEUE_NAME);
+        MockContextFactory.revertSetAsInitial();
+        broker.stop();
+    }
+    
+    private void startBroker() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName(brokerName);
+        broker.setUseJmx(false);
+        broker.setDataDirectory("target/activemq-data");
+        broker.setPersistenceAdapter(new MemoryPersistenceAdapter());
+        broker.start();
+    }
+    
+    private ServiceTaskManager createServiceTaskManager(JMSMessageReceiver receiver) {
+        ServiceTaskManager taskManager = new ServiceTaskManager();
+        taskManager.setServiceName("TestService");
+        Map<String, String> jndiProperties = new HashMap<String, String>();
+        jndiProperties.put(Context.INITIAL_CONTEXT_FACTORY, MockContextFactory.class.getName());
+        taskManager.addJmsProperties(jndiProperties);
+        taskManager.setConnFactoryJNDIName(CONNECTION_FACTORY);
+        taskManager.setDestinationJNDIName(QUEUE_NAME);
+        taskManager.setDestinationType(JMSConstants.QUEUE);
+        taskManager.setTransactionality(BaseConstants.TRANSACTION_LOCAL);
+        taskManager.setCacheLevel(JMSConstants.CACHE_CONSUMER);
+        taskManager.setReceiveTimeout(100);
+        taskManager.setJmsMessageReceiver(receiver);
+        taskManager.setWorkerPool(workerPool);
+        return taskManager;
+    }
+    
+    private void send(String... texts) throws JMSException {
+        sendToGroup(null, texts);
+    }
+    
+    private void sendToGroup(String groupId, String... texts) throws JMSException {
+        Connection connection = connectionFactory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            for (String text : texts) {
+                Message message = session.createTextMessage(text);
+                if (groupId != null) {
+                    message.setStringProperty("JMSXGroupID", groupId);
+                }
+                producer.send(message);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+    
+    private Message receive(long timeout) throws JMSException {
+        return receive(queue, timeout);
+    }
+    
+    private Message receive(Queue queue, long timeout) throws JMSException {
+        Connection connection = connectionFactory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            return consumer.receive(timeout);
+        } finally {
+            connection.close();
+        }
+    }
+    
+    public void testMessageListenerMode() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setConsumptionMode(JMSConstants.CONSUMPTION_MODE_LISTENER);
+        stm.start();
+        
+        send("m1", "m2", "m3");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(JMSConstants.CONSUMPTION_MODE_LISTENER, stm.getConsumptionMode());
+        assertEquals(3, receiver.getReceived().size());
+        // the messages are pushed to a thread of the JMS provider, not to the worker pool
+        assertFalse(receiver.getThreadNames().get(0).startsWith("stm-test-worker"));
+        
+        stm.stop();
+        assertEquals(3, stm.getCommits());
+        assertNull(receive(1000));
+    }
+    
+    public void testFailedMessageIsRolledBackInMessageListenerMode() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TestMessageReceiver receiver = new TestMessageReceiver(1, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setConsumptionMode(JMSConstants.CONSUMPTION_MODE_LISTENER);
+        stm.start();
+        
+        send("fail");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // the message is redelivered by the JMS provider once its receipt has been rolled back
+        assertEquals(Collections.nCopies(2, "fail"), receiver.getReceived());
+        assertEquals(1, stm.getRollbacks());
+        
+        stm.stop();
+        assertEquals(1, stm.getCommits());
+        assertNull(receive(1000));
+    }
+    
+    public void testStopCommitsPendingBatch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setBatchSize(10);
+        stm.setBatchTimeout(60000);
+        stm.start();
+        
+        send("m1", "m2", "m3");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // the batch is neither full nor timed out
+        assertEquals(0, stm.getCommits());
+        
+        stm.stop();
+        assertEquals(1, stm.getCommits());
+        assertEquals(3, stm.getMessagesCommitted());
+        assertEquals(0, stm.getActiveTaskCount());
+        // nothing is redelivered once the batch has been committed
+        assertNull(receive(1000));
+    }
+    
+    public void testFullBatchIsCommitted() throws Exception {
+        CountDownLatch latch = new CountDownLatch(4);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setBatchSize(2);
+        stm.setBatchTimeout(60000);
+        stm.start();
+        
+        send("m1", "m2", "m3", "m4");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        waitForCommits(2);
+        assertEquals(4, stm.getMessagesCommitted());
+        assertEquals(2.0, stm.getAvgBatchSize(), 0);
+    }
+    
+    public void testBatchTimeout() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setBatchSize(10);
+        stm.setBatchTimeout(300);
+        stm.start();
+        
+        send("m1");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // committed by the polling task once the timeout expired, without another message
+        waitForCommits(1);
+        assertEquals(1, stm.getMessagesCommitted());
+    }
+    
+    public void testFailureRollsBackWholeBatch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestMessageReceiver receiver = new TestMessageReceiver(1, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setBatchSize(10);
+        stm.setBatchTimeout(60000);
+        stm.start();
+        
+        send("m1", "fail");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // the message processed successfully before the failure is redelivered as well
+        assertEquals(1, stm.getRollbacks());
+        assertEquals(2, stm.getMessagesRolledBack());
+        assertEquals(4, receiver.getReceived().size());
+        
+        stm.stop();
+        assertEquals(2, stm.getMessagesCommitted());
+        assertNull(receive(1000));
+    }
+    
+    public void testScalingControllerAddsAndRetiresConsumers() throws Exception {
+        CountDownLatch latch = new CountDownLatch(40);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        receiver.setProcessingTime(50);
+        stm = createScalingServiceTaskManager(receiver);
+        stm.start();
+        assertEquals(1, stm.getConsumerCount());
+        
+        send(createTexts(40));
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        assertTrue(stm.getScaleUps() > 0);
+        assertTrue(new HashSet<String>(receiver.getThreadNames()).size() > 1);
+        
+        // consumers are retired one at a time, after several intervals without load
+        for (int i = 0; i < 100 && stm.getConsumerCount() > 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, stm.getConsumerCount());
+        assertTrue(stm.getScaleDowns() > 0);
+        assertTrue(stm.getLastScalingDecision().startsWith("Scaled down"));
+    }
+    
+    public void testScalingControllerUsesQueueDepth() throws Exception {
+        CountDownLatch latch = new CountDownLatch(40);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        receiver.setProcessingTime(50);
+        stm = createScalingServiceTaskManager(receiver);
+        stm.setScalingBrowseQueue(true);
+        stm.start();
+        
+        send(createTexts(40));
+        // the backlog requires more consumers than the maximum
+        for (int i = 0; i < 100 && stm.getConsumerCount() < 4; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(4, stm.getConsumerCount());
+        assertTrue(stm.getLastScalingDecision().startsWith("Scaled up"));
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+    }
+    
+    private ServiceTaskManager createScalingServiceTaskManager(JMSMessageReceiver receiver) {
+        // each consumer only gets the messages it processes, so that new consumers get their share
+        connectionFactory.getPrefetchPolicy().setQueuePrefetch(1);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        ServiceTaskManager taskManager = createServiceTaskManager(receiver);
+        taskManager.setCacheLevel(JMSConstants.CACHE_CONNECTION);
+        taskManager.setConcurrentConsumers(1);
+        taskManager.setMaxConcurrentConsumers(4);
+        taskManager.setScalingInterval(200);
+        taskManager.setScheduler(scheduler);
+        return taskManager;
+    }
+    
+    public void testPipelinedMode() throws Exception {
+        CountDownLatch latch = new CountDownLatch(8);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        receiver.setProcessingTime(100);
+        stm = createPipelinedServiceTaskManager(receiver);
+        stm.start();
+        
+        send(createTexts(8));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // a single consumer hands off to several processing tasks
+        assertEquals(1, stm.getConsumerCount());
+        assertTrue(new HashSet<String>(receiver.getThreadNames()).size() > 1);
+        
+        stm.stop();
+        assertEquals(8, stm.getMessagesCommitted());
+        assertEquals(0, stm.getPipelineQueueDepth());
+        assertNull(receive(1000));
+    }
+    
+    public void testFailedMessageIsRecoveredInPipelinedMode() throws Exception {
+        TestMessageReceiver receiver = new TestMessageReceiver(1, new CountDownLatch(0));
+        stm = createPipelinedServiceTaskManager(receiver);
+        stm.start();
+        
+        send("m1", "fail");
+        // the session is recovered for the failed message to be redelivered
+        for (int i = 0; i < 100 && Collections.frequency(receiver.getReceived(), "fail") < 2; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(2, Collections.frequency(receiver.getReceived(), "fail"));
+        assertTrue(stm.getRollbacks() > 0);
+        
+        stm.stop();
+        assertNull(receive(1000));
+    }
+    
+    private ServiceTaskManager createPipelinedServiceTaskManager(JMSMessageReceiver receiver) {
+        ServiceTaskManager taskManager = createServiceTaskManager(receiver);
+        taskManager.setTransactionality(BaseConstants.TRANSACTION_NONE);
+        taskManager.setSessionTransacted(false);
+        taskManager.setSessionAckMode(Session.CLIENT_ACKNOWLEDGE);
+        taskManager.setConsumptionMode(JMSConstants.CONSUMPTION_MODE_PIPELINED);
+        taskManager.setPipelineQueueSize(2);
+        taskManager.setConcurrentConsumers(1);
+        taskManager.setMaxConcurrentConsumers(4);
+        return taskManager;
+    }
+    
+    public void testGroupOrderIsPreserved() throws Exception {
+        CountDownLatch latch = new CountDownLatch(8);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        receiver.setProcessingTime(100);
+        stm = createPipelinedServiceTaskManager(receiver);
+        stm.setPreserveGroupOrder(true);
+        stm.setPipelineQueueSize(4);
+        stm.start();
+        
+        for (int i = 1; i <= 4; i++) {
+            sendToGroup("a", "a" + i);
+            sendToGroup("b", "b" + i);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        
+        // each group is processed in order, but the groups are processed in parallel
+        List<String> groupA = new ArrayList<String>();
+        List<String> groupB = new ArrayList<String>();
+        for (String text : receiver.getReceived()) {
+            (text.startsWith("a") ? groupA : groupB).add(text);
+        }
+        assertEquals(Arrays.asList("a1", "a2", "a3", "a4"), groupA);
+        assertEquals(Arrays.asList("b1", "b2", "b3", "b4"), groupB);
+        assertEquals(2, receiver.getMaxConcurrency());
+        assertEquals(2, stm.getGroupLaneCount());
+        
+        stm.stop();
+        assertEquals(8, stm.getMessagesCommitted());
+        assertNull(receive(1000));
+    }
+    
+    public void testIdleGroupLaneIsEvicted() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        stm = createPipelinedServiceTaskManager(receiver);
+        stm.setPreserveGroupOrder(true);
+        stm.setMaxGroupLanes(2);
+        stm.start();
+        
+        sendToGroup("a", "a1");
+        sendToGroup("b", "b1");
+        sendToGroup("c", "c1");
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // the third group makes room by evicting the least recently used idle lane
+        assertTrue(stm.getGroupLaneCount() <= 2);
+        assertEquals(1, stm.getGroupLaneEvictions());
+    }
+    
+    public void testInFlightLimit() throws Exception {
+        CountDownLatch latch = new CountDownLatch(8);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+        receiver.setProcessingTime(200);
+        connectionFactory.getPrefetchPolicy().setQueuePrefetch(1);
+        stm = createServiceTaskManager(receiver);
+        stm.setConcurrentConsumers(4);
+        stm.setMaxConcurrentConsumers(4);
+        stm.setMaxInFlightMessages(2);
+        stm.start();
+        
+        send(createTexts(8));
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        // four consumers, but no more than two messages processed at a time
+        assertEquals(2, receiver.getMaxConcurrency());
+        assertTrue(stm.getThrottleCount() > 0);
+        assertTrue(stm.getThrottledTime() > 0);
+        for (int i = 0; i < 50 && stm.getInFlightMessages() > 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(0, stm.getInFlightMessages());
+    }
+    
+    public void testFailedMessageIsDeadLetteredAfterRedeliveries() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TestMessageReceiver receiver = new TestMessageReceiver(Integer.MAX_VALUE, latch);
+        stm = createServiceTaskManager(receiver);
+        stm.setMaxRedeliveries(2);
+        stm.start();
+        
+        send(TestMessageReceiver.FAILING_PREFIX);
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        // the first delivery and two redeliveries, rolled back as ActiveMQ 5.1 cannot delay a send
+        // and no redelivery queue is configured
+        assertEquals(3, receiver.getReceived().size());
+        assertEquals(Collections.singletonList(TestMessageReceiver.FAILING_PREFIX),
+            receiver.getDeadLetters());
+        for (int i = 0; i < 50 && stm.getRedeliveryDeadLetters() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, stm.getRedeliveryDeadLetters());
+        
+        stm.stop();
+        // the dead lettered message is committed, so it is not delivered again
+        assertNull(receive(1000));
+    }
+    
+    public void testFailedMessageWaitsOnRedeliveryQueue() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TestMessageReceiver receiver = new TestMessageReceiver(Integer.MAX_VALUE, latch);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        stm = createServiceTaskManager(receiver);
+        stm.setScheduler(scheduler);
+        stm.setMaxRedeliveries(2);
+        stm.setRedeliveryDelay(1000);
+        stm.setRedeliveryQueue("RedeliveryQueue");
+        stm.start();
+        
+        send(TestMessageReceiver.FAILING_PREFIX, "m1", "m2");
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        // the other messages are processed while the failed one waits for its redeliveries
+        List<String> received = receiver.getReceived();
+        assertEquals(5, received.size());
+        assertTrue(received.subList(0, 3).containsAll(Arrays.asList("m1", "m2")));
+        assertEquals(Collections.nCopies(2, TestMessageReceiver.FAILING_PREFIX),
+            received.subList(3, 5));
+        assertEquals(Collections.singletonList(TestMessageReceiver.FAILING_PREFIX),
+            receiver.getDeadLetters());
+        assertEquals(2, stm.getRedeliveries());
+        for (int i = 0; i < 50 && stm.getRedeliveryDeadLetters() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, stm.getRedeliveryDeadLetters());
+        
+        stm.stop();
+        assertNull(receive(1000));
+        assertNull(receive(new ActiveMQQueue("RedeliveryQueue"), 1000));
+    }
+    
+    public void testMessageIsRolledBackUntilDeadLetterIsSent() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        TestMessageReceiver receiver = new TestMessageReceiver(Integer.MAX_VALUE, latch);
+        receiver.setDeadLetterFailures(1);
+        stm = createServiceTaskManager(receiver);
+        stm.setMaxRedeliveries(1);
+        stm.start();
+        
+        send(TestMessageReceiver.FAILING_PREFIX);
+        assertTrue(latch.await(20, TimeUnit.SECONDS));
+        // the failed dead letter rolls the message back, which is dead lettered once redelivered
+        assertEquals(3, receiver.getReceived().size());
+        assertEquals(1, receiver.getDeadLetters().size());
+        for (int i = 0; i < 50 && stm.getRedeliveryDeadLetters() == 0; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, stm.getRedeliveryDeadLetters());
+        
+        stm.stop();
+        assertNull(receive(1000));
+    }
+    
+    public void testDurableSubscriptionIsNamedAfterService() {
+        stm = createServiceTaskManager(new TestMessageReceiver(0, new CountDownLatch(0)));
+        stm.setSubscriptionDurable(true);
+        stm.setDurableSubscriberName("TestSubscription");
+        // the subscription of earlier releases is kept
+        assertEquals("TestService", stm.getSubscriptionName());
+        stm.setSharedSubscription(true);
+        assertEquals("TestSubscription", stm.getSubscriptionName());
+        stm.setDurableSubscriberName(null);
+        assertEquals("TestService", stm.getSubscriptionName());
+    }
+    
+    public void testSharedSubscriptionFallsBackToVirtualTopicQueue() throws Exception {
+        context.bind(VIRTUAL_TOPIC_NAME, new ActiveMQTopic(VIRTUAL_TOPIC_NAME));
+        try {
+            CountDownLatch latch = new CountDownLatch(2);
+            TestMessageReceiver receiver = new TestMessageReceiver(0, latch);
+            stm = createServiceTaskManager(receiver);
+            stm.setDestinationJNDIName(VIRTUAL_TOPIC_NAME);
+            stm.setDestinationType(JMSConstants.TOPIC);
+            stm.setSharedSubscription(true);
+            stm.setVirtualTopicQueue("Consumer.TestService." + VIRTUAL_TOPIC_NAME);
+            stm.start();
+            // ActiveMQ 5.1 has no JMS 2.0 shared subscriptions, so the queue is consumed
+            for (int i = 0; i < 50 && stm.getActiveTaskCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+            Thread.sleep(500);
+            
+            Connection connection = connectionFactory.createConnection();
+            try {
+                Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                MessageProducer producer = session.createProducer(
+                    new ActiveMQTopic(VIRTUAL_TOPIC_NAME));
+                producer.send(session.createTextMessage("m1"));
+                producer.send(session.createTextMessage("m2"));
+            } finally {
+                connection.close();
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("m1", "m2"), receiver.getReceived());
+        } finally {
+            context.unbind(VIRTUAL_TOPIC_NAME);
+        }
+    }
+    
+    public void testSharedSubscriptionRequiresJms11() {
+        stm = createServiceTaskManager(new TestMessageReceiver(0, new CountDownLatch(0)));
+        stm.setDestinationJNDIName(VIRTUAL_TOPIC_NAME);
+        stm.setDestinationType(JMSConstants.TOPIC);
+        stm.setSharedSubscription(true);
+        stm.setVirtualTopicQueue("Consumer.TestService." + VIRTUAL_TOPIC_NAME);
+        stm.setJmsSpec11(false);
+        try {
+            stm.start();
+            fail("Expected AxisJMSException");
+        } catch (AxisJMSException expected) {
+        }
+        assertEquals(0, stm.getActiveTaskCount());
+    }
+    
+    public void testServicesShareConnectionAndReconnect() throws Exception {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        JMSConnectionMultiplexer multiplexer = new JMSConnectionMultiplexer(workerPool);
+        TestMessageReceiver receiver = new TestMessageReceiver(0, new CountDownLatch(0));
+        stm = createSharingServiceTaskManager("TestService", receiver, multiplexer);
+        otherStm = createSharingServiceTaskManager("OtherService", receiver, multiplexer);
+        stm.start();
+        otherStm.start();
+        
+        send("m1", "m2");
+        waitForReceived(receiver, 2);
+        assertEquals(1, broker.getBroker().getClients().length);
+        
+        // both services reconnect once the broker is available again
+        broker.stop();
+        broker.waitUntilStopped();
+        Thread.sleep(500);
+        startBroker();
+        send("m3", "m4");
+        waitForReceived(receiver, 4);
+        for (int i = 0; i < 100 && broker.getBroker().getClients().length != 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, broker.getBroker().getClients().length);
+    }
+    
+    private ServiceTaskManager createSharingServiceTaskManager(String serviceName,
+            JMSMessageReceiver receiver, JMSConnectionMultiplexer multiplexer) {
+        ServiceTaskManager taskManager = createServiceTaskManager(receiver);
+        taskManager.setServiceName(serviceName);
+        taskManager.setCacheLevel(JMSConstants.CACHE_CONNECTION);
+        taskManager.setConnectionMultiplexer(multiplexer);
+        taskManager.setMaxSharedConnections(1);
+        taskManager.setInitialReconnectDuration(100);
+        taskManager.setScheduler(scheduler);
+        return taskManager;
+    }
+    
+    private static void waitForReceived(TestMessageReceiver receiver, int count)
+            throws InterruptedException {
+        for (int i = 0; i < 300 && receiver.getReceived().size() < count; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(count, receiver.getReceived().size());
+    }
+    
+    private static String[] createTexts(int count) {
+        String[] texts = new String[count];
+        for (int i = 0; i < count; i++) {
+            texts[i] = "m" + i;
+        }
+        return texts;
+    }
+    
+    private void waitForCommits(long commits) throws InterruptedException {
+        for (int i = 0; i < 50 && stm.getCommits() < commits; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(commits, stm.getCommits());
+    }
+    
+    /**
+     * Records the messages received instead of dispatching them to a service
+     */
+    private static class TestMessageReceiver extends JMSMessageReceiver {
+        /** The prefix of the text of the messages whose processing fails */
+        static final String FAILING_PREFIX = "fail";
+        
+        private final int failures;
+        private final CountDownLatch latch;
+        private final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        private final List<String> threadNames =
+            Collections.synchronizedList(new ArrayList<String>());
+        private final Map<String, Integer> failureCounts = new HashMap<String, Integer>();
+        private final List<String> deadLetters =
+            Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger deadLetterFailures = new AtomicInteger();
+        private volatile long processingTime = 0;
+        private final AtomicInteger concurrency = new AtomicInteger();
+        private final AtomicInteger maxConcurrency = new AtomicInteger();
+        
+        /**
+         * @param failures the number of times the processing of each message starting with the
+         *                 failing prefix fails before it succeeds
+         * @param latch counted down for each message processed successfully or dead lettered
+         */
+        TestMessageReceiver(int failures, CountDownLatch latch) {
+            super(new JMSListener(), null, null, null, null);
+            this.failures = failures;
+            this.latch = latch;
+        }
+        
+        @Override
+        public boolean onMessage(Message message, UserTransaction ut) {
+            String text = getText(message);
+            received.add(text);
+            threadNames.add(Thread.currentThread().getName());
+            int current = concurrency.incrementAndGet();
+            if (current > maxConcurrency.get()) {
+                maxConcurrency.set(current);
+            }
+            try {
+                if (processingTime > 0) {
+                    Thread.sleep(processingTime);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                concurrency.decrementAndGet();
+            }
+            if (!text.startsWith(FAILING_PREFIX)) {
+                latch.countDown();
+                return true;
+            }
+            synchronized (failureCounts) {
+                Integer failed = failureCounts.get(text);
+                int count = failed == null ? 0 : failed.intValue();
+                if (count < failures) {
+                    failureCounts.put(text, count + 1);
+                    return false;
+                }
+            }
+            latch.countDown();
+            return true;
+        }
+        
+        @Override
+        boolean deadLetter(Message message, Throwable cause) {
+            if (deadLetterFailures.getAndDecrement() > 0) {
+                return false;
+            }
+            deadLetters.add(getText(message));
+            latch.countDown();
+            return true;
+        }
+        
+        static String getText(Message message) {
+            try {
+                return ((TextMessage) message).getText();
+            } catch (JMSException e) {
+                throw new AxisJMSException("Error reading test message", e);
+            }
+        }
+        
+        /**
+         * @param processingTime the number of milliseconds the processing of a message takes
+         */
+        void setProcessingTime(long processingTime) {
+            this.processingTime = processingTime;
+        }
+        
+        /**
+         * @return the maximum number of messages processed at the same time
+         */
+        int getMaxConcurrency() {
+            return maxConcurrency.get();
+        }
+        
+        List<String> getReceived() {
+            return received;
+        }
+        
+        List<String> getThreadNames() {
+            return threadNames;
+        }
+        
+        List<String> getDeadLetters() {
+            return deadLetters;
+        }
+        
+        /**
+         * @param deadLetterFailures the number of times moving a message to the dead letter
+         *                           queue fails before it succeeds
+         */
+        void setDeadLetterFailures(int deadLetterFailures) {
+            this.deadLetterFailures.set(deadLetterFailures);
+        }
+    }
+}
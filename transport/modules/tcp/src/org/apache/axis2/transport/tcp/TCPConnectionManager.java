@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.axis2.transport.tcp;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the connections accepted by {@link TCPServer}. It enforces the maximum
+ * number of connections, overall and per remote address, and runs a reaper thread that
+ * closes the connections on which no data has been read or written for longer than the
+ * idle timeout. A limit or timeout of 0 disables the corresponding check.
+ * <p>
+ * A connection is idle while it waits in the worker pool queue, and while its
+ * {@link TCPWorker} is blocked reading or writing the socket; the time spent processing
+ * a message doesn't count, however long the service takes.
+ */
+public class TCPConnectionManager implements TCPConnectionManagerMBean, Runnable {
+    private static final Log log = LogFactory.getLog(TCPConnectionManager.class);
+
+    private final int maxConnections;
+    private final int maxConnectionsPerAddress;
+    private final long idleTimeout;
+
+    private final Map<InetAddress, Integer> connectionsPerAddress =
+            new HashMap<InetAddress, Integer>();
+    private final Map<TCPWorker, Boolean> workers =
+            new ConcurrentHashMap<TCPWorker, Boolean>();
+    private int currentConnections;
+    private int peakConnections;
+    private long rejectedConnections;
+    private long idleConnectionsClosed;
+
+    private volatile Thread reaper;
+
+    public TCPConnectionManager(int maxConnections, int maxConnectionsPerAddress,
+                                long idleTimeout) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Register a newly accepted connection.
+     *
+     * @param socket the accepted socket
+     * @return false if the connection exceeds one of the limits and must be closed
+     */
+    public synchronized boolean acquire(Socket socket) {
+        if (maxConnections > 0 && currentConnections >= maxConnections) {
+            rejectedConnections++;
+            if (log.isDebugEnabled()) {
+                log.debug("Rejecting connection from " + socket.getRemoteSocketAddress()
+                        + " : the maximum of " + maxConnections + " connections is reached");
+            }
+            return false;
+        }
+        InetAddress address = socket.getInetAddress();
+        Integer count = connectionsPerAddress.get(address);
+        int addressConnections = count == null ? 0 : count.intValue();
+        if (maxConnectionsPerAddress > 0 && addressConnections >= maxConnectionsPerAddress) {
+            rejectedConnections++;
+            if (log.isDebugEnabled()) {
+                log.debug("Rejecting connection from " + socket.getRemoteSocketAddress()
+                        + " : the maximum of " + maxConnectionsPerAddress
+                        + " connections per address is reached");
+            }
+            return false;
+        }
+        connectionsPerAddress.put(address, addressConnections + 1);
+        currentConnections++;
+        if (currentConnections > peakConnections) {
+            peakConnections = currentConnections;
+        }
+        return true;
+    }
+
+    /**
+     * Unregister a connection previously accepted by {@link #acquire(Socket)}.
+     *
+     * @param socket the socket of the connection
+     */
+    public synchronized void release(Socket socket) {
+        InetAddress address = socket.getInetAddress();
+        Integer count = connectionsPerAddress.get(address);
+        if (count != null) {
+            if (count.intValue() <= 1) {
+                connectionsPerAddress.remove(address);
+            } else {
+                connectionsPerAddress.put(address, count.intValue() - 1);
+            }
+            currentConnections--;
+        }
+    }
+
+    /**
+     * Start monitoring the given worker for inactivity. This is called when the connection
+     * is handed to the worker pool, so that a connection waiting in the queue for longer
+     * than the idle timeout is closed as well.
+     */
+    public void connectionQueued(TCPWorker worker) {
+        if (idleTimeout > 0) {
+            workers.put(worker, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Stop monitoring the given worker.
+     */
+    public void processingCompleted(TCPWorker worker) {
+        workers.remove(worker);
+    }
+
+    /**
+     * Start the idle connection reaper, if an idle timeout is configured.
+     *
+     * @param name the name of the reaper thread
+     */
+    public synchronized void start(String name) {
+        if (idleTimeout > 0 && reaper == null) {
+            reaper = new Thread(this, name);
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+    }
+
+    /**
+     * Stop the idle connection reaper.
+     */
+    public synchronized void stop() {
+        Thread thread = reaper;
+        reaper = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    public void run() {
+        // scan often enough to close idle connections no later than 1.5 x the timeout
+        long interval = Math.max(idleTimeout / 2, 100);
+        while (reaper == Thread.currentThread()) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            long now = System.currentTimeMillis();
+            for (Iterator<TCPWorker> it = workers.keySet().iterator(); it.hasNext(); ) {
+                TCPWorker worker = it.next();
+                long idleTime = worker.getIdleTime(now);
+                if (idleTime > idleTimeout) {
+                    it.remove();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Closing connection from " + worker.getRemoteAddress()
+                                + " after " + idleTime + " ms of inactivity");
+                    }
+                    synchronized (this) {
+                        idleConnectionsClosed++;
+                    }
+                    worker.close();
+                }
+            }
+        }
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getMaxConnectionsPerAddress() {
+        return maxConnectionsPerAddress;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public synchronized int getCurrentConnections() {
+        return currentConnections;
+    }
+
+    public synchronized int getPeakConnections() {
+        return peakConnections;
+    }
+
+    public synchronized long getRejectedConnections() {
+        return rejectedConnections;
+    }
+
+    public synchronized long getIdleConnectionsClosed() {
+        return idleConnectionsClosed;
+    }
+
+    public synchronized void resetPeakConnections() {
+        peakConnections = currentConnections;
+    }
+}
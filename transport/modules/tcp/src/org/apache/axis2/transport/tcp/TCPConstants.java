@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.axis2.transport.tcp;
+
+/**
+ * Utility class defining constants used by the TCP transport.
+ */
+public class TCPConstants {
+    private TCPConstants() {}
+
+    /** The default number of worker threads processing accepted connections */
+    public static final int DEFAULT_WORKER_POOL_SIZE = 20;
+
+    /**
+     * The default number of accepted connections waiting for a worker thread. Connections
+     * accepted while the queue is full and all worker threads are busy are closed
+     */
+    public static final int DEFAULT_WORKER_POOL_QUEUE_LENGTH = 100;
+
+    /**
+     * The compression of outgoing messages: gzip, deflate or none (default). On the server
+     * side, a response is only compressed if the request was compressed, and then uses the
+     * same format as the request.
+     */
+    public static final String PARAM_COMPRESSION = "transport.tcp.compression";
+    /** The compression level (0-9) of outgoing messages */
+    public static final String PARAM_COMPRESSION_LEVEL = "transport.tcp.compressionLevel";
+    /** The size in bytes below which outgoing messages are not compressed */
+    public static final String PARAM_COMPRESSION_THRESHOLD = "transport.tcp.compressionThreshold";
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
+    /** The maximum number of connections the listener accepts concurrently (0 = unlimited) */
+    public static final String PARAM_MAX_CONNECTIONS = "transport.tcp.maxConnections";
+    /** The maximum number of concurrent connections from a single remote address */
+    public static final String PARAM_MAX_CONNECTIONS_PER_ADDRESS =
+            "transport.tcp.maxConnectionsPerAddress";
+    /** The time in milliseconds after which an inactive connection is closed (0 = never) */
+    public static final String PARAM_IDLE_TIMEOUT = "transport.tcp.idleTimeout";
+
+    /** Message context property holding the compression format of a received message */
+    public static final String COMPRESSION = "TCP_COMPRESSION";
+    /** Message context property holding the socket used to send a message */
+    public static final String SOCKET = "TCP_SOCKET";
+}
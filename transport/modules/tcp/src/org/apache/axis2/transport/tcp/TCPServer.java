@@ -26,15 +26,16 @@ import org.apache.axis2.util.Utils;
 import org.apache.axis2.addressing.EndpointReference;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.ConfigurationContextFactory;
-import org.apache.axis2.context.MessageContext;
-import org.apache.axis2.context.SessionContext;
+import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.TransportInDescription;
 import org.apache.axis2.engine.ListenerManager;
 import org.apache.axis2.i18n.Messages;
-import org.apache.axis2.transport.TransportListener;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import org.apache.axis2.transport.base.AbstractTransportListener;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.ManagementSupport;
+import org.apache.axis2.transport.base.ParamUtils;
+import org.apache.axis2.transport.base.threads.WorkerPoolFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -43,34 +44,57 @@ import java.net.Socket;
 import java.net.SocketException;
 
 /**
- * Class TCPServer
+ * Transport listener for the TCP protocol. A single server socket is opened for the
+ * transport and each accepted connection is processed by a {@link TCPWorker} running
+ * in the worker pool of the listener. Since TCP has no notion of a request URI, services
+ * don't need any transport specific configuration and messages are dispatched based on
+ * their content.
+ * <p>
+ * The worker pool defaults to a fixed number of threads with a bounded queue; the sizing
+ * may be changed using the worker pool parameters defined in {@link BaseConstants}. A
+ * connection accepted while the queue is full and all worker threads are busy is closed
+ * right away, instead of waiting in an unbounded queue until the client gives up.
+ * The number of connections and their idle time may be limited using the parameters
+ * defined in {@link TCPConstants}; see {@link TCPConnectionManager}.
  */
-public class TCPServer implements Runnable, TransportListener {
+public class TCPServer extends AbstractTransportListener implements ManagementSupport, Runnable {
     private int port = 8000;
-    private boolean started = false;
-    private static final Log log = LogFactory.getLog(TCPServer.class);
-    private ConfigurationContext configContext;
     private ServerSocket serversocket;
     private String hostAddress = null;
     private String contextPath;
+    private TCPConnectionManager connectionManager;
+    /** The configured maximum number of worker threads */
+    private int maxWorkers;
+    /** The configured length of the connection queue, -1 if unbounded */
+    private int queueLength;
+    /** The configured core size and keep alive time, to recreate the worker pool */
+    private int coreWorkers;
+    private int workerKeepAlive;
+    /** Has a maintenance shutdown terminated the worker pool? */
+    private boolean workerPoolTerminated;
 
     public TCPServer() {
+        workerPoolCoreSize = TCPConstants.DEFAULT_WORKER_POOL_SIZE;
+        workerPoolMaxSize = TCPConstants.DEFAULT_WORKER_POOL_SIZE;
+        workerPoolQueueLength = TCPConstants.DEFAULT_WORKER_POOL_QUEUE_LENGTH;
     }
 
     public TCPServer(int port, ConfigurationContext configContext) throws AxisFault {
+        this();
         try {
-            this.configContext = configContext;
+            this.port = port;
+            TransportInDescription trsIn = new TransportInDescription(Constants.TRANSPORT_TCP);
+            trsIn.setReceiver(this);
+            trsIn.addParameter(new Parameter(PARAM_PORT, String.valueOf(port)));
+            init(configContext, trsIn);
             serversocket = new ServerSocket(port);
 
             ListenerManager listenerManager = configContext.getListenerManager();
-            TransportInDescription trsIn = new TransportInDescription(Constants.TRANSPORT_TCP);
-            trsIn.setReceiver(this);
             if (listenerManager == null) {
                 listenerManager = new ListenerManager();
                 listenerManager.init(configContext);
             }
             listenerManager.addListener(trsIn, true);
-            contextPath = configContext.getServiceContextPath();
 
         } catch (IOException e1) {
             throw AxisFault.makeFault(e1);
@@ -83,7 +107,7 @@ public class TCPServer implements Runnable, TransportListener {
 
     public void init(ConfigurationContext axisConf, TransportInDescription transprtIn)
             throws AxisFault {
-        this.configContext = axisConf;
+        super.init(axisConf, transprtIn);
 
         Parameter param = transprtIn.getParameter(PARAM_PORT);
 
@@ -94,7 +118,32 @@ public class TCPServer implements Runnable, TransportListener {
         if (param != null) {
             hostAddress = ((String) param.getValue()).trim();
         }
-        contextPath = configContext.getServiceContextPath();
+        contextPath = cfgCtx.getServiceContextPath();
+
+        // the worker pool does not report rejected connections, so check its capacity first
+        maxWorkers = ParamUtils.getOptionalParamInt(
+                transprtIn, BaseConstants.PARAM_WORKER_POOL_MAX_SIZE, workerPoolMaxSize);
+        queueLength = ParamUtils.getOptionalParamInt(
+                transprtIn, BaseConstants.PARAM_WORKER_POOL_QUEUE_LENGTH, workerPoolQueueLength);
+        coreWorkers = ParamUtils.getOptionalParamInt(
+                transprtIn, BaseConstants.PARAM_WORKER_POOL_CORE_SIZE, workerPoolCoreSize);
+        workerKeepAlive = ParamUtils.getOptionalParamInt(
+                transprtIn, BaseConstants.PARAM_WORKER_POOL_KEEP_ALIVE, workerPoolKeepAlive);
+
+        connectionManager = new TCPConnectionManager(
+                ParamUtils.getOptionalParamInt(transprtIn, TCPConstants.PARAM_MAX_CONNECTIONS, 0),
+                ParamUtils.getOptionalParamInt(
+                        transprtIn, TCPConstants.PARAM_MAX_CONNECTIONS_PER_ADDRESS, 0),
+                ParamUtils.getOptionalParamInt(transprtIn, TCPConstants.PARAM_IDLE_TIMEOUT, 0));
+        registerMBean(connectionManager, getConnectionManagerMBeanName());
+    }
+
+    private String getConnectionManagerMBeanName() {
+        return getMBeanName() + ",Group=Connections";
+    }
+
+    public TCPConnectionManager getConnectionManager() {
+        return connectionManager;
     }
 
     public static void main(String[] args) throws AxisFault, NumberFormatException {
@@ -118,7 +167,8 @@ public class TCPServer implements Runnable, TransportListener {
     }
 
     public void run() {
-        while (started) {
+        ServerSocket serversocket = this.serversocket;
+        while (state == BaseConstants.STARTED) {
             Socket socket = null;
 
             try {
@@ -132,19 +182,63 @@ public class TCPServer implements Runnable, TransportListener {
             }
 
             if (socket != null) {
-                configContext.getThreadPool().execute(new TCPWorker(configContext, socket));
+                boolean accepted = connectionManager.acquire(socket);
+                if (accepted && isWorkerPoolFull()) {
+                    log.warn("Rejecting connection from " + socket.getRemoteSocketAddress()
+                            + " : all worker threads are busy and the queue is full");
+                    connectionManager.release(socket);
+                    accepted = false;
+                } else if (accepted) {
+                    TCPWorker worker = new TCPWorker(this, socket);
+                    connectionManager.connectionQueued(worker);
+                    try {
+                        workerPool.execute(worker);
+                    } catch (RuntimeException e) {
+                        log.warn("Rejecting connection from " + socket.getRemoteSocketAddress()
+                                + " : " + e.getMessage());
+                        connectionManager.processingCompleted(worker);
+                        connectionManager.release(socket);
+                        accepted = false;
+                    }
+                }
+                if (!accepted) {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        log.debug("Error closing rejected connection", e);
+                    }
+                }
             }
         }
     }
 
+    /**
+     * Would the worker pool reject another connection? The acceptor is the only thread
+     * adding connections, so the queue can only become shorter after this check.
+     */
+    private boolean isWorkerPoolFull() {
+        return queueLength >= 0 && workerPool.getQueueSize() >= queueLength
+                && workerPool.getActiveCount() >= maxWorkers;
+    }
+
     public synchronized void start() throws AxisFault {
         if (serversocket == null) {
             serversocket = openSocket(port);
         }
-        started = true;
-        this.configContext.getThreadPool().execute(this);
+        if (workerPoolTerminated) {
+            workerPool = WorkerPoolFactory.getWorkerPool(coreWorkers, maxWorkers, workerKeepAlive,
+                    queueLength, getTransportName() + "Server Worker thread group",
+                    getTransportName() + "-Worker");
+            workerPoolTerminated = false;
+        }
+        super.start();
+        connectionManager.start(getTransportName() + "-reaper");
+        startAcceptor();
     }
 
+    private void startAcceptor() {
+        new Thread(this, getTransportName() + "-acceptor").start();
+    }
 
     /**
      * Controls the number of server sockets kept open.
@@ -161,22 +255,98 @@ public class TCPServer implements Runnable, TransportListener {
         throw new AxisFault(Messages.getMessage("failedToOpenSocket"));
     }
 
+    /**
+     * Close the server socket, so that no more connections are accepted. Connections
+     * already accepted continue to be processed by the worker pool.
+     */
+    private synchronized void closeServerSocket() throws AxisFault {
+        if (serversocket != null) {
+            try {
+                serversocket.close();
+                serversocket = null;
+            } catch (IOException e) {
+                throw AxisFault.makeFault(e);
+            }
+        }
+    }
 
     /*
     *  (non-Javadoc)
     * @see org.apache.axis2.transport.TransportListener#stop()
     */
-    public void stop() throws AxisFault {
+    public synchronized void stop() throws AxisFault {
+        // a paused listener has already closed its server socket and ended its acceptor
+        boolean paused = state == BaseConstants.PAUSED;
+        super.stop();
+        connectionManager.stop();
+        if (!paused) {
+            closeServerSocket();
+        }
+    }
+
+    protected void startListeningForService(AxisService service) throws AxisFault {
+        // messages are dispatched based on their content; there is nothing to set up
+    }
+
+    protected void stopListeningForService(AxisService service) {
+    }
+
+    // -- jmx/management methods--
+    /**
+     * Pause the listener - Stop accepting new connections, but continue processing the
+     * connections already accepted until they complete
+     * @throws AxisFault on error
+     */
+    public synchronized void pause() throws AxisFault {
+        if (state != BaseConstants.STARTED) return;
+        port = serversocket.getLocalPort();
+        state = BaseConstants.PAUSED;
+        closeServerSocket();
+        log.info("Listener paused");
+    }
+
+    /**
+     * Resume the listener - Reopen the server socket on the same port and accept
+     * new connections again
+     * @throws AxisFault on error
+     */
+    public synchronized void resume() throws AxisFault {
+        if (state != BaseConstants.PAUSED) return;
         try {
-            this.serversocket.close();
-            started = false;
+            serversocket = new ServerSocket(port);
         } catch (IOException e) {
-            throw AxisFault.makeFault(e);
+            handleException("Unable to reopen the server socket on port " + port, e);
         }
+        state = BaseConstants.STARTED;
+        startAcceptor();
+        log.info("Listener resumed");
+    }
+
+    /**
+     * Stop accepting new connections, and wait the specified maximum time for the
+     * connections being processed to complete before a controlled shutdown for maintenence
+     *
+     * @param millis a number of milliseconds to wait until pending requests are allowed to complete
+     * @throws AxisFault on error
+     */
+    public void maintenenceShutdown(long millis) throws AxisFault {
+        if (state != BaseConstants.STARTED) return;
+        long start = System.currentTimeMillis();
+        closeServerSocket();
+        // the terminated pool rejects any connection the acceptor still hands over;
+        // start() creates a new one if the listener is started again
+        workerPoolTerminated = true;
+        try {
+            workerPool.shutdown((int) Math.min(millis, Integer.MAX_VALUE));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stop();
+        log.info("Listener shutdown in : " + (System.currentTimeMillis() - start) / 1000 + "s");
     }
 
     public ConfigurationContext getConfigurationContext() {
-        return this.configContext;
+        return this.cfgCtx;
     }
 
     /**
@@ -192,6 +362,7 @@ public class TCPServer implements Runnable, TransportListener {
     }
 
     public EndpointReference[] getEPRsForService(String serviceName, String ip) throws AxisFault {
+        ServerSocket serversocket = this.serversocket;
         //if host address is present
         if (hostAddress != null) {
             if (serversocket != null) {
@@ -205,7 +376,7 @@ public class TCPServer implements Runnable, TransportListener {
         }
         if (ip == null) {
             try {
-                ip = Utils.getIpAddress(configContext.getAxisConfiguration());
+                ip = Utils.getIpAddress(cfgCtx.getAxisConfiguration());
             } catch (SocketException e) {
                 throw AxisFault.makeFault(e);
             }
@@ -221,11 +392,9 @@ public class TCPServer implements Runnable, TransportListener {
         }
     }
 
-    public SessionContext getSessionContext(MessageContext messageContext) {
-        return null;
-    }
-
     public void destroy() {
-        this.configContext = null;
+        unregisterMBean(getConnectionManagerMBeanName());
+        super.destroy();
+        this.cfgCtx = null;
     }
 }
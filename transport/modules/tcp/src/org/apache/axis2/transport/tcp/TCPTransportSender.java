@@ -21,82 +21,105 @@
 package org.apache.axis2.transport.tcp;
 
 import org.apache.axis2.AxisFault;
+import org.apache.axis2.Constants;
 import org.apache.axis2.addressing.EndpointReference;
-import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.MessageContext;
+import org.apache.axis2.context.OperationContext;
+import org.apache.axis2.description.Parameter;
 import org.apache.axis2.description.TransportOutDescription;
-import org.apache.axis2.handlers.AbstractHandler;
+import org.apache.axis2.engine.Handler.InvocationResponse;
 import org.apache.axis2.i18n.Messages;
-import org.apache.axis2.transport.TransportSender;
+import org.apache.axis2.transport.OutTransportInfo;
 import org.apache.axis2.transport.TransportUtils;
+import org.apache.axis2.transport.base.AbstractTransportSender;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.ManagementSupport;
+import org.apache.axis2.transport.base.streams.CompressingOutputStream;
+import org.apache.axis2.transport.base.streams.CountingOutputStream;
+import org.apache.axis2.transport.base.streams.DecompressingInputStream;
 import org.apache.axis2.util.URL;
+import org.apache.axis2.wsdl.WSDLConstants;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.zip.Deflater;
 
-public class TCPTransportSender extends AbstractHandler implements TransportSender {
-    protected Writer out;
-    private Socket socket;
-
-    public void init(ConfigurationContext confContext, TransportOutDescription transportOut)
-            throws AxisFault {
-    }
-
-    public void stop() {
-    }
+/**
+ * Transport sender for the TCP protocol. Outgoing messages may be compressed, as configured
+ * by the {@link TCPConstants#PARAM_COMPRESSION} parameter, which is looked up on the message
+ * context, the service and finally the transport sender. Compressed responses are detected
+ * and decompressed transparently.
+ */
+public class TCPTransportSender extends AbstractTransportSender implements ManagementSupport {
 
     public void cleanup(MessageContext msgContext) throws AxisFault {
+        // release the inflater of a compressed response, which closing the socket does not
+        Object in = msgContext.getProperty(MessageContext.TRANSPORT_IN);
+        if (in instanceof DecompressingInputStream) {
+            msgContext.removeProperty(MessageContext.TRANSPORT_IN);
+            try {
+                ((DecompressingInputStream) in).close();
+            } catch (IOException e) {
+                // the socket is closed below
+            }
+        }
+        Socket socket = (Socket) msgContext.getProperty(TCPConstants.SOCKET);
         try {
             if (socket != null) {
+                msgContext.removeProperty(TCPConstants.SOCKET);
                 socket.close();
-                socket = null;
             }
         } catch (IOException e) {
             // TODO: Log this?
         }
     }
 
-    /**
-     * Method invoke
-     *
-     * @param msgContext
-     * @throws AxisFault
-     */
     public InvocationResponse invoke(MessageContext msgContext) throws AxisFault {
+        // a client without a target EPR writes to the TRANSPORT_OUT stream if any, and must
+        // otherwise fail rather than drop the message as AbstractTransportSender does
+        if (!msgContext.isServerSide() &&
+                msgContext.getProperty(Constants.Configuration.TRANSPORT_URL) == null &&
+                (msgContext.getTo() == null || msgContext.getTo().hasAnonymousAddress())) {
+            sendMessage(msgContext, null, null);
+            return InvocationResponse.CONTINUE;
+        }
+        return super.invoke(msgContext);
+    }
+
+    public void sendMessage(MessageContext msgContext, String targetEPR,
+                            OutTransportInfo outTransportInfo) throws AxisFault {
 
         // Check for the REST behaviour, if you desire rest beahaviour
         // put a <parameter name="doREST" value="true"/> at the axis2.xml
         msgContext.setDoingMTOM(TransportUtils.doWriteMTOM(msgContext));
         msgContext.setDoingSwA(TransportUtils.doWriteSwA(msgContext));
 
-        OutputStream out;
-        EndpointReference epr = null;
-
-        if (msgContext.getTo() != null && !msgContext.getTo().hasAnonymousAddress()) {
-            epr = msgContext.getTo();
-        }
-
-        if (epr != null) {
-            if (!epr.hasNoneAddress()) {
-                out = openTheConnection(epr, msgContext);
-                TransportUtils.writeMessage(msgContext, out);
-                try {
-                    socket.shutdownOutput();
-                    msgContext.setProperty(MessageContext.TRANSPORT_IN, socket.getInputStream());
-                } catch (IOException e) {
-                    throw AxisFault.makeFault(e);
-                }
+        if (targetEPR != null) {
+            Socket socket = openTheConnection(new EndpointReference(targetEPR), msgContext);
+            msgContext.setProperty(TCPConstants.SOCKET, socket);
+            try {
+                writeMessage(msgContext, socket.getOutputStream(), getCompression(msgContext));
+                socket.shutdownOutput();
+                msgContext.setProperty(MessageContext.TRANSPORT_IN,
+                        new DecompressingInputStream(socket.getInputStream()));
+            } catch (IOException e) {
+                metrics.incrementFaultsSending();
+                throw AxisFault.makeFault(e);
             }
         } else {
-            out = (OutputStream) msgContext.getProperty(MessageContext.TRANSPORT_OUT);
+            OutputStream out = (OutputStream) msgContext.getProperty(MessageContext.TRANSPORT_OUT);
 
             if (out != null) {
-                TransportUtils.writeMessage(msgContext, out);
+                // only compress the response if the client has shown to support it
+                String compression = getRequestCompression(msgContext);
+                if (compression != null && getCompression(msgContext) == null) {
+                    compression = null;
+                }
+                writeMessage(msgContext, out, compression);
             } else {
                 throw new AxisFault(
                         "Both the TO and Property MessageContext.TRANSPORT_OUT is Null, No where to send");
@@ -104,11 +127,108 @@ public class TCPTransportSender extends AbstractHandler implements TransportSend
         }
 
         TransportUtils.setResponseWritten(msgContext, true);
-        
-        return InvocationResponse.CONTINUE;
     }
 
-    protected OutputStream openTheConnection(EndpointReference toURL, MessageContext msgContext)
+    /**
+     * Write the message to the given stream, compressing it if requested and if it
+     * is larger than the configured threshold.
+     */
+    private void writeMessage(MessageContext msgContext, OutputStream out, String compression)
+            throws AxisFault {
+        CountingOutputStream wireOut = new CountingOutputStream(out);
+        CompressingOutputStream compressingOut = null;
+        try {
+            if (compression == null) {
+                TransportUtils.writeMessage(msgContext, wireOut);
+            } else {
+                compressingOut = new CompressingOutputStream(wireOut, compression,
+                        getIntParam(msgContext, TCPConstants.PARAM_COMPRESSION_LEVEL,
+                                Deflater.DEFAULT_COMPRESSION),
+                        getIntParam(msgContext, TCPConstants.PARAM_COMPRESSION_THRESHOLD,
+                                TCPConstants.DEFAULT_COMPRESSION_THRESHOLD));
+                TransportUtils.writeMessage(msgContext, compressingOut);
+                compressingOut.finish();
+            }
+        } catch (IOException e) {
+            metrics.incrementFaultsSending();
+            throw AxisFault.makeFault(e);
+        }
+        metrics.incrementMessagesSent(msgContext);
+        metrics.incrementBytesSent(msgContext, wireOut.getByteCount());
+        metrics.notifySentMessageSize(msgContext, wireOut.getByteCount());
+        if (compressingOut != null && compressingOut.isCompressed()) {
+            metrics.notifyCompressedMessageSent(
+                    wireOut.getByteCount(), compressingOut.getByteCount());
+        }
+    }
+
+    /**
+     * Get the compression format configured for outgoing messages.
+     *
+     * @return {@link BaseConstants#COMPRESSION_GZIP}, {@link BaseConstants#COMPRESSION_DEFLATE}
+     *         or null if messages are not compressed
+     */
+    private String getCompression(MessageContext msgContext) throws AxisFault {
+        String compression = getParam(msgContext, TCPConstants.PARAM_COMPRESSION);
+        if (compression == null || BaseConstants.COMPRESSION_NONE.equals(compression)) {
+            return null;
+        } else if (BaseConstants.COMPRESSION_GZIP.equals(compression)
+                || BaseConstants.COMPRESSION_DEFLATE.equals(compression)) {
+            return compression;
+        } else {
+            throw new AxisFault("Invalid value '" + compression + "' for parameter '"
+                    + TCPConstants.PARAM_COMPRESSION + "'");
+        }
+    }
+
+    /**
+     * Get the compression format of the request a response message is sent for.
+     */
+    private String getRequestCompression(MessageContext msgContext) {
+        OperationContext opCtx = msgContext.getOperationContext();
+        if (opCtx != null) {
+            try {
+                MessageContext inMsgCtx =
+                        opCtx.getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE);
+                if (inMsgCtx != null) {
+                    return (String) inMsgCtx.getProperty(TCPConstants.COMPRESSION);
+                }
+            } catch (AxisFault ignore) {}
+        }
+        return null;
+    }
+
+    /**
+     * Look up a parameter on the message context (including the options set by a client),
+     * the service and operation, and finally on the transport sender.
+     */
+    private String getParam(MessageContext msgContext, String name) {
+        Object value = msgContext.getProperty(name);
+        if (value == null) {
+            Parameter param = msgContext.getParameter(name);
+            if (param == null) {
+                TransportOutDescription transportOut = msgContext.getTransportOut();
+                param = transportOut == null ? null : transportOut.getParameter(name);
+            }
+            value = param == null ? null : param.getValue();
+        }
+        return value == null ? null : value.toString().trim();
+    }
+
+    private int getIntParam(MessageContext msgContext, String name, int defaultValue)
+            throws AxisFault {
+        String value = getParam(msgContext, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new AxisFault("Invalid value '" + value + "' for parameter '" + name + "'");
+        }
+    }
+
+    protected Socket openTheConnection(EndpointReference toURL, MessageContext msgContext)
             throws AxisFault {
         if (toURL != null) {
             try {
@@ -117,10 +237,10 @@ public class TCPTransportSender extends AbstractHandler implements TransportSend
                         ? 80
                         : url.getPort());
 
-                socket = new Socket();
+                Socket socket = new Socket();
                 socket.connect(add);
 
-                return socket.getOutputStream();
+                return socket;
             } catch (MalformedURLException e) {
                 throw AxisFault.makeFault(e);
             } catch (IOException e) {
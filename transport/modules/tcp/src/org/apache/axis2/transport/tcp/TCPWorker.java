@@ -25,18 +25,21 @@ import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axis2.AxisFault;
 import org.apache.axis2.Constants;
 import org.apache.axis2.builder.BuilderUtil;
-import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.MessageContext;
-import org.apache.axis2.description.TransportInDescription;
-import org.apache.axis2.description.TransportOutDescription;
-import org.apache.axis2.engine.AxisConfiguration;
 import org.apache.axis2.engine.AxisEngine;
 import org.apache.axis2.i18n.Messages;
+import org.apache.axis2.transport.base.MetricsCollector;
+import org.apache.axis2.transport.base.streams.CountingInputStream;
+import org.apache.axis2.transport.base.streams.CountingOutputStream;
+import org.apache.axis2.transport.base.streams.DecompressingInputStream;
 import org.apache.axis2.util.MessageContextBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
@@ -47,54 +50,104 @@ import java.net.Socket;
  */
 public class TCPWorker implements Runnable {
     private static final Log log = LogFactory.getLog(TCPWorker.class);
-    private ConfigurationContext configurationContext;
+    private TCPServer listener;
     private Socket socket;
+    /**
+     * The time the current read or write on the socket started, or 0 if none is in progress.
+     * Until the worker starts processing the connection, this is the time it was accepted.
+     */
+    private volatile long ioStart;
 
-    public TCPWorker(ConfigurationContext configurationContext, Socket socket) {
-        this.configurationContext = configurationContext;
+    public TCPWorker(TCPServer listener, Socket socket) {
+        this.listener = listener;
         this.socket = socket;
+        ioStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Get the time the worker has been waiting in the worker pool queue or blocked reading
+     * or writing the socket. This may be called by other threads to monitor the activity
+     * on the connection; the time spent processing the message doesn't count.
+     *
+     * @param now the current time in milliseconds
+     * @return the number of milliseconds the connection has been queued or the current
+     *         socket operation has been blocked for, or 0 if the worker isn't doing I/O
+     *         on the socket
+     */
+    public long getIdleTime(long now) {
+        long start = ioStart;
+        return start == 0 ? 0 : now - start;
+    }
+
+    public String getRemoteAddress() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+
+    /**
+     * Forcibly close the connection, e.g. because it has been idle for too long. The thread
+     * processing the connection will get an I/O error if it is blocked on the socket.
+     */
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Error closing the connection from " + getRemoteAddress(), e);
+        }
     }
 
     public void run() {
         MessageContext msgContext = null;
+        MetricsCollector metrics = listener.getMetricsCollector();
+        TCPConnectionManager connectionManager = listener.getConnectionManager();
+        CountingInputStream in = null;
+        CountingInputStream decompressedIn = null;
+        String compression = null;
+        CountingOutputStream out = null;
 
+        ioStart = 0;
         try {
-            AxisConfiguration axisConf = configurationContext.getAxisConfiguration();
-            TransportOutDescription transportOut =
-                    axisConf.getTransportOut(Constants.TRANSPORT_TCP);
-            TransportInDescription transportIn =
-                    axisConf.getTransportIn(Constants.TRANSPORT_TCP);
-
-            if ((transportOut != null) && (transportIn != null)) {
+            if (socket.isClosed()) {
+                // closed by the reaper while waiting in the worker pool queue
+                return;
+            }
+            msgContext = listener.createMessageContext();
 
-                // create the Message Context and fill in the values
-                msgContext = configurationContext.createMessageContext();
-                msgContext.setIncomingTransportName(Constants.TRANSPORT_TCP);
-                msgContext.setTransportIn(transportIn);
-                msgContext.setTransportOut(transportOut);
-                msgContext.setServerSide(true);
+            if ((msgContext.getTransportOut() != null) && (msgContext.getTransportIn() != null)) {
 
-                OutputStream out = socket.getOutputStream();
+                in = new CountingInputStream(new TimedInputStream(socket.getInputStream()));
+                out = new CountingOutputStream(new TimedOutputStream(socket.getOutputStream()));
 
                 msgContext.setProperty(MessageContext.TRANSPORT_OUT, out);
 
+                // detect whether the client compressed the request; if so the response
+                // may be compressed as well
+                DecompressingInputStream decoder = new DecompressingInputStream(in);
+                compression = decoder.getEncoding();
+                if (compression != null) {
+                    msgContext.setProperty(TCPConstants.COMPRESSION, compression);
+                }
+                decompressedIn = new CountingInputStream(decoder);
+
                 // create the SOAP Envelope
-                Reader in = new InputStreamReader(socket.getInputStream());
-                OMXMLParserWrapper builder = BuilderUtil.getBuilder(in);
+                Reader reader = new InputStreamReader(decompressedIn);
+                OMXMLParserWrapper builder = BuilderUtil.getBuilder(reader);
                 SOAPEnvelope envelope = (SOAPEnvelope) builder.getDocumentElement();
 
                 msgContext.setEnvelope(envelope);
                 AxisEngine.receive(msgContext);
+                metrics.incrementMessagesReceived();
             } else {
                 throw new AxisFault(Messages.getMessage("unknownTransport",
                                                         Constants.TRANSPORT_TCP));
             }
         } catch (Throwable e) {
             log.error(e.getMessage(), e);
+            metrics.incrementFaultsReceiving();
             try {
 
                 if (msgContext != null) {
-                    msgContext.setProperty(MessageContext.TRANSPORT_OUT, socket.getOutputStream());
+                    msgContext.setProperty(MessageContext.TRANSPORT_OUT,
+                            out != null ? out : socket.getOutputStream());
 
                     MessageContext faultContext =
                             MessageContextBuilder.createFaultMessageContext(msgContext, e);
@@ -105,6 +158,29 @@ public class TCPWorker implements Runnable {
                 log.error(e1.getMessage(), e1);
             }
         } finally {
+            connectionManager.processingCompleted(this);
+            connectionManager.release(socket);
+            if (in != null) {
+                metrics.incrementBytesReceived(in.getByteCount());
+                metrics.notifyReceivedMessageSize(in.getByteCount());
+                if (compression != null) {
+                    metrics.notifyCompressedMessageReceived(
+                            in.getByteCount(), decompressedIn.getByteCount());
+                }
+            }
+            if (out != null && out.getByteCount() > 0) {
+                metrics.incrementMessagesSent();
+                metrics.incrementBytesSent(out.getByteCount());
+                metrics.notifySentMessageSize(out.getByteCount());
+            }
+            if (decompressedIn != null) {
+                try {
+                    // releases the inflater of a compressed request
+                    decompressedIn.close();
+                } catch (IOException e1) {
+                    // Do nothing
+                }
+            }
             if (socket != null) {
                 try {
                     this.socket.close();
@@ -114,4 +190,67 @@ public class TCPWorker implements Runnable {
             }
         }
     }
+
+    /**
+     * Records the time spent blocked reading the socket.
+     */
+    private class TimedInputStream extends FilterInputStream {
+        TimedInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            ioStart = System.currentTimeMillis();
+            try {
+                return super.read();
+            } finally {
+                ioStart = 0;
+            }
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            ioStart = System.currentTimeMillis();
+            try {
+                return super.read(b, off, len);
+            } finally {
+                ioStart = 0;
+            }
+        }
+    }
+
+    /**
+     * Records the time spent blocked writing the socket.
+     */
+    private class TimedOutputStream extends FilterOutputStream {
+        TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public void write(int b) throws IOException {
+            ioStart = System.currentTimeMillis();
+            try {
+                out.write(b);
+            } finally {
+                ioStart = 0;
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            ioStart = System.currentTimeMillis();
+            try {
+                out.write(b, off, len);
+            } finally {
+                ioStart = 0;
+            }
+        }
+
+        public void flush() throws IOException {
+            ioStart = System.currentTimeMillis();
+            try {
+                out.flush();
+            } finally {
+                ioStart = 0;
+            }
+        }
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.axis2.transport.tcp;
+
+import junit.framework.TestCase;
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNamespace;
+import org.apache.axis2.Constants;
+import org.apache.axis2.addressing.EndpointReference;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.client.ServiceClient;
+import org.apache.axis2.client.async.AsyncResult;
+import org.apache.axis2.client.async.Callback;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.transport.base.BaseConstants;
+import org.apache.axis2.transport.base.ManagementSupport;
+import org.apache.axis2.transport.base.TransportView;
+import org.apache.axis2.util.Utils;
+
+import javax.xml.namespace.QName;
+
+/**
+ * Sends a compressed request to a service that enables compression, and checks that the
+ * response is compressed as well and that both are counted by the TCP transport views.
+ */
+public class TCPCompressionTest extends TestCase {
+    private EndpointReference targetEPR =
+            new EndpointReference("tcp://127.0.0.1:"
+                    + (UtilsTCPServer.TESTING_PORT)
+                    + "/axis2/services/EchoXMLService/echoOMElement");
+    private QName serviceName = new QName("EchoXMLService");
+    private QName operationName = new QName("echoOMElement");
+
+    private AxisService clientService;
+    private ConfigurationContext configContext;
+
+    protected void setUp() throws Exception {
+        UtilsTCPServer.start();
+
+        AxisService service = Utils.createSimpleService(serviceName,
+                                                        Echo.class.getName(),
+                                                        operationName);
+        service.addParameter(new Parameter(TCPConstants.PARAM_COMPRESSION,
+                                           BaseConstants.COMPRESSION_GZIP));
+        service.addParameter(new Parameter(TCPConstants.PARAM_COMPRESSION_THRESHOLD, "0"));
+        UtilsTCPServer.deployService(service);
+        clientService = Utils.createSimpleServiceforClient(serviceName,
+                                                           Echo.class.getName(),
+                                                           operationName);
+        configContext = UtilsTCPServer.createClientConfigurationContext();
+    }
+
+    protected void tearDown() throws Exception {
+        UtilsTCPServer.unDeployService(serviceName);
+        UtilsTCPServer.stop();
+        configContext.terminate();
+    }
+
+    private OMElement createPayload(String text) {
+        OMFactory fac = OMAbstractFactory.getOMFactory();
+        OMNamespace omNs = fac.createOMNamespace("http://localhost/my", "my");
+        OMElement method = fac.createOMElement("echoOMElement", omNs);
+        OMElement value = fac.createOMElement("myValue", omNs);
+        value.addChild(fac.createOMText(value, text));
+        method.addChild(value);
+        return method;
+    }
+
+    public void testCompressedEcho() throws Exception {
+        StringBuffer text = new StringBuffer();
+        for (int i = 0; i < 100; i++) {
+            text.append("Isaac Asimov, The Foundation Trilogy. ");
+        }
+
+        Options options = new Options();
+        options.setTo(targetEPR);
+        options.setTransportInProtocol(Constants.TRANSPORT_TCP);
+        options.setAction(Constants.AXIS2_NAMESPACE_URI + "/" + operationName.getLocalPart());
+        options.setProperty(TCPConstants.PARAM_COMPRESSION, BaseConstants.COMPRESSION_GZIP);
+        options.setProperty(TCPConstants.PARAM_COMPRESSION_THRESHOLD, "0");
+
+        final Object[] response = new Object[1];
+        Callback callback = new Callback() {
+            public void onComplete(AsyncResult result) {
+                synchronized (response) {
+                    response[0] = result.getResponseEnvelope().getBody().getFirstElement()
+                            .getFirstElement().getText();
+                    response.notifyAll();
+                }
+            }
+
+            public void onError(Exception e) {
+                synchronized (response) {
+                    response[0] = e;
+                    response.notifyAll();
+                }
+            }
+        };
+
+        ServiceClient sender = new ServiceClient(configContext, clientService);
+        sender.setOptions(options);
+        sender.sendReceiveNonBlocking(operationName, createPayload(text.toString()), callback);
+        synchronized (response) {
+            if (response[0] == null) {
+                response.wait(10000);
+            }
+        }
+        sender.cleanup();
+        if (response[0] instanceof Exception) {
+            throw (Exception) response[0];
+        }
+        assertEquals(text.toString(), response[0]);
+
+        TransportView listenerView = new TransportView(UtilsTCPServer.getReceiver(), null);
+        assertEquals(1, listenerView.getCompressedMessagesReceived());
+        assertTrue(listenerView.getCompressedBytesReceived() > 0);
+        assertTrue(listenerView.getCompressedBytesReceived()
+                < listenerView.getUncompressedBytesReceived());
+        assertTrue(listenerView.getCompressionRatioReceived() > 1);
+
+        // the response is compressed by the transport sender of the server
+        ManagementSupport responseSender = (ManagementSupport) UtilsTCPServer.getReceiver()
+                .getConfigurationContext().getAxisConfiguration()
+                .getTransportOut(Constants.TRANSPORT_TCP).getSender();
+        assertEquals(1, responseSender.getCompressedMessagesSent());
+        assertTrue(responseSender.getCompressedBytesSent()
+                < responseSender.getUncompressedBytesSent());
+
+        ManagementSupport requestSender = (ManagementSupport) configContext
+                .getAxisConfiguration().getTransportOut(Constants.TRANSPORT_TCP).getSender();
+        assertEquals(1, requestSender.getCompressedMessagesSent());
+    }
+}
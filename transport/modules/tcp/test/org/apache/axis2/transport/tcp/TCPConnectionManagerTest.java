@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.axis2.transport.tcp;
+
+import junit.framework.TestCase;
+import org.apache.axis2.transport.base.BaseConstants;
+
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Tests the connection limits and the idle connection reaper of TCPServer.
+ */
+public class TCPConnectionManagerTest extends TestCase {
+    private TCPServer server;
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            UtilsTCPServer.stopServer(server);
+        }
+    }
+
+    public void testMaxConnections() throws Exception {
+        server = UtilsTCPServer.startServer(new String[][] {
+                { TCPConstants.PARAM_MAX_CONNECTIONS, "2" } });
+        int port = UtilsTCPServer.getPort(server);
+        TCPConnectionManager connectionManager = server.getConnectionManager();
+
+        Socket first = new Socket("127.0.0.1", port);
+        Socket second = new Socket("127.0.0.1", port);
+        Socket third = new Socket("127.0.0.1", port);
+        try {
+            TCPServerTest.assertClosedByServer(third);
+            TCPServerTest.assertOpen(first);
+            TCPServerTest.assertOpen(second);
+            assertEquals(2, connectionManager.getCurrentConnections());
+            assertEquals(2, connectionManager.getPeakConnections());
+            assertEquals(1, connectionManager.getRejectedConnections());
+        } finally {
+            third.close();
+            second.close();
+            first.close();
+        }
+    }
+
+    public void testMaxConnectionsPerAddress() throws Exception {
+        server = UtilsTCPServer.startServer(new String[][] {
+                { TCPConstants.PARAM_MAX_CONNECTIONS_PER_ADDRESS, "1" } });
+        int port = UtilsTCPServer.getPort(server);
+        TCPConnectionManager connectionManager = server.getConnectionManager();
+
+        Socket first = new Socket("127.0.0.1", port);
+        Socket second = new Socket("127.0.0.1", port);
+        try {
+            TCPServerTest.assertClosedByServer(second);
+            TCPServerTest.assertOpen(first);
+            assertEquals(1, connectionManager.getCurrentConnections());
+            assertEquals(1, connectionManager.getRejectedConnections());
+        } finally {
+            second.close();
+            first.close();
+        }
+
+        // the slot is released once the connection has been processed
+        waitForConnections(0);
+        Socket third = new Socket("127.0.0.1", port);
+        try {
+            TCPServerTest.assertOpen(third);
+        } finally {
+            third.close();
+        }
+    }
+
+    public void testIdleConnectionIsClosed() throws Exception {
+        server = UtilsTCPServer.startServer(new String[][] {
+                { TCPConstants.PARAM_IDLE_TIMEOUT, "300" } });
+        TCPConnectionManager connectionManager = server.getConnectionManager();
+
+        Socket socket = new Socket("127.0.0.1", UtilsTCPServer.getPort(server));
+        try {
+            // the server sends a fault for the truncated message before closing the socket
+            socket.setSoTimeout(5000);
+            long start = System.currentTimeMillis();
+            TCPServerTest.readFully(socket);
+            assertTrue(System.currentTimeMillis() - start >= 300);
+        } finally {
+            socket.close();
+        }
+        assertEquals(1, connectionManager.getIdleConnectionsClosed());
+        waitForConnections(0);
+    }
+
+    public void testQueuedConnectionIsClosed() throws Exception {
+        server = UtilsTCPServer.startServer(new String[][] {
+                { BaseConstants.PARAM_WORKER_POOL_CORE_SIZE, "1" },
+                { BaseConstants.PARAM_WORKER_POOL_MAX_SIZE, "1" },
+                { BaseConstants.PARAM_WORKER_POOL_QUEUE_LENGTH, "5" },
+                { TCPConstants.PARAM_IDLE_TIMEOUT, "500" } });
+        int port = UtilsTCPServer.getPort(server);
+
+        Socket active = new Socket("127.0.0.1", port);
+        Thread.sleep(200);
+        Socket queued = new Socket("127.0.0.1", port);
+        try {
+            // keep the only worker busy without letting its connection become idle
+            OutputStream out = active.getOutputStream();
+            for (int i = 0; i < 20; i++) {
+                out.write(' ');
+                out.flush();
+                Thread.sleep(100);
+            }
+            TCPServerTest.assertClosedByServer(queued);
+            TCPServerTest.assertOpen(active);
+            assertEquals(1, server.getConnectionManager().getIdleConnectionsClosed());
+        } finally {
+            queued.close();
+            active.close();
+        }
+    }
+
+    private void waitForConnections(int connections) throws InterruptedException {
+        TCPConnectionManager connectionManager = server.getConnectionManager();
+        for (int i = 0; i < 50 && connectionManager.getCurrentConnections() != connections; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(connections, connectionManager.getCurrentConnections());
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.axis2.transport.tcp;
+
+import junit.framework.TestCase;
+import org.apache.axis2.transport.base.BaseConstants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Tests the worker pool, metrics and management operations TCPServer inherits from
+ * AbstractTransportListener.
+ */
+public class TCPServerTest extends TestCase {
+    private TCPServer server;
+
+    protected void tearDown() throws Exception {
+        if (server != null) {
+            UtilsTCPServer.stopServer(server);
+        }
+    }
+
+    public void testConnectionRejectedWhenWorkerPoolIsFull() throws Exception {
+        server = UtilsTCPServer.startServer(new String[][] {
+                { BaseConstants.PARAM_WORKER_POOL_CORE_SIZE, "1" },
+                { BaseConstants.PARAM_WORKER_POOL_MAX_SIZE, "1" },
+                { BaseConstants.PARAM_WORKER_POOL_QUEUE_LENGTH, "1" } });
+        int port = UtilsTCPServer.getPort(server);
+
+        // the first connection keeps the only worker busy, the second one waits in the queue
+        Socket active = new Socket("127.0.0.1", port);
+        Thread.sleep(200);
+        Socket queued = new Socket("127.0.0.1", port);
+        Thread.sleep(200);
+        Socket rejected = new Socket("127.0.0.1", port);
+        try {
+            assertEquals(1, server.getQueueSize());
+            assertClosedByServer(rejected);
+            assertOpen(active);
+            assertOpen(queued);
+        } finally {
+            rejected.close();
+            queued.close();
+            active.close();
+        }
+    }
+
+    public void testMessagesAreCounted() throws Exception {
+        server = UtilsTCPServer.startServer(new String[0][]);
+        Socket socket = new Socket("127.0.0.1", UtilsTCPServer.getPort(server));
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write("this is not a SOAP message".getBytes("US-ASCII"));
+            socket.shutdownOutput();
+            // the server answers with a fault and closes the connection
+            assertTrue(readFully(socket) > 0);
+        } finally {
+            socket.close();
+        }
+        waitForFaults(1);
+        assertEquals(26, server.getBytesReceived());
+        assertEquals(0, server.getMessagesReceived());
+        assertTrue(server.getBytesSent() > 0);
+    }
+
+    public void testPauseAndResume() throws Exception {
+        server = UtilsTCPServer.startServer(new String[0][]);
+        int port = UtilsTCPServer.getPort(server);
+
+        server.pause();
+        try {
+            new Socket("127.0.0.1", port).close();
+            fail("A paused listener must not accept connections");
+        } catch (ConnectException e) {
+            // expected
+        }
+
+        server.resume();
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.shutdownOutput();
+            assertTrue(readFully(socket) > 0);
+        } finally {
+            socket.close();
+        }
+        waitForFaults(1);
+    }
+
+    public void testStopWhilePaused() throws Exception {
+        server = UtilsTCPServer.startServer(new String[0][]);
+        server.pause();
+        server.stop();
+
+        // the stopped listener opens a new server socket when it is started again
+        server.start();
+        assertEchoesFault(UtilsTCPServer.getPort(server));
+    }
+
+    public void testMaintenanceShutdownWaitsForActiveConnections() throws Exception {
+        server = UtilsTCPServer.startServer(new String[0][]);
+        final Socket active = new Socket("127.0.0.1", UtilsTCPServer.getPort(server));
+        Thread closer = new Thread() {
+            public void run() {
+                try {
+                    Thread.sleep(500);
+                    active.shutdownOutput();
+                } catch (Exception e) {
+                    // the shutdown below then times out and the test fails
+                }
+            }
+        };
+        try {
+            // wait until a worker is blocked reading the request
+            for (int i = 0; i < 50 && server.getActiveThreadCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(1, server.getActiveThreadCount());
+            closer.start();
+            long start = System.currentTimeMillis();
+            server.maintenenceShutdown(10000);
+            long duration = System.currentTimeMillis() - start;
+            assertTrue("Shutdown took " + duration + "ms", duration >= 400 && duration < 10000);
+            assertTrue(readFully(active) > 0);
+        } finally {
+            closer.join();
+            active.close();
+        }
+
+        // the worker pool terminated by the shutdown is replaced on restart
+        server.start();
+        assertEchoesFault(UtilsTCPServer.getPort(server));
+    }
+
+    private void assertEchoesFault(int port) throws IOException {
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.shutdownOutput();
+            assertTrue(readFully(socket) > 0);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void waitForFaults(long faults) throws InterruptedException {
+        // the metrics are updated after the response has been written
+        for (int i = 0; i < 50 && server.getFaultsReceiving() < faults; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(faults, server.getFaultsReceiving());
+    }
+
+    static int readFully(Socket socket) throws IOException {
+        socket.setSoTimeout(10000);
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int c;
+        while ((c = in.read(buffer)) != -1) {
+            total += c;
+        }
+        return total;
+    }
+
+    static void assertClosedByServer(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        try {
+            assertEquals(-1, socket.getInputStream().read());
+        } catch (SocketException e) {
+            // the connection may have been reset
+        }
+    }
+
+    static void assertOpen(Socket socket) throws IOException {
+        socket.setSoTimeout(300);
+        try {
+            socket.getInputStream().read();
+            fail("The connection has been closed by the server");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.apache.axis2.Constants;
 import org.apache.axis2.context.ConfigurationContext;
 import org.apache.axis2.context.ConfigurationContextFactory;
 import org.apache.axis2.description.AxisService;
+import org.apache.axis2.description.Parameter;
+import org.apache.axis2.description.TransportInDescription;
 import org.apache.axis2.transport.tcp.TCPServer;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +33,7 @@ import org.apache.commons.logging.LogFactory;
 import javax.xml.namespace.QName;
 import java.io.IOException;
 import java.io.File;
+import java.net.URI;
 
 public class UtilsTCPServer {
     private static int count = 0;
@@ -95,6 +98,10 @@ public class UtilsTCPServer {
         receiver.getConfigurationContext().terminate();
     }
 
+    public static TCPServer getReceiver() {
+        return receiver;
+    }
+
     public static ConfigurationContext createClientConfigurationContext() throws Exception {
         File file = new File(prefixBaseDirectory(Constants.TESTING_REPOSITORY));
         ConfigurationContext configContext = 
@@ -103,6 +110,41 @@ public class UtilsTCPServer {
         return configContext;
     }
 
+    /**
+     * Create and start a TCP listener on a free port, configured with the given transport
+     * parameters. Unlike {@link #start()}, each call creates a separate listener, which
+     * must be stopped using {@link #stopServer(TCPServer)}.
+     *
+     * @param params the names and values of the transport parameters
+     * @return the started listener
+     */
+    public static TCPServer startServer(String[][] params) throws Exception {
+        TCPServer server = new TCPServer();
+        TransportInDescription trsIn = new TransportInDescription(Constants.TRANSPORT_TCP);
+        trsIn.setReceiver(server);
+        trsIn.addParameter(new Parameter(TCPServer.PARAM_PORT, "0"));
+        for (String[] param : params) {
+            trsIn.addParameter(new Parameter(param[0], param[1]));
+        }
+        server.init(createClientConfigurationContext(), trsIn);
+        server.start();
+        return server;
+    }
+
+    public static void stopServer(TCPServer server) throws AxisFault {
+        ConfigurationContext cfgCtx = server.getConfigurationContext();
+        server.stop();
+        server.destroy();
+        cfgCtx.terminate();
+    }
+
+    /**
+     * Get the port a listener created by {@link #startServer(String[][])} is bound to.
+     */
+    public static int getPort(TCPServer server) throws AxisFault {
+        return URI.create(server.getEPRForService("test", "127.0.0.1").getAddress()).getPort();
+    }
+
     public static String prefixBaseDirectory(String path) {
         String baseDir;
         try {